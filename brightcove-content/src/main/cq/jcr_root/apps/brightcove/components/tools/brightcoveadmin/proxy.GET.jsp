@@ -136,15 +136,14 @@ try{
     /******************************************************************************
     * The last case is an incoming GET request that should be forwarded as a GET request.
     * We set useGet to true and concatenate the read token at the end of the parameter string.
-    * The JSTL  below sends the entire request and sends the response from the API server
-    * back to the client.
+    * The block below sends the entire request and sends the response from the API server
+    * back to the client, gzip compressed when the browser accepts it.
     *******************************************************************************/
     } else {
         useGet = true;
         bar = apiReadLoc + '?' + request.getQueryString() + "&token=" + apiReadToken;
         /************************************************************************************
-        *If you don't want to support JSTL, the block below duplicates the functionality of the JSTL block 
-        *at the bottom of this document. It might be faster to use JSTL but this hasn't been verified.
+        *The block below is the old commons-httpclient version of the proxy call, kept for reference.
         *************************************************************************************/
         /*HttpClient client = new HttpClient();
         HttpMethod getreq = new GetMethod(bar);
@@ -156,13 +155,16 @@ try{
         out.print( "Get Failed, error: " + getreq.getStatusLine());
         getreq.releaseConnection();
         }*/
+        // Written straight to the response stream so the API's gzip body can be passed through untouched
+        BrcUtils.proxyRead(bar, request, response);
     }
 } catch(Exception e){
-    out.write("{\"error\": \"Proxy Error, please check your tomcat logs.\", \"result\":null, \"id\": null}");
+    logger.error("Proxy request failed: '" + e + "'.");
+    if (!response.isCommitted()) {
+        // Drops any headers set for the proxied body, and the choice of output stream
+        response.reset();
+        response.setContentType("application/json");
+        out.write("{\"error\": \"Proxy Error, please check your tomcat logs.\", \"result\":null, \"id\": null}");
+    }
 }
-
-%>
-<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
-<c:if test="<%=useGet%>" >
-<c:import url="<%=bar%>" />
-</c:if>
\ No newline at end of file
+%>
\ No newline at end of file
@@ -36,8 +36,14 @@ public class BrcApi extends SlingAllMethodsServlet {
 	public void api(final SlingHttpServletRequest request,
             final SlingHttpServletResponse response) throws ServletException,
             IOException {
-		PrintWriter outWriter = response.getWriter();
 		response.setContentType("application/json");
+		if ("3".equals(request.getParameter("a"))) {
+			// CSV export - set the headers before the (possibly gzip) writer is opened
+			response.reset();
+			response.setHeader("Content-type","application/xls");
+			response.setHeader("Content-disposition","inline; filename=Brightcove_Library_Export.csv");
+		}
+		PrintWriter outWriter = BrcUtils.getResponseWriter(request, response);
 		JSONObject root = new JSONObject();
 		
 		BrcService brcService = BrcUtils.getSlingSettingService();
@@ -47,7 +53,6 @@ public class BrcApi extends SlingAllMethodsServlet {
 		int requestedAPI = 0;
 		String requestedToken="";
 		if (request.getParameter("a") != null) {
-		    response.setContentType("application/json");
 
 		    requestedAPI = Integer.parseInt(request.getParameter("a"));
 		    //if (request.getParameter("t") != null) {
@@ -67,9 +72,6 @@ public class BrcApi extends SlingAllMethodsServlet {
 		            	}
 		                break;
 		            case 3:
-		                response.reset();
-		                response.setHeader("Content-type","application/xls");
-		                response.setHeader("Content-disposition","inline; filename=Brightcove_Library_Export.csv");
 		                //out.write(getListCSV("c9hG9CFjGaY6mguNiD7BKaYBZ2YCrCdoMlgV1y8LRgKNKgl-38duog.."));
 		                outWriter.write(BrcUtils.getList(ReadToken,"name,id,thumbnailURL",true,request.getParameter("query")));
 		                break;
@@ -99,6 +101,7 @@ public class BrcApi extends SlingAllMethodsServlet {
 		} else {
 			outWriter.write("{\"items\":[],\"results\":0}");
 		}
+		outWriter.close();
 
 	}
 	
@@ -0,0 +1,385 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.cache.PlaylistCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.SecondLevelStore;
+import com.brightcove.proserve.mediaapi.wrapper.cache.VideoCache;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import javax.jcr.query.QueryManager;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the shared video and playlist caches in the repository, under /var/brightcove/cache by
+ * default, so that an instance starts with a warm cache after a restart or deploy.
+ *
+ * Records are stored as <root>/<region>/<bucket>/<id>/<variant> with the JSON of the video or
+ * playlist, its expiry and the ids it references. Reads go straight to the repository on an
+ * in-memory miss. Writes and removals are queued and applied on a background thread, many to
+ * a session save, and expired records are removed by a periodic sweep. Records are found by
+ * the ids they reference through the brightcoveCacheReferences Oak index.
+ */
+@Component(	immediate=true,
+			label="Brightcove Persistent Cache",
+			description="Keeps cached videos and playlists in the repository so they survive restarts",
+			metatype = true
+			)
+@Properties({
+	@Property(name="enabled", label="Enabled", description="Keep cached videos and playlists in the repository", boolValue=true),
+	@Property(name="rootPath", label="Root Path", description="Repository path the cache is kept under", value="/var/brightcove/cache"),
+	@Property(name="flushInterval", label="Flush Interval", description="How often queued writes are saved to the repository (ms)", longValue=5000),
+	@Property(name="flushBatchSize", label="Flush Batch Size", description="Most queued writes saved in one session save; a full batch is saved straight away", intValue=500),
+	@Property(name="maxPending", label="Max Queued Writes", description="Writes queued beyond this are dropped (removals are always kept)", intValue=20000),
+	@Property(name="cleanupInterval", label="Cleanup Interval", description="How often expired records are removed from the repository (ms)", longValue=3600000)
+})
+public class BrcCacheStore implements SecondLevelStore {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcCacheStore.class);
+
+	private static final String NT_UNSTRUCTURED = "nt:unstructured";
+	private static final String PROP_DATA = "data";
+	private static final String PROP_EXPIRES_AT = "expiresAt";
+	private static final String PROP_REFERENCES = "references";
+	private static final int BUCKETS = 1000;
+	private static final int REFERENCES_PER_QUERY = 50;
+
+	@Reference
+	private SlingRepository repository;
+
+	private String rootPath = "/var/brightcove/cache";
+	private int flushBatchSize = 500;
+	private int maxPending = 20000;
+
+	private ScheduledExecutorService executor;
+	private final ConcurrentLinkedQueue<Op> pending = new ConcurrentLinkedQueue<Op>();
+	private final AtomicInteger pendingCount = new AtomicInteger();
+	private final AtomicBoolean flushQueued = new AtomicBoolean();
+
+	/**
+	 * A queued change, applied to the repository on the background thread.
+	 */
+	private abstract static class Op {
+		abstract void apply(Session session, String rootPath) throws RepositoryException;
+	}
+
+	@Activate
+	void activate(ComponentContext componentContext) {
+		Dictionary<?, ?> props = componentContext.getProperties();
+		if (!Boolean.valueOf(String.valueOf(get(props, "enabled", "true")))) {
+			loggerVar.info("Persistent Brightcove cache is disabled");
+			return;
+		}
+		rootPath = String.valueOf(get(props, "rootPath", rootPath));
+		flushBatchSize = Math.max(1, Integer.valueOf(String.valueOf(get(props, "flushBatchSize", flushBatchSize))));
+		maxPending = Integer.valueOf(String.valueOf(get(props, "maxPending", maxPending)));
+		long flushInterval = Long.valueOf(String.valueOf(get(props, "flushInterval", 5000l)));
+		long cleanupInterval = Long.valueOf(String.valueOf(get(props, "cleanupInterval", 3600000l)));
+
+		executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "brightcove-cache-store");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				flush();
+			}
+		}, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+		executor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				removeExpired();
+			}
+		}, cleanupInterval, cleanupInterval, TimeUnit.MILLISECONDS);
+
+		VideoCache.getShared().setSecondLevelStore(this);
+		PlaylistCache.getShared().setSecondLevelStore(this);
+	}
+
+	@Deactivate
+	void deactivate(ComponentContext componentContext) {
+		if (VideoCache.getShared().getSecondLevelStore() == this) {
+			VideoCache.getShared().setSecondLevelStore(null);
+		}
+		if (PlaylistCache.getShared().getSecondLevelStore() == this) {
+			PlaylistCache.getShared().setSecondLevelStore(null);
+		}
+		if (executor != null) {
+			executor.shutdown();
+			try {
+				executor.awaitTermination(10, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			executor = null;
+			// Whatever is still queued is saved before the repository goes away
+			flush();
+		}
+	}
+
+	private static Object get(Dictionary<?, ?> props, String name, Object defaultValue) {
+		Object value = props.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	public Record read(String region, Long id, String variant) {
+		Session session = null;
+		try {
+			// Reads only happen on in-memory misses, so a session per read is cheap enough
+			session = repository.loginAdministrative(null);
+			String path = idPath(rootPath, region, id) + "/" + variant;
+			if (!session.nodeExists(path)) {
+				return null;
+			}
+			Node node = session.getNode(path);
+			long expiresAt = node.getProperty(PROP_EXPIRES_AT).getLong();
+			if (expiresAt <= System.currentTimeMillis()) {
+				return null;
+			}
+			return new Record(node.getProperty(PROP_DATA).getString(), expiresAt);
+		} catch (RepositoryException e) {
+			loggerVar.debug("Couldn't read cached " + region + " " + id, e);
+			return null;
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	public void write(final String region, final Long id, final String variant, final String data, final Long expiresAt, Collection<Long> references) {
+		if (pendingCount.get() >= maxPending) {
+			// Only the persisted copy is lost - the value is still cached in memory
+			return;
+		}
+		final String[] refs = new String[references.size()];
+		int i = 0;
+		for (Long reference : references) {
+			refs[i++] = String.valueOf(reference);
+		}
+		enqueue(new Op() {
+			void apply(Session session, String rootPath) throws RepositoryException {
+				Node node = getOrAdd(getOrAddPath(session, idPath(rootPath, region, id)), variant);
+				node.setProperty(PROP_DATA, data);
+				node.setProperty(PROP_EXPIRES_AT, expiresAt);
+				node.setProperty(PROP_REFERENCES, refs);
+			}
+		});
+	}
+
+	public void remove(final String region, Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return;
+		}
+		final List<Long> idList = new ArrayList<Long>(ids);
+		enqueue(new Op() {
+			void apply(Session session, String rootPath) throws RepositoryException {
+				for (Long id : idList) {
+					String path = idPath(rootPath, region, id);
+					if (session.nodeExists(path)) {
+						session.getNode(path).remove();
+					}
+				}
+			}
+		});
+	}
+
+	public void removeReferencing(final String region, Collection<Long> references) {
+		if (references.isEmpty()) {
+			return;
+		}
+		final List<Long> refList = new ArrayList<Long>(references);
+		enqueue(new Op() {
+			void apply(Session session, String rootPath) throws RepositoryException {
+				String regionPath = rootPath + "/" + region;
+				if (!session.nodeExists(regionPath)) {
+					return;
+				}
+				// Queries only see saved content, so records written earlier in this batch are saved first
+				if (session.hasPendingChanges()) {
+					session.save();
+				}
+				QueryManager queryManager = session.getWorkspace().getQueryManager();
+				for (int start = 0; start < refList.size(); start += REFERENCES_PER_QUERY) {
+					StringBuilder condition = new StringBuilder();
+					for (Long reference : refList.subList(start, Math.min(start + REFERENCES_PER_QUERY, refList.size()))) {
+						if (condition.length() > 0) {
+							condition.append(" OR ");
+						}
+						condition.append("n.[").append(PROP_REFERENCES).append("] = '").append(reference).append("'");
+					}
+					String statement = "SELECT * FROM [" + NT_UNSTRUCTURED + "] AS n WHERE ISDESCENDANTNODE(n, [" + regionPath + "]) AND (" + condition + ")";
+					removeAll(queryManager.createQuery(statement, Query.JCR_SQL2).execute().getNodes());
+				}
+			}
+		});
+	}
+
+	public void removeAll(final String region) {
+		enqueue(new Op() {
+			void apply(Session session, String rootPath) throws RepositoryException {
+				String regionPath = rootPath + "/" + region;
+				if (session.nodeExists(regionPath)) {
+					session.getNode(regionPath).remove();
+				}
+			}
+		});
+	}
+
+	private void enqueue(Op op) {
+		pending.add(op);
+		if (pendingCount.incrementAndGet() >= flushBatchSize && flushQueued.compareAndSet(false, true)) {
+			ScheduledExecutorService current = executor;
+			if (current != null) {
+				try {
+					current.execute(new Runnable() {
+						public void run() {
+							flushQueued.set(false);
+							flush();
+						}
+					});
+				} catch (RuntimeException e) {
+					flushQueued.set(false);
+				}
+			} else {
+				flushQueued.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Applies the queued changes, saving the session once per batch. A batch that can't be
+	 * saved is dropped: the memory cache is unaffected and the records expire anyway.
+	 */
+	void flush() {
+		if (pending.isEmpty()) {
+			return;
+		}
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			while (!pending.isEmpty()) {
+				int applied = 0;
+				Op op;
+				while (applied < flushBatchSize && (op = pending.poll()) != null) {
+					pendingCount.decrementAndGet();
+					applied++;
+					try {
+						op.apply(session, rootPath);
+					} catch (RepositoryException e) {
+						loggerVar.debug("Couldn't apply cache change", e);
+					}
+				}
+				try {
+					session.save();
+				} catch (RepositoryException e) {
+					loggerVar.warn("Couldn't save " + applied + " cache changes: " + e.getMessage());
+					session.refresh(false);
+				}
+			}
+		} catch (RepositoryException e) {
+			loggerVar.warn("Couldn't save cache changes: " + e.getMessage());
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Removes every record past its expiry, saving once per batch.
+	 */
+	void removeExpired() {
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			if (!session.nodeExists(rootPath)) {
+				return;
+			}
+			String statement = "SELECT * FROM [" + NT_UNSTRUCTURED + "] AS n WHERE ISDESCENDANTNODE(n, [" + rootPath + "]) AND n.["
+					+ PROP_EXPIRES_AT + "] < " + System.currentTimeMillis();
+			Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+			query.setLimit(flushBatchSize);
+			int removed = 0;
+			int found;
+			do {
+				found = removeAll(query.execute().getNodes());
+				session.save();
+				removed += found;
+			} while (found >= flushBatchSize);
+			if (removed > 0) {
+				loggerVar.info("Removed " + removed + " expired records from " + rootPath);
+			}
+		} catch (RepositoryException e) {
+			loggerVar.warn("Couldn't remove expired cache records: " + e.getMessage());
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Removes the nodes, and the id nodes they leave empty.
+	 *
+	 * @return Number of nodes removed
+	 */
+	private static int removeAll(NodeIterator nodes) throws RepositoryException {
+		List<Node> found = new ArrayList<Node>();
+		while (nodes.hasNext()) {
+			found.add(nodes.nextNode());
+		}
+		for (Node node : found) {
+			Node parent = node.getParent();
+			node.remove();
+			if (!parent.hasNodes()) {
+				parent.remove();
+			}
+		}
+		return found.size();
+	}
+
+	private static String idPath(String rootPath, String region, Long id) {
+		return rootPath + "/" + region + "/" + (Math.abs(id) % BUCKETS) + "/" + id;
+	}
+
+	private static Node getOrAddPath(Session session, String path) throws RepositoryException {
+		Node node = session.getRootNode();
+		for (String name : path.split("/")) {
+			if (name.length() > 0) {
+				node = getOrAdd(node, name);
+			}
+		}
+		return node;
+	}
+
+	private static Node getOrAdd(Node parent, String name) throws RepositoryException {
+		if (parent.hasNode(name)) {
+			return parent.getNode(name);
+		}
+		return parent.addNode(name, NT_UNSTRUCTURED);
+	}
+}
@@ -0,0 +1,160 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.cache.CacheWarmer;
+import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+import java.util.Dictionary;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Warms the shared video and playlist caches after activation, so that the first requests
+ * after a restart or deploy don't wait on the Media API.
+ *
+ * A background thread at the lowest priority finds the brightcovevideo and brightcoveplaylist
+ * components under the search path, and reads the videos (videoPlayer) and playlists
+ * (videoPlayerPL) they show with the same fields as BrcUtils and BrcImageApi look them up
+ * with, in batches with a pause in between. How long it took and how many of the ids it
+ * could read are logged, and kept for {@link #getLastReport()}.
+ */
+@Component(	immediate=true,
+			label="Brightcove Cache Warmup",
+			description="Reads the videos and playlists used on pages into the caches after a restart",
+			metatype = true
+			)
+@Properties({
+	@Property(name="enabled", label="Enabled", description="Warm the caches after activation", boolValue=true),
+	@Property(name="searchPath", label="Search Path", description="Repository path searched for Brightcove components", value="/content"),
+	@Property(name="startDelay", label="Start Delay", description="How long to wait after activation before warming up, to leave startup to other work (ms)", longValue=30000),
+	@Property(name="batchPause", label="Batch Pause", description="Pause between batches of ids (ms)", longValue=100),
+	@Property(name="maxIds", label="Max Ids", description="Most video and playlist ids read, each; the rest are read when first asked for", intValue=5000)
+})
+public class BrcCacheWarmup {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcCacheWarmup.class);
+
+	static final String VIDEO_RESOURCE_TYPE = "brightcove/components/content/brightcovevideo";
+	static final String PLAYLIST_RESOURCE_TYPE = "brightcove/components/content/brightcoveplaylist";
+	static final String PROP_VIDEO = "videoPlayer";
+	static final String PROP_PLAYLIST = "videoPlayerPL";
+
+	@Reference
+	private SlingRepository repository;
+
+	@Reference
+	private BrcService brcService;
+
+	private Thread thread;
+	private volatile CacheWarmer.Report lastReport;
+
+	@Activate
+	void activate(ComponentContext componentContext) {
+		Dictionary<?, ?> props = componentContext.getProperties();
+		if (!Boolean.valueOf(String.valueOf(get(props, "enabled", "true")))) {
+			return;
+		}
+		final String searchPath = String.valueOf(get(props, "searchPath", "/content"));
+		final long startDelay = Long.valueOf(String.valueOf(get(props, "startDelay", 30000l)));
+		final long batchPause = Long.valueOf(String.valueOf(get(props, "batchPause", CacheWarmer.DEFAULT_PAUSE)));
+		final int maxIds = Integer.valueOf(String.valueOf(get(props, "maxIds", 5000)));
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(startDelay);
+					warm(searchPath, batchPause, maxIds);
+				} catch (InterruptedException e) {
+					loggerVar.info("Brightcove cache warmup stopped");
+				}
+			}
+		}, "brightcove-cache-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.start();
+	}
+
+	@Deactivate
+	void deactivate(ComponentContext componentContext) {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	private void warm(String searchPath, long batchPause, int maxIds) throws InterruptedException {
+		String readToken = brcService.getReadToken();
+		if (readToken == null || readToken.trim().length() == 0) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		Set<Long> videoIds = new LinkedHashSet<Long>();
+		Set<Long> playlistIds = new LinkedHashSet<Long>();
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			findIds(session, searchPath, VIDEO_RESOURCE_TYPE, PROP_VIDEO, maxIds, videoIds);
+			findIds(session, searchPath, PLAYLIST_RESOURCE_TYPE, PROP_PLAYLIST, maxIds, playlistIds);
+		} catch (RepositoryException e) {
+			loggerVar.warn("Couldn't find the Brightcove components to warm the caches with", e);
+			return;
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+		long searched = System.currentTimeMillis() - start;
+
+		// The lookups the components and servlets make - see BrcUtils
+		CacheWarmer warmer = new CacheWarmer(new ReadApi(LoggerFactory.getLogger("Brightcove")), readToken);
+		warmer.addVideoQuery(BrcUtils.LISTED_VIDEOS_BY_IDS_QUERY);
+		warmer.addVideoQuery(BrcUtils.NAME_LENGTH_QUERY);
+		warmer.addVideoQuery(BrcUtils.VIDEO_STILL_QUERY);
+		warmer.addPlaylistFields(BrcUtils.getListedVideoFields(), CollectionUtils.CreateEmptyStringSet(), BrcUtils.getListedPlaylistFields());
+		warmer.setPause(batchPause);
+
+		lastReport = warmer.warm(videoIds, playlistIds);
+		loggerVar.info("Brightcove cache warmup: " + lastReport + " (" + searched + "ms finding the ids under " + searchPath + ")");
+	}
+
+	private static void findIds(Session session, String searchPath, String resourceType, String property, int maxIds, Set<Long> ids) throws RepositoryException {
+		String statement = "SELECT * FROM [nt:base] AS c WHERE ISDESCENDANTNODE(c, [" + searchPath + "])"
+				+ " AND c.[sling:resourceType] = '" + resourceType + "' AND c.[" + property + "] IS NOT NULL";
+		Query query = session.getWorkspace().getQueryManager().createQuery(statement, Query.JCR_SQL2);
+		NodeIterator nodes = query.execute().getNodes();
+		while (nodes.hasNext() && ids.size() < maxIds) {
+			Node node = nodes.nextNode();
+			String value = node.getProperty(property).getString().trim();
+			if (BrcUtils.isLong(value)) {
+				ids.add(Long.valueOf(value));
+			}
+		}
+	}
+
+	/**
+	 * @return What the last warmup read and how long it took, or null if none has finished
+	 */
+	public CacheWarmer.Report getLastReport() {
+		return lastReport;
+	}
+
+	private static Object get(Dictionary<?, ?> props, String name, Object defaultValue) {
+		Object value = props.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+}
@@ -0,0 +1,380 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogSnapshot;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogSync;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogVideo;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.SyncedCatalog;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.PropertyType;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Dictionary;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Mirrors the catalog published by the catalog sync into the repository, under
+ * /var/brightcove/catalog by default, so that site search, reports and components can query
+ * video and playlist metadata with JCR-SQL2 instead of calling the Media API per item.
+ *
+ * Videos are stored as <root>/videos/<bucket>/<id> and playlists as <root>/playlists/<id>,
+ * nt:unstructured nodes with the properties below; the Oak indexes for them are installed
+ * with the content package under /oak:index/brightcove*. Each new catalog version is compared
+ * with the one mirrored before, and only the properties that differ are written, many nodes
+ * to a session save.
+ */
+@Component(	immediate=true,
+			label="Brightcove Catalog Mirror",
+			description="Mirrors the synced video and playlist catalog into the repository for JCR queries",
+			metatype = true
+			)
+@Service(Runnable.class)
+@Properties({
+	@Property(name="enabled", label="Enabled", description="Mirror the catalog into the repository", boolValue=true),
+	@Property(name="scheduler.period", label="Mirror Period", description="Seconds between checks for a newly synced catalog", longValue=60),
+	@Property(name="scheduler.concurrent", boolValue=false, propertyPrivate=true),
+	@Property(name="rootPath", label="Root Path", description="Repository path the catalog is mirrored under", value="/var/brightcove/catalog"),
+	@Property(name="batchSize", label="Batch Size", description="Most nodes changed in one session save", intValue=500)
+})
+public class BrcCatalogMirror implements Runnable {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcCatalogMirror.class);
+
+	private static final String NT_UNSTRUCTURED = "nt:unstructured";
+	private static final String VIDEOS = "videos";
+	private static final String PLAYLISTS = "playlists";
+	private static final int BUCKETS = 1000;
+
+	public static final String PROP_VIDEO_ID = "videoId";
+	public static final String PROP_PLAYLIST_ID = "playlistId";
+	public static final String PROP_REFERENCE_ID = "referenceId";
+	public static final String PROP_NAME = "name";
+	public static final String PROP_SHORT_DESCRIPTION = "shortDescription";
+	public static final String PROP_TAGS = "tags";
+	public static final String PROP_CREATION_DATE = "creationDate";
+	public static final String PROP_PUBLISHED_DATE = "publishedDate";
+	public static final String PROP_LAST_MODIFIED_DATE = "lastModifiedDate";
+	public static final String PROP_ITEM_STATE = "itemState";
+	public static final String PROP_THUMBNAIL_URL = "thumbnailURL";
+	public static final String PROP_LENGTH = "length";
+	public static final String PROP_PLAYS_TOTAL = "playsTotal";
+	public static final String PROP_VIDEO_IDS = "videoIds";
+	public static final String PROP_PLAYLIST_TYPE = "playlistType";
+
+	@Reference
+	private SlingRepository repository;
+
+	private boolean enabled = true;
+	private String rootPath = "/var/brightcove/catalog";
+	private int batchSize = 500;
+	private SyncedCatalog mirrored;
+
+	@Activate
+	void activate(ComponentContext componentContext) {
+		Dictionary<?, ?> props = componentContext.getProperties();
+		enabled = Boolean.valueOf(String.valueOf(get(props, "enabled", "true")));
+		rootPath = String.valueOf(get(props, "rootPath", rootPath));
+		batchSize = Math.max(1, Integer.valueOf(String.valueOf(get(props, "batchSize", batchSize))));
+		// The first mirror after activation checks every node against the catalog
+		mirrored = null;
+	}
+
+	private static Object get(Dictionary<?, ?> props, String name, Object defaultValue) {
+		Object value = props.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	public synchronized void run() {
+		if (!enabled) {
+			return;
+		}
+		String readToken;
+		try {
+			BrcService brcService = BrcUtils.getSlingSettingService();
+			readToken = (brcService == null) ? null : brcService.getReadToken();
+		} catch (Exception e) {
+			loggerVar.debug("Brightcove service not available yet", e);
+			return;
+		}
+		SyncedCatalog catalog = CatalogSync.getCurrent(readToken);
+		if (catalog == null || (mirrored != null && mirrored.getVersion() == catalog.getVersion())) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			Batch batch = new Batch(session);
+			mirrorVideos(batch, catalog.getVideos(), (mirrored == null) ? null : mirrored.getVideos());
+			mirrorPlaylists(batch, catalog.getPlaylists());
+			batch.save();
+			mirrored = catalog;
+			loggerVar.info("Mirrored catalog " + catalog + ": " + batch.changed + " nodes changed, " + batch.removed
+					+ " removed in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (RepositoryException e) {
+			// Whatever was saved stays; the next run compares every node again
+			mirrored = null;
+			loggerVar.error("Couldn't mirror the catalog", e);
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	/**
+	 * Changes made in one session, saved every batchSize nodes.
+	 */
+	private class Batch {
+		final Session session;
+		int pending;
+		int changed;
+		int removed;
+
+		Batch(Session session) {
+			this.session = session;
+		}
+
+		void changed() throws RepositoryException {
+			changed++;
+			touched();
+		}
+
+		void removed(Node node) throws RepositoryException {
+			node.remove();
+			removed++;
+			touched();
+		}
+
+		private void touched() throws RepositoryException {
+			if (++pending >= batchSize) {
+				save();
+			}
+		}
+
+		void save() throws RepositoryException {
+			if (session.hasPendingChanges()) {
+				session.save();
+			}
+			pending = 0;
+		}
+	}
+
+	private void mirrorVideos(Batch batch, CatalogSnapshot videos, CatalogSnapshot previous) throws RepositoryException {
+		for (CatalogVideo video : videos) {
+			Map<String, Object> properties = videoProperties(video);
+			if (previous != null) {
+				CatalogVideo before = previous.get(video.getId());
+				if (before != null && videoProperties(before).equals(properties)) {
+					continue;
+				}
+			}
+			Node node = getOrAdd(getOrAddPath(batch.session, videoParentPath(video.getId())), String.valueOf(video.getId()));
+			if (setAll(node, properties)) {
+				batch.changed();
+			}
+		}
+
+		if (previous != null) {
+			for (CatalogVideo video : previous) {
+				if (videos.get(video.getId()) == null) {
+					String path = videoParentPath(video.getId()) + "/" + video.getId();
+					if (batch.session.nodeExists(path)) {
+						batch.removed(batch.session.getNode(path));
+					}
+				}
+			}
+		} else if (batch.session.nodeExists(rootPath + "/" + VIDEOS)) {
+			for (NodeIterator buckets = batch.session.getNode(rootPath + "/" + VIDEOS).getNodes(); buckets.hasNext(); ) {
+				List<Node> gone = new ArrayList<Node>();
+				for (NodeIterator nodes = buckets.nextNode().getNodes(); nodes.hasNext(); ) {
+					Node node = nodes.nextNode();
+					Long id = parseId(node.getName());
+					// Only video nodes are ours to remove - anything else in a bucket is left alone
+					if (id != null && videos.get(id) == null) {
+						gone.add(node);
+					}
+				}
+				for (Node node : gone) {
+					batch.removed(node);
+				}
+			}
+		}
+	}
+
+	private void mirrorPlaylists(Batch batch, List<Playlist> playlists) throws RepositoryException {
+		// Playlists are few, so every one is checked against its node
+		Node parent = getOrAddPath(batch.session, rootPath + "/" + PLAYLISTS);
+		Set<String> names = new HashSet<String>();
+		for (Playlist playlist : playlists) {
+			if (playlist.getId() == null) {
+				continue;
+			}
+			String name = String.valueOf(playlist.getId());
+			names.add(name);
+			if (setAll(getOrAdd(parent, name), playlistProperties(playlist))) {
+				batch.changed();
+			}
+		}
+		List<Node> gone = new ArrayList<Node>();
+		for (NodeIterator nodes = parent.getNodes(); nodes.hasNext(); ) {
+			Node node = nodes.nextNode();
+			if (!names.contains(node.getName())) {
+				gone.add(node);
+			}
+		}
+		for (Node node : gone) {
+			batch.removed(node);
+		}
+	}
+
+	private static Map<String, Object> videoProperties(CatalogVideo video) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put(PROP_VIDEO_ID, String.valueOf(video.getId()));
+		ret.put(PROP_REFERENCE_ID, video.getReferenceId());
+		ret.put(PROP_NAME, video.getName());
+		ret.put(PROP_SHORT_DESCRIPTION, video.getShortDescription());
+		ret.put(PROP_TAGS, video.getTags());
+		ret.put(PROP_CREATION_DATE, video.getCreationDate());
+		ret.put(PROP_PUBLISHED_DATE, video.getPublishedDate());
+		ret.put(PROP_LAST_MODIFIED_DATE, video.getLastModifiedDate());
+		ret.put(PROP_ITEM_STATE, (video.getItemState() == null) ? null : video.getItemState().name());
+		ret.put(PROP_THUMBNAIL_URL, video.getThumbnailUrl());
+		ret.put(PROP_LENGTH, video.getLength());
+		ret.put(PROP_PLAYS_TOTAL, (video.getPlaysTotal() == null) ? null : Long.valueOf(video.getPlaysTotal()));
+		return ret;
+	}
+
+	private static Map<String, Object> playlistProperties(Playlist playlist) {
+		Map<String, Object> ret = new LinkedHashMap<String, Object>();
+		ret.put(PROP_PLAYLIST_ID, String.valueOf(playlist.getId()));
+		ret.put(PROP_REFERENCE_ID, playlist.getReferenceId());
+		ret.put(PROP_NAME, playlist.getName());
+		ret.put(PROP_SHORT_DESCRIPTION, playlist.getShortDescription());
+		List<String> videoIds = null;
+		if (playlist.getVideoIds() != null) {
+			videoIds = new ArrayList<String>();
+			for (Long videoId : playlist.getVideoIds()) {
+				videoIds.add(String.valueOf(videoId));
+			}
+		}
+		ret.put(PROP_VIDEO_IDS, videoIds);
+		ret.put(PROP_PLAYLIST_TYPE, (playlist.getPlaylistType() == null) ? null : playlist.getPlaylistType().name());
+		ret.put(PROP_THUMBNAIL_URL, playlist.getThumbnailUrl());
+		return ret;
+	}
+
+	/**
+	 * Writes the properties that differ from the node's, and removes the ones that are null.
+	 *
+	 * @return Whether anything was written
+	 */
+	private static boolean setAll(Node node, Map<String, Object> properties) throws RepositoryException {
+		boolean changed = false;
+		for (Map.Entry<String, Object> entry : properties.entrySet()) {
+			changed |= set(node, entry.getKey(), entry.getValue());
+		}
+		return changed;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static boolean set(Node node, String name, Object value) throws RepositoryException {
+		javax.jcr.Property current = node.hasProperty(name) ? node.getProperty(name) : null;
+		if (value == null) {
+			if (current == null) {
+				return false;
+			}
+			current.remove();
+			return true;
+		}
+		boolean multiple = value instanceof List;
+		if (current != null && current.isMultiple() != multiple) {
+			// A single value can't be set over a multi-value property, nor the other way round
+			current.remove();
+			current = null;
+		}
+		if (multiple) {
+			String[] values = ((List<String>) value).toArray(new String[0]);
+			if (current != null && Arrays.equals(Strings(current.getValues()), values)) {
+				return false;
+			}
+			node.setProperty(name, values);
+		} else if (value instanceof Date) {
+			if (current != null && current.getType() == PropertyType.DATE && current.getDate().getTimeInMillis() == ((Date) value).getTime()) {
+				return false;
+			}
+			Calendar calendar = Calendar.getInstance();
+			calendar.setTime((Date) value);
+			node.setProperty(name, calendar);
+		} else if (value instanceof Long) {
+			if (current != null && current.getType() == PropertyType.LONG && current.getLong() == (Long) value) {
+				return false;
+			}
+			node.setProperty(name, (Long) value);
+		} else {
+			if (current != null && current.getType() == PropertyType.STRING && current.getString().equals(value)) {
+				return false;
+			}
+			node.setProperty(name, String.valueOf(value));
+		}
+		return true;
+	}
+
+	private static String[] Strings(Value[] values) throws RepositoryException {
+		String[] ret = new String[values.length];
+		for (int i = 0; i < values.length; i++) {
+			ret[i] = values[i].getString();
+		}
+		return ret;
+	}
+
+	private static Long parseId(String name) {
+		try {
+			return Long.valueOf(name);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	private String videoParentPath(Long id) {
+		return rootPath + "/" + VIDEOS + "/" + (Math.abs(id) % BUCKETS);
+	}
+
+	private static Node getOrAddPath(Session session, String path) throws RepositoryException {
+		Node node = session.getRootNode();
+		for (String name : path.split("/")) {
+			if (name.length() > 0) {
+				node = getOrAdd(node, name);
+			}
+		}
+		return node;
+	}
+
+	private static Node getOrAdd(Node parent, String name) throws RepositoryException {
+		if (parent.hasNode(name)) {
+			return parent.getNode(name);
+		}
+		return parent.addNode(name, NT_UNSTRUCTURED);
+	}
+}
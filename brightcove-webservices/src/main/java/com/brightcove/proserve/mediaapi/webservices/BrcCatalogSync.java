@@ -0,0 +1,202 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogSync;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.SyncCheckpointStore;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.SyncedCatalog;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.apache.sling.jcr.api.SlingRepository;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import java.io.IOException;
+import java.util.Dictionary;
+import java.util.Set;
+
+/**
+ * Keeps the local copy of the catalog in sync with the Media API: a full crawl the first time,
+ * then only the videos modified since the last sync. How far the sync has got is kept in the
+ * repository, under /var/brightcove/sync by default, so that a crawl interrupted by a restart
+ * carries on where it stopped. Registered as a Runnable so the Sling scheduler runs it every
+ * scheduler.period seconds, and as the SyncCheckpointStore BrcModifiedVideosJob keeps its
+ * checkpoint in.
+ */
+@Component(	immediate=true,
+			label="Brightcove Catalog Sync",
+			description="Keeps a local copy of the video and playlist catalog in sync with the Media API",
+			metatype = true
+			)
+@Service({ Runnable.class, SyncCheckpointStore.class })
+@Properties({
+	@Property(name="enabled", label="Enabled", description="Sync the catalog", boolValue=true),
+	@Property(name="scheduler.period", label="Sync Period", description="Seconds between syncs", longValue=300),
+	@Property(name="scheduler.concurrent", boolValue=false, propertyPrivate=true),
+	@Property(name="rootPath", label="Root Path", description="Repository path the sync checkpoints are kept under", value="/var/brightcove/sync"),
+	@Property(name="customFields", label="Custom Fields", description="Comma-separated custom fields to read with the videos", value="")
+})
+public class BrcCatalogSync implements Runnable, SyncCheckpointStore {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcCatalogSync.class);
+
+	private static final String NT_UNSTRUCTURED = "nt:unstructured";
+	private static final String PROP_LAST_SYNC = "lastSync";
+	private static final String PROP_CRAWL_STARTED = "crawlStarted";
+	private static final String PROP_CRAWL_PAGE = "crawlPage";
+	private static final String PROP_STAGED_LENGTH = "stagedLength";
+
+	@Reference
+	private SlingRepository repository;
+
+	private boolean enabled = true;
+	private String rootPath = "/var/brightcove/sync";
+	private Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
+	private volatile CatalogSync sync;
+
+	@Activate
+	void activate(ComponentContext componentContext) {
+		Dictionary<?, ?> props = componentContext.getProperties();
+		enabled = Boolean.valueOf(String.valueOf(get(props, "enabled", "true")));
+		rootPath = String.valueOf(get(props, "rootPath", rootPath));
+		Set<String> fields = CollectionUtils.CreateEmptyStringSet();
+		for (String field : String.valueOf(get(props, "customFields", "")).split(",")) {
+			if (field.trim().length() > 0) {
+				fields.add(field.trim());
+			}
+		}
+		customFields = fields;
+		sync = null;
+	}
+
+	@Deactivate
+	void deactivate(ComponentContext componentContext) {
+		// The sync stops after the page it's on; the next activation carries on from there
+		CatalogSync current = sync;
+		if (current != null) {
+			current.cancel();
+		}
+	}
+
+	private static Object get(Dictionary<?, ?> props, String name, Object defaultValue) {
+		Object value = props.get(name);
+		return (value == null) ? defaultValue : value;
+	}
+
+	public synchronized void run() {
+		if (!enabled) {
+			return;
+		}
+		String readToken;
+		try {
+			BrcService brcService = BrcUtils.getSlingSettingService();
+			readToken = (brcService == null) ? null : brcService.getReadToken();
+		} catch (Exception e) {
+			loggerVar.debug("Brightcove service not available yet", e);
+			return;
+		}
+		if (readToken == null || readToken.trim().length() == 0) {
+			return;
+		}
+		if (sync == null || !readToken.equals(sync.getReadToken())) {
+			sync = new CatalogSync(readToken, this, customFields);
+		}
+
+		long start = System.currentTimeMillis();
+		try {
+			SyncedCatalog catalog = sync.sync();
+			if (catalog == null) {
+				loggerVar.info("Catalog sync stopped, it carries on from there next time");
+				return;
+			}
+			loggerVar.info("Synced catalog " + catalog + ", " + sync.getLastChangeCount() + " videos read in "
+					+ (System.currentTimeMillis() - start) + "ms");
+			if (sync.getLastMissingCount() > 0) {
+				loggerVar.warn("Catalog crawl is missing " + sync.getLastMissingCount()
+						+ " videos that moved between pages as others were deleted; they're added when next modified");
+			}
+		} catch (BrightcoveException e) {
+			loggerVar.warn("Couldn't sync the catalog, retrying next time: " + e.getMessage());
+		} catch (IOException e) {
+			loggerVar.error("Couldn't store the synced catalog", e);
+		}
+	}
+
+	public Checkpoint read(String name) {
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			String path = rootPath + "/" + name;
+			if (!session.nodeExists(path)) {
+				return null;
+			}
+			Node node = session.getNode(path);
+			return new Checkpoint(getLong(node, PROP_LAST_SYNC), getLong(node, PROP_CRAWL_STARTED),
+					node.hasProperty(PROP_CRAWL_PAGE) ? Integer.valueOf((int) node.getProperty(PROP_CRAWL_PAGE).getLong()) : null,
+					getLong(node, PROP_STAGED_LENGTH));
+		} catch (RepositoryException e) {
+			loggerVar.warn("Couldn't read the catalog sync checkpoint, starting over", e);
+			return null;
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	public void write(String name, Checkpoint checkpoint) throws IOException {
+		Session session = null;
+		try {
+			session = repository.loginAdministrative(null);
+			Node node = getOrAdd(getOrAddPath(session, rootPath), name);
+			setLong(node, PROP_LAST_SYNC, checkpoint.getLastSync());
+			setLong(node, PROP_CRAWL_STARTED, checkpoint.getCrawlStarted());
+			setLong(node, PROP_CRAWL_PAGE, (checkpoint.getCrawlPage() == null) ? null : Long.valueOf(checkpoint.getCrawlPage()));
+			setLong(node, PROP_STAGED_LENGTH, checkpoint.getStagedLength());
+			session.save();
+		} catch (RepositoryException e) {
+			throw new IOException("Couldn't save the catalog sync checkpoint: " + e.getMessage());
+		} finally {
+			if (session != null) {
+				session.logout();
+			}
+		}
+	}
+
+	private static Long getLong(Node node, String name) throws RepositoryException {
+		return node.hasProperty(name) ? Long.valueOf(node.getProperty(name).getLong()) : null;
+	}
+
+	private static void setLong(Node node, String name, Long value) throws RepositoryException {
+		if (value != null) {
+			node.setProperty(name, value.longValue());
+		} else if (node.hasProperty(name)) {
+			node.getProperty(name).remove();
+		}
+	}
+
+	private static Node getOrAddPath(Session session, String path) throws RepositoryException {
+		Node node = session.getRootNode();
+		for (String name : path.split("/")) {
+			if (name.length() > 0) {
+				node = getOrAdd(node, name);
+			}
+		}
+		return node;
+	}
+
+	private static Node getOrAdd(Node parent, String name) throws RepositoryException {
+		if (parent.hasNode(name)) {
+			return parent.getNode(name);
+		}
+		return parent.addNode(name, NT_UNSTRUCTURED);
+	}
+}
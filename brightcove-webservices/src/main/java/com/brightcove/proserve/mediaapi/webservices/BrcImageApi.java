@@ -1,27 +1,31 @@
 package com.brightcove.proserve.mediaapi.webservices;
 
-import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
-import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
-import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+import com.brightcove.proserve.mediaapi.wrapper.cache.ImageCache;
 import org.apache.felix.scr.annotations.Component;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Service;
 import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.SlingHttpServletResponse;
 import org.apache.sling.api.servlets.SlingAllMethodsServlet;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.URL;
-import java.util.EnumSet;
-import java.util.Set;
 
+/**
+ * Serves the still image of a video as JPEG, given its id either as the <code>id</code>
+ * parameter or as the last part of the suffix (<code>/bin/brightcove/image/12345.jpg</code>).
+ * <p>
+ * Encoded stills are kept in {@link ImageCache}, so each still is only fetched and
+ * re-encoded once.  Responses carry an ETag, Last-Modified and Cache-Control, and
+ * conditional requests that still match get a 304 without a body.
+ */
 @Service
 @Component
 @Property(name = "sling.servlet.paths", value = "/bin/brightcove/image")
@@ -38,115 +42,103 @@ public class BrcImageApi extends SlingAllMethodsServlet {
 		BrcService brcService = BrcUtils.getSlingSettingService();
 		String ReadToken = brcService.getReadToken();
 
-		if (request.getParameter("id") != null) {
-			Logger logger = LoggerFactory.getLogger(BrcImageApi.class);
-			String VideoIDStr = request.getParameter("id");
-			Long videoId = Long.parseLong(VideoIDStr);
-			// Return only ID and Name on all videos
-			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-			videoFields.add(VideoFieldEnum.ID);
-			videoFields.add(VideoFieldEnum.VIDEOSTILLURL);
-
-			// Return no custom fields on all videos
-			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
-
-			// Create the Read API wrapper
-			ReadApi rapi = new ReadApi(logger);
-
-			Video found = null;
-
-			try {
-				// Find a single video
-				found = rapi.FindVideoById(ReadToken, videoId, videoFields, customFields);
-				if (found != null) {
-					String urlStr = found.getVideoStillUrl();
-
-					URL url = new URL(urlStr);
-					BufferedImage img = null;
-					try {
-						img = ImageIO.read(url);
-
-					} catch (Exception e) {
-						response.setStatus(404);
-						PrintWriter outWriter = response.getWriter();
-						outWriter.println("READ ERROR " + "<br>");
+		Long videoId = getVideoId(request);
+		if (videoId == null) {
+			response.setStatus(404);
+			return;
+		}
 
+		ImageCache.Image image;
+		try {
+			// Find a single video
+			Video found = BrcUtils.getVideoLoader(ReadToken, BrcUtils.VIDEO_STILL_QUERY).get(videoId);
+			if (found == null || found.getVideoStillUrl() == null) {
+				response.setStatus(404);
+				return;
+			}
+			final String urlStr = found.getVideoStillUrl();
+			image = ImageCache.getShared().get(videoId, urlStr, new ImageCache.Loader() {
+				public byte[] load() throws IOException {
+					BufferedImage img = ImageIO.read(new URL(urlStr));
+					if (img == null) {
+						throw new IOException("Not an image: " + urlStr);
 					}
-					if (img != null) {
-						try {
-							response.setContentType("image/jpeg");
-							ImageIO.write(img, "jpeg", response.getOutputStream());
-						} catch (Exception ee) {
-							response.setStatus(404);
-							response.setContentType("text/html");
-							PrintWriter outWriter = response.getWriter();
-							outWriter.println("ENCODING ERROR " + "<br>");
-						}
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
+					if (!ImageIO.write(img, "jpeg", out)) {
+						throw new IOException("No JPEG encoder for " + urlStr);
 					}
-
-				} else {
-					response.setStatus(404);
+					return out.toByteArray();
 				}
+			});
+		} catch (Exception e) {
+			response.setStatus(404);
+			PrintWriter outWriter = response.getWriter();
+			outWriter.println("READ ERROR " + "<br>");
+			return;
+		}
 
-			} catch (Exception e) {
-				response.setStatus(404);
-			}
-		} else {
-			if (request.getRequestPathInfo().getSuffix() != null) {
-				String vidID = request.getRequestPathInfo().getSuffix();
-				vidID = vidID.substring(vidID.lastIndexOf("/"));
-				vidID = vidID.substring(1, vidID.indexOf("."));
-				Logger logger = LoggerFactory.getLogger("Brightcove");
-				Long videoId = Long.parseLong(vidID);
-				// Return only ID and Name on all videos
-				EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-				videoFields.add(VideoFieldEnum.ID);
-				videoFields.add(VideoFieldEnum.VIDEOSTILLURL);
-
-				// Return no custom fields on all videos
-				Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
-
-				// Create the Read API wrapper
-				ReadApi rapi = new ReadApi(logger);
-
-				Video found;
+		response.setHeader("ETag", image.getEtag());
+		response.setDateHeader("Last-Modified", image.getLastModified());
+		response.setHeader("Cache-Control", "public, max-age=" + brcService.getImageMaxAge());
 
-				try {
-					// Find a single video
-					found = rapi.FindVideoById(ReadToken, videoId, videoFields, customFields);
-					if (found != null) {
-						String urlStr = found.getVideoStillUrl();
+		if (isNotModified(request, image)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
 
-						URL url = new URL(urlStr);
-						BufferedImage img = null;
-						try {
-							img = ImageIO.read(url);
-						} catch (Exception e) {
-							response.setStatus(404);
-							PrintWriter outWriter = response.getWriter();
-							outWriter.println("READ ERROR " + "<br>");
-						}
-						if (img != null) {
-							try {
-								response.setContentType("image/jpeg");
-								ImageIO.write(img, "jpeg", response.getOutputStream());
-							} catch (Exception ee) {
-								response.setStatus(404);
-								response.setContentType("text/html");
-								PrintWriter outWriter = response.getWriter();
+		byte[] data = image.getData();
+		response.setContentType("image/jpeg");
+		response.setContentLength(data.length);
+		response.getOutputStream().write(data);
+	}
 
-								outWriter.println("ENCODING ERROR " + ee.getMessage() + "<br>");
-							}
-						}
-					} else {
-						response.setStatus(404);
-					}
+	/**
+	 * @return The id from the <code>id</code> parameter or the suffix, or null if there isn't a valid one
+	 */
+	private Long getVideoId(SlingHttpServletRequest request) {
+		String vidID = request.getParameter("id");
+		if (vidID == null) {
+			String suffix = request.getRequestPathInfo().getSuffix();
+			if (suffix == null) {
+				return null;
+			}
+			vidID = suffix.substring(suffix.lastIndexOf("/") + 1);
+			if (vidID.indexOf(".") >= 0) {
+				vidID = vidID.substring(0, vidID.indexOf("."));
+			}
+		}
+		try {
+			return Long.parseLong(vidID.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
 
-				} catch (Exception e) {
-					response.setStatus(404);
+	/**
+	 * If-None-Match wins over If-Modified-Since when both are sent, as HTTP/1.1 asks.
+	 */
+	private boolean isNotModified(SlingHttpServletRequest request, ImageCache.Image image) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals("*") || tag.equals(image.getEtag())) {
+					return true;
 				}
 			}
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			return false;
 		}
+		// HTTP dates only hold whole seconds
+		return ifModifiedSince >= 0 && image.getLastModified() / 1000 <= ifModifiedSince / 1000;
 	}
 
 }
@@ -0,0 +1,120 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.cache.ModifiedVideoPoller;
+import com.brightcove.proserve.mediaapi.wrapper.cache.PlaylistCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.SecondLevelStore;
+import com.brightcove.proserve.mediaapi.wrapper.cache.VideoCache;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.SyncCheckpointStore;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.utils.DigestUtils;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.Service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Date;
+
+/**
+ * Polls the Media API for videos modified since the last run and refreshes only those in the
+ * shared video, playlist, search and missing id caches that BrcUtils and BrcImageApi read from.
+ * Registered as a Runnable so the Sling scheduler runs it every scheduler.period seconds.
+ *
+ * The checkpoint is kept with the catalog sync checkpoints, so after a restart the poll picks
+ * up the changes made while the instance was down. The persisted caches outlive the JVM too,
+ * so when there is no checkpoint to start from they're cleared rather than trusted.
+ */
+@Component(	immediate=true,
+			label="Brightcove Cache Refresh",
+			description="Refreshes cached videos the Media API reports as modified",
+			metatype = true
+			)
+@Service(Runnable.class)
+@Properties({
+	@Property(name="scheduler.period", label="Poll Period", description="Seconds between checks for modified videos", longValue=60),
+	@Property(name="scheduler.concurrent", boolValue=false, propertyPrivate=true)
+})
+public class BrcModifiedVideosJob implements Runnable {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcModifiedVideosJob.class);
+
+	private static final String CHECKPOINT_PREFIX = "modified-";
+
+	@Reference
+	private SyncCheckpointStore checkpoints;
+
+	private ModifiedVideoPoller poller;
+	private String checkpointName;
+
+	public synchronized void run() {
+		String readToken;
+		try {
+			BrcService brcService = BrcUtils.getSlingSettingService();
+			readToken = (brcService == null) ? null : brcService.getReadToken();
+		} catch (Exception e) {
+			loggerVar.debug("Brightcove service not available yet", e);
+			return;
+		}
+		if (readToken == null || readToken.trim().length() == 0) {
+			return;
+		}
+
+		if (poller == null || !readToken.equals(poller.getReadToken())) {
+			poller = createPoller(readToken);
+		}
+
+		Long before = poller.getCheckpoint();
+		try {
+			Integer changes = poller.poll();
+			if (changes > 0) {
+				loggerVar.info("Refreshed caches for " + changes + " modified videos");
+			}
+			if (!poller.isCaughtUp()) {
+				loggerVar.warn("More videos were modified than one poll reads (" + ModifiedVideoPoller.MAX_PAGES
+						+ " pages), the next poll carries on from " + new Date(poller.getCheckpoint()));
+			}
+		} catch (BrightcoveException e) {
+			loggerVar.warn("Couldn't read modified videos, will retry from the same checkpoint: " + e.getMessage());
+		}
+		if (!poller.getCheckpoint().equals(before)) {
+			writeCheckpoint(poller.getCheckpoint());
+		}
+	}
+
+	/**
+	 * Creates a poller starting from the stored checkpoint of the account. Without one, the
+	 * poller starts from now, and the persisted caches, which may hold videos changed since
+	 * they were written, are cleared first.
+	 */
+	private ModifiedVideoPoller createPoller(String readToken) {
+		ModifiedVideoPoller created = new ModifiedVideoPoller(readToken);
+		checkpointName = CHECKPOINT_PREFIX + DigestUtils.Sha1Hex(readToken);
+		SyncCheckpointStore.Checkpoint stored = checkpoints.read(checkpointName);
+		if (stored != null && stored.getLastSync() != null) {
+			created.setCheckpoint(stored.getLastSync());
+			loggerVar.info("Reading videos modified since " + new Date(stored.getLastSync()));
+		} else {
+			clearSecondLevel(VideoCache.getShared().getSecondLevelStore(), VideoCache.REGION);
+			clearSecondLevel(PlaylistCache.getShared().getSecondLevelStore(), PlaylistCache.REGION);
+			writeCheckpoint(created.getCheckpoint());
+		}
+		return created;
+	}
+
+	private static void clearSecondLevel(SecondLevelStore store, String region) {
+		if (store != null) {
+			loggerVar.info("No modified videos checkpoint, clearing persisted " + region);
+			store.removeAll(region);
+		}
+	}
+
+	private void writeCheckpoint(Long checkpoint) {
+		try {
+			checkpoints.write(checkpointName, new SyncCheckpointStore.Checkpoint(checkpoint, null, null, null));
+		} catch (IOException e) {
+			loggerVar.warn("Couldn't store the modified videos checkpoint: " + e.getMessage());
+		}
+	}
+}
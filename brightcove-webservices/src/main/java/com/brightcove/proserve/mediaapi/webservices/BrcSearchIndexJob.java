@@ -0,0 +1,125 @@
+package com.brightcove.proserve.mediaapi.webservices;
+
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogSnapshot;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogStore;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogVideo;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.search.AutocompleteIndex;
+import com.brightcove.proserve.mediaapi.wrapper.search.SearchIndex;
+import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Service;
+import org.osgi.service.component.ComponentContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Dictionary;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Rebuilds the search and autocomplete indexes BrcUtils answers video searches and suggestions
+ * from. Both are built from the account's catalog snapshot when there is one (and only when it
+ * has changed), and otherwise from one crawl of the whole library. Registered as a Runnable so
+ * the Sling scheduler runs it every scheduler.period seconds; until the first build finishes,
+ * searches and suggestions go to the Media API as before.
+ */
+@Component(	immediate=true,
+			label="Brightcove Search Index",
+			description="Rebuilds the indexes video searches and suggestions are answered from",
+			metatype = true
+			)
+@Service(Runnable.class)
+@Properties({
+	@Property(name="scheduler.period", label="Rebuild Period", description="Seconds between rebuilds of the search indexes", longValue=900),
+	@Property(name="scheduler.concurrent", boolValue=false, propertyPrivate=true),
+	@Property(name="customFields", label="Custom Fields", description="Comma-separated custom fields to search, when the videos are read from the Media API", value="")
+})
+public class BrcSearchIndexJob implements Runnable {
+	private static Logger loggerVar = LoggerFactory.getLogger(BrcSearchIndexJob.class);
+
+	private Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
+	private long builtFromSnapshot = -1;
+
+	@Activate
+	void activate(ComponentContext componentContext) {
+		Dictionary<?, ?> props = componentContext.getProperties();
+		Set<String> fields = CollectionUtils.CreateEmptyStringSet();
+		Object value = props.get("customFields");
+		if (value != null) {
+			for (String field : String.valueOf(value).split(",")) {
+				if (field.trim().length() > 0) {
+					fields.add(field.trim());
+				}
+			}
+		}
+		customFields = fields;
+	}
+
+	public synchronized void run() {
+		String readToken;
+		try {
+			BrcService brcService = BrcUtils.getSlingSettingService();
+			readToken = (brcService == null) ? null : brcService.getReadToken();
+		} catch (Exception e) {
+			loggerVar.debug("Brightcove service not available yet", e);
+			return;
+		}
+		if (readToken == null || readToken.trim().length() == 0) {
+			return;
+		}
+
+		long start = System.currentTimeMillis();
+		AutocompleteIndex.Builder suggestions = new AutocompleteIndex.Builder(AutocompleteIndex.DEFAULT_TOP_K);
+		SearchIndex.Builder search = new SearchIndex.Builder();
+		String source;
+		CatalogSnapshot snapshot = CatalogStore.getShared().getSnapshot(readToken);
+		if (snapshot != null) {
+			if (snapshot.getCreatedAt() == builtFromSnapshot && SearchIndex.getShared(readToken) != null) {
+				return;
+			}
+			for (CatalogVideo video : snapshot) {
+				suggestions.add(video);
+				search.add(video);
+			}
+			// Sort the catalog for the side menu here rather than on its first request
+			snapshot.getViews();
+			builtFromSnapshot = snapshot.getCreatedAt();
+			source = "catalog snapshot";
+		} else {
+			EnumSet<VideoFieldEnum> videoFields = EnumSet.of(VideoFieldEnum.ID, VideoFieldEnum.NAME, VideoFieldEnum.REFERENCEID,
+					VideoFieldEnum.SHORTDESCRIPTION, VideoFieldEnum.LONGDESCRIPTION, VideoFieldEnum.TAGS,
+					VideoFieldEnum.THUMBNAILURL, VideoFieldEnum.PLAYSTOTAL);
+			if (!customFields.isEmpty()) {
+				videoFields.add(VideoFieldEnum.CUSTOMFIELDS);
+			}
+			try {
+				ReadApi rapi = new ReadApi(LoggerFactory.getLogger("Brightcove"));
+				for (Video video : BrcUtils.getPageCrawler().crawlAllVideos(rapi, readToken, SortByTypeEnum.PLAYS_TOTAL, SortOrderTypeEnum.DESC, videoFields, customFields)) {
+					suggestions.add(video);
+					search.add(video);
+				}
+			} catch (BrightcoveException e) {
+				loggerVar.warn("Couldn't read the videos for the search indexes, keeping the current ones: " + e.getMessage());
+				return;
+			}
+			builtFromSnapshot = -1;
+			source = "Media API";
+		}
+
+		AutocompleteIndex suggestionIndex = suggestions.build();
+		SearchIndex searchIndex = search.build();
+		AutocompleteIndex.setShared(readToken, suggestionIndex);
+		SearchIndex.setShared(readToken, searchIndex);
+		loggerVar.info("Rebuilt search indexes from " + source + ": " + searchIndex + ", " + suggestionIndex
+				+ " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
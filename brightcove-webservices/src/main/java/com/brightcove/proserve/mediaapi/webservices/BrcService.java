@@ -10,4 +10,8 @@ public interface BrcService {
 	public String getDefVideoPlayerKey();
 	public String getDefPlaylistPlayerID();
 	public String getDefPlaylistPlayerKey();
+	public Integer getCrawlParallelism();
+	public Long getBatchWindow();
+	public Integer getBatchMaxSize();
+	public Integer getImageMaxAge();
 }
@@ -1,10 +1,24 @@
 package com.brightcove.proserve.mediaapi.webservices;
 
+import com.brightcove.proserve.mediaapi.wrapper.batch.VideoBatchLoader;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogStore;
+import com.brightcove.proserve.mediaapi.wrapper.cache.ImageCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.NegativeCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.PlaylistCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.SearchResultCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.VideoCache;
+import com.brightcove.proserve.mediaapi.wrapper.http.CircuitBreaker;
+import com.brightcove.proserve.mediaapi.wrapper.http.MediaApiTransport;
+import com.brightcove.proserve.mediaapi.wrapper.http.RateLimiter;
+import com.brightcove.proserve.mediaapi.wrapper.http.RetryPolicy;
+import com.brightcove.proserve.mediaapi.wrapper.paging.PageCrawler;
 import org.apache.felix.scr.annotations.*;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.util.Dictionary;
 import java.util.Hashtable;
 
@@ -23,23 +37,174 @@ import java.util.Hashtable;
 	@Property(name="defVideoPlayerID", label="Default Video Player ID", description="Default Video Player ID", value=""),
 	@Property(name="defVideoPlayerKey", label="Default Video Player Key", description="Default Video Player Key", value=""),
 	@Property(name="defPlaylistPlayerID", label="Default Playlist Player ID", description="Default Playlist Player ID", value=""),
-	@Property(name="defPlaylistPlayerKey", label="Default Playlist Player Key", description="Default Playlist Player Key", value="")
+	@Property(name="defPlaylistPlayerKey", label="Default Playlist Player Key", description="Default Playlist Player Key", value=""),
+	@Property(name="httpMaxConnections", label="HTTP Max Connections", description="Maximum number of pooled connections to the Media API", intValue=50),
+	@Property(name="httpMaxConnectionsPerRoute", label="HTTP Max Connections Per Host", description="Maximum number of pooled connections to a single Media API host", intValue=20),
+	@Property(name="httpConnectTimeout", label="HTTP Connect Timeout", description="Connect timeout for Media API calls (ms)", intValue=5000),
+	@Property(name="httpReadTimeout", label="HTTP Read Timeout", description="Read timeout for Media API calls (ms)", intValue=10000),
+	@Property(name="httpKeepAlive", label="HTTP Keep-Alive", description="How long to keep an idle connection open when the server doesn't say (ms)", longValue=30000),
+	@Property(name="httpIdleTimeout", label="HTTP Idle Timeout", description="Pooled connections idle for longer than this are closed (ms)", longValue=60000),
+	@Property(name="crawlParallelism", label="Catalog Crawl Parallelism", description="Maximum number of pages requested at once when reading the whole catalog", intValue=4),
+	@Property(name="batchWindow", label="Video Lookup Batch Window", description="How long single video lookups are collected before being sent together (ms)", longValue=10),
+	@Property(name="batchMaxSize", label="Video Lookup Batch Size", description="Number of collected video ids that sends a batch straight away", intValue=50),
+	@Property(name="videoCacheMaxEntries", label="Video Cache Size", description="Most videos kept in the in-memory video cache; 0 turns the cache off", intValue=10000),
+	@Property(name="videoCacheMaxWeight", label="Video Cache Memory", description="Approximate memory the video cache may use (bytes)", longValue=33554432),
+	@Property(name="videoCacheTtl", label="Video Cache Expiry", description="How long a video stays in the video cache (ms)", longValue=300000),
+	@Property(name="videoCacheGracePeriod", label="Video Cache Grace Period", description="How long an expired video is still served while a fresh copy is read in the background (ms); 0 makes lookups wait for the Media API", longValue=600000),
+	@Property(name="playlistCacheMaxEntries", label="Playlist Cache Size", description="Most playlists kept in the in-memory playlist cache; 0 turns the cache off", intValue=1000),
+	@Property(name="playlistCacheMaxWeight", label="Playlist Cache Memory", description="Approximate memory the playlist cache may use (bytes)", longValue=16777216),
+	@Property(name="playlistCacheTtl", label="Playlist Cache Expiry", description="How long a playlist stays in the playlist cache (ms)", longValue=300000),
+	@Property(name="playlistCacheGracePeriod", label="Playlist Cache Grace Period", description="How long an expired playlist is still served while a fresh copy is read in the background (ms); 0 makes lookups wait for the Media API", longValue=600000),
+	@Property(name="searchCacheMaxQueries", label="Search Cache Size", description="Most searches kept in the search result cache, each with all of its pages read so far; 0 turns the cache off", intValue=1000),
+	@Property(name="searchCacheMaxWeight", label="Search Cache Memory", description="Approximate memory the search result cache may use (bytes)", longValue=16777216),
+	@Property(name="searchCacheTtl", label="Search Cache Expiry", description="How long the pages of a search stay cached after its first page was read (ms)", longValue=60000),
+	@Property(name="searchCachePrefetchPages", label="Search Read-Ahead Pages", description="Number of pages read in the background ahead of the one asked for; 0 turns read-ahead off", intValue=1),
+	@Property(name="negativeCacheMaxEntries", label="Missing Id Cache Size", description="Most video/playlist ids remembered as not found; 0 turns the cache off", intValue=5000),
+	@Property(name="negativeCacheTtl", label="Missing Id Cache Expiry", description="How long an id is remembered as not found (ms)", longValue=60000),
+	@Property(name="catalogDirectory", label="Catalog Directory", description="Directory the memory-mapped catalog snapshots are kept in; empty for the bundle's data area", value=""),
+	@Property(name="imageCacheMaxEntries", label="Image Cache Size", description="Most video stills kept in memory by the image servlet; 0 keeps them on disk only", intValue=1000),
+	@Property(name="imageCacheMaxWeight", label="Image Cache Memory", description="Memory the cached video stills may use (bytes)", longValue=33554432),
+	@Property(name="imageCacheTtl", label="Image Cache Expiry", description="How long a video still stays in memory (ms)", longValue=86400000),
+	@Property(name="imageCacheMaxDiskSize", label="Image Cache Disk Size", description="Disk space the cached video stills may use in the bundle's data area (bytes)", longValue=268435456),
+	@Property(name="imageMaxAge", label="Image Max Age", description="How long browsers and proxies may reuse a video still without asking again (s)", intValue=3600),
+	@Property(name="retryMaxAttempts", label="Read Retry Attempts", description="Total attempts for a read that fails for a transient reason other than a read timeout (1 disables retries)", intValue=3),
+	@Property(name="retryBaseDelay", label="Read Retry Base Delay", description="Cap on the randomized delay before the first retry (ms); doubles with each retry", longValue=200),
+	@Property(name="retryMaxDelay", label="Read Retry Max Delay", description="Cap on the randomized delay before any retry (ms)", longValue=2000),
+	@Property(name="breakerFailureThreshold", label="Circuit Breaker Failure Threshold", description="Consecutive failed calls to a Media API host before calls to it fail fast", intValue=5),
+	@Property(name="breakerOpenDuration", label="Circuit Breaker Open Duration", description="How long calls fail fast before a trial call is let through (ms)", longValue=30000),
+	@Property(name="rateLimitRequestsPerHour", label="Rate Limit (requests/hour)", description="Requests per hour allowed for each Media API token; 0 turns rate limiting off", intValue=0),
+	@Property(name="rateLimitBurst", label="Rate Limit Burst", description="Requests that may be sent at once after a quiet period", intValue=100),
+	@Property(name="rateLimitMode", label="Rate Limit Mode", description="What to do once the request budget is used up", value="BLOCK",
+			options={
+				@PropertyOption(name="BLOCK", value="Wait for the budget"),
+				@PropertyOption(name="TIMEOUT", value="Wait up to the timeout, then fail"),
+				@PropertyOption(name="REJECT", value="Fail straight away")
+			}),
+	@Property(name="rateLimitTimeout", label="Rate Limit Timeout", description="Longest wait for the request budget in TIMEOUT mode (ms)", longValue=10000)
 })
 public class BrcServiceImpl implements BrcService {
     private ComponentContext componentContext;
     private static Logger loggerVar = LoggerFactory.getLogger(BrcService.class);
     private static final String ALGO = "AES";
+    private static final Integer DEFAULT_IMAGE_MAX_AGE = 3600;
     private Dictionary<String, Object> prop;
+    private ServiceRegistration transportRegistration;
     private Dictionary<String, Object> getProperties() {
         if (prop == null)
             return new Hashtable<String, Object>();
         return prop;
     }
     
+    private Integer getIntProperty(String name, Integer defaultValue) {
+        Object value = getProperties().get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            loggerVar.warn("Invalid value '" + value + "' for " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private Long getLongProperty(String name, Long defaultValue) {
+        Object value = getProperties().get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.valueOf(value.toString().trim());
+        } catch (NumberFormatException e) {
+            loggerVar.warn("Invalid value '" + value + "' for " + name + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+    
+    private RateLimiter.Mode getRateLimitMode() {
+        Object value = getProperties().get("rateLimitMode");
+        if (value == null) {
+            return RateLimiter.DEFAULT_MODE;
+        }
+        try {
+            return RateLimiter.Mode.valueOf(value.toString().trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            loggerVar.warn("Invalid value '" + value + "' for rateLimitMode, using " + RateLimiter.DEFAULT_MODE);
+            return RateLimiter.DEFAULT_MODE;
+        }
+    }
+    
+    private File getCatalogDirectory() {
+        Object value = getProperties().get("catalogDirectory");
+        if (value != null && value.toString().trim().length() > 0) {
+            return new File(value.toString().trim());
+        }
+        File dataFile = componentContext.getBundleContext().getDataFile("catalog");
+        return dataFile != null ? dataFile : CatalogStore.DEFAULT_DIRECTORY;
+    }
+    
     @Activate 
     void activate(ComponentContext aComponentContext) {
         this.componentContext=aComponentContext;
         this.prop = componentContext.getProperties();
+
+        MediaApiTransport transport = MediaApiTransport.getInstance();
+        transport.configure(
+                getIntProperty("httpMaxConnections", MediaApiTransport.DEFAULT_MAX_CONNECTIONS),
+                getIntProperty("httpMaxConnectionsPerRoute", MediaApiTransport.DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                getIntProperty("httpConnectTimeout", MediaApiTransport.DEFAULT_CONNECT_TIMEOUT),
+                getIntProperty("httpReadTimeout", MediaApiTransport.DEFAULT_READ_TIMEOUT),
+                getLongProperty("httpKeepAlive", MediaApiTransport.DEFAULT_KEEP_ALIVE),
+                getLongProperty("httpIdleTimeout", MediaApiTransport.DEFAULT_IDLE_TIMEOUT));
+        RetryPolicy.setDefault(new RetryPolicy(
+                getIntProperty("retryMaxAttempts", RetryPolicy.DEFAULT_MAX_ATTEMPTS),
+                getLongProperty("retryBaseDelay", RetryPolicy.DEFAULT_BASE_DELAY),
+                getLongProperty("retryMaxDelay", RetryPolicy.DEFAULT_MAX_DELAY)));
+        CircuitBreaker.configureAll(
+                getIntProperty("breakerFailureThreshold", CircuitBreaker.DEFAULT_FAILURE_THRESHOLD),
+                getLongProperty("breakerOpenDuration", CircuitBreaker.DEFAULT_OPEN_DURATION));
+        RateLimiter.configureAll(
+                getIntProperty("rateLimitRequestsPerHour", RateLimiter.DEFAULT_REQUESTS_PER_HOUR),
+                getIntProperty("rateLimitBurst", RateLimiter.DEFAULT_BURST),
+                getRateLimitMode(),
+                getLongProperty("rateLimitTimeout", RateLimiter.DEFAULT_TIMEOUT));
+        VideoCache.getShared().configure(
+                getIntProperty("videoCacheMaxEntries", VideoCache.DEFAULT_MAX_ENTRIES),
+                getLongProperty("videoCacheMaxWeight", VideoCache.DEFAULT_MAX_WEIGHT),
+                getLongProperty("videoCacheTtl", VideoCache.DEFAULT_TTL),
+                getLongProperty("videoCacheGracePeriod", VideoCache.DEFAULT_GRACE_PERIOD));
+        PlaylistCache.getShared().configure(
+                getIntProperty("playlistCacheMaxEntries", PlaylistCache.DEFAULT_MAX_ENTRIES),
+                getLongProperty("playlistCacheMaxWeight", PlaylistCache.DEFAULT_MAX_WEIGHT),
+                getLongProperty("playlistCacheTtl", PlaylistCache.DEFAULT_TTL),
+                getLongProperty("playlistCacheGracePeriod", PlaylistCache.DEFAULT_GRACE_PERIOD));
+        SearchResultCache.getShared().configure(
+                getIntProperty("searchCacheMaxQueries", SearchResultCache.DEFAULT_MAX_QUERIES),
+                getLongProperty("searchCacheMaxWeight", SearchResultCache.DEFAULT_MAX_WEIGHT),
+                getLongProperty("searchCacheTtl", SearchResultCache.DEFAULT_TTL),
+                getIntProperty("searchCachePrefetchPages", SearchResultCache.DEFAULT_PREFETCH_PAGES));
+        NegativeCache.getShared().configure(
+                getIntProperty("negativeCacheMaxEntries", NegativeCache.DEFAULT_MAX_ENTRIES),
+                getLongProperty("negativeCacheTtl", NegativeCache.DEFAULT_TTL));
+        CatalogStore.getShared().configure(getCatalogDirectory());
+        ImageCache.getShared().configure(
+                getIntProperty("imageCacheMaxEntries", ImageCache.DEFAULT_MAX_ENTRIES),
+                getLongProperty("imageCacheMaxWeight", ImageCache.DEFAULT_MAX_WEIGHT),
+                getLongProperty("imageCacheTtl", ImageCache.DEFAULT_TTL),
+                componentContext.getBundleContext().getDataFile("images"),
+                getLongProperty("imageCacheMaxDiskSize", ImageCache.DEFAULT_MAX_DISK_SIZE));
+        transportRegistration = componentContext.getBundleContext().registerService(MediaApiTransport.class.getName(), transport, null);
+    }
+
+    @Deactivate
+    void deactivate(ComponentContext aComponentContext) {
+        if (transportRegistration != null) {
+            transportRegistration.unregister();
+            transportRegistration = null;
+        }
+        // The shared transport stays up - every ReadApi/WriteApi in the JVM uses it, and
+        // the wrapper bundle shuts it down when it stops
+        CircuitBreaker.unregisterAll();
     }
 
 	public String getReadToken() {
@@ -78,4 +243,20 @@ public class BrcServiceImpl implements BrcService {
 		return (String) getProperties().get("defPlaylistPlayerKey");
 	}
 
+	public Integer getCrawlParallelism() {
+		return getIntProperty("crawlParallelism", PageCrawler.DEFAULT_PARALLELISM);
+	}
+
+	public Long getBatchWindow() {
+		return getLongProperty("batchWindow", VideoBatchLoader.DEFAULT_WINDOW);
+	}
+
+	public Integer getBatchMaxSize() {
+		return getIntProperty("batchMaxSize", VideoBatchLoader.DEFAULT_MAX_BATCH_SIZE);
+	}
+
+	public Integer getImageMaxAge() {
+		return getIntProperty("imageMaxAge", DEFAULT_IMAGE_MAX_AGE);
+	}
+
 }
\ No newline at end of file
@@ -18,28 +18,27 @@ public class BrcSuggestions extends SlingAllMethodsServlet {
 
 	@Override
 	protected void doPost(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws ServletException, IOException {
-		PrintWriter outWriter = response.getWriter();
 		response.setContentType("application/json");
+		PrintWriter outWriter = BrcUtils.getResponseWriter(request, response);
 
 		BrcService brcService = BrcUtils.getSlingSettingService();
 		String ReadToken = brcService.getReadToken();
 
 		if (request.getParameter("query") != null) {
-			response.setContentType("application/json");
 			outWriter.write(BrcUtils.getList(ReadToken, "name,id,thumbnailURL", false, request.getParameter("start"), request.getParameter("limit"), request.getParameter("query")));
 		} else {
 			outWriter.write("{\"items\":[],\"results\":0}");
 		}
+		outWriter.close();
 
 	}
 
 	@Override
 	protected void doGet(final SlingHttpServletRequest request, final SlingHttpServletResponse response) throws ServletException, IOException {
-		PrintWriter outWriter = response.getWriter();
 		response.setContentType("application/json");
+		PrintWriter outWriter = BrcUtils.getResponseWriter(request, response);
 
 		if (request.getParameter("query") != null) {
-			response.setContentType("application/json");
 			if ("playlist".equalsIgnoreCase(request.getParameter("type"))) {
 				outWriter.write(BrcUtils.getPlaylistByID(request.getParameter("query"), request.getParameter("start"), request.getParameter("limit")));
 			} else {
@@ -49,6 +48,7 @@ public class BrcSuggestions extends SlingAllMethodsServlet {
 		} else {
 			outWriter.write("{\"items\":[],\"results\":0}");
 		}
+		outWriter.close();
 
 	}
 
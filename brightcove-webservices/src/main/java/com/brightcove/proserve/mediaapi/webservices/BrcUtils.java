@@ -1,5 +1,6 @@
 package com.brightcove.proserve.mediaapi.webservices;
 
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
 import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
@@ -8,6 +9,17 @@ import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEn
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.batch.VideoBatchLoader;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogSnapshot;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogStore;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogVideo;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogViews;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.paging.PageCrawler;
+import com.brightcove.proserve.mediaapi.wrapper.query.CompiledQuery;
+import com.brightcove.proserve.mediaapi.wrapper.query.VideoQuery;
+import com.brightcove.proserve.mediaapi.wrapper.search.AutocompleteIndex;
+import com.brightcove.proserve.mediaapi.wrapper.search.SearchIndex;
 import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
 import org.apache.sling.commons.json.JSONArray;
 import org.apache.sling.commons.json.JSONException;
@@ -17,232 +29,306 @@ import org.osgi.framework.FrameworkUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
 import java.net.*;
+import java.text.CollationKey;
+import java.text.Collator;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 public class BrcUtils {
 
+	// Page size of the video and playlist lists, as the Media API returns them
+	private static final int LIST_PAGE_SIZE = 20;
+
+	// Search results and id lookups for the video lists - name,id,thumbnailURL, 20 to a page
+	private static final CompiledQuery<Videos> LISTED_VIDEOS_SEARCH_QUERY = VideoQuery.search()
+			.fields(VideoFieldEnum.ID, VideoFieldEnum.NAME, VideoFieldEnum.THUMBNAILURL)
+			.sortBy(SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC)
+			.pageSize(LIST_PAGE_SIZE)
+			.exact(false)
+			.compile();
+	static final CompiledQuery<Videos> LISTED_VIDEOS_BY_IDS_QUERY = VideoQuery.byIds()
+			.fields(VideoFieldEnum.ID, VideoFieldEnum.NAME, VideoFieldEnum.THUMBNAILURL)
+			.compile();
+	static final CompiledQuery<Videos> VIDEO_STILL_QUERY = VideoQuery.byIds()
+			.fields(VideoFieldEnum.ID, VideoFieldEnum.VIDEOSTILLURL)
+			.compile();
+	static final CompiledQuery<Videos> NAME_LENGTH_QUERY = VideoQuery.byIds()
+			.fields(VideoFieldEnum.NAME, VideoFieldEnum.LENGTH, VideoFieldEnum.ID)
+			.compile();
+
+	private static final ConcurrentMap<String, VideoBatchLoader> videoLoaders = new ConcurrentHashMap<String, VideoBatchLoader>();
+
+	/**
+	 * Video fields of the playlist lookups by id - name,id,thumbnailURL.
+	 */
+	static EnumSet<VideoFieldEnum> getListedVideoFields() {
+		EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
+		videoFields.add(VideoFieldEnum.ID);
+		videoFields.add(VideoFieldEnum.NAME);
+		videoFields.add(VideoFieldEnum.THUMBNAILURL);
+		return videoFields;
+	}
+
+	/**
+	 * Playlist fields of the playlist lookups by id - name,id,thumbnailURL.
+	 */
+	static EnumSet<PlaylistFieldEnum> getListedPlaylistFields() {
+		EnumSet<PlaylistFieldEnum> playlistFields = PlaylistFieldEnum.CreateEmptyEnumSet();
+		playlistFields.add(PlaylistFieldEnum.ID);
+		playlistFields.add(PlaylistFieldEnum.NAME);
+		playlistFields.add(PlaylistFieldEnum.THUMBNAILURL);
+		return playlistFields;
+	}
+
 	public static BrcService getSlingSettingService() {
 		BundleContext bundleContext = FrameworkUtil.getBundle(BrcService.class).getBundleContext();
 		return (BrcService) bundleContext.getService(bundleContext.getServiceReference(BrcService.class.getName()));
 	}
 
-	static List sortByValue(final Map m) {
-		List keys = new ArrayList();
-		keys.addAll(m.keySet());
-		Collections.sort(keys, new Comparator() {
-			public int compare(Object o1, Object o2) {
-				try {
-					JSONObject v1 = (JSONObject) m.get(o1);
-					String s1 = (String) v1.get("name");
-					JSONObject v2 = (JSONObject) m.get(o2);
-					String s2 = (String) v2.get("name");
-
-					if (s1 == null) {
-						return (s2 == null) ? 0 : 1;
-					} else if (s1 instanceof Comparable) {
-						return ((Comparable) s1).compareTo(s2);
-					} else {
-						return 0;
-					}
+	/**
+	 * Opens the body of a Media API response, decoding it if the server sent it gzip or deflate
+	 * compressed. The request should have been sent with an Accept-Encoding header.
+	 */
+	static InputStream getResponseStream(HttpURLConnection connection) throws IOException {
+		InputStream in = connection.getInputStream();
+		String encoding = connection.getContentEncoding();
+		if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+			return new GZIPInputStream(in);
+		} else if ("deflate".equalsIgnoreCase(encoding)) {
+			return new InflaterInputStream(in);
+		}
+		return in;
+	}
 
-				} catch (JSONException e) {
-					return 0;
-				}
+	/**
+	 * Tells whether the client accepts a gzip encoded response.
+	 */
+	static boolean acceptsGzip(HttpServletRequest request) {
+		String acceptEncoding = request.getHeader("Accept-Encoding");
+		if (acceptEncoding == null) {
+			return false;
+		}
+		for (String coding : acceptEncoding.split(",")) {
+			String[] parts = coding.trim().split(";");
+			if ("gzip".equalsIgnoreCase(parts[0].trim()) || "x-gzip".equalsIgnoreCase(parts[0].trim())) {
+				// "gzip;q=0" means the client explicitly refuses it
+				return !(parts.length > 1 && parts[1].trim().matches("q\\s*=\\s*0(\\.0*)?"));
 			}
-		});
-		return keys;
+		}
+		return false;
 	}
 
-	static String getLength(String videoId, String tokenID) {
-		String result = "";
-
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd;
+	/**
+	 * Gets a writer for the response body, gzip encoded if the client accepts it. The writer
+	 * must be closed once the body is written so that the gzip trailer is sent.
+	 */
+	public static PrintWriter getResponseWriter(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.addHeader("Vary", "Accept-Encoding");
+		if (!acceptsGzip(request)) {
+			return response.getWriter();
+		}
+		response.setHeader("Content-Encoding", "gzip");
+		String charset = response.getCharacterEncoding() != null ? response.getCharacterEncoding() : "UTF-8";
+		return new PrintWriter(new OutputStreamWriter(new GZIPOutputStream(response.getOutputStream()), charset));
+	}
 
+	/**
+	 * Sends a read request to the Media API and copies the response to the client. A gzip response
+	 * is passed through as is when the client accepts gzip, otherwise it is decoded first.
+	 * If the Media API can't be reached or answers with an error status, an IOException is
+	 * thrown before anything is written to the response.
+	 */
+	public static void proxyRead(String url, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
 		try {
-
-			URL serverAddress = new URL("http://api.brightcove.com/services/library?command=find_video_by_id&video_id=" + videoId + "&video_fields=name,length&token=" + tokenID);
-			//set up out communications stuff
-			connection = null;
-
-			//Set up the initial connection
-			connection = (HttpURLConnection) serverAddress.openConnection();
 			connection.setRequestMethod("GET");
-			connection.setDoOutput(true);
 			connection.setReadTimeout(10000);
-
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
 			connection.connect();
 
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			StringBuilder sb = new StringBuilder();
+			int status = connection.getResponseCode();
+			if (status != HttpURLConnection.HTTP_OK) {
+				throw new IOException("Media API returned HTTP " + status + " for proxied read");
+			}
 
-			String line = null;
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
+			boolean clientGzip = acceptsGzip(request);
+			String encoding = connection.getContentEncoding();
+			response.addHeader("Vary", "Accept-Encoding");
+
+			InputStream in;
+			OutputStream out;
+			if (clientGzip && "gzip".equalsIgnoreCase(encoding)) {
+				response.setHeader("Content-Encoding", "gzip");
+				in = connection.getInputStream();
+				out = response.getOutputStream();
+			} else if (clientGzip) {
+				response.setHeader("Content-Encoding", "gzip");
+				in = getResponseStream(connection);
+				out = new GZIPOutputStream(response.getOutputStream());
+			} else {
+				in = getResponseStream(connection);
+				out = response.getOutputStream();
 			}
 
-			JSONObject js = new JSONObject(sb.toString());
+			try {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+			} finally {
+				in.close();
+				out.close();
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
 
-			String temp_result = js.getString("length");
-			long millis = Long.parseLong(temp_result);
-			result = String.format("%02d:%02d",
-					TimeUnit.MILLISECONDS.toMinutes(millis),
-					TimeUnit.MILLISECONDS.toSeconds(millis) -
-							TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis))
-			);
+	static List sortByValue(final Map m) {
+		// Collation key of each name worked out once, rather than on both sides of every comparison
+		Collator collator = Collator.getInstance(CatalogViews.DEFAULT_LOCALE);
+		final Map<Object, CollationKey> names = new HashMap<Object, CollationKey>();
+		for (Object key : m.keySet()) {
+			Object name = ((JSONObject) m.get(key)).opt("name");
+			names.put(key, (name instanceof String) ? collator.getCollationKey((String) name) : null);
+		}
+		List keys = new ArrayList();
+		keys.addAll(m.keySet());
+		Collections.sort(keys, new Comparator() {
+			public int compare(Object o1, Object o2) {
+				CollationKey k1 = names.get(o1);
+				CollationKey k2 = names.get(o2);
+				if (k1 == null) {
+					return (k2 == null) ? 0 : 1;
+				}
+				return (k2 == null) ? -1 : k1.compareTo(k2);
+			}
+		});
+		return keys;
+	}
 
-		} catch (JSONException e) {
-			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
+	static String getLength(String videoId, String tokenID) {
+		String result = "";
+		try {
+			Video video = getVideoLoader(tokenID, NAME_LENGTH_QUERY).get(Long.parseLong(videoId.trim()));
+			if (video != null && video.getLength() != null) {
+				long millis = video.getLength();
+				result = String.format("%02d:%02d",
+						TimeUnit.MILLISECONDS.toMinutes(millis),
+						TimeUnit.MILLISECONDS.toSeconds(millis) -
+								TimeUnit.MINUTES.toSeconds(TimeUnit.MILLISECONDS.toMinutes(millis))
+				);
+			}
+		} catch (NumberFormatException e) {
 			e.printStackTrace();
-		} catch (IOException e) {
+		} catch (BrightcoveException e) {
 			e.printStackTrace();
-		} finally {
-			//close the connection, set all objects to null
-			if (connection != null) connection.disconnect();
-			rd = null;
-			wr = null;
-			connection = null;
 		}
 		return result;
 	}
 
 	static String getName(String videoId, String tokenID) {
 		String result = "";
-
-
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd = null;
-		StringBuilder sb = null;
-		String line = null;
-		URL serverAddress = null;
-
 		try {
-
-			serverAddress = new URL("http://api.brightcove.com/services/library?command=find_video_by_id&video_id=" + videoId + "&video_fields=name,length&token=" + tokenID);
-			//set up out communications stuff
-			connection = null;
-
-			//Set up the initial connection
-			connection = (HttpURLConnection) serverAddress.openConnection();
-			connection.setRequestMethod("GET");
-			connection.setDoOutput(true);
-			connection.setReadTimeout(10000);
-
-			connection.connect();
-
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			sb = new StringBuilder();
-
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
+			Video video = getVideoLoader(tokenID, NAME_LENGTH_QUERY).get(Long.parseLong(videoId.trim()));
+			if (video != null && video.getName() != null) {
+				result = video.getName();
 			}
-
-			JSONObject js = new JSONObject(sb.toString());
-
-			result = js.getString("name");
-
-
-		} catch (JSONException e) {
-			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
+		} catch (NumberFormatException e) {
 			e.printStackTrace();
-		} catch (IOException e) {
+		} catch (BrightcoveException e) {
 			e.printStackTrace();
-		} finally {
-			//close the connection, set all objects to null
-			connection.disconnect();
-			rd = null;
-			sb = null;
-			wr = null;
-			connection = null;
 		}
 		return result;
 	}
 
+	/**
+	 * Gets the shared batch loader for a token and field set, so that single video lookups made
+	 * close together (e.g. while one page renders) go to the Media API as one find_videos_by_ids call.
+	 */
+	static VideoBatchLoader getVideoLoader(String token, CompiledQuery<Videos> query) {
+		String key = token + " " + query.getEncodedFixedParameters();
+		VideoBatchLoader loader = videoLoaders.get(key);
+		if (loader == null) {
+			VideoBatchLoader newLoader = new VideoBatchLoader(new ReadApi(LoggerFactory.getLogger("Brightcove")), token, query);
+			loader = videoLoaders.putIfAbsent(key, newLoader);
+			if (loader == null) {
+				loader = newLoader;
+			}
+		}
+		BrcService brcService = getSlingSettingService();
+		if (brcService != null) {
+			loader.configure(brcService.getBatchWindow(), brcService.getBatchMaxSize());
+		}
+		return loader;
+	}
+
 	public static String getList(String token, String params, Boolean exportCSV, String query) {
 
 		String result = "";
 		Logger loggerBRi = LoggerFactory.getLogger("Brightcove");
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd = null;
-		StringBuilder sb = null;
-		String line = null;
-		URL serverAddress = null;
-		JSONObject js = null;
 		try {
 
 			java.util.Map<String, JSONObject> sortedjson = new HashMap();
 
-			int pageNumber = 0;
-			double totalPages = 0;
+			ReadApi rapi = new ReadApi(loggerBRi);
+			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
+			for (String field : params.split(",")) {
+				videoFields.add(VideoFieldEnum.valueOf(field.trim().toUpperCase()));
+			}
+			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
 
-			while (pageNumber <= totalPages) {
+			List<String> all = new ArrayList<String>();
+			List<String> any = new ArrayList<String>();
+			List<String> none = new ArrayList<String>();
 
+			Videos videos;
+			loggerBRi.debug(query);
+			if (query != null && !query.trim().isEmpty() && isLong(query)) {
+				Set<Long> videoIds = new HashSet<Long>();
+				videoIds.add(Long.parseLong(query.trim()));
+				videos = rapi.FindVideosByIds(token, videoIds, videoFields, customFields);
+			} else {
 				if (query != null && !query.trim().isEmpty()) {
-					if (isLong(query)) {
-						serverAddress = new URL("http://api.brightcove.com/services/library?command=find_videos_by_ids&video_ids=" + URLEncoder.encode(query.trim(), "UTF-8") + "&video_fields=name,id,thumbnailURL&token=" + token);
-					} else {
-						serverAddress = new URL("http://api.brightcove.com/services/library?command=search_videos&sort_by=DISPLAY_NAME&any=search_text:" + URLEncoder.encode(query.trim(), "UTF-8") + "&any=tag:" + URLEncoder.encode(query.trim(), "UTF-8") + "&video_fields=name,id,thumbnailURL&get_item_count=true&page_size=20&page_number=" + pageNumber + "&token=" + token);
-					}
-				} else {
-					serverAddress = new URL("http://api.brightcove.com/services/library?command=search_videos&sort_by=DISPLAY_NAME&video_fields=" + params + "&get_item_count=true&page_number=" + pageNumber + "&token=" + token);
-				}
-				loggerBRi.debug(query);
-				//set up out communications stuff
-				connection = null;
-
-				//Set up the initial connection
-				connection = (HttpURLConnection) serverAddress.openConnection();
-				connection.setRequestMethod("GET");
-				connection.setDoOutput(true);
-				connection.setReadTimeout(10000);
-
-				connection.connect();
-
-				rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-				sb = new StringBuilder();
-
-				while ((line = rd.readLine()) != null) {
-					sb.append(line + '\n');
-				}
-
-				js = new JSONObject(sb.toString());
-
-				totalPages = Math.floor(js.getInt("total_count") / 100);
-
-				JSONArray jsa = new JSONArray(js.get("items").toString());
-				for (int i = 0; i < jsa.length(); i++) {
-					JSONObject row = jsa.getJSONObject(i);
-					sortedjson.put(row.getString("id"), row);
+					any.add("search_text:" + query.trim());
+					any.add("tag:" + query.trim());
 				}
+				videos = getPageCrawler().crawlSearchVideos(rapi, token, all, any, none, false, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, videoFields, customFields);
+			}
 
-				pageNumber++;
+			for (Video video : videos) {
+				JSONObject row = new JSONObject(video.toJson().toString());
+				sortedjson.put(row.getString("id"), row);
 			}
 
 			if (exportCSV) {
 				JSONObject tempJSON;
-				String csvString = "\"Video Name\",\"Video ID\"\r\n";
+				StringBuilder csvString = new StringBuilder("\"Video Name\",\"Video ID\"\r\n");
 
 				for (Iterator i = sortByValue(sortedjson).iterator(); i.hasNext(); ) {
 					String key = (String) i.next();
 					tempJSON = sortedjson.get(key);
-					csvString += "\"" + tempJSON.getString("name") + "\",\"" + tempJSON.getString("id") + "\"\r\n";
+					csvString.append("\"").append(tempJSON.getString("name")).append("\",\"").append(tempJSON.getString("id")).append("\"\r\n");
 				}
-				result = csvString;
+				result = csvString.toString();
 			} else {
 				JSONObject jsTotal = new JSONObject();
 
@@ -250,44 +336,35 @@ public class BrcUtils {
 					String key = (String) i.next();
 					jsTotal.accumulate("items", sortedjson.get(key));
 				}
-				jsTotal.put("totals", js.getInt("total_count"));
+				jsTotal.put("totals", videos.getTotalCount() < 0 ? videos.size() : videos.getTotalCount());
 				result = jsTotal.toString();
 			}
 
+		} catch (BrightcoveException e) {
+			loggerBRi.error("Couldn't read video list: " + e);
+		} catch (org.json.JSONException e) {
+			loggerBRi.error("Couldn't convert video list: " + e);
 		} catch (JSONException e) {
-			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			//close the connection, set all objects to null
-			connection.disconnect();
-			rd = null;
-			sb = null;
-			wr = null;
-			connection = null;
+			loggerBRi.error("Couldn't convert video list: " + e);
 		}
 		return result;
 	}
 
+	/**
+	 * Page crawler for full-catalog reads, using the parallelism configured on the Brightcove service.
+	 */
+	static PageCrawler getPageCrawler() {
+		BrcService brcService = getSlingSettingService();
+		return new PageCrawler(brcService != null ? brcService.getCrawlParallelism() : PageCrawler.DEFAULT_PARALLELISM);
+	}
+
 	public static String getList(String token, String params, Boolean exportCSV, String start, String limit, String query) {
 
 		String result = "";
 		Logger loggerBRi = LoggerFactory.getLogger("Brightcove");
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd = null;
-		StringBuilder sb = null;
-		String line = null;
-		URL serverAddress = null;
 		JSONObject jsTotal = new JSONObject();
 		try {
 
-			java.util.Map<String, JSONObject> sortedjson = new HashMap();
-
 			int pageNumber = 0;
 			int firstElement = 0;
 			if (start != null && !start.trim().isEmpty() && Integer.parseInt(start) > 0) {
@@ -298,86 +375,113 @@ public class BrcUtils {
 			}
 			int totalPages = 0;
 
-			if (query != null && !query.trim().isEmpty()) {
-				if (isLong(query)) {
-					serverAddress = new URL("http://api.brightcove.com/services/library?command=find_videos_by_ids&video_ids=" + URLEncoder.encode(query.trim(), "UTF-8") + "&video_fields=name,id,thumbnailURL&token=" + token);
+			// Searched and paged locally once the search index is built - see BrcSearchIndexJob
+			SearchIndex index = SearchIndex.getShared(token);
+			if (index != null && !exportCSV && !isLong(query)) {
+				SearchIndex.Hits hits = index.search(query, firstElement, getPageSize(limit), SearchIndex.Sort.RELEVANCE);
+				if (firstElement < hits.getTotal()) {
+					JSONArray items = new JSONArray();
+					for (SearchIndex.Hit hit : hits) {
+						JSONObject item = new JSONObject();
+						item.put("name", hit.getName() == null ? JSONObject.NULL : hit.getName());
+						item.put("path", String.valueOf(hit.getId()));
+						item.put("thumbnailURL", hit.getThumbnailUrl() == null ? JSONObject.NULL : hit.getThumbnailUrl());
+						items.put(item);
+					}
+					jsTotal.put("items", items);
+					jsTotal.put("results", hits.getTotal());
 				} else {
-					serverAddress = new URL("http://api.brightcove.com/services/library?command=search_videos&sort_by=DISPLAY_NAME&any=search_text:" + URLEncoder.encode(query.trim(), "UTF-8") + "&any=tag:" + URLEncoder.encode(query.trim(), "UTF-8") + "&video_fields=name,id,thumbnailURL&get_item_count=true&page_size=20&page_number=" + pageNumber + "&token=" + token);
+					jsTotal = new JSONObject("{\"items\":[],\"results\":0}");
 				}
-				loggerBRi.debug(serverAddress.toString());
-			} else {
-				serverAddress = new URL("http://api.brightcove.com/services/library?command=search_videos&sort_by=DISPLAY_NAME&video_fields=name,id,thumbnailURL&get_item_count=true&page_size=20&page_number=" + pageNumber + "&token=" + token);
+				return jsTotal.toString();
 			}
-			//set up out communications stuff
-			connection = null;
-
-			//Set up the initial connection
-			connection = (HttpURLConnection) serverAddress.openConnection();
-			connection.setRequestMethod("GET");
-			connection.setDoOutput(true);
-			connection.setReadTimeout(10000);
-
-			connection.connect();
 
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			sb = new StringBuilder();
-
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
-			}
-
-
-			JSONObject js = new JSONObject(sb.toString().replace("\"id\"", "\"videoid\"").replaceAll("\"videoid\":([0-9]*)", "\"path\":\"$1\""));
-			totalPages = js.getInt("total_count");
-			if (isLong(query)) {
-
-				totalPages = js.getJSONArray("items").length();
+			// Pages come from the search cache, so paging back and forth doesn't go to the Media API every time
+			ReadApi rapi = new ReadApi(loggerBRi);
+			List<String> any = new ArrayList<String>();
+			Videos videos;
+			if (query != null && !query.trim().isEmpty() && isLong(query)) {
+				Set<Long> videoIds = new HashSet<Long>();
+				videoIds.add(Long.parseLong(query.trim()));
+				videos = rapi.RunQuery(token, LISTED_VIDEOS_BY_IDS_QUERY, videoIds);
+				totalPages = videos.size();
+			} else {
+				if (query != null && !query.trim().isEmpty()) {
+					any.add("search_text:" + query.trim());
+					any.add("tag:" + query.trim());
+				}
+				videos = rapi.RunQuery(token, LISTED_VIDEOS_SEARCH_QUERY, null, any, null, pageNumber);
+				totalPages = videos.getTotalCount();
 			}
 
 			if (exportCSV) {
-				JSONObject tempJSON;
-				String csvString = "\"Video Name\",\"Video ID\"\r\n";
-
-				for (int i = 0; i < totalPages; i++) {
-					tempJSON = js.getJSONArray("items").getJSONObject(i);
-					csvString += "\"" + tempJSON.getString("name") + "\",\"" + tempJSON.getString("id") + "\"\r\n";
+				StringBuilder csvString = new StringBuilder("\"Video Name\",\"Video ID\"\r\n");
+				for (Video video : videos) {
+					csvString.append("\"").append(video.getName()).append("\",\"").append(video.getId()).append("\"\r\n");
 				}
-				result = csvString;
+				result = csvString.toString();
 			} else {
 
-
 				if (firstElement < totalPages) {
-					jsTotal.put("items", js.get("items"));
+					jsTotal.put("items", toPathItems(videos));
 					jsTotal.put("results", totalPages);
 				} else {
 					jsTotal = new JSONObject("{\"items\":[],\"results\":0}");
 				}
 
+				result = jsTotal.toString();
 			}
 
-
-			result = jsTotal.toString();
-
-
+		} catch (BrightcoveException e) {
+			loggerBRi.error("Couldn't read video list: " + e);
 		} catch (JSONException e) {
 			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			//close the connection, set all objects to null
-			connection.disconnect();
-			rd = null;
-			sb = null;
-			wr = null;
-			connection = null;
 		}
 		return result;
 	}
 
+	/**
+	 * Video list items for the content finder and side menu - name, thumbnailURL and the id as "path".
+	 */
+	private static JSONArray toPathItems(List<Video> videos) throws JSONException {
+		JSONArray items = new JSONArray();
+		for (Video video : videos) {
+			JSONObject item = new JSONObject();
+			item.put("name", video.getName() == null ? JSONObject.NULL : video.getName());
+			item.put("path", String.valueOf(video.getId()));
+			item.put("thumbnailURL", video.getThumbnailUrl() == null ? JSONObject.NULL : video.getThumbnailUrl());
+			items.put(item);
+		}
+		return items;
+	}
+
+	/**
+	 * Video list items, as {@link #toPathItems(List)}, for videos read from a catalog snapshot.
+	 */
+	private static JSONArray toCatalogPathItems(List<CatalogVideo> videos) throws JSONException {
+		JSONArray items = new JSONArray();
+		for (CatalogVideo video : videos) {
+			JSONObject item = new JSONObject();
+			item.put("name", video.getName() == null ? JSONObject.NULL : video.getName());
+			item.put("path", String.valueOf(video.getId()));
+			item.put("thumbnailURL", video.getThumbnailUrl() == null ? JSONObject.NULL : video.getThumbnailUrl());
+			items.put(item);
+		}
+		return items;
+	}
+
+	/**
+	 * Page size asked for with the limit parameter, or the 20 the Media API searches return.
+	 */
+	static int getPageSize(String limit) {
+		try {
+			int pageSize = Integer.parseInt(limit.trim());
+			return pageSize > 0 ? pageSize : 20;
+		} catch (Exception e) {
+			return 20;
+		}
+	}
+
 	public static boolean isLong(String input) {
 		if (input == null || input.trim().isEmpty()) return false;
 		try {
@@ -396,18 +500,10 @@ public class BrcUtils {
 			BrcService brcService = getSlingSettingService();
 			String readToken = brcService.getReadToken();
 			ReadApi rapi = new ReadApi(loggerBRi);
-			// Return only name,id,thumbnailURL
-			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-			videoFields.add(VideoFieldEnum.ID);
-			videoFields.add(VideoFieldEnum.NAME);
-			videoFields.add(VideoFieldEnum.THUMBNAILURL);
-			// Return no custom fields on all videos
-			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
 
 			List<String> all = new ArrayList();
 			List<String> any = new ArrayList();
 			List<String> none = new ArrayList();
-			Boolean exact = false;
 
 			int pageNumber = 0;
 			int firstElement = 0;
@@ -418,20 +514,45 @@ public class BrcUtils {
 
 			}
 			int totalVideos = 0;
+
+			// Searched and paged locally once the search index is built - see BrcSearchIndexJob
+			SearchIndex index = SearchIndex.getShared(readToken);
+			if (index != null && !isLong(querystr)) {
+				JSONArray items = new JSONArray();
+				SearchIndex.Hits hits = index.search(querystr, firstElement, getPageSize(limit), SearchIndex.Sort.RELEVANCE);
+				for (SearchIndex.Hit hit : hits) {
+					JSONObject item = new JSONObject();
+
+					item.put("id", hit.getId());
+					item.put("name", hit.getName());
+					item.put("thumbnailURL", hit.getThumbnailUrl());
+					items.put(item);
+				}
+				jsTotal.put("items", items);
+				jsTotal.put("results", hits.getTotal());
+				return jsTotal.toString();
+			}
+
 			Videos videos = null;
 			if (querystr != null && !querystr.trim().isEmpty()) {
 				any.add("tag:" + querystr);
 				any.add("search_text:" + querystr);
 
-				videos = rapi.SearchVideos(readToken, all, any, none, exact, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, 20, pageNumber, videoFields, customFields);
+				// Look the query up as a video id at the same time as running the search
+				AsyncReadApi async = rapi.async();
+				Future<Videos> byIds = null;
 				if (isLong(querystr)) {
 					Set<Long> videoIds = new HashSet<Long>();
 					videoIds.add(Long.parseLong(querystr));
-					videos.addAll(rapi.FindVideosByIds(readToken, videoIds, videoFields, customFields));
+					byIds = async.runQuery(readToken, LISTED_VIDEOS_BY_IDS_QUERY, videoIds);
+				}
+				videos = AsyncReadApi.await(async.runQuery(readToken, LISTED_VIDEOS_SEARCH_QUERY, all, any, none, pageNumber));
+				if (byIds != null) {
+					videos.addAll(AsyncReadApi.await(byIds));
 				}
 			} else {
 				loggerBRi.error("noQuery");
-				videos = rapi.SearchVideos(readToken, all, any, none, exact, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, 20, pageNumber, videoFields, customFields);
+				videos = rapi.RunQuery(readToken, LISTED_VIDEOS_SEARCH_QUERY, all, any, none, pageNumber);
 				//videos = rapi.FindAllVideos(readToken, 20, pageNumber, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, videoFields, customFields);
 			}
 			JSONArray items = new JSONArray();
@@ -462,18 +583,10 @@ public class BrcUtils {
 			Long videoId = Long.parseLong(videoIdstr);
 			BrcService brcService = getSlingSettingService();
 			String readToken = brcService.getReadToken();
-			ReadApi rapi = new ReadApi();
-			// Return only name,id,thumbnailURL
-			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-			videoFields.add(VideoFieldEnum.ID);
-			videoFields.add(VideoFieldEnum.NAME);
-			videoFields.add(VideoFieldEnum.THUMBNAILURL);
-			// Return no custom fields on all videos
-			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
 			JSONArray items = new JSONArray();
 			JSONObject item = new JSONObject();
 
-			Video selectedVideo = rapi.FindVideoById(readToken, videoId, videoFields, customFields);
+			Video selectedVideo = getVideoLoader(readToken, LISTED_VIDEOS_BY_IDS_QUERY).get(videoId);
 			if (selectedVideo != null) {
 				item.put("id", selectedVideo.getId());
 				item.put("name", selectedVideo.getName());
@@ -491,84 +604,58 @@ public class BrcUtils {
 
 	public static String getListSideMenu(String token, String limit) {
 		String result = "";
-
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd = null;
-		StringBuilder sb = null;
-		String line = null;
-		URL serverAddress = null;
+		Logger loggerBRi = LoggerFactory.getLogger("Brightcove");
 		JSONObject jsTotal = new JSONObject();
 		try {
 
-			java.util.Map<String, JSONObject> sortedjson = new HashMap();
-
-			int pageNumber = 0;
 			int firstElement = 0;
 			if (limit != null && !limit.trim().isEmpty() && limit.split("\\.\\.")[0] != null) {
-				pageNumber = Integer.parseInt(limit.split("\\.\\.")[0]) / 20;
 				firstElement = Integer.parseInt(limit.split("\\.\\.")[0]);
 			}
-			int totalPages = 0;
-
-			serverAddress = new URL("http://api.brightcove.com/services/library?command=search_videos&sort_by=DISPLAY_NAME&video_fields=name,id,thumbnailURL&get_item_count=true&page_size=20&page_number=" + pageNumber + "&token=" + token);
-			//set up out communications stuff
-			connection = null;
-
-			//Set up the initial connection
-			connection = (HttpURLConnection) serverAddress.openConnection();
-			connection.setRequestMethod("GET");
-			connection.setDoOutput(true);
-			connection.setReadTimeout(10000);
-
-			connection.connect();
-
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			sb = new StringBuilder();
 
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
+			// Read straight out of the catalog's name order once there is a snapshot
+			CatalogSnapshot snapshot = CatalogStore.getShared().getSnapshot(token);
+			if (snapshot != null) {
+				CatalogViews views = snapshot.getViews();
+				if (firstElement < views.size()) {
+					jsTotal.put("items", toCatalogPathItems(views.window(SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, firstElement, LIST_PAGE_SIZE)));
+					jsTotal.put("results", views.size());
+				} else {
+					jsTotal = new JSONObject("{\"items\":[],\"results\":0}");
+				}
+				return jsTotal.toString();
 			}
 
-
-			JSONObject js = new JSONObject(sb.toString());
-			totalPages = js.getInt("total_count");
-			if (firstElement < totalPages) {
-				JSONArray jsa = new JSONArray(js.get("items").toString());
-				for (int i = 0; i < jsa.length(); i++) {
-					JSONObject row = jsa.getJSONObject(i);
-					sortedjson.put(row.getString("id"), row);
+			// The window starting at the first element, from the one or two pages it falls on - already in name order
+			ReadApi rapi = new ReadApi(loggerBRi);
+			List<Video> window = new ArrayList<Video>();
+			int totalPages = 0;
+			for (int pageNumber = firstElement / LIST_PAGE_SIZE; pageNumber <= (firstElement + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE; pageNumber++) {
+				Videos videos = rapi.RunQuery(token, LISTED_VIDEOS_SEARCH_QUERY, null, null, null, pageNumber);
+				totalPages = videos.getTotalCount();
+				for (int i = 0; i < videos.size(); i++) {
+					int position = pageNumber * LIST_PAGE_SIZE + i;
+					if (position >= firstElement && position < firstElement + LIST_PAGE_SIZE) {
+						window.add(videos.get(i));
+					}
 				}
-
-
-				for (Iterator i = sortByValue(sortedjson).iterator(); i.hasNext(); ) {
-					String key = (String) i.next();
-					jsTotal.accumulate("items", sortedjson.get(key));
+				if (videos.size() < LIST_PAGE_SIZE) {
+					break;
 				}
-				jsTotal.put("results", js.getInt("total_count"));
+			}
+			if (firstElement < totalPages) {
+				jsTotal.put("items", toPathItems(window));
+				jsTotal.put("results", totalPages);
 			} else {
 				jsTotal = new JSONObject("{\"items\":[],\"results\":0}");
 			}
 
+			result = jsTotal.toString();
 
-			result = jsTotal.toString().replace("\"id\"", "\"videoid\"").replaceAll("\"videoid\":([0-9]*)", "\"path\":\"$1\"");
-
-
+		} catch (BrightcoveException e) {
+			loggerBRi.error("Couldn't read video list: " + e);
 		} catch (JSONException e) {
 			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		} finally {
-			//close the connection, set all objects to null
-			connection.disconnect();
-			rd = null;
-			sb = null;
-			wr = null;
-			connection = null;
 		}
 		return result;
 	}
@@ -581,18 +668,10 @@ public class BrcUtils {
 			BrcService brcService = getSlingSettingService();
 			String readToken = brcService.getReadToken();
 			ReadApi rapi = new ReadApi(loggerBRi);
-			// Return only name,id,thumbnailURL
-			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-			videoFields.add(VideoFieldEnum.ID);
-			videoFields.add(VideoFieldEnum.NAME);
-			videoFields.add(VideoFieldEnum.THUMBNAILURL);
-			// Return no custom fields on all videos
-			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
 
 			List<String> all = new ArrayList();
 			List<String> any = new ArrayList();
 			List<String> none = new ArrayList();
-			Boolean exact = false;
 
 			int pageNumber = 0;
 			int firstElement = 0;
@@ -603,20 +682,45 @@ public class BrcUtils {
 
 			}
 			int totalVideos = 0;
+
+			// Answered locally once the suggestion index is built - see BrcSearchIndexJob
+			AutocompleteIndex index = AutocompleteIndex.getShared(readToken);
+			if (index != null && firstElement == 0 && querystr != null && !querystr.trim().isEmpty()) {
+				JSONArray items = new JSONArray();
+				for (AutocompleteIndex.Suggestion suggestion : index.suggest(querystr, isLong(limit) ? Integer.valueOf(limit) : null)) {
+					JSONObject item = new JSONObject();
+
+					item.put("name", suggestion.getId());
+					item.put("value", suggestion.getName());
+					item.put("title", suggestion.getName());
+					item.put("thumbnailURL", suggestion.getThumbnailUrl());
+					items.put(item);
+				}
+				jsTotal.put("suggestions", items);
+				jsTotal.put("results", items.length());
+				return jsTotal.toString();
+			}
+
 			Videos videos = null;
 			if (querystr != null && !querystr.trim().isEmpty()) {
 				any.add("tag:" + querystr);
 				any.add("search_text:" + URLEncoder.encode(querystr, "UTF-8"));
 
-				videos = rapi.SearchVideos(readToken, all, any, none, exact, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, 20, pageNumber, videoFields, customFields);
+				// Look the query up as a video id at the same time as running the search
+				AsyncReadApi async = rapi.async();
+				Future<Videos> byIds = null;
 				if (isLong(querystr)) {
 					Set<Long> videoIds = new HashSet<Long>();
 					videoIds.add(Long.parseLong(querystr));
-					videos.addAll(rapi.FindVideosByIds(readToken, videoIds, videoFields, customFields));
+					byIds = async.runQuery(readToken, LISTED_VIDEOS_BY_IDS_QUERY, videoIds);
+				}
+				videos = AsyncReadApi.await(async.runQuery(readToken, LISTED_VIDEOS_SEARCH_QUERY, all, any, none, pageNumber));
+				if (byIds != null) {
+					videos.addAll(AsyncReadApi.await(byIds));
 				}
 			} else {
 				loggerBRi.error("noQuery");
-				videos = rapi.SearchVideos(readToken, all, any, none, exact, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, 20, pageNumber, videoFields, customFields);
+				videos = rapi.RunQuery(readToken, LISTED_VIDEOS_SEARCH_QUERY, all, any, none, pageNumber);
 				//videos = rapi.FindAllVideos(readToken, 20, pageNumber, SortByTypeEnum.DISPLAY_NAME, SortOrderTypeEnum.ASC, videoFields, customFields);
 			}
 			JSONArray items = new JSONArray();
@@ -653,14 +757,8 @@ public class BrcUtils {
 			String readToken = brcService.getReadToken();
 			ReadApi rapi = new ReadApi(loggerBRi);
 			// Return only name,id,thumbnailURL
-			EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
-			videoFields.add(VideoFieldEnum.ID);
-			videoFields.add(VideoFieldEnum.NAME);
-			videoFields.add(VideoFieldEnum.THUMBNAILURL);
-			EnumSet<PlaylistFieldEnum> playlistFields = PlaylistFieldEnum.CreateEmptyEnumSet();
-			playlistFields.add(PlaylistFieldEnum.ID);
-			playlistFields.add(PlaylistFieldEnum.NAME);
-			playlistFields.add(PlaylistFieldEnum.THUMBNAILURL);
+			EnumSet<VideoFieldEnum> videoFields = getListedVideoFields();
+			EnumSet<PlaylistFieldEnum> playlistFields = getListedPlaylistFields();
 			// Return no custom fields on all videos
 			Set<String> customFields = CollectionUtils.CreateEmptyStringSet();
 
@@ -738,10 +836,11 @@ public class BrcUtils {
 			connection.setRequestMethod("GET");
 			connection.setDoOutput(true);
 			connection.setReadTimeout(10000);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
 
 			connection.connect();
 
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+			rd = new BufferedReader(new InputStreamReader(getResponseStream(connection)));
 			sb = new StringBuilder();
 
 			while ((line = rd.readLine()) != null) {
@@ -775,63 +874,37 @@ public class BrcUtils {
 	//FindAllPlaylists(String readToken, Integer pageSize, Integer pageNumber, SortByTypeEnum sortBy, SortOrderTypeEnum sortOrderType, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields)
 	public static String getListPlaylistsSideMenu(String token, String limit) {
 		String result = "";
-
-		HttpURLConnection connection = null;
-		OutputStreamWriter wr = null;
-		BufferedReader rd = null;
-		StringBuilder sb = null;
-		String line = null;
-		URL serverAddress = null;
 		JSONObject jsTotal = new JSONObject();
 		try {
 
-			java.util.Map<String, JSONObject> sortedjson = new HashMap();
+			// Pages come back sorted by name, so the window is already in menu order
+			JSONArray jarr = new JSONArray();
 
-			int pageNumber = 0;
 			int firstElement = 0;
 			if (limit != null && !limit.trim().isEmpty() && limit.split("\\.\\.")[0] != null) {
-				pageNumber = Integer.parseInt(limit.split("\\.\\.")[0]) / 20;
 				firstElement = Integer.parseInt(limit.split("\\.\\.")[0]);
 			}
 			int totalPages = 0;
 
-			serverAddress = new URL("http://api.brightcove.com/services/library?command=find_all_playlists&playlist_fields=name,id,thumbnailURL&get_item_count=true&page_number=" + pageNumber + "&token=" + token);
-			//set up out communications stuff
-			connection = null;
-
-			//Set up the initial connection
-			connection = (HttpURLConnection) serverAddress.openConnection();
-			connection.setRequestMethod("GET");
-			connection.setDoOutput(true);
-			connection.setReadTimeout(10000);
-
-			connection.connect();
-
-			rd = new BufferedReader(new InputStreamReader(connection.getInputStream()));
-			sb = new StringBuilder();
-
-			while ((line = rd.readLine()) != null) {
-				sb.append(line + '\n');
-			}
-
-
-			JSONObject js = new JSONObject(sb.toString());
-			totalPages = js.getInt("total_count");
-			if (firstElement < totalPages) {
+			// The window starting at the first element, from the one or two pages it falls on
+			for (int pageNumber = firstElement / LIST_PAGE_SIZE; pageNumber <= (firstElement + LIST_PAGE_SIZE - 1) / LIST_PAGE_SIZE; pageNumber++) {
+				JSONObject js = readPlaylistsPage(token, pageNumber);
+				totalPages = js.getInt("total_count");
 				JSONArray jsa = new JSONArray(js.get("items").toString());
 				for (int i = 0; i < jsa.length(); i++) {
-					JSONObject row = jsa.getJSONObject(i);
-					sortedjson.put(row.getString("id"), row);
+					int position = pageNumber * LIST_PAGE_SIZE + i;
+					if (position >= firstElement && position < firstElement + LIST_PAGE_SIZE) {
+						jarr.put(jsa.getJSONObject(i));
+					}
 				}
-
-				JSONArray jarr = new JSONArray();
-				for (Iterator i = sortByValue(sortedjson).iterator(); i.hasNext(); ) {
-					String key = (String) i.next();
-					jarr.put(sortedjson.get(key));
-
+				if (jsa.length() < LIST_PAGE_SIZE) {
+					break;
 				}
+			}
+
+			if (firstElement < totalPages) {
 				jsTotal.put("items", jarr);
-				jsTotal.put("results", js.getInt("total_count"));
+				jsTotal.put("results", totalPages);
 			} else {
 				jsTotal = new JSONObject("{\"items\":[],\"results\":0}");
 			}
@@ -842,21 +915,38 @@ public class BrcUtils {
 
 		} catch (JSONException e) {
 			e.printStackTrace();
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-		} catch (ProtocolException e) {
-			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
+		}
+		return result;
+	}
+
+	/**
+	 * One page of find_all_playlists - name,id,thumbnailURL, 20 to a page, sorted by name - with the total count.
+	 */
+	private static JSONObject readPlaylistsPage(String token, int pageNumber) throws IOException, JSONException {
+		URL serverAddress = new URL("http://api.brightcove.com/services/library?command=find_all_playlists&playlist_fields=name,id,thumbnailURL&get_item_count=true&page_size=" + LIST_PAGE_SIZE + "&page_number=" + pageNumber + "&sort_by=DISPLAY_NAME&sort_order=ASC&token=" + token);
+
+		//Set up the initial connection
+		HttpURLConnection connection = (HttpURLConnection) serverAddress.openConnection();
+		try {
+			connection.setRequestMethod("GET");
+			connection.setDoOutput(true);
+			connection.setReadTimeout(10000);
+			connection.setRequestProperty("Accept-Encoding", "gzip, deflate");
+
+			connection.connect();
+
+			BufferedReader rd = new BufferedReader(new InputStreamReader(getResponseStream(connection)));
+			StringBuilder sb = new StringBuilder();
+			String line;
+			while ((line = rd.readLine()) != null) {
+				sb.append(line + '\n');
+			}
+			return new JSONObject(sb.toString());
 		} finally {
-			//close the connection, set all objects to null
 			connection.disconnect();
-			rd = null;
-			sb = null;
-			wr = null;
-			connection = null;
 		}
-		return result;
 	}
 
 }
@@ -5,6 +5,8 @@ import org.osgi.framework.BundleContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.brightcove.proserve.mediaapi.wrapper.http.MediaApiTransport;
+
 public class Activator implements BundleActivator {
 
     /**
@@ -17,8 +19,9 @@ public class Activator implements BundleActivator {
      * @see org.osgi.framework.BundleActivator#start(org.osgi.framework.BundleContext)
      */
     public void start(BundleContext context) throws Exception {
+        // Only needed after a stop without a refresh - a fresh class loader starts it itself
+        MediaApiTransport.getInstance().start();
         log.info(context.getBundle().getSymbolicName() + " started");
-        // TODO add initialization code
     }
 
     /*
@@ -26,7 +29,8 @@ public class Activator implements BundleActivator {
      * @see org.osgi.framework.BundleActivator#stop(org.osgi.framework.BundleContext)
      */
     public void stop(BundleContext context) throws Exception {
+        // The shared transport belongs to this bundle - stop its eviction thread and close its pool
+        MediaApiTransport.getInstance().shutdown();
         log.info(context.getBundle().getSymbolicName() + " stopped");
-        // TODO add cleanup code
     }
 }
@@ -0,0 +1,346 @@
+package com.brightcove.proserve.mediaapi.wrapper;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoStateFilterEnum;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.query.CompiledQuery;
+
+/**
+ * <p>Asynchronous view of a {@link ReadApi}.  Every finder is submitted to a shared,
+ *    bounded pool of worker threads that issue requests over the pooled Media API
+ *    transport, and a Future for the result is returned straight away.</p>
+ *
+ * <p>This allows callers that need several lookups to start all of them and then
+ *    wait for the results together:</p>
+ *
+ * <pre>
+ * AsyncReadApi async = new ReadApi(log).async();
+ * Future&lt;Videos&gt; search = async.searchVideos(...);
+ * Future&lt;Videos&gt; byIds  = async.findVideosByIds(...);
+ * Videos videos = AsyncReadApi.await(search);
+ * videos.addAll(AsyncReadApi.await(byIds));
+ * </pre>
+ *
+ * <p>Parameters and results are exactly those of the matching ReadApi method.</p>
+ */
+public class AsyncReadApi {
+    private static final Integer WORKER_THREADS = 20;
+
+    private static final ExecutorService sharedExecutor = createExecutor();
+
+    private final ReadApi         readApi;
+    private final ExecutorService executor;
+
+    /**
+     * <p>Creates an asynchronous view of the given Read API wrapper using the shared worker pool.</p>
+     *
+     * @param readApi Read API wrapper to issue the calls through
+     */
+    public AsyncReadApi(ReadApi readApi){
+        this(readApi, sharedExecutor);
+    }
+
+    /**
+     * <p>Creates an asynchronous view of the given Read API wrapper using the executor given.</p>
+     *
+     * @param readApi Read API wrapper to issue the calls through
+     * @param executor Executor to run the calls on
+     */
+    public AsyncReadApi(ReadApi readApi, ExecutorService executor){
+        this.readApi  = readApi;
+        this.executor = executor;
+    }
+
+    private static ExecutorService createExecutor(){
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "brightcove-read-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * <p>Gets the worker pool shared by all AsyncReadApi instances.</p>
+     *
+     * @return Shared worker pool
+     */
+    public static ExecutorService getSharedExecutor(){
+        return sharedExecutor;
+    }
+
+    /**
+     * <p>Waits for a Future returned by this class and unwraps any failure back into the BrightcoveException thrown by the ReadApi call.</p>
+     *
+     * @param future Future returned by one of the finders
+     * @return Result of the call
+     * @throws BrightcoveException If the call failed or the wait was interrupted
+     */
+    public static <T> T await(Future<T> future) throws BrightcoveException {
+        try{
+            return future.get();
+        }
+        catch(InterruptedException ie){
+            Thread.currentThread().interrupt();
+            throw new BrightcoveException(ie);
+        }
+        catch(ExecutionException ee){
+            Throwable cause = ee.getCause();
+            if(cause instanceof BrightcoveException){
+                throw (BrightcoveException)cause;
+            }
+            if(cause instanceof RuntimeException){
+                throw (RuntimeException)cause;
+            }
+            throw new BrightcoveException(ee);
+        }
+    }
+
+    /**
+     * <p>Submits an arbitrary read to the worker pool.</p>
+     *
+     * @param call Call to run
+     * @return Future for the result
+     */
+    public <T> Future<T> submit(Callable<T> call){
+        return executor.submit(call);
+    }
+
+    /**
+     * @see ReadApi#RunQuery(String, CompiledQuery, Object...)
+     */
+    public <T> Future<T> runQuery(final String readToken, final CompiledQuery<T> query, final Object... values){
+        return submit(new Callable<T>() {
+            public T call() throws BrightcoveException {
+                return readApi.RunQuery(readToken, query, values);
+            }
+        });
+    }
+
+    // --------------------- Video Read API Methods --------------------------
+
+    /**
+     * @see ReadApi#FindVideoById(String, Long, EnumSet, Set)
+     */
+    public Future<Video> findVideoById(final String readToken, final Long videoId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Video>() {
+            public Video call() throws BrightcoveException {
+                return readApi.FindVideoById(readToken, videoId, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindAllVideos(String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Future<Videos> findAllVideos(final String readToken, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindAllVideos(readToken, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindRelatedVideos(String, Long, String, Integer, Integer, EnumSet, Set)
+     */
+    public Future<Videos> findRelatedVideos(final String readToken, final Long videoId, final String referenceId, final Integer pageSize, final Integer pageNumber, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindRelatedVideos(readToken, videoId, referenceId, pageSize, pageNumber, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByIds(String, Set, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByIds(final String readToken, final Set<Long> videoIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByIds(readToken, videoIds, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideoByReferenceId(String, String, EnumSet, Set)
+     */
+    public Future<Video> findVideoByReferenceId(final String readToken, final String referenceId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Video>() {
+            public Video call() throws BrightcoveException {
+                return readApi.FindVideoByReferenceId(readToken, referenceId, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByReferenceIds(String, Set, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByReferenceIds(final String readToken, final Set<String> referenceIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByReferenceIds(readToken, referenceIds, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByUserId(String, String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByUserId(final String readToken, final String userId, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByUserId(readToken, userId, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByCampaignId(String, String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByCampaignId(final String readToken, final String campaignId, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByCampaignId(readToken, campaignId, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindModifiedVideos(String, Long, Set, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Future<Videos> findModifiedVideos(final String readToken, final Long fromDate, final Set<VideoStateFilterEnum> filter, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindModifiedVideos(readToken, fromDate, filter, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#SearchVideos(String, List, List, List, Boolean, SortByTypeEnum, SortOrderTypeEnum, Integer, Integer, EnumSet, Set)
+     */
+    public Future<Videos> searchVideos(final String readToken, final List<String> all, final List<String> any, final List<String> none, final Boolean exact, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final Integer pageSize, final Integer pageNumber, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.SearchVideos(readToken, all, any, none, exact, sortBy, sortOrderType, pageSize, pageNumber, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByText(String, String, Integer, Integer, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByText(final String readToken, final String text, final Integer pageSize, final Integer pageNumber, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByText(readToken, text, pageSize, pageNumber, videoFields, customFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindVideosByTags(String, Set, Set, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Future<Videos> findVideosByTags(final String readToken, final Set<String> andTags, final Set<String> orTags, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields){
+        return submit(new Callable<Videos>() {
+            public Videos call() throws BrightcoveException {
+                return readApi.FindVideosByTags(readToken, andTags, orTags, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        });
+    }
+
+    // --------------------- Playlist Read API Methods -----------------------
+
+    /**
+     * @see ReadApi#FindAllPlaylists(String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlists> findAllPlaylists(final String readToken, final Integer pageSize, final Integer pageNumber, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlists>() {
+            public Playlists call() throws BrightcoveException {
+                return readApi.FindAllPlaylists(readToken, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindPlaylistById(String, Long, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlist> findPlaylistById(final String readToken, final Long playlistId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlist>() {
+            public Playlist call() throws BrightcoveException {
+                return readApi.FindPlaylistById(readToken, playlistId, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindPlaylistByReferenceId(String, String, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlist> findPlaylistByReferenceId(final String readToken, final String referenceId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlist>() {
+            public Playlist call() throws BrightcoveException {
+                return readApi.FindPlaylistByReferenceId(readToken, referenceId, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindPlaylistsByIds(String, Set, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlists> findPlaylistsByIds(final String readToken, final Set<Long> playlistIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlists>() {
+            public Playlists call() throws BrightcoveException {
+                return readApi.FindPlaylistsByIds(readToken, playlistIds, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindPlaylistsByReferenceIds(String, Set, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlists> findPlaylistsByReferenceIds(final String readToken, final Set<String> referenceIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlists>() {
+            public Playlists call() throws BrightcoveException {
+                return readApi.FindPlaylistsByReferenceIds(readToken, referenceIds, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+
+    /**
+     * @see ReadApi#FindPlaylistsForPlayerId(String, String, Integer, Integer, EnumSet, Set, EnumSet)
+     */
+    public Future<Playlists> findPlaylistsForPlayerId(final String readToken, final String playerId, final Integer pageSize, final Integer pageNumber, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields){
+        return submit(new Callable<Playlists>() {
+            public Playlists call() throws BrightcoveException {
+                return readApi.FindPlaylistsForPlayerId(readToken, playerId, pageSize, pageNumber, videoFields, customFields, playlistFields);
+            }
+        });
+    }
+}
@@ -4,9 +4,14 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,14 +19,11 @@ import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicNameValuePair;
-import org.json.JSONException;
-import org.json.JSONObject;
+import org.apache.http.util.EntityUtils;
 
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
@@ -32,12 +34,23 @@ import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoStateFilterEnum;
+import com.brightcove.proserve.mediaapi.wrapper.cache.NegativeCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.PlaylistCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.SearchResultCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.VideoCache;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
-import com.brightcove.proserve.mediaapi.wrapper.exceptions.MediaApiException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+import com.brightcove.proserve.mediaapi.wrapper.http.CircuitBreaker;
+import com.brightcove.proserve.mediaapi.wrapper.http.MediaApiTransport;
+import com.brightcove.proserve.mediaapi.wrapper.http.RateLimiter;
+import com.brightcove.proserve.mediaapi.wrapper.http.RetryPolicy;
 import com.brightcove.proserve.mediaapi.wrapper.json.JSONUtils;
+import com.brightcove.proserve.mediaapi.wrapper.json.MediaApiResponseHandler;
+import com.brightcove.proserve.mediaapi.wrapper.query.CompiledQuery;
+import com.brightcove.proserve.mediaapi.wrapper.query.VideoQuery;
 import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+import com.brightcove.proserve.mediaapi.wrapper.utils.SingleFlight;
 
 /**
  * <p>This is a wrapper for the HTTP/JSON Media API provided by Brightcove (<a href="http://www.brightcove.com">http://www.brightcove.com</a>)</p>
@@ -60,9 +73,18 @@ public class ReadApi {
     private String     readHost;
     private Integer    readPort;
     private String     readPath;
-    private HttpClient httpAgent;
+    
+    private MediaApiTransport transport;
     
     private Boolean    enableUds;
+    private Boolean    coalesceRequests;
+    private RetryPolicy retryPolicy;
+    private VideoCache  videoCache;
+    private SearchResultCache searchCache;
+    private NegativeCache     negativeCache;
+    private PlaylistCache     playlistCache;
+    
+    private static final SingleFlight<String, Object> inFlightCommands = new SingleFlight<String, Object>();
     
     private static final String  READ_API_DEFAULT_SCHEME = "http";
     private static final String  READ_API_DEFAULT_HOST   = "api.brightcove.com";
@@ -144,9 +166,14 @@ public class ReadApi {
     private void init(){
         log       = null;
         charSet   = "UTF-8";
-        httpAgent = new DefaultHttpClient();
+        transport = MediaApiTransport.getInstance();
         
-        enableUds = false;
+        enableUds        = false;
+        coalesceRequests = true;
+        videoCache       = VideoCache.getShared();
+        searchCache      = SearchResultCache.getShared();
+        negativeCache    = NegativeCache.getShared();
+        playlistCache    = PlaylistCache.getShared();
         
         readProtocolScheme = READ_API_DEFAULT_SCHEME;
         readHost           = READ_API_DEFAULT_HOST;
@@ -169,6 +196,119 @@ public class ReadApi {
         this.readPath           = path;
     }
     
+    /**
+     * <p>Overrides the shared pooled transport used to talk to the Media API.</p>
+     * 
+     * @param transport Transport to issue requests through
+     */
+    public void setTransport(MediaApiTransport transport){
+        this.transport = transport;
+    }
+    
+    /**
+     * <p>Sets the policy used to retry reads that fail for a transient reason.  If not set, {@link RetryPolicy#getDefault()} is used.</p>
+     * 
+     * @param retryPolicy Retry policy for this wrapper
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy){
+        this.retryPolicy = retryPolicy;
+    }
+    
+    /**
+     * <p>Sets whether concurrent identical reads share a single request to the Media API (on by default).</p>
+     * 
+     * <p>Shared results are handed to every waiting caller, so they should be treated as read-only.</p>
+     * 
+     * @param coalesceRequests False to always send a separate request
+     */
+    public void setCoalesceRequests(Boolean coalesceRequests){
+        this.coalesceRequests = coalesceRequests;
+    }
+    
+    /**
+     * <p>Sets the cache used by the by-id finders.  If not set, {@link VideoCache#getShared()} is used.</p>
+     * 
+     * @param videoCache Cache for videos read by id, or null to always read from the Media API
+     */
+    public void setVideoCache(VideoCache videoCache){
+        this.videoCache = videoCache;
+    }
+    
+    /**
+     * @return Cache used by the by-id finders, or null if they don't cache
+     */
+    public VideoCache getVideoCache(){
+        return videoCache;
+    }
+    
+    /**
+     * <p>Sets the cache used for paged searches.  If not set, {@link SearchResultCache#getShared()} is used.</p>
+     * 
+     * @param searchCache Cache for pages of search results, or null to always read from the Media API
+     */
+    public void setSearchCache(SearchResultCache searchCache){
+        this.searchCache = searchCache;
+    }
+    
+    /**
+     * @return Cache used for paged searches, or null if they aren't cached
+     */
+    public SearchResultCache getSearchCache(){
+        return searchCache;
+    }
+    
+    /**
+     * <p>Sets the cache of ids recently reported as not found.  If not set, {@link NegativeCache#getShared()} is used.</p>
+     * 
+     * @param negativeCache Cache of missing video and playlist ids, or null to always ask the Media API
+     */
+    public void setNegativeCache(NegativeCache negativeCache){
+        this.negativeCache = negativeCache;
+    }
+    
+    /**
+     * @return Cache of missing ids, or null if misses aren't remembered
+     */
+    public NegativeCache getNegativeCache(){
+        return negativeCache;
+    }
+    
+    /**
+     * <p>Sets the cache used by the playlist by-id finders.  If not set, {@link PlaylistCache#getShared()} is used.</p>
+     * 
+     * @param playlistCache Cache for playlists read by id, or null to always read from the Media API
+     */
+    public void setPlaylistCache(PlaylistCache playlistCache){
+        this.playlistCache = playlistCache;
+    }
+    
+    /**
+     * @return Cache used by the playlist by-id finders, or null if they don't cache
+     */
+    public PlaylistCache getPlaylistCache(){
+        return playlistCache;
+    }
+    
+    /**
+     * <p>Gets the coalescer shared by all ReadApi instances, e.g. to report how many calls it has saved.</p>
+     * 
+     * @return Shared request coalescer
+     */
+    public static SingleFlight<String, Object> getRequestCoalescer(){
+        return inFlightCommands;
+    }
+    
+    /**
+     * <p>Returns an asynchronous view of this wrapper.  Every finder on the returned
+     *    object runs on a shared pool of worker threads and returns a Future, so that
+     *    several lookups can be started at once and joined afterwards.</p>
+     * 
+     * @return Asynchronous view of this Read API wrapper
+     */
+    public AsyncReadApi async(){
+        return new AsyncReadApi(this);
+    }
+    
     /**
      * <p>Builds a Read Media API request URL using the list of parameters provided</p>
      * 
@@ -189,10 +329,53 @@ public class ReadApi {
     }
     
     /**
-     * <p>Issues the command URL to the Media API and returns the response as a String</p>
+     * <p>Gets the value of a parameter from the list</p>
+     * 
+     * @param parameters URL parameters
+     * @param name Name of the parameter
+     * @return Value of the first parameter with the name given, or an empty String if there is none
+     */
+    private String GetParameter(List<NameValuePair> parameters, String name){
+        for(NameValuePair parameter : parameters){
+            if(name.equals(parameter.getName()) && (parameter.getValue() != null)){
+                return parameter.getValue();
+            }
+        }
+        return "";
+    }
+    
+    /**
+     * <p>Builds the key used to recognise identical requests in flight</p>
+     * 
+     * <p>Parameters are sorted so that the same request built in a different order maps to the same key.</p>
+     * 
+     * @param parameters URL parameters, including the command name and token
+     * @param handler Handler the response will be parsed with
+     * @return Normalized key for the request
+     */
+    private String BuildCommandKey(List<NameValuePair> parameters, MediaApiResponseHandler<?> handler){
+        List<NameValuePair> sorted = new ArrayList<NameValuePair>(parameters);
+        Collections.sort(sorted, new Comparator<NameValuePair>() {
+            public int compare(NameValuePair o1, NameValuePair o2) {
+                int ret = o1.getName().compareTo(o2.getName());
+                if(ret == 0){
+                    String v1 = (o1.getValue() == null) ? "" : o1.getValue();
+                    String v2 = (o2.getValue() == null) ? "" : o2.getValue();
+                    ret = v1.compareTo(v2);
+                }
+                return ret;
+            }
+        });
+        
+        return handler.getDescription() + " " + readProtocolScheme + "://" + readHost + ":" + readPort + readPath + "?" + URLEncodedUtils.format(sorted, charSet);
+    }
+    
+    /**
+     * <p>Issues the command URL to the Media API and streams the response into a result object</p>
      * 
      * @param parameters URL parameters to pass, including the command name
-     * @return Response from server in the form of a String
+     * @param handler Builds the result from the fields of the response
+     * @return Result built by the handler, or null if the Media API returned "null"
      * @throws BrightcoveException If any of the following are true:<ul>
      *  <li>Command URL couldn't be properly built from the parameters given</li>
      *  <li>Client communication to Media API uses improper protocol</li>
@@ -201,68 +384,251 @@ public class ReadApi {
      *  <li>Media API indicates that there is an error with the request</li>
      * </ul>
      */
-    private JSONObject executeCommand(List<NameValuePair> parameters) throws  BrightcoveException {
+    private <T> T executeCommand(List<NameValuePair> parameters, final MediaApiResponseHandler<T> handler) throws  BrightcoveException {
         if(enableUds){
             parameters.add(new BasicNameValuePair("media_delivery", "http"));
         }
         
         // Build up URL from the parameters provided
-        URI commandUrl = BuildCommandUrl(parameters);
+        final URI commandUrl = BuildCommandUrl(parameters);
+        final String readToken = GetParameter(parameters, "token");
         
         if(log != null){
             log.info("JSON Command to execute: '" + commandUrl + "'.");
         }
         
+        if(!coalesceRequests){
+            return sendCommandWithRetries(commandUrl, readToken, handler);
+        }
+        
+        return executeCoalesced(commandUrl, readToken, BuildCommandKey(parameters, handler), handler);
+    }
+    
+    /**
+     * <p>Sends a command URL, sharing one HTTP call and its result between identical reads already in flight</p>
+     * 
+     * @param commandUrl Command URL to request
+     * @param readToken Token the request is sent with
+     * @param key Normalized key identifying the request
+     * @param handler Builds the result from the fields of the response
+     * @return Result built by the handler, or null if the Media API returned "null"
+     * @throws BrightcoveException If the request fails or the response can't be parsed or reports an error
+     */
+    private <T> T executeCoalesced(final URI commandUrl, final String readToken, String key, final MediaApiResponseHandler<T> handler) throws BrightcoveException {
+        Long   savedBefore = inFlightCommands.getSavedCalls();
+        Object result = inFlightCommands.execute(key, new Callable<Object>() {
+            public Object call() throws BrightcoveException {
+                return sendCommandWithRetries(commandUrl, readToken, handler);
+            }
+        });
+        if((log != null) && (inFlightCommands.getSavedCalls() > savedBefore)){
+            log.debug("Joined in-flight request for '" + commandUrl + "' (" + inFlightCommands.getSavedCalls() + " calls saved so far).");
+        }
+        
+        @SuppressWarnings("unchecked")
+        T ret = (T)result;
+        return ret;
+    }
+    
+    /**
+     * <p>Sends a command URL through the rate limiter for the token and the circuit breaker for the Read API host, retrying transient failures</p>
+     * 
+     * @param commandUrl Command URL to request
+     * @param readToken Token the request is sent with
+     * @param handler Builds the result from the fields of the response
+     * @return Result built by the handler, or null if the Media API returned "null"
+     * @throws BrightcoveException If every attempt fails, the circuit breaker is open or the token's request budget is used up
+     */
+    private <T> T sendCommandWithRetries(final URI commandUrl, String readToken, final MediaApiResponseHandler<T> handler) throws BrightcoveException {
+        RetryPolicy       policy  = (retryPolicy != null) ? retryPolicy : RetryPolicy.getDefault();
+        final RateLimiter limiter = RateLimiter.forToken(readToken);
+        return policy.execute(CircuitBreaker.forHost(readHost), new Callable<T>() {
+            public T call() throws BrightcoveException {
+                // Every attempt, retries included, counts against the token's quota
+                limiter.acquire();
+                return sendCommand(commandUrl, handler);
+            }
+        });
+    }
+    
+    /**
+     * <p>Sends a command URL to the Media API and streams the response into a result object</p>
+     * 
+     * @param commandUrl Command URL to request
+     * @param handler Builds the result from the fields of the response
+     * @return Result built by the handler, or null if the Media API returned "null"
+     * @throws BrightcoveException If the request fails or the response can't be parsed or reports an error
+     */
+    private <T> T sendCommand(URI commandUrl, MediaApiResponseHandler<T> handler) throws BrightcoveException {
         // Make the request
         HttpGet      httpGet  = new HttpGet(commandUrl);
         HttpResponse response = null;
         try{
-            response = httpAgent.execute(httpGet);
+            response = transport.getHttpClient().execute(httpGet);
         }
         catch(ClientProtocolException cpe){
             throw new WrapperException(WrapperExceptionCode.CLIENT_PROTOCOL_EXCEPTION, "Exception: '" + cpe + "'");
         }
         catch(IOException ioe){
-            throw new WrapperException(WrapperExceptionCode.MAPI_IO_EXCEPTION, "Exception: '" + ioe + "'");
+            throw WrapperException.fromIOException(ioe);
         }
         
         // Make sure the HTTP communication was OK (not the same as an error in the Media API reponse)
         Integer statusCode = response.getStatusLine().getStatusCode();
         if(statusCode != 200){
-            throw new WrapperException(WrapperExceptionCode.HTTP_ERROR_RESPONSE_CODE, "Response code from HTTP server: '" + statusCode + "'");
+            // Release the pooled connection before giving up on the response
+            try{
+                EntityUtils.consume(response.getEntity());
+            }
+            catch(IOException ioe){
+                // Connection is discarded by the pool
+            }
+            throw new WrapperException(WrapperExceptionCode.HTTP_ERROR_RESPONSE_CODE, "Response code from HTTP server: '" + statusCode + "'", statusCode);
         }
         
-        // Parse the response
+        // Stream the response straight into the result object
         HttpEntity entity = response.getEntity();
-        String     buffer = JSONUtils.parseHttpEntity(entity);
+        T          result = JSONUtils.parseHttpEntity(entity, charSet, handler);
         
         if(log != null){
-            log.info("Raw response from server: '" + buffer + "'.");
+            log.info("Parsed " + handler.getDescription() + " from server response.");
         }
         
-        // Certain responses from the cache don't really return useful
-        // JSON - e.g. an invalid reference id in a find_video_by_reference_id
-        // will simply return the string "null"
-        if("null".equals(buffer)){
-            return null;
-        }
-        
-        // Parse JSON
-        JSONObject jsonObj = null;
-        try{
-            jsonObj = new JSONObject(buffer);
+        return result;
+    }
+    
+    // --------------------- Compiled Query Methods --------------------------
+    
+    /**
+     * <p>Runs a precompiled video query.</p>
+     * 
+     * <p>Only the token and the values given are encoded per call - the command, fields
+     *    and other fixed parameters were encoded when the query was compiled.</p>
+     * 
+     * <p>By-id queries go through the video cache and paged queries through the search cache,
+     *    as for {@link #FindVideosByIds} and {@link #SearchVideos}.</p>
+     * 
+     * @param readToken Read Media API token for the account
+     * @param query Query compiled with {@link VideoQuery#compile()}
+     * @param values Run-time values for the query, in the order of {@link CompiledQuery#getParameterNames()}
+     * @return Video or Videos returned by the Media API.  A single video that can't be found is returned as null.
+     * @throws BrightcoveException If any of the following are true:<ul>
+     *  <li>Request to the Media API fails</li>
+     *  <li>Media API reports an error with the request</li>
+     *  <li>Response from the Media API couldn't be parsed</li>
+     * </ul>
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T RunQuery(final String readToken, final CompiledQuery<T> query, Object... values) throws BrightcoveException {
+        if(values.length == 1){
+            if("find_video_by_id".equals(query.getCommand()) && (values[0] instanceof Long)){
+                Long  videoId = (Long)values[0];
+                Video ret     = (videoCache == null) ? null : videoCache.get(readToken, enableUds, videoId, query.getVideoFields(), query.getCustomFields(), new VideoCache.Loader() {
+                    public Videos load(Set<Long> videoIds) throws BrightcoveException {
+                        Videos found = new Videos();
+                        for(Long id : videoIds){
+                            Video video = (Video)SendQuery(readToken, query, id);
+                            CacheMissingVideo(readToken, id, video);
+                            if(video != null){
+                                found.add(video);
+                            }
+                        }
+                        return found;
+                    }
+                });
+                if(ret != null){
+                    return (T)ret;
+                }
+                if((negativeCache != null) && negativeCache.isMissing(readToken, NegativeCache.Kind.VIDEO, videoId)){
+                    return null;
+                }
+                ret = (Video)SendQuery(readToken, query, values);
+                CacheVideo(readToken, videoId, ret, query.getVideoFields(), query.getCustomFields());
+                return (T)ret;
+            }
+            if("find_videos_by_ids".equals(query.getCommand()) && (values[0] instanceof Set<?>)){
+                return (T)FindVideosByIdsCached(readToken, (Set<Long>)values[0], query.getVideoFields(), query.getCustomFields(), new VideoCache.Loader() {
+                    public Videos load(Set<Long> videoIds) throws BrightcoveException {
+                        return (Videos)SendQuery(readToken, query, videoIds);
+                    }
+                });
+            }
         }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_RESPONSE, "JSON Exception: '" + jsone + "'");
+        final Integer pageIndex = query.getPageNumberIndex();
+        if((searchCache != null) && query.isList() && (pageIndex >= 0)){
+            // Every value but the page number identifies the result set
+            List<Object> terms = new ArrayList<Object>(Arrays.asList(values));
+            terms.remove((int)pageIndex);
+            
+            final Object[] pageValues = values.clone();
+            // UDS changes the rendition URLs in the results, so it's part of the result set too
+            SearchResultCache.Key key = searchCache.key(readToken, query.getEncodedFixedParameters() + (enableUds ? "&media_delivery=http" : ""), terms.toArray());
+            Integer pageNumber = (values[pageIndex] instanceof Number) ? ((Number)values[pageIndex]).intValue() : null;
+            return (T)searchCache.getPage(key, pageNumber, query.getPageSize(), new SearchResultCache.PageLoader() {
+                public Videos load(Integer pageNumber) throws BrightcoveException {
+                    Object[] loadValues = pageValues.clone();
+                    loadValues[pageIndex] = pageNumber;
+                    return (Videos)SendQuery(readToken, query, loadValues);
+                }
+            });
+        }
+        return SendQuery(readToken, query, values);
+    }
+    
+    /**
+     * <p>Sends a precompiled query to the Media API, bypassing the video cache.</p>
+     */
+    private <T> T SendQuery(String readToken, CompiledQuery<T> query, Object... values) throws BrightcoveException {
+        MediaApiResponseHandler<T> handler = query.newHandler();
+        
+        T ret;
+        if(!CompiledQuery.ENCODING.equalsIgnoreCase(charSet)){
+            // Pre-encoded string doesn't match this wrapper's character set - build the request the long way
+            ret = executeCommand(query.toParameters(readToken, values), handler);
+        }
+        else{
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(readProtocolScheme).append("://").append(readHost);
+            if((readPort != null) && (readPort > 0)){
+                sb.append(':').append(readPort);
+            }
+            sb.append(readPath).append('?');
+            query.appendQueryString(sb, readToken, values);
+            if(enableUds){
+                sb.append("&media_delivery=http");
+            }
+            
+            URI commandUrl;
+            try{
+                commandUrl = new URI(sb.toString());
+            }
+            catch(URISyntaxException urise){
+                throw new WrapperException(WrapperExceptionCode.INVALID_URL_SYNTAX, "Exception: '" + urise + "'");
+            }
+            
+            if(log != null){
+                log.info("JSON Command to execute: '" + commandUrl + "'.");
+            }
+            
+            if(coalesceRequests){
+                // Compiled queries always lay out their parameters in the same order, so the URL itself is a normalized key
+                ret = executeCoalesced(commandUrl, readToken, handler.getDescription() + " " + commandUrl, handler);
+            }
+            else{
+                ret = sendCommandWithRetries(commandUrl, readToken, handler);
+            }
         }
         
-        // Try to see if there was an error
-        MediaApiException mapie  = new MediaApiException(jsonObj);
-        if((mapie != null) && (mapie.getResponseCode() != null)){
-            throw mapie;
+        if(ret == null){
+            if(query.isList()){
+                throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
+            }
+            if(log != null){
+                log.error("Couldn't find video for '" + query.getCommand() + "' " + Arrays.asList(values) + ".");
+            }
         }
         
-        return jsonObj;
+        return ret;
     }
     
     // --------------------- Video Read API Methods --------------------------
@@ -270,6 +636,8 @@ public class ReadApi {
     /**
      * <p>Looks in the specified account for a video with the specified video id (<b>not</b> the reference id).</p>
      * 
+     * <p>Videos already read with the same token and fields are served from the video cache (see {@link #setVideoCache(VideoCache)}).</p>
+     * 
      * @param readToken Read Media API token for the account.  Note that the privileges of the token can change the fields populated in the returned Video object.
      * @param videoId Brightcove id for the video to look for
      * @param videoFields Set of video fields to populate on the returned Video object
@@ -282,7 +650,42 @@ public class ReadApi {
      *  <li>Response from the Media API couldn't be parsed</li>
      * </ul>
      */
-    public Video FindVideoById(String readToken, Long videoId, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
+    public Video FindVideoById(final String readToken, Long videoId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields) throws BrightcoveException {
+        if(videoCache != null){
+            // An expired video is served while a fresh copy is read in the background
+            Video cached = videoCache.get(readToken, enableUds, videoId, videoFields, customFields, new VideoCache.Loader() {
+                public Videos load(Set<Long> videoIds) throws BrightcoveException {
+                    Videos found = new Videos();
+                    for(Long id : videoIds){
+                        Video video = SendFindVideoById(readToken, id, videoFields, customFields);
+                        CacheMissingVideo(readToken, id, video);
+                        if(video != null){
+                            found.add(video);
+                        }
+                    }
+                    return found;
+                }
+            });
+            if(cached != null){
+                return cached;
+            }
+        }
+        if((negativeCache != null) && negativeCache.isMissing(readToken, NegativeCache.Kind.VIDEO, videoId)){
+            return null;
+        }
+        
+        Video ret = SendFindVideoById(readToken, videoId, videoFields, customFields);
+        CacheVideo(readToken, videoId, ret, videoFields, customFields);
+        if(ret == null){
+        	log.error("Couldn't find video by Brightcove Id '" + videoId + "'.");
+        	return null;
+        	//throw new WrapperException(WrapperExceptionCode.MAPI_VIDEO_NOT_FOUND, "Couldn't find video by Brightcove Id '" + videoId + "'.");
+        }
+        
+        return ret;
+    }
+    
+    private Video SendFindVideoById(String readToken, Long videoId, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         
         parameters.add(new BasicNameValuePair("command",  "find_video_by_id"));
@@ -299,22 +702,30 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
-        	log.error("Couldn't find video by Brightcove Id '" + videoId + "'.");
-        	return null;
-        	//throw new WrapperException(WrapperExceptionCode.MAPI_VIDEO_NOT_FOUND, "Couldn't find video by Brightcove Id '" + videoId + "'.");
+        return executeCommand(parameters, MediaApiResponseHandler.forVideo());
+    }
+    
+    /**
+     * <p>Notes a video that a background refresh found gone - the video cache drops it itself.</p>
+     */
+    private void CacheMissingVideo(String readToken, Long videoId, Video video){
+        if((video == null) && (negativeCache != null)){
+            negativeCache.markMissing(readToken, NegativeCache.Kind.VIDEO, videoId);
         }
-        
-        Video ret = null;
-        try{
-            ret = new Video(response);
+    }
+    
+    /**
+     * <p>Caches the result of a single video lookup by id - the video itself, or the fact that it wasn't found.</p>
+     */
+    private void CacheVideo(String readToken, Long videoId, Video video, Set<VideoFieldEnum> videoFields, Set<String> customFields){
+        if(video == null){
+            if(negativeCache != null){
+                negativeCache.markMissing(readToken, NegativeCache.Kind.VIDEO, videoId);
+            }
         }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEO, "Couldn't parse video from JSON.  Exception caught: '" + jsone + "'.");
+        else if(videoCache != null){
+            videoCache.put(readToken, enableUds, videoId, video, videoFields, customFields);
         }
-        
-        return ret;
     }
     
     /**
@@ -362,19 +773,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -433,25 +836,19 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
     /**
      * <p>Looks in the specified account for videos with the specified video ids (<b>not</b> the reference id).</p>
      * 
+     * <p>Videos already read with the same token and fields are served from the video cache (see {@link #setVideoCache(VideoCache)}).</p>
+     * 
      * @param readToken Read Media API token for the account.  Note that the privileges of the token can change the fields populated in the returned Video object.
      * @param videoIds Brightcove ids for the videos to look for
      * @param videoFields Set of video fields to populate on the returned Video object
@@ -463,7 +860,51 @@ public class ReadApi {
      *  <li>Response from the Media API couldn't be parsed</li>
      * </ul>
      */
-    public Videos FindVideosByIds(String readToken, Set<Long> videoIds, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
+    public Videos FindVideosByIds(final String readToken, Set<Long> videoIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields) throws BrightcoveException {
+        return FindVideosByIdsCached(readToken, videoIds, videoFields, customFields, new VideoCache.Loader() {
+            public Videos load(Set<Long> missingIds) throws BrightcoveException {
+                return SendFindVideosByIds(readToken, missingIds, videoFields, customFields);
+            }
+        });
+    }
+    
+    /**
+     * <p>Looks up videos by id through the video and negative caches - only the ids that
+     *    aren't cached and weren't recently reported missing are given to the sender.</p>
+     */
+    private Videos FindVideosByIdsCached(final String readToken, Set<Long> videoIds, final Set<VideoFieldEnum> videoFields, Set<String> customFields, final VideoCache.Loader sender) throws BrightcoveException {
+        VideoCache.Loader loader = sender;
+        if(negativeCache != null){
+            loader = new VideoCache.Loader() {
+                public Videos load(Set<Long> missingIds) throws BrightcoveException {
+                    Set<Long> unknownIds = negativeCache.filterMissing(readToken, NegativeCache.Kind.VIDEO, missingIds);
+                    if(unknownIds.isEmpty()){
+                        Videos none = new Videos();
+                        none.setTotalCount(-1);
+                        return none;
+                    }
+                    
+                    Videos found = sender.load(unknownIds);
+                    if((videoFields == null) || videoFields.isEmpty() || videoFields.contains(VideoFieldEnum.ID)){
+                        // Can only tell which ids are missing if the ids came back
+                        List<Long> foundIds = new ArrayList<Long>();
+                        for(Video video : found){
+                            foundIds.add(video.getId());
+                        }
+                        negativeCache.markMissing(readToken, NegativeCache.Kind.VIDEO, unknownIds, foundIds);
+                    }
+                    return found;
+                }
+            };
+        }
+        
+        if(videoCache != null){
+            return videoCache.getAll(readToken, enableUds, videoIds, videoFields, customFields, loader);
+        }
+        return loader.load(videoIds);
+    }
+    
+    private Videos SendFindVideosByIds(String readToken, Set<Long> videoIds, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         
         parameters.add(new BasicNameValuePair("command",  "find_videos_by_ids"));
@@ -482,19 +923,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -530,19 +963,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Video ret = executeCommand(parameters, MediaApiResponseHandler.forVideo());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_VIDEO_NOT_FOUND, "Couldn't find video by Reference Id '" + referenceId + "'.");
         }
         
-        Video ret = null;
-        try{
-            ret = new Video(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEO, "Couldn't parse video from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -586,19 +1011,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -647,19 +1064,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -708,19 +1117,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -775,17 +1176,26 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("filter", filterString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
+        // Anything cached about these videos is out of date - including that they didn't exist
+        List<Long> modifiedIds = new ArrayList<Long>();
+        for(Video video : ret){
+            if(video.getId() != null){
+                modifiedIds.add(video.getId());
+            }
         }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
+        if(negativeCache != null){
+            negativeCache.clear(NegativeCache.Kind.VIDEO, modifiedIds);
+        }
+        if(videoCache != null){
+            videoCache.invalidate(modifiedIds);
+        }
+        if(playlistCache != null){
+            playlistCache.invalidateVideos(modifiedIds);
         }
         
         return ret;
@@ -794,6 +1204,8 @@ public class ReadApi {
     /**
      * <p>Searches videos according to the criteria provided by the user. The criteria are constructed using field/value pairs specified in the command.</p>
      * 
+     * <p>Pages are served from the search cache when the same search was run recently (see {@link #setSearchCache(SearchResultCache)}).</p>
+     * 
      * @param readToken Read Media API token for the account.  Note that the privileges of the token can change the fields populated in the returned Video object.
      * @param all (optional)        Specifies the field:value pairs for search criteria that MUST be present in the index in order to return a hit in the result set. The format is fieldName:value. If the field's name is not present, it is assumed to be name and shortDescription.
      * @param any (optional)        Specifies the field:value pairs for search criteria AT LEAST ONE of which must be present to return a hit in the result set. The format is fieldName:value. If the field's name is not present, it is assumed to be name and shortDescription.
@@ -813,11 +1225,25 @@ public class ReadApi {
      *  <li>Response from the Media API couldn't be parsed</li>
      * </ul>
      */
-    public Videos SearchVideos(String readToken, List<String> all, List<String> any, List<String> none, Boolean exact, SortByTypeEnum sortBy, SortOrderTypeEnum sortOrderType, Integer pageSize, Integer pageNumber, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
+    public Videos SearchVideos(final String readToken, final List<String> all, final List<String> any, final List<String> none, final Boolean exact, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final Integer pageSize, Integer pageNumber, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields) throws BrightcoveException {
         if(pageSize > MAX_VIDEOS_PER_PAGE){
             throw new WrapperException(WrapperExceptionCode.USER_REQUESTED_TOO_MANY_VIDEOS_PER_PAGE, "User error - requested " + pageSize + " videos per page; maximum allowed is " + MAX_VIDEOS_PER_PAGE + " videos per page.");
         }
         
+        if(searchCache != null){
+            String query = "search_videos exact=" + exact + " sort_by=" + sortBy + ":" + sortOrderType + " page_size=" + pageSize + " video_fields=" + CollectionUtils.JoinToString((Set<?>)videoFields, ",") + " custom_fields=" + ((customFields == null) ? "" : CollectionUtils.JoinToString(new TreeSet<String>(customFields), ","));
+            SearchResultCache.Key key = searchCache.key(readToken, query + (enableUds ? " media_delivery=http" : ""), all, any, none);
+            return searchCache.getPage(key, pageNumber, pageSize, new SearchResultCache.PageLoader() {
+                public Videos load(Integer pageNumber) throws BrightcoveException {
+                    return SendSearchVideos(readToken, all, any, none, exact, sortBy, sortOrderType, pageSize, pageNumber, videoFields, customFields);
+                }
+            });
+        }
+        return SendSearchVideos(readToken, all, any, none, exact, sortBy, sortOrderType, pageSize, pageNumber, videoFields, customFields);
+    }
+    
+    private Videos SendSearchVideos(String readToken, List<String> all, List<String> any, List<String> none, Boolean exact, SortByTypeEnum sortBy, SortOrderTypeEnum sortOrderType, Integer pageSize, Integer pageNumber, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException {
+        
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         
         parameters.add(new BasicNameValuePair("command",        "search_videos"));
@@ -853,19 +1279,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -910,19 +1328,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -979,19 +1389,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("or_tags", orString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Videos ret = executeCommand(parameters, MediaApiResponseHandler.forVideos());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find videos.");
         }
         
-        Videos ret = null;
-        try{
-            ret = new Videos(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "Couldn't parse video list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -1049,19 +1451,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("playlist_fields", playlistFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Playlists ret = executeCommand(parameters, MediaApiResponseHandler.forPlaylists());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlists.");
         }
         
-        Playlists ret = null;
-        try{
-            ret = new Playlists(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLISTS, "Couldn't parse playlist list from JSON.  Exception caught: '" + jsone + "'." + response);
-        }
-        
         return ret;
     }
     
@@ -1070,6 +1464,8 @@ public class ReadApi {
      * 
      * <p>Finds a particular playlist based on its id.</p>
      * 
+     * <p>Playlists already read with the same token and fields are served from the playlist cache (see {@link #setPlaylistCache(PlaylistCache)}).</p>
+     * 
      * @param readToken Read Media API token for the account.  Note that the privileges of the token can change the fields populated in the returned Video object.
      * @param playlistId The id of the playlist requested.
      * @param videoFields Set of video fields to populate on the returned Video objects
@@ -1083,7 +1479,48 @@ public class ReadApi {
      *  <li>Response from the Media API couldn't be parsed</li>
      * </ul>
      */
-    public Playlist FindPlaylistById(String readToken, Long playlistId, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+    public Playlist FindPlaylistById(final String readToken, Long playlistId, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+        if(playlistCache != null){
+            // An expired playlist is served while a fresh copy is read in the background
+            Playlist cached = playlistCache.get(readToken, enableUds, playlistId, videoFields, customFields, playlistFields, new PlaylistCache.Loader() {
+                public Playlists load(Set<Long> playlistIds) throws BrightcoveException {
+                    Playlists found = new Playlists();
+                    for(Long id : playlistIds){
+                        Playlist playlist = SendFindPlaylistById(readToken, id, videoFields, customFields, playlistFields);
+                        if(playlist != null){
+                            found.add(playlist);
+                        }
+                        else if(negativeCache != null){
+                            negativeCache.markMissing(readToken, NegativeCache.Kind.PLAYLIST, id);
+                        }
+                    }
+                    return found;
+                }
+            });
+            if(cached != null){
+                return cached;
+            }
+        }
+        if((negativeCache != null) && negativeCache.isMissing(readToken, NegativeCache.Kind.PLAYLIST, playlistId)){
+            throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlist.");
+        }
+        
+        Playlist ret = SendFindPlaylistById(readToken, playlistId, videoFields, customFields, playlistFields);
+        if(ret == null){
+            if(negativeCache != null){
+                negativeCache.markMissing(readToken, NegativeCache.Kind.PLAYLIST, playlistId);
+            }
+            throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlist.");
+        }
+        
+        if(playlistCache != null){
+            playlistCache.put(readToken, enableUds, playlistId, ret, videoFields, customFields, playlistFields);
+        }
+        
+        return ret;
+    }
+    
+    private Playlist SendFindPlaylistById(String readToken, Long playlistId, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         
         parameters.add(new BasicNameValuePair("command",     "find_playlist_by_id"));
@@ -1105,20 +1542,7 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("playlist_fields", playlistFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlist.");
-        }
-        
-        Playlist ret = null;
-        try{
-            ret = new Playlist(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLIST, "Couldn't parse playlist from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
-        return ret;
+        return executeCommand(parameters, MediaApiResponseHandler.forPlaylist());
     }
     
     /**
@@ -1161,19 +1585,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("playlist_fields", playlistFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Playlist ret = executeCommand(parameters, MediaApiResponseHandler.forPlaylist());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlist.");
         }
         
-        Playlist ret = null;
-        try{
-            ret = new Playlist(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLIST, "Couldn't parse playlist from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -1182,6 +1598,8 @@ public class ReadApi {
      * 
      * <p>Finds particular playlists based on ids.</p>
      * 
+     * <p>Playlists already read with the same token and fields are served from the playlist cache (see {@link #setPlaylistCache(PlaylistCache)}).</p>
+     * 
      * @param readToken Read Media API token for the account.  Note that the privileges of the token can change the fields populated in the returned Video object.
      * @param playlistIds The ids of the playlists requested.
      * @param videoFields Set of video fields to populate on the returned Video objects
@@ -1195,7 +1613,29 @@ public class ReadApi {
      *  <li>Response from the Media API couldn't be parsed</li>
      * </ul>
      */
-    public Playlists FindPlaylistsByIds(String readToken, Set<Long> playlistIds, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+    public Playlists FindPlaylistsByIds(final String readToken, Set<Long> playlistIds, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+        if(playlistCache != null){
+            // Only the ids that aren't cached are sent to the Media API
+            return playlistCache.getAll(readToken, enableUds, playlistIds, videoFields, customFields, playlistFields, new PlaylistCache.Loader() {
+                public Playlists load(Set<Long> missingIds) throws BrightcoveException {
+                    return SendFindPlaylistsByIds(readToken, missingIds, videoFields, customFields, playlistFields);
+                }
+            });
+        }
+        return SendFindPlaylistsByIds(readToken, playlistIds, videoFields, customFields, playlistFields);
+    }
+    
+    private Playlists SendFindPlaylistsByIds(String readToken, Set<Long> playlistIds, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+        Set<Long> requestedIds = playlistIds;
+        if(negativeCache != null){
+            playlistIds = negativeCache.filterMissing(readToken, NegativeCache.Kind.PLAYLIST, playlistIds);
+            if(playlistIds.isEmpty() && !requestedIds.isEmpty()){
+                Playlists none = new Playlists();
+                none.setTotalCount(-1);
+                return none;
+            }
+        }
+        
         List<NameValuePair> parameters = new ArrayList<NameValuePair>();
         
         parameters.add(new BasicNameValuePair("command",     "find_playlists_by_ids"));
@@ -1221,17 +1661,17 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("playlist_ids", playlistIdString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Playlists ret = executeCommand(parameters, MediaApiResponseHandler.forPlaylists());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlists.");
         }
         
-        Playlists ret = null;
-        try{
-            ret = new Playlists(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLISTS, "Couldn't parse playlist list from JSON.  Exception caught: '" + jsone + "'.");
+        if((negativeCache != null) && ((playlistFields == null) || playlistFields.isEmpty() || playlistFields.contains(PlaylistFieldEnum.ID))){
+            List<Long> foundIds = new ArrayList<Long>();
+            for(Playlist playlist : ret){
+                foundIds.add(playlist.getId());
+            }
+            negativeCache.markMissing(readToken, NegativeCache.Kind.PLAYLIST, playlistIds, foundIds);
         }
         
         return ret;
@@ -1280,19 +1720,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("reference_ids", referenceIdString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Playlists ret = executeCommand(parameters, MediaApiResponseHandler.forPlaylists());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlists.");
         }
         
-        Playlists ret = null;
-        try{
-            ret = new Playlists(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLISTS, "Couldn't parse playlist list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
@@ -1344,19 +1776,11 @@ public class ReadApi {
             parameters.add(new BasicNameValuePair("playlist_fields", playlistFieldsString));
         }
         
-        JSONObject response = executeCommand(parameters);
-        if(response == null){
+        Playlists ret = executeCommand(parameters, MediaApiResponseHandler.forPlaylists());
+        if(ret == null){
             throw new WrapperException(WrapperExceptionCode.MAPI_UNKNOWN_NULL, "Couldn't find playlists.");
         }
         
-        Playlists ret = null;
-        try{
-            ret = new Playlists(response);
-        }
-        catch(JSONException jsone){
-            throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLISTS, "Couldn't parse playlist list from JSON.  Exception caught: '" + jsone + "'.");
-        }
-        
         return ret;
     }
     
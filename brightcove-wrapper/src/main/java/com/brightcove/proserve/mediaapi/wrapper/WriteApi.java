@@ -5,23 +5,28 @@ import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.TranscodeEncodeToEnum;
 import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.UploadStatusEnum;
+import com.brightcove.proserve.mediaapi.wrapper.cache.PlaylistCache;
+import com.brightcove.proserve.mediaapi.wrapper.cache.VideoCache;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.MediaApiException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+import com.brightcove.proserve.mediaapi.wrapper.http.CircuitBreaker;
+import com.brightcove.proserve.mediaapi.wrapper.http.MediaApiTransport;
+import com.brightcove.proserve.mediaapi.wrapper.http.RateLimiter;
 import com.brightcove.proserve.mediaapi.wrapper.json.JSONUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.client.utils.URLEncodedUtils;
 import org.apache.http.entity.mime.MultipartEntity;
 import org.apache.http.entity.mime.content.FileBody;
 import org.apache.http.entity.mime.content.StringBody;
-import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -34,7 +39,9 @@ import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * <p>This is a wrapper for the HTTP/JSON Media API provided by Brightcove (<a href="http://www.brightcove.com">http://www.brightcove.com</a>)</p>
@@ -57,13 +64,17 @@ public class WriteApi {
 	private String     writeHost;
 	private Integer    writePort;
 	private String     writePath;
-	private HttpClient httpAgent;
+	
+	private MediaApiTransport transport;
 	
 	private static final String  WRITE_API_DEFAULT_SCHEME = "http";
 	private static final String  WRITE_API_DEFAULT_HOST   = "api.brightcove.com";
 	private static final Integer WRITE_API_DEFAULT_PORT   = 80;
 	private static final String  WRITE_API_DEFAULT_PATH   = "/services/post";
 	
+	// Uploads can keep the server busy for a long time before it answers
+	private static final Integer UPLOAD_READ_TIMEOUT = 0;
+	
 	/**
 	 * <p>Default constructor</p>
 	 * 
@@ -129,7 +140,7 @@ public class WriteApi {
 	private void init(){
 		log       = null;
 		charSet   = "UTF-8";
-		httpAgent = new DefaultHttpClient();
+		transport = MediaApiTransport.getInstance();
 		
 		writeProtocolScheme = WRITE_API_DEFAULT_SCHEME;
 		writeHost           = WRITE_API_DEFAULT_HOST;
@@ -137,6 +148,15 @@ public class WriteApi {
 		writePath           = WRITE_API_DEFAULT_PATH;
 	}
 	
+	/**
+	 * <p>Overrides the shared pooled transport used to talk to the Media API.</p>
+	 * 
+	 * @param transport Transport to issue requests through
+	 */
+	public void setTransport(MediaApiTransport transport){
+		this.transport = transport;
+	}
+	
 	/**
 	 * <p>Issues the command JSON to the Media API and returns the response as a String</p>
 	 * 
@@ -151,7 +171,29 @@ public class WriteApi {
 	 *  <li>Media API indicates that there is an error with the request</li>
 	 * </ul>
 	 */
-	private JSONObject executeCommand(JSONObject json, File file) throws BrightcoveException {
+	private JSONObject executeCommand(final JSONObject json, final File file) throws BrightcoveException {
+		// Writes aren't retried - they may not be safe to repeat - but still
+		// fail fast while the Media API is known to be unhealthy, and stay
+		// within the request budget for the token
+		JSONObject        params  = json.optJSONObject("params");
+		final RateLimiter limiter = RateLimiter.forToken((params == null) ? "" : params.optString("token"));
+		return CircuitBreaker.forHost(writeHost).execute(new Callable<JSONObject>() {
+			public JSONObject call() throws BrightcoveException {
+				limiter.acquire();
+				return sendCommand(json, file);
+			}
+		});
+	}
+	
+	/**
+	 * <p>Sends a JSON command (and optional file) to the Media API and returns the parsed response</p>
+	 * 
+	 * @param json JSON command to send
+	 * @param file File to upload with the command, or null
+	 * @return Response from the server, or null if the Media API returned "null"
+	 * @throws BrightcoveException If the request fails, or the response can't be parsed or reports an error
+	 */
+	private JSONObject sendCommand(JSONObject json, File file) throws BrightcoveException {
 		if(log != null){
 			log.info("JSON Command to execute: '" + json + "'.");
 			
@@ -185,24 +227,32 @@ public class WriteApi {
 		
 		if(file != null){
 			entityIn.addPart(file.getName(), fileBody);
+			HttpConnectionParams.setSoTimeout(method.getParams(), UPLOAD_READ_TIMEOUT);
 		}
 		method.setEntity(entityIn);
 		
 		HttpResponse response = null;
 		try{
-			response = httpAgent.execute(method);
+			response = transport.getHttpClient().execute(method);
 		}
 		catch(ClientProtocolException cpe){
 			throw new WrapperException(WrapperExceptionCode.CLIENT_PROTOCOL_EXCEPTION, "Exception: '" + cpe + "'");
 		}
 		catch(IOException ioe){
-			throw new WrapperException(WrapperExceptionCode.MAPI_IO_EXCEPTION, "Exception: '" + ioe + "'");
+			throw WrapperException.fromIOException(ioe);
 		}
 		
 		// Make sure the HTTP communication was OK (not the same as an error in the Media API reponse)
 		Integer statusCode = response.getStatusLine().getStatusCode();
 		if(statusCode != 200){
-			throw new WrapperException(WrapperExceptionCode.HTTP_ERROR_RESPONSE_CODE, "Response code from HTTP server: '" + statusCode + "'");
+			// Release the pooled connection before giving up on the response
+			try{
+				EntityUtils.consume(response.getEntity());
+			}
+			catch(IOException ioe){
+				// Connection is discarded by the pool
+			}
+			throw new WrapperException(WrapperExceptionCode.HTTP_ERROR_RESPONSE_CODE, "Response code from HTTP server: '" + statusCode + "'", statusCode);
 		}
 		
 		// Parse the response
@@ -567,6 +617,7 @@ public class WriteApi {
 			throw new WrapperException(WrapperExceptionCode.MAPI_VIDEO_NOT_DELETED, "Null response from Media API when trying to delete video (" + videoId + "," + referenceId + ").");
 		}
 		
+		invalidateCachedVideo(videoId);
 		return response;
 	}
 	
@@ -693,6 +744,8 @@ public class WriteApi {
 			throw new WrapperException(WrapperExceptionCode.MAPI_VIDEO_NOT_UPDATED, "Null response from Media API when trying to update video '" + video + "'.");
 		}
 		
+		invalidateCachedVideo(video.getId());
+		
 		try{
 			Video result = null;
 			if(response.getString("result") != null){
@@ -825,6 +878,10 @@ public class WriteApi {
 			throw new WrapperException(WrapperExceptionCode.MAPI_PLAYLIST_NOT_UPDATED, "Null response from Media API when trying to update playlist '" + playlist + "'.");
 		}
 		
+		if(playlist.getId() != null){
+			PlaylistCache.getShared().invalidate(playlist.getId());
+		}
+		
 		try{
 			Playlist result = new Playlist(response);
 			return result;
@@ -885,8 +942,23 @@ public class WriteApi {
 			throw new WrapperException(WrapperExceptionCode.MAPI_PLAYLIST_NOT_DELETED, "Null response from Media API when trying to delete playlist (" + playlistId + "," + referenceId + ").");
 		}
 		
+		if(playlistId != null){
+			PlaylistCache.getShared().invalidate(playlistId);
+		}
 		return response;
 	}
+	
+	/**
+	 * <p>Drops a changed video from the shared read caches, along with the cached playlists holding it.</p>
+	 */
+	private void invalidateCachedVideo(Long videoId){
+		if(videoId == null){
+			return;
+		}
+		List<Long> videoIds = Collections.singletonList(videoId);
+		VideoCache.getShared().invalidate(videoIds);
+		PlaylistCache.getShared().invalidateVideos(videoIds);
+	}
 }
 
 /**
@@ -17,6 +17,10 @@ public class Playlists extends ArrayList<Playlist> {
 	
 	private Integer totalCount = 0;
 	
+	public Playlists(){
+		super();
+	}
+	
 	public Playlists(JSONObject jsonObj) throws JSONException {
 		JSONArray jsonItems = jsonObj.getJSONArray("items");
 		for(int itemIdx=0;itemIdx<jsonItems.length();itemIdx++){
@@ -37,4 +41,8 @@ public class Playlists extends ArrayList<Playlist> {
 	public Integer getTotalCount(){
 		return this.totalCount;
 	}
+	
+	public void setTotalCount(Integer totalCount){
+		this.totalCount = totalCount;
+	}
 }
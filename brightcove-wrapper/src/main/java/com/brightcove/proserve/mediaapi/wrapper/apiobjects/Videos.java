@@ -17,6 +17,10 @@ public class Videos extends ArrayList<Video> {
 	
 	private Integer totalCount = 0;
 	
+	public Videos(){
+		super();
+	}
+	
 	public Videos(JSONObject jsonObj) throws JSONException {
 		JSONArray jsonItems = jsonObj.getJSONArray("items");
 		for(int itemIdx=0;itemIdx<jsonItems.length();itemIdx++){
@@ -37,4 +41,8 @@ public class Videos extends ArrayList<Video> {
 	public Integer getTotalCount(){
 		return this.totalCount;
 	}
+	
+	public void setTotalCount(Integer totalCount){
+		this.totalCount = totalCount;
+	}
 }
@@ -0,0 +1,283 @@
+package com.brightcove.proserve.mediaapi.wrapper.batch;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.query.CompiledQuery;
+
+/**
+ * <p>Collects single video lookups by id and sends them to the Media API together.</p>
+ *
+ * <p>The first id requested opens a batch; ids requested while it is open join it.
+ *    The batch is sent once the window has passed or it holds <code>maxBatchSize</code>
+ *    distinct ids, whichever comes first, as <code>find_videos_by_ids</code> calls of
+ *    at most {@link #MAX_IDS_PER_CALL} ids each.  Every caller then gets its own
+ *    video, or null if the Media API didn't return it.</p>
+ *
+ * <p>Callers asking for the same id share the same Video object, which should be treated as read-only.</p>
+ */
+public class VideoBatchLoader {
+	public static final Long    DEFAULT_WINDOW         = 10l;
+	public static final Integer DEFAULT_MAX_BATCH_SIZE = 50;
+
+	/**
+	 * <p>Most ids the Media API accepts in one find_videos_by_ids call.</p>
+	 */
+	public static final Integer MAX_IDS_PER_CALL = 50;
+
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "brightcove-batch-timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+
+	private final ReadApi               readApi;
+	private final String                readToken;
+	private final CompiledQuery<Videos> query;
+	private final ExecutorService       executor;
+
+	private volatile Long    window;
+	private volatile Integer maxBatchSize;
+
+	private final Object lock = new Object();
+	private Batch        pending;
+
+	private final AtomicLong requestedIds = new AtomicLong();
+	private final AtomicLong sentCalls    = new AtomicLong();
+
+	/**
+	 * <p>A batch of ids, each with the callers waiting for it.</p>
+	 */
+	private static class Batch {
+		private final Map<Long, List<Result>> waiting = new LinkedHashMap<Long, List<Result>>();
+	}
+
+	/**
+	 * <p>Future completed by the loader once the batch holding the id has been sent.</p>
+	 */
+	private static class Result extends FutureTask<Video> {
+		private static final Callable<Video> NOTHING = new Callable<Video>() {
+			public Video call() {
+				return null;
+			}
+		};
+
+		Result(){
+			super(NOTHING);
+		}
+
+		void complete(Video video){
+			set(video);
+		}
+
+		void fail(Throwable t){
+			setException(t);
+		}
+	}
+
+	/**
+	 * <p>Creates a loader with the default window and batch size, sending batches from the shared read pool.</p>
+	 *
+	 * @param readApi Read API wrapper to send the batches through
+	 * @param readToken Read token for the account
+	 * @param query Compiled <code>VideoQuery.byIds()</code> query setting the fields to return
+	 */
+	public VideoBatchLoader(ReadApi readApi, String readToken, CompiledQuery<Videos> query){
+		this(readApi, readToken, query, DEFAULT_WINDOW, DEFAULT_MAX_BATCH_SIZE, AsyncReadApi.getSharedExecutor());
+	}
+
+	/**
+	 * @param readApi Read API wrapper to send the batches through
+	 * @param readToken Read token for the account
+	 * @param query Compiled <code>VideoQuery.byIds()</code> query setting the fields to return
+	 * @param window How long a batch stays open for more ids, in milliseconds
+	 * @param maxBatchSize Number of distinct ids that sends a batch straight away
+	 * @param executor Executor the Media API calls run on
+	 */
+	public VideoBatchLoader(ReadApi readApi, String readToken, CompiledQuery<Videos> query, Long window, Integer maxBatchSize, ExecutorService executor){
+		if(!"find_videos_by_ids".equals(query.getCommand())){
+			throw new IllegalArgumentException("Batch loader needs a find_videos_by_ids query, got '" + query.getCommand() + "'.");
+		}
+		this.readApi   = readApi;
+		this.readToken = readToken;
+		this.query     = query;
+		this.executor  = executor;
+		configure(window, maxBatchSize);
+	}
+
+	/**
+	 * <p>Changes the window and batch size.  Applies from the next batch opened.</p>
+	 *
+	 * @param window How long a batch stays open for more ids, in milliseconds
+	 * @param maxBatchSize Number of distinct ids that sends a batch straight away
+	 */
+	public void configure(Long window, Integer maxBatchSize){
+		this.window       = ((window == null) || (window < 0)) ? DEFAULT_WINDOW : window;
+		this.maxBatchSize = ((maxBatchSize == null) || (maxBatchSize < 1)) ? DEFAULT_MAX_BATCH_SIZE : maxBatchSize;
+	}
+
+	/**
+	 * <p>Adds the id to the open batch.</p>
+	 *
+	 * @param videoId Brightcove id of the video
+	 * @return Future for the video, which completes with null if the video wasn't found
+	 */
+	public Future<Video> load(Long videoId){
+		requestedIds.incrementAndGet();
+
+		Result  result = new Result();
+		Batch   full   = null;
+		Batch   opened = null;
+		synchronized(lock){
+			if(pending == null){
+				pending = new Batch();
+				opened  = pending;
+			}
+			List<Result> results = pending.waiting.get(videoId);
+			if(results == null){
+				results = new ArrayList<Result>(1);
+				pending.waiting.put(videoId, results);
+			}
+			results.add(result);
+
+			if(pending.waiting.size() >= maxBatchSize){
+				full    = pending;
+				pending = null;
+			}
+		}
+
+		if(full != null){
+			send(full);
+		}
+		else if(opened != null){
+			final Batch batch = opened;
+			timer.schedule(new Runnable() {
+				public void run() {
+					flush(batch);
+				}
+			}, window, TimeUnit.MILLISECONDS);
+		}
+		return result;
+	}
+
+	/**
+	 * <p>Loads a single video, waiting for the batch it joins.</p>
+	 *
+	 * @param videoId Brightcove id of the video
+	 * @return The video, or null if it wasn't found
+	 * @throws BrightcoveException If the batch call failed
+	 */
+	public Video get(Long videoId) throws BrightcoveException {
+		return AsyncReadApi.await(load(videoId));
+	}
+
+	/**
+	 * <p>Sends the open batch now instead of waiting for the window to pass.</p>
+	 */
+	public void flush(){
+		Batch batch;
+		synchronized(lock){
+			batch   = pending;
+			pending = null;
+		}
+		if(batch != null){
+			send(batch);
+		}
+	}
+
+	private void flush(Batch batch){
+		synchronized(lock){
+			if(pending != batch){
+				// Already sent because it filled up or was flushed
+				return;
+			}
+			pending = null;
+		}
+		send(batch);
+	}
+
+	private void send(Batch batch){
+		List<Long> ids = new ArrayList<Long>(batch.waiting.keySet());
+		for(int start=0;start<ids.size();start+=MAX_IDS_PER_CALL){
+			final Set<Long>                 chunk   = new LinkedHashSet<Long>(ids.subList(start, Math.min(start + MAX_IDS_PER_CALL, ids.size())));
+			final Map<Long, List<Result>>   waiting = batch.waiting;
+			executor.execute(new Runnable() {
+				public void run() {
+					sendChunk(chunk, waiting);
+				}
+			});
+		}
+	}
+
+	private void sendChunk(Set<Long> chunk, Map<Long, List<Result>> waiting){
+		sentCalls.incrementAndGet();
+		try{
+			Videos videos = readApi.RunQuery(readToken, query, chunk);
+
+			Map<Long, Video> found = new HashMap<Long, Video>();
+			for(Video video : videos){
+				found.put(video.getId(), video);
+			}
+			for(Long id : chunk){
+				Video video = found.get(id);
+				for(Result result : waiting.get(id)){
+					result.complete(video);
+				}
+			}
+		}
+		catch(Throwable t){
+			for(Long id : chunk){
+				for(Result result : waiting.get(id)){
+					result.fail(t);
+				}
+			}
+		}
+	}
+
+	public String getReadToken(){
+		return readToken;
+	}
+
+	public Long getWindow(){
+		return window;
+	}
+
+	public Integer getMaxBatchSize(){
+		return maxBatchSize;
+	}
+
+	/**
+	 * @return Number of ids requested through this loader
+	 */
+	public Long getRequestedIds(){
+		return requestedIds.get();
+	}
+
+	/**
+	 * @return Number of find_videos_by_ids calls sent
+	 */
+	public Long getSentCalls(){
+		return sentCalls.get();
+	}
+}
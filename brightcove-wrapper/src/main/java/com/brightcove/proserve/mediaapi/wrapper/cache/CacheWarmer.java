@@ -0,0 +1,226 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.batch.VideoBatchLoader;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.query.CompiledQuery;
+
+/**
+ * <p>Fills the caches with known videos and playlists ahead of the first requests for them,
+ *    e.g. the ones placed on pages, after a restart.</p>
+ *
+ * <p>Videos and playlists are read through a ReadApi, so they end up in its caches under the
+ *    same keys as the lookups they stand in for - each video is read once for every by-id
+ *    query added with {@link #addVideoQuery(CompiledQuery)}, and each playlist once for every
+ *    field set added with {@link #addPlaylistFields(EnumSet, Set, EnumSet)}.  Ids are read in
+ *    batches of {@link #BATCH_SIZE}; anything already cached isn't read again.  A failed batch
+ *    is counted and skipped - those ids are read when they're first asked for.</p>
+ *
+ * <p>{@link #warm(Collection, Collection)} runs on the calling thread.</p>
+ */
+public class CacheWarmer {
+	public static final Integer BATCH_SIZE    = VideoBatchLoader.MAX_IDS_PER_CALL;
+	public static final Long    DEFAULT_PAUSE = 100l;
+
+	private final ReadApi readApi;
+	private final String  readToken;
+
+	private final List<CompiledQuery<Videos>> videoQueries   = new ArrayList<CompiledQuery<Videos>>();
+	private final List<PlaylistFields>        playlistFields = new ArrayList<PlaylistFields>();
+	private volatile Long                     pause          = DEFAULT_PAUSE;
+
+	private static final class PlaylistFields {
+		final EnumSet<VideoFieldEnum>    videoFields;
+		final Set<String>                customFields;
+		final EnumSet<PlaylistFieldEnum> playlistFields;
+
+		PlaylistFields(EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields){
+			this.videoFields    = videoFields;
+			this.customFields   = customFields;
+			this.playlistFields = playlistFields;
+		}
+	}
+
+	/**
+	 * <p>What a warmup read, and how long it took.</p>
+	 */
+	public static final class Report {
+		private final long duration;
+		private final int  videosRequested;
+		private final int  videosFound;
+		private final int  playlistsRequested;
+		private final int  playlistsFound;
+		private final int  failedBatches;
+
+		Report(long duration, int videosRequested, int videosFound, int playlistsRequested, int playlistsFound, int failedBatches){
+			this.duration           = duration;
+			this.videosRequested    = videosRequested;
+			this.videosFound        = videosFound;
+			this.playlistsRequested = playlistsRequested;
+			this.playlistsFound     = playlistsFound;
+			this.failedBatches      = failedBatches;
+		}
+
+		/**
+		 * @return How long the warmup took, in milliseconds
+		 */
+		public Long getDuration(){
+			return duration;
+		}
+
+		public Integer getVideosRequested(){
+			return videosRequested;
+		}
+
+		/**
+		 * @return Number of videos now cached (or already cached) for at least one query
+		 */
+		public Integer getVideosFound(){
+			return videosFound;
+		}
+
+		public Integer getPlaylistsRequested(){
+			return playlistsRequested;
+		}
+
+		public Integer getPlaylistsFound(){
+			return playlistsFound;
+		}
+
+		public Integer getFailedBatches(){
+			return failedBatches;
+		}
+
+		/**
+		 * @return Share of the videos and playlists asked for that are now cached, 0-1
+		 */
+		public Double getCoverage(){
+			int requested = videosRequested + playlistsRequested;
+			return (requested == 0) ? 1.0 : ((double)(videosFound + playlistsFound) / requested);
+		}
+
+		@Override
+		public String toString(){
+			return "videos " + videosFound + "/" + videosRequested + ", playlists " + playlistsFound + "/" + playlistsRequested
+				+ " (" + Math.round(getCoverage() * 100) + "% coverage) in " + duration + "ms, " + failedBatches + " failed batches";
+		}
+	}
+
+	/**
+	 * @param readApi ReadApi to read with - its caches are the ones filled
+	 * @param readToken Read Media API token for the account
+	 */
+	public CacheWarmer(ReadApi readApi, String readToken){
+		this.readApi   = readApi;
+		this.readToken = readToken;
+	}
+
+	/**
+	 * <p>Adds a by-id video query (see {@link com.brightcove.proserve.mediaapi.wrapper.query.VideoQuery#byIds()})
+	 *    to read the videos with.  Its fields should include ID, or the videos can't be cached.</p>
+	 */
+	public void addVideoQuery(CompiledQuery<Videos> query){
+		videoQueries.add(query);
+	}
+
+	/**
+	 * <p>Adds a field set to read the playlists with.  The playlist fields should include ID,
+	 *    or the playlists can't be cached.</p>
+	 */
+	public void addPlaylistFields(EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, EnumSet<PlaylistFieldEnum> playlistFields){
+		this.playlistFields.add(new PlaylistFields(videoFields, customFields, playlistFields));
+	}
+
+	/**
+	 * @param pause How long to wait between batches, in milliseconds, to leave the Media API to other callers
+	 */
+	public void setPause(Long pause){
+		this.pause = ((pause == null) || (pause < 0)) ? 0 : pause;
+	}
+
+	/**
+	 * <p>Reads the videos and playlists into the caches.</p>
+	 *
+	 * @return What was read
+	 * @throws InterruptedException If the thread was interrupted; what was read so far stays cached
+	 */
+	public Report warm(Collection<Long> videoIds, Collection<Long> playlistIds) throws InterruptedException {
+		long      start       = System.currentTimeMillis();
+		Set<Long> videos      = new LinkedHashSet<Long>(videoIds);
+		Set<Long> playlists   = new LinkedHashSet<Long>(playlistIds);
+		Set<Long> foundVideos = new HashSet<Long>();
+		Set<Long> foundLists  = new HashSet<Long>();
+		int       failed      = 0;
+
+		for(CompiledQuery<Videos> query : videoQueries){
+			for(Set<Long> batch : Batches(videos)){
+				try{
+					for(Video video : readApi.RunQuery(readToken, query, batch)){
+						if(video.getId() != null){
+							foundVideos.add(video.getId());
+						}
+					}
+				}
+				catch(BrightcoveException be){
+					failed++;
+				}
+				pause();
+			}
+		}
+
+		for(PlaylistFields fields : playlistFields){
+			for(Set<Long> batch : Batches(playlists)){
+				try{
+					Playlists found = readApi.FindPlaylistsByIds(readToken, batch, fields.videoFields, fields.customFields, fields.playlistFields);
+					for(Playlist playlist : found){
+						if(playlist.getId() != null){
+							foundLists.add(playlist.getId());
+						}
+					}
+				}
+				catch(BrightcoveException be){
+					failed++;
+				}
+				pause();
+			}
+		}
+
+		return new Report(System.currentTimeMillis() - start, videos.size(), foundVideos.size(), playlists.size(), foundLists.size(), failed);
+	}
+
+	private void pause() throws InterruptedException {
+		if(Thread.interrupted()){
+			throw new InterruptedException();
+		}
+		if(pause > 0){
+			Thread.sleep(pause);
+		}
+	}
+
+	private static List<Set<Long>> Batches(Set<Long> ids){
+		List<Set<Long>> ret   = new ArrayList<Set<Long>>();
+		Set<Long>       batch = null;
+		for(Long id : ids){
+			if((batch == null) || (batch.size() >= BATCH_SIZE)){
+				batch = new LinkedHashSet<Long>();
+				ret.add(batch);
+			}
+			batch.add(id);
+		}
+		return ret;
+	}
+}
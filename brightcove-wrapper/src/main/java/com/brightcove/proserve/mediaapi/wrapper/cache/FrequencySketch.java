@@ -0,0 +1,95 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+/**
+ * <p>Approximate access counts for the keys of a {@link TinyLfuCache}.</p>
+ *
+ * <p>A count-min sketch: each key is counted in one small counter on each of four
+ *    rows and its frequency is the smallest of the four.  Counters saturate at 15,
+ *    and once enough accesses have been recorded every counter is halved, so that
+ *    keys that were popular a long time ago lose their advantage.</p>
+ *
+ * <p>Not thread-safe; the cache guards it with its own lock.</p>
+ */
+class FrequencySketch {
+	private static final int   DEPTH       = 4;
+	private static final int   MAX_COUNT   = 15;
+	private static final int[] SEEDS       = { 0x97cb3127, 0xb5ad4ece, 0x3c6ef372, 0x5851f42d };
+
+	private byte[][] table;
+	private int      mask;
+	private int      sampleSize;
+	private int      additions;
+
+	/**
+	 * @param maxEntries Number of entries the cache holds, used to size the sketch
+	 */
+	FrequencySketch(int maxEntries){
+		resize(maxEntries);
+	}
+
+	/**
+	 * <p>Resizes the sketch, dropping all counts.</p>
+	 */
+	void resize(int maxEntries){
+		int width = 16;
+		while((width < maxEntries) && (width < (1 << 24))){
+			width <<= 1;
+		}
+		table      = new byte[DEPTH][width];
+		mask       = width - 1;
+		sampleSize = Math.max(10 * maxEntries, 160);
+		additions  = 0;
+	}
+
+	/**
+	 * <p>Records an access to the key.</p>
+	 */
+	void increment(Object key){
+		int     hash  = spread(key.hashCode());
+		boolean added = false;
+		for(int row=0;row<DEPTH;row++){
+			int idx = index(hash, row);
+			if(table[row][idx] < MAX_COUNT){
+				table[row][idx]++;
+				added = true;
+			}
+		}
+		if(added && (++additions >= sampleSize)){
+			reset();
+		}
+	}
+
+	/**
+	 * @return Estimated number of recent accesses to the key (0-15)
+	 */
+	int frequency(Object key){
+		int hash = spread(key.hashCode());
+		int min  = MAX_COUNT;
+		for(int row=0;row<DEPTH;row++){
+			min = Math.min(min, table[row][index(hash, row)]);
+		}
+		return min;
+	}
+
+	private void reset(){
+		for(byte[] row : table){
+			for(int idx=0;idx<row.length;idx++){
+				row[idx] = (byte)(row[idx] >>> 1);
+			}
+		}
+		additions /= 2;
+	}
+
+	private int index(int hash, int row){
+		int h = (hash ^ SEEDS[row]) * 0x9e3779b9;
+		h ^= (h >>> 16);
+		return h & mask;
+	}
+
+	private static int spread(int hash){
+		hash ^= (hash >>> 17);
+		hash *= 0xed5ad4bb;
+		hash ^= (hash >>> 11);
+		return hash;
+	}
+}
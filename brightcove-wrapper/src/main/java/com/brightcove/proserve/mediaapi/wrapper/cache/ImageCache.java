@@ -0,0 +1,324 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.utils.DigestUtils;
+import com.brightcove.proserve.mediaapi.wrapper.utils.SingleFlight;
+
+/**
+ * <p>Two-tier cache of image bytes (video stills), keyed by video id and image URL.</p>
+ *
+ * <p>Images are held in memory, weighed by their size, and in files under a directory so
+ *    that they survive restarts.  An image URL changes whenever the image does, so entries
+ *    never need refreshing; the key includes the video id so a video pointing at a new
+ *    image never serves the old one.  Concurrent misses for the same image are read once.</p>
+ *
+ * <p>Each image carries an ETag (a digest of its bytes) and the time it was first read,
+ *    for conditional requests.</p>
+ */
+public class ImageCache {
+	public static final Integer DEFAULT_MAX_ENTRIES   = 1000;
+	public static final Long    DEFAULT_MAX_WEIGHT    = 32l * 1024 * 1024;
+	public static final Long    DEFAULT_TTL           = 24l * 60 * 60 * 1000;
+	public static final Long    DEFAULT_MAX_DISK_SIZE = 256l * 1024 * 1024;
+
+	private static final String SUFFIX = ".img";
+
+	private static final ImageCache shared = new ImageCache("images", DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL, null, DEFAULT_MAX_DISK_SIZE);
+
+	private final TinyLfuCache<String, Image> cache;
+	private final SingleFlight<String, Image> loads = new SingleFlight<String, Image>();
+
+	private volatile File directory;
+	private volatile Long maxDiskSize;
+	private final AtomicLong diskSize  = new AtomicLong(-1);
+	private final AtomicLong diskHits  = new AtomicLong();
+	private final AtomicLong loadCount = new AtomicLong();
+
+	/**
+	 * <p>A cached image.</p>
+	 */
+	public static final class Image {
+		private final byte[] data;
+		private final String etag;
+		private final long   lastModified;
+
+		Image(byte[] data, long lastModified){
+			this.data         = data;
+			this.etag         = "\"" + DigestUtils.Sha1Hex(data) + "\"";
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return The image bytes (don't change)
+		 */
+		public byte[] getData(){
+			return data;
+		}
+
+		/**
+		 * @return Strong ETag, quoted
+		 */
+		public String getEtag(){
+			return etag;
+		}
+
+		/**
+		 * @return Time the image was first read, in milliseconds since January 1st, 1970 00:00:00 GMT (whole seconds)
+		 */
+		public long getLastModified(){
+			return lastModified;
+		}
+	}
+
+	/**
+	 * <p>Reads an image that isn't cached.</p>
+	 */
+	public interface Loader {
+		/**
+		 * @return The bytes to cache and serve
+		 */
+		public byte[] load() throws IOException;
+	}
+
+	private static final TinyLfuCache.Weigher<String, Image> IMAGE_WEIGHER = new TinyLfuCache.Weigher<String, Image>() {
+		public int weigh(String key, Image image) {
+			return image.data.length + 2 * key.length() + 120;
+		}
+	};
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxEntries Most images held in memory (0 turns the memory tier off)
+	 * @param maxWeight Most total size held in memory, in bytes
+	 * @param ttl How long an image stays in memory, in milliseconds
+	 * @param directory Directory the disk tier is kept in (null turns the disk tier off)
+	 * @param maxDiskSize Most total size held on disk, in bytes
+	 */
+	public ImageCache(String name, Integer maxEntries, Long maxWeight, Long ttl, File directory, Long maxDiskSize){
+		this.cache       = new TinyLfuCache<String, Image>(name, maxEntries, maxWeight, ttl, IMAGE_WEIGHER);
+		this.directory   = directory;
+		this.maxDiskSize = maxDiskSize;
+	}
+
+	/**
+	 * @return Cache shared by everything in the JVM
+	 */
+	public static ImageCache getShared(){
+		return shared;
+	}
+
+	/**
+	 * @param directory Directory the disk tier is kept in (null turns the disk tier off)
+	 * @param maxDiskSize Most total size held on disk, in bytes
+	 * @see TinyLfuCache#configure(Integer, Long, Long)
+	 */
+	public void configure(Integer maxEntries, Long maxWeight, Long ttl, File directory, Long maxDiskSize){
+		cache.configure(maxEntries, maxWeight, ttl);
+		if((directory == null) ? (this.directory != null) : !directory.equals(this.directory)){
+			this.directory = directory;
+			diskSize.set(-1);
+		}
+		this.maxDiskSize = (maxDiskSize == null) ? DEFAULT_MAX_DISK_SIZE : maxDiskSize;
+	}
+
+	/**
+	 * <p>Reads an image through the cache.</p>
+	 *
+	 * @param videoId Video the image belongs to
+	 * @param url URL of the image
+	 * @param loader Reads the image if it isn't cached
+	 * @return The image
+	 * @throws BrightcoveException If the image wasn't cached and couldn't be read
+	 */
+	public Image get(Long videoId, String url, final Loader loader) throws BrightcoveException {
+		final String key   = videoId + " " + url;
+		Image        image = cache.get(key);
+		if(image != null){
+			return image;
+		}
+		return loads.execute(key, new Callable<Image>() {
+			public Image call() throws IOException {
+				Image found = cache.peek(key);
+				if(found == null){
+					found = readDisk(key);
+				}
+				if(found == null){
+					loadCount.incrementAndGet();
+					found = new Image(loader.load(), (System.currentTimeMillis() / 1000) * 1000);
+					writeDisk(key, found);
+				}
+				cache.put(key, found);
+				return found;
+			}
+		});
+	}
+
+	private File fileFor(File dir, String key){
+		return new File(dir, DigestUtils.Sha1Hex(key) + SUFFIX);
+	}
+
+	private Image readDisk(String key){
+		File dir = directory;
+		if(dir == null){
+			return null;
+		}
+		File file = fileFor(dir, key);
+		if(!file.isFile()){
+			return null;
+		}
+		try{
+			InputStream in = new FileInputStream(file);
+			try{
+				ByteArrayOutputStream out    = new ByteArrayOutputStream((int)file.length());
+				byte[]                buffer = new byte[8192];
+				int                   read;
+				while((read = in.read(buffer)) != -1){
+					out.write(buffer, 0, read);
+				}
+				diskHits.incrementAndGet();
+				return new Image(out.toByteArray(), file.lastModified());
+			}
+			finally{
+				in.close();
+			}
+		}
+		catch(IOException ioe){
+			file.delete();
+			return null;
+		}
+	}
+
+	private void writeDisk(String key, Image image){
+		File dir = directory;
+		if((dir == null) || (!dir.isDirectory() && !dir.mkdirs())){
+			return;
+		}
+		File file = fileFor(dir, key);
+		File temp = new File(dir, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+		try{
+			OutputStream out = new FileOutputStream(temp);
+			try{
+				out.write(image.data);
+			}
+			finally{
+				out.close();
+			}
+			temp.setLastModified(image.lastModified);
+			if(!temp.renameTo(file)){
+				temp.delete();
+				return;
+			}
+		}
+		catch(IOException ioe){
+			// Still cached in memory
+			temp.delete();
+			return;
+		}
+
+		if(diskSize.get() < 0){
+			diskSize.set(sizeOf(dir));
+		}
+		else if(diskSize.addAndGet(image.data.length) > maxDiskSize){
+			trim(dir);
+		}
+	}
+
+	/**
+	 * <p>Deletes the images read longest ago until the disk tier is down to three quarters of its size.</p>
+	 */
+	private synchronized void trim(File dir){
+		File[] files = list(dir);
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+			}
+		});
+		long size   = sizeOf(dir);
+		long target = maxDiskSize / 4 * 3;
+		for(File file : files){
+			if(size <= target){
+				break;
+			}
+			long length = file.length();
+			if(file.delete()){
+				size -= length;
+			}
+		}
+		diskSize.set(size);
+	}
+
+	private static File[] list(File dir){
+		File[] files = dir.listFiles();
+		if(files == null){
+			return new File[0];
+		}
+		int count = 0;
+		for(File file : files){
+			if(file.getName().endsWith(SUFFIX)){
+				files[count++] = file;
+			}
+		}
+		return Arrays.copyOf(files, count);
+	}
+
+	private static long sizeOf(File dir){
+		long size = 0;
+		for(File file : list(dir)){
+			size += file.length();
+		}
+		return size;
+	}
+
+	/**
+	 * <p>Drops everything held in memory and on disk.</p>
+	 */
+	public void invalidateAll(){
+		cache.invalidateAll();
+		File dir = directory;
+		if(dir != null){
+			for(File file : list(dir)){
+				file.delete();
+			}
+			diskSize.set(0);
+		}
+	}
+
+	/**
+	 * @return Number of images read from disk
+	 */
+	public Long getDiskHitCount(){
+		return diskHits.get();
+	}
+
+	/**
+	 * @return Number of images read by loaders
+	 */
+	public Long getLoadCount(){
+		return loadCount.get();
+	}
+
+	/**
+	 * @return Underlying memory cache, for sizes and hit/miss counts
+	 */
+	public TinyLfuCache<String, Image> getCache(){
+		return cache;
+	}
+
+	@Override
+	public String toString(){
+		return cache.toString();
+	}
+}
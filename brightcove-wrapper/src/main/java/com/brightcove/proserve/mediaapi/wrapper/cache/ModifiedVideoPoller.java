@@ -0,0 +1,243 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.ItemStateEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoStateFilterEnum;
+import com.brightcove.proserve.mediaapi.wrapper.batch.VideoBatchLoader;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Keeps the caches of one read token in step with the Media API by asking
+ *    <code>find_modified_videos</code> what changed since the last poll.</p>
+ *
+ * <p>Only the videos that changed are touched: cached copies are re-read with the fields
+ *    they were first read with, videos that were deleted or deactivated are dropped and
+ *    remembered as missing, and playlists holding any of them are dropped.  With a poller
+ *    running every minute or so, the video and playlist caches can be given TTLs of hours
+ *    rather than minutes.</p>
+ *
+ * <p><code>from_date</code> is in whole minutes, so every poll overlaps the previous one a
+ *    little (see {@link #DEFAULT_OVERLAP}); a video reported twice is just refreshed twice.</p>
+ *
+ * <p>A poll reads at most {@link #MAX_PAGES} pages. When there are more changes than that,
+ *    the checkpoint only moves up to the last modified date read, and the next poll carries
+ *    on from there (see {@link #isCaughtUp()}).</p>
+ *
+ * <p>The checkpoint is only kept in memory. A caller whose caches outlive the JVM should
+ *    store it after each poll and hand it back to the next poller.</p>
+ */
+public class ModifiedVideoPoller {
+	public static final Long DEFAULT_OVERLAP = 2l * 60 * 1000;
+
+	public static final Integer MAX_PAGES = 100;
+
+	private static final Integer PAGE_SIZE = 100;
+
+	private final ReadApi           readApi;
+	private final String            readToken;
+	private final VideoCache        videoCache;
+	private final PlaylistCache     playlistCache;
+	private final NegativeCache     negativeCache;
+	private final SearchResultCache searchCache;
+
+	private volatile Long    checkpoint;
+	private volatile Long    lastPoll;
+	private volatile Integer lastChangeCount = 0;
+	private volatile boolean caughtUp        = true;
+
+	/**
+	 * <p>Creates a poller for the shared caches, with a checkpoint of now.</p>
+	 *
+	 * @param readToken Read Media API token for the account
+	 */
+	public ModifiedVideoPoller(String readToken){
+		this(UncachedReadApi(), readToken, VideoCache.getShared(), PlaylistCache.getShared(), NegativeCache.getShared(), SearchResultCache.getShared(), System.currentTimeMillis());
+	}
+
+	/**
+	 * @param readApi ReadApi to poll and re-read videos with; it shouldn't have caches of its own
+	 * @param readToken Read Media API token for the account
+	 * @param videoCache Video cache to refresh (null to skip)
+	 * @param playlistCache Playlist cache to invalidate (null to skip)
+	 * @param negativeCache Missing id cache to update (null to skip)
+	 * @param searchCache Search cache to invalidate (null to skip)
+	 * @param checkpoint Time of the oldest change to look for, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 */
+	public ModifiedVideoPoller(ReadApi readApi, String readToken, VideoCache videoCache, PlaylistCache playlistCache, NegativeCache negativeCache, SearchResultCache searchCache, Long checkpoint){
+		this.readApi       = readApi;
+		this.readToken     = readToken;
+		this.videoCache    = videoCache;
+		this.playlistCache = playlistCache;
+		this.negativeCache = negativeCache;
+		this.searchCache   = searchCache;
+		this.checkpoint    = checkpoint;
+	}
+
+	private static ReadApi UncachedReadApi(){
+		ReadApi ret = new ReadApi();
+		ret.setVideoCache(null);
+		ret.setSearchCache(null);
+		ret.setNegativeCache(null);
+		ret.setPlaylistCache(null);
+		return ret;
+	}
+
+	/**
+	 * <p>Reads every change since the checkpoint and applies it to the caches, then moves
+	 *    the checkpoint up to the time the poll started.  If there were more changes than
+	 *    {@link #MAX_PAGES} pages hold, it only moves up to the last modified date read.</p>
+	 *
+	 * <p>If the changes can't be read the checkpoint stays where it was, so the next poll
+	 *    picks them up.</p>
+	 *
+	 * @return Number of videos reported as changed
+	 * @throws BrightcoveException If the changes couldn't be read from the Media API
+	 */
+	public synchronized Integer poll() throws BrightcoveException {
+		Long      started  = System.currentTimeMillis();
+		Long      fromDate = Math.max(0l, checkpoint - DEFAULT_OVERLAP) / (60 * 1000);
+		Set<Long> changed  = new LinkedHashSet<Long>();
+		Set<Long> gone     = new HashSet<Long>();
+		Long      lastRead = null;
+		Boolean   complete = false;
+
+		EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
+		videoFields.add(VideoFieldEnum.ID);
+		videoFields.add(VideoFieldEnum.ITEMSTATE);
+		videoFields.add(VideoFieldEnum.LASTMODIFIEDDATE);
+
+		for(int pageNumber=0;pageNumber<MAX_PAGES;pageNumber++){
+			Videos page = readApi.FindModifiedVideos(readToken, fromDate, VideoStateFilterEnum.CreateFullSet(), PAGE_SIZE, pageNumber, SortByTypeEnum.MODIFIED_DATE, SortOrderTypeEnum.ASC, videoFields, new HashSet<String>());
+			for(Video video : page){
+				if(video.getId() == null){
+					continue;
+				}
+				changed.add(video.getId());
+				if(video.getItemState() != ItemStateEnum.ACTIVE){
+					gone.add(video.getId());
+				}
+				if((video.getLastModifiedDate() != null) && ((lastRead == null) || (video.getLastModifiedDate().getTime() > lastRead))){
+					lastRead = video.getLastModifiedDate().getTime();
+				}
+			}
+
+			Integer totalCount = page.getTotalCount();
+			if((page.size() < PAGE_SIZE) || ((totalCount != null) && (totalCount >= 0) && ((pageNumber + 1) * PAGE_SIZE >= totalCount))){
+				complete = true;
+				break;
+			}
+		}
+
+		apply(changed, gone);
+
+		if(complete){
+			checkpoint = started;
+		}
+		else if((lastRead != null) && (lastRead > checkpoint)){
+			// Pages are in modified date order, so everything before the last one read is done
+			checkpoint = lastRead;
+		}
+		caughtUp        = complete;
+		lastPoll        = started;
+		lastChangeCount = changed.size();
+		return lastChangeCount;
+	}
+
+	private void apply(Set<Long> changed, Set<Long> gone){
+		if(changed.isEmpty()){
+			return;
+		}
+
+		if(negativeCache != null){
+			negativeCache.clear(NegativeCache.Kind.VIDEO, changed);
+			for(Long videoId : gone){
+				negativeCache.markMissing(readToken, NegativeCache.Kind.VIDEO, videoId);
+			}
+		}
+
+		if(videoCache != null){
+			videoCache.invalidate(gone);
+
+			Set<Long> active = new LinkedHashSet<Long>(changed);
+			active.removeAll(gone);
+			videoCache.refresh(active, new VideoCache.Refresher() {
+				public Videos load(String token, Boolean uds, Set<Long> videoIds, Set<VideoFieldEnum> fields, Set<String> customFields) throws BrightcoveException {
+					EnumSet<VideoFieldEnum> videoFields = VideoFieldEnum.CreateEmptyEnumSet();
+					videoFields.addAll(fields);
+					// The poller's own ReadApi, only used from poll() - safe to switch per group
+					readApi.setEnableUds(uds);
+
+					Videos    ret   = new Videos();
+					Set<Long> chunk = new LinkedHashSet<Long>();
+					for(Long videoId : videoIds){
+						chunk.add(videoId);
+						if(chunk.size() == VideoBatchLoader.MAX_IDS_PER_CALL){
+							ret.addAll(readApi.FindVideosByIds(token, chunk, videoFields, customFields));
+							chunk = new LinkedHashSet<Long>();
+						}
+					}
+					if(!chunk.isEmpty()){
+						ret.addAll(readApi.FindVideosByIds(token, chunk, videoFields, customFields));
+					}
+					return ret;
+				}
+			});
+		}
+
+		if(playlistCache != null){
+			playlistCache.invalidateVideos(changed);
+		}
+
+		// Any cached page may hold a changed video, or miss one that now matches
+		if(searchCache != null){
+			searchCache.invalidateToken(readToken);
+		}
+	}
+
+	public String getReadToken(){
+		return readToken;
+	}
+
+	/**
+	 * @return Time of the oldest change the next poll looks for, in milliseconds
+	 */
+	public Long getCheckpoint(){
+		return checkpoint;
+	}
+
+	public void setCheckpoint(Long checkpoint){
+		this.checkpoint = checkpoint;
+	}
+
+	/**
+	 * @return Start time of the last successful poll, or null if there hasn't been one
+	 */
+	public Long getLastPoll(){
+		return lastPoll;
+	}
+
+	/**
+	 * @return False if the last successful poll stopped at {@link #MAX_PAGES} pages, leaving
+	 *         changes for the next poll
+	 */
+	public Boolean isCaughtUp(){
+		return caughtUp;
+	}
+
+	/**
+	 * @return Number of videos the last successful poll reported as changed
+	 */
+	public Integer getLastChangeCount(){
+		return lastChangeCount;
+	}
+}
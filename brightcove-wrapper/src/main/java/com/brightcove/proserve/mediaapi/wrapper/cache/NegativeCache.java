@@ -0,0 +1,186 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * <p>Remembers video and playlist ids the Media API recently reported as not found.</p>
+ *
+ * <p>Requests for deleted ids (old links, bots, pages that haven't been updated) are
+ *    then answered locally instead of going to the Media API every time.  Entries have
+ *    their own short expiry and capacity, separate from the caches of found items, so
+ *    a burst of bad ids can't push real videos out.  Ids reported by
+ *    <code>find_modified_videos</code> are cleared straight away, so a video uploaded
+ *    under a remembered id shows up without waiting for the entry to expire.</p>
+ */
+public class NegativeCache {
+	public static final Integer DEFAULT_MAX_ENTRIES = 5000;
+	public static final Long    DEFAULT_TTL         = 60l * 1000;
+
+	private static final NegativeCache shared = new NegativeCache("missing", DEFAULT_MAX_ENTRIES, DEFAULT_TTL);
+
+	private final TinyLfuCache<Key, Boolean> cache;
+
+	/**
+	 * <p>Kind of item an id refers to.</p>
+	 */
+	public enum Kind {
+		VIDEO,
+		PLAYLIST
+	}
+
+	/**
+	 * <p>Cache key: read token, kind and id.</p>
+	 */
+	public static final class Key {
+		private final String token;
+		private final Kind   kind;
+		private final Long   id;
+
+		Key(String token, Kind kind, Long id){
+			this.token = String.valueOf(token);
+			this.kind  = kind;
+			this.id    = id;
+		}
+
+		public String getToken(){
+			return token;
+		}
+
+		public Kind getKind(){
+			return kind;
+		}
+
+		public Long getId(){
+			return id;
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key)obj;
+			return (kind == other.kind) && id.equals(other.id) && token.equals(other.token);
+		}
+
+		@Override
+		public int hashCode(){
+			return (31 * (31 * token.hashCode() + kind.hashCode())) + id.hashCode();
+		}
+
+		@Override
+		public String toString(){
+			return kind + " " + id;
+		}
+	}
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxEntries Most ids remembered (0 turns the cache off)
+	 * @param ttl How long an id is remembered as missing, in milliseconds
+	 */
+	public NegativeCache(String name, Integer maxEntries, Long ttl){
+		cache = new TinyLfuCache<Key, Boolean>(name, maxEntries, null, ttl, null);
+	}
+
+	/**
+	 * @return Cache shared by every ReadApi in the JVM
+	 */
+	public static NegativeCache getShared(){
+		return shared;
+	}
+
+	/**
+	 * @param maxEntries Most ids remembered (0 turns the cache off)
+	 * @param ttl How long an id is remembered as missing, in milliseconds
+	 */
+	public void configure(Integer maxEntries, Long ttl){
+		cache.configure(maxEntries, null, ttl);
+	}
+
+	/**
+	 * @return True if the id was recently reported as not found
+	 */
+	public Boolean isMissing(String token, Kind kind, Long id){
+		return (id != null) && (cache.get(new Key(token, kind, id)) != null);
+	}
+
+	/**
+	 * @return The ids that aren't known to be missing, in their original order
+	 */
+	public Set<Long> filterMissing(String token, Kind kind, Collection<Long> ids){
+		Set<Long> ret = new LinkedHashSet<Long>();
+		for(Long id : ids){
+			if(!isMissing(token, kind, id)){
+				ret.add(id);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * <p>Remembers an id as not found.</p>
+	 */
+	public void markMissing(String token, Kind kind, Long id){
+		if(id != null){
+			cache.put(new Key(token, kind, id), Boolean.TRUE);
+		}
+	}
+
+	/**
+	 * <p>Remembers the requested ids that weren't found.</p>
+	 *
+	 * @param requested Ids asked for
+	 * @param found Ids the Media API returned
+	 */
+	public void markMissing(String token, Kind kind, Collection<Long> requested, Collection<Long> found){
+		Set<Long> foundSet = new HashSet<Long>(found);
+		for(Long id : requested){
+			if(!foundSet.contains(id)){
+				markMissing(token, kind, id);
+			}
+		}
+	}
+
+	/**
+	 * <p>Forgets that the ids were missing, whatever the token they were asked for with.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer clear(final Kind kind, Collection<Long> ids){
+		if(ids.isEmpty()){
+			return 0;
+		}
+		final Set<Long> idSet = new HashSet<Long>(ids);
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return (key.getKind() == kind) && idSet.contains(key.getId());
+			}
+		});
+	}
+
+	/**
+	 * <p>Forgets everything.</p>
+	 */
+	public void invalidateAll(){
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return Underlying cache; its hits are requests answered locally
+	 */
+	public TinyLfuCache<Key, Boolean> getCache(){
+		return cache;
+	}
+
+	@Override
+	public String toString(){
+		return cache.toString();
+	}
+}
@@ -0,0 +1,604 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+
+import org.json.JSONException;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Cache of playlists read by id, keyed by read token, playlist id and the playlist,
+ *    video and custom fields asked for.</p>
+ *
+ * <p>The cache keeps track of the videos each cached playlist contains, so that when a
+ *    video changes only the playlists holding it are dropped ({@link #invalidateVideos(Collection)})
+ *    rather than the whole cache.  Playlists read without their videos or video ids
+ *    don't depend on any video and are left alone.</p>
+ *
+ * <p>Cached Playlist objects are shared between callers and should be treated as read-only.</p>
+ *
+ * <p>As in {@link VideoCache}, lookups that come with a loader serve an expired playlist
+ *    for a grace period and refresh it in the background.</p>
+ */
+public class PlaylistCache {
+	public static final Integer DEFAULT_MAX_ENTRIES  = 1000;
+	public static final Long    DEFAULT_MAX_WEIGHT   = 16l * 1024 * 1024;
+	public static final Long    DEFAULT_TTL          = 5l * 60 * 1000;
+	public static final Long    DEFAULT_GRACE_PERIOD = 10l * 60 * 1000;
+
+	private static final PlaylistCache shared = new PlaylistCache("playlists", DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL);
+
+	/**
+	 * <p>Region the playlists are kept under in the second level store.</p>
+	 */
+	public static final String REGION = "playlists";
+
+	private final TinyLfuCache<Key, Playlist> cache;
+	private volatile SecondLevelStore         secondLevel;
+	private final Revalidator<Key>            revalidator;
+
+	// Which cached playlists hold each video, and the other way round - guarded by the index lock
+	private final Object                 index         = new Object();
+	private final Map<Long, Set<Key>>    keysByVideo   = new HashMap<Long, Set<Key>>();
+	private final Map<Key, Set<Long>>    videosByKey   = new HashMap<Key, Set<Long>>();
+
+	/**
+	 * <p>Cache key: read token, playlist id, the fields asked for and whether UDS URLs were asked for.</p>
+	 */
+	public static final class Key {
+		private final String token;
+		private final Long   playlistId;
+		private final String  fields;
+		private final boolean idReturned;
+		private final int     hash;
+
+		Key(String token, Boolean uds, Long playlistId, Set<VideoFieldEnum> videoFields, Set<String> customFields, Set<PlaylistFieldEnum> playlistFields){
+			this.token      = String.valueOf(token);
+			this.playlistId = playlistId;
+
+			StringBuilder sb = new StringBuilder();
+			if(playlistFields != null){
+				for(PlaylistFieldEnum field : playlistFields){
+					sb.append(field).append(',');
+				}
+			}
+			sb.append('|');
+			if(videoFields != null){
+				for(VideoFieldEnum field : videoFields){
+					sb.append(field).append(',');
+				}
+			}
+			sb.append('|');
+			if(customFields != null){
+				for(String field : new TreeSet<String>(customFields)){
+					sb.append(field).append(',');
+				}
+			}
+			if(Boolean.TRUE.equals(uds)){
+				// The videos' rendition URLs differ with UDS on
+				sb.append("|uds");
+			}
+			this.fields     = sb.toString();
+			this.idReturned = (playlistFields == null) || playlistFields.isEmpty() || playlistFields.contains(PlaylistFieldEnum.ID);
+			this.hash       = (31 * (31 * this.token.hashCode() + playlistId.hashCode())) + fields.hashCode();
+		}
+
+		public String getToken(){
+			return token;
+		}
+
+		public Long getPlaylistId(){
+			return playlistId;
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key)obj;
+			return (hash == other.hash) && fields.equals(other.fields) && playlistId.equals(other.playlistId) && token.equals(other.token);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		/**
+		 * @return Name of the token and field set, safe to persist
+		 */
+		String variant(){
+			return VideoCache.Variant(token, fields);
+		}
+
+		@Override
+		public String toString(){
+			return playlistId + " [" + fields + "]";
+		}
+	}
+
+	/**
+	 * <p>Reads the playlists that weren't cached.</p>
+	 */
+	public interface Loader {
+		/**
+		 * @param playlistIds Ids of the playlists to read
+		 * @return Playlists found, in any order
+		 */
+		public Playlists load(Set<Long> playlistIds) throws BrightcoveException;
+	}
+
+	private static final TinyLfuCache.Weigher<Key, Playlist> PLAYLIST_WEIGHER = new TinyLfuCache.Weigher<Key, Playlist>() {
+		public int weigh(Key key, Playlist playlist) {
+			return EstimateSize(playlist) + 2 * key.fields.length() + 64;
+		}
+	};
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxEntries Most playlists held (0 turns the cache off)
+	 * @param maxWeight Most total size held, in approximate bytes
+	 * @param ttl How long a playlist stays cached, in milliseconds
+	 */
+	public PlaylistCache(String name, Integer maxEntries, Long maxWeight, Long ttl){
+		this(name, maxEntries, maxWeight, ttl, DEFAULT_GRACE_PERIOD, AsyncReadApi.getSharedExecutor());
+	}
+
+	/**
+	 * @param gracePeriod How long an expired playlist is served while it's refreshed, in milliseconds (0 turns this off)
+	 * @param executor Executor the background refreshes run on
+	 * @see #PlaylistCache(String, Integer, Long, Long)
+	 */
+	public PlaylistCache(String name, Integer maxEntries, Long maxWeight, Long ttl, Long gracePeriod, Executor executor){
+		cache = new TinyLfuCache<Key, Playlist>(name, maxEntries, maxWeight, ttl, PLAYLIST_WEIGHER);
+		cache.configure(maxEntries, maxWeight, ttl, gracePeriod);
+		revalidator = new Revalidator<Key>(executor);
+		cache.setRemovalListener(new TinyLfuCache.RemovalListener<Key, Playlist>() {
+			public void onRemoval(Key key, Playlist playlist) {
+				unindex(key);
+			}
+		});
+	}
+
+	/**
+	 * <p>Sets the persistent tier read on misses and written through on puts.  Persisted
+	 *    playlists are stored with the ids of their videos, so {@link #invalidateVideos(Collection)}
+	 *    reaches the ones that aren't in memory as well.</p>
+	 *
+	 * @param secondLevel Store to use, or null for memory only
+	 */
+	public void setSecondLevelStore(SecondLevelStore secondLevel){
+		this.secondLevel = secondLevel;
+	}
+
+	public SecondLevelStore getSecondLevelStore(){
+		return secondLevel;
+	}
+
+	/**
+	 * @return Cache shared by every ReadApi in the JVM
+	 */
+	public static PlaylistCache getShared(){
+		return shared;
+	}
+
+	/**
+	 * @see TinyLfuCache#configure(Integer, Long, Long)
+	 */
+	public void configure(Integer maxEntries, Long maxWeight, Long ttl){
+		cache.configure(maxEntries, maxWeight, ttl);
+	}
+
+	/**
+	 * @see TinyLfuCache#configure(Integer, Long, Long, Long)
+	 */
+	public void configure(Integer maxEntries, Long maxWeight, Long ttl, Long gracePeriod){
+		cache.configure(maxEntries, maxWeight, ttl, gracePeriod);
+	}
+
+	/**
+	 * @return The cached playlist, or null if it isn't cached
+	 */
+	public Playlist get(String token, Boolean uds, Long playlistId, Set<VideoFieldEnum> videoFields, Set<String> customFields, Set<PlaylistFieldEnum> playlistFields){
+		Key      key      = new Key(token, uds, playlistId, videoFields, customFields, playlistFields);
+		Playlist playlist = cache.get(key);
+		if((playlist == null) && (secondLevel != null)){
+			playlist = readSecondLevel(secondLevel, key);
+		}
+		return playlist;
+	}
+
+	/**
+	 * <p>Reads a playlist through the cache.  An expired playlist still within its grace period
+	 *    is returned straight away and refreshed in the background with the loader.</p>
+	 *
+	 * @param loader Reads the fresh copy of an expired playlist
+	 * @return The cached playlist, or null if it isn't cached (or is past its grace period)
+	 */
+	public Playlist get(String token, Boolean uds, Long playlistId, Set<VideoFieldEnum> videoFields, Set<String> customFields, Set<PlaylistFieldEnum> playlistFields, Loader loader){
+		List<Key> stale    = new ArrayList<Key>(1);
+		Playlist  playlist = lookup(new Key(token, uds, playlistId, videoFields, customFields, playlistFields), stale);
+		if(!stale.isEmpty()){
+			revalidate(stale, loader);
+		}
+		return playlist;
+	}
+
+	/**
+	 * @param stale Collects the key if the playlist found is stale
+	 */
+	private Playlist lookup(Key key, List<Key> stale){
+		TinyLfuCache.Entry<Playlist> entry = cache.getEntry(key);
+		if(entry == null){
+			return (secondLevel == null) ? null : readSecondLevel(secondLevel, key);
+		}
+		if(entry.isStale()){
+			stale.add(key);
+		}
+		return entry.getValue();
+	}
+
+	/**
+	 * <p>Reads fresh copies of stale playlists in the background, replacing the stale ones.
+	 *    Playlists that don't come back any more are dropped.</p>
+	 */
+	private void revalidate(List<Key> stale, final Loader loader){
+		Revalidator.Task<Key> task = new Revalidator.Task<Key>() {
+			public void refresh(Set<Key> keys) throws BrightcoveException {
+				Key       first = keys.iterator().next();
+				Set<Long> ids   = new LinkedHashSet<Long>();
+				for(Key key : keys){
+					ids.add(key.getPlaylistId());
+				}
+
+				Playlists           loaded = loader.load(ids);
+				Map<Long, Playlist> fresh  = new HashMap<Long, Playlist>();
+				if(first.idReturned){
+					for(Playlist playlist : loaded){
+						if(playlist.getId() != null){
+							fresh.put(playlist.getId(), playlist);
+						}
+					}
+				}
+				else if(loaded.size() == 1){
+					// Only ever one id without the ID field - see below
+					fresh.put(first.getPlaylistId(), loaded.get(0));
+				}
+
+				for(Key key : keys){
+					Playlist playlist = fresh.get(key.getPlaylistId());
+					if(playlist != null){
+						store(key, playlist);
+					}
+					else{
+						cache.invalidate(key);
+					}
+				}
+			}
+		};
+
+		if(stale.get(0).idReturned){
+			revalidator.submit(stale, task);
+			return;
+		}
+		// Playlists read without the ID field can only be matched up when they're read one at a time
+		for(Key key : stale){
+			revalidator.submit(Collections.singleton(key), task);
+		}
+	}
+
+	private Playlist readSecondLevel(SecondLevelStore store, Key key){
+		if(cache.getMaxEntries() == 0){
+			return null;
+		}
+		SecondLevelStore.Record record = store.read(REGION, key.getPlaylistId(), key.variant());
+		if(record == null){
+			return null;
+		}
+		long remaining = record.getExpiresAt() - System.currentTimeMillis();
+		if(remaining <= 0){
+			return null;
+		}
+		try{
+			Playlist playlist = new Playlist(record.getData());
+			index(key, VideoIdsOf(playlist));
+			cache.put(key, playlist, remaining);
+			if(cache.peek(key) == null){
+				unindex(key);
+			}
+			return playlist;
+		}
+		catch(JSONException jsone){
+			// Written by an older version, or damaged - read it again from the Media API
+			return null;
+		}
+		catch(RuntimeException re){
+			// The parsing constructors cast and dereference freely - same as above
+			return null;
+		}
+	}
+
+	/**
+	 * <p>Caches a playlist read by id, noting the videos it holds.</p>
+	 *
+	 * @param playlistId Id the playlist was read with
+	 */
+	public void put(String token, Boolean uds, Long playlistId, Playlist playlist, Set<VideoFieldEnum> videoFields, Set<String> customFields, Set<PlaylistFieldEnum> playlistFields){
+		if((playlistId == null) || (playlist == null)){
+			return;
+		}
+		store(new Key(token, uds, playlistId, videoFields, customFields, playlistFields), playlist);
+	}
+
+	private void store(Key key, Playlist playlist){
+		// Indexed before it's cached, so a video invalidated in between still finds it
+		Set<Long> videoIds = VideoIdsOf(playlist);
+		index(key, videoIds);
+		cache.put(key, playlist);
+		if(cache.peek(key) == null){
+			// Not taken (cache off or too big) - nothing to track
+			unindex(key);
+			return;
+		}
+
+		SecondLevelStore store = secondLevel;
+		if(store != null){
+			try{
+				store.write(REGION, key.getPlaylistId(), key.variant(), playlist.toJson().toString(), System.currentTimeMillis() + cache.getTtl(), videoIds);
+			}
+			catch(JSONException jsone){
+				// Still cached in memory
+			}
+		}
+	}
+
+	/**
+	 * <p>Reads a set of playlists, taking what it can from the cache and loading the rest in one go.
+	 *    Expired playlists still within their grace period are returned, and refreshed in the
+	 *    background with the loader.</p>
+	 *
+	 * <p>Loaded playlists can only be matched back to their ids, and cached, if the ID field
+	 *    is populated; when it isn't they're passed through uncached.</p>
+	 *
+	 * @param playlistIds Ids of the playlists to read
+	 * @param loader Reads the playlists that weren't cached
+	 * @return Playlists found, in the order of the ids given
+	 * @throws BrightcoveException If the loader fails
+	 */
+	public Playlists getAll(String token, Boolean uds, Set<Long> playlistIds, Set<VideoFieldEnum> videoFields, Set<String> customFields, Set<PlaylistFieldEnum> playlistFields, Loader loader) throws BrightcoveException {
+		Map<Long, Playlist> found   = new LinkedHashMap<Long, Playlist>();
+		Set<Long>           missing = new LinkedHashSet<Long>();
+		List<Key>           stale   = new ArrayList<Key>();
+		for(Long playlistId : playlistIds){
+			Playlist playlist = lookup(new Key(token, uds, playlistId, videoFields, customFields, playlistFields), stale);
+			if(playlist != null){
+				found.put(playlistId, playlist);
+			}
+			else{
+				missing.add(playlistId);
+			}
+		}
+		if(!stale.isEmpty()){
+			revalidate(stale, loader);
+		}
+
+		Playlists ret        = new Playlists();
+		Playlists loaded     = missing.isEmpty() ? null : loader.load(missing);
+		Boolean   idReturned = (playlistFields == null) || playlistFields.isEmpty() || playlistFields.contains(PlaylistFieldEnum.ID);
+		if(loaded != null){
+			if(!idReturned){
+				// Can't tell which playlist is which - pass them all through
+				ret.addAll(found.values());
+				ret.addAll(loaded);
+				ret.setTotalCount(loaded.getTotalCount());
+				return ret;
+			}
+			for(Playlist playlist : loaded){
+				if(playlist.getId() != null){
+					found.put(playlist.getId(), playlist);
+					put(token, uds, playlist.getId(), playlist, videoFields, customFields, playlistFields);
+				}
+			}
+			ret.setTotalCount(loaded.getTotalCount());
+		}
+
+		for(Long playlistId : playlistIds){
+			Playlist playlist = found.get(playlistId);
+			if(playlist != null){
+				ret.add(playlist);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * <p>Drops the cached playlists that hold any of the videos.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer invalidateVideos(Collection<Long> videoIds){
+		if(secondLevel != null){
+			secondLevel.removeReferencing(REGION, videoIds);
+		}
+
+		List<Key> keys = new ArrayList<Key>();
+		synchronized(index){
+			for(Long videoId : videoIds){
+				Set<Key> holding = keysByVideo.get(videoId);
+				if(holding != null){
+					keys.addAll(holding);
+				}
+			}
+		}
+
+		// The removal listener takes the index lock, so this must happen outside of it
+		int removed = 0;
+		for(Key key : new LinkedHashSet<Key>(keys)){
+			if(cache.peek(key) != null){
+				removed++;
+			}
+			cache.invalidate(key);
+		}
+		return removed;
+	}
+
+	/**
+	 * <p>Drops every cached copy of a playlist, whatever the token or fields it was read with.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer invalidate(final Long playlistId){
+		if(secondLevel != null){
+			secondLevel.remove(REGION, Collections.singleton(playlistId));
+		}
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return playlistId.equals(key.getPlaylistId());
+			}
+		});
+	}
+
+	/**
+	 * <p>Drops everything.</p>
+	 */
+	public void invalidateAll(){
+		if(secondLevel != null){
+			secondLevel.removeAll(REGION);
+		}
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return Number of distinct videos held by the cached playlists
+	 */
+	public Integer getIndexedVideoCount(){
+		synchronized(index){
+			return keysByVideo.size();
+		}
+	}
+
+	/**
+	 * @return Number of background refreshes of stale playlists started
+	 */
+	public Long getRevalidationCount(){
+		return revalidator.getRefreshCount();
+	}
+
+	/**
+	 * @return Number of background refreshes of stale playlists that failed
+	 */
+	public Long getRevalidationFailureCount(){
+		return revalidator.getFailureCount();
+	}
+
+	/**
+	 * @return Underlying cache, for sizes and hit/miss counts
+	 */
+	public TinyLfuCache<Key, Playlist> getCache(){
+		return cache;
+	}
+
+	private void index(Key key, Set<Long> videoIds){
+		synchronized(index){
+			unindexLocked(key);
+			if(videoIds.isEmpty()){
+				return;
+			}
+			videosByKey.put(key, videoIds);
+			for(Long videoId : videoIds){
+				Set<Key> holding = keysByVideo.get(videoId);
+				if(holding == null){
+					holding = new HashSet<Key>();
+					keysByVideo.put(videoId, holding);
+				}
+				holding.add(key);
+			}
+		}
+	}
+
+	private void unindex(Key key){
+		synchronized(index){
+			unindexLocked(key);
+		}
+	}
+
+	private void unindexLocked(Key key){
+		Set<Long> videoIds = videosByKey.remove(key);
+		if(videoIds == null){
+			return;
+		}
+		for(Long videoId : videoIds){
+			Set<Key> holding = keysByVideo.get(videoId);
+			if(holding != null){
+				holding.remove(key);
+				if(holding.isEmpty()){
+					keysByVideo.remove(videoId);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return Ids of the videos in the playlist, from its video ids and its videos
+	 */
+	static Set<Long> VideoIdsOf(Playlist playlist){
+		Set<Long> ret = new HashSet<Long>();
+		if(playlist.getVideoIds() != null){
+			for(Long videoId : playlist.getVideoIds()){
+				if(videoId != null){
+					ret.add(videoId);
+				}
+			}
+		}
+		if(playlist.getVideos() != null){
+			for(Video video : playlist.getVideos()){
+				if(video.getId() != null){
+					ret.add(video.getId());
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static int EstimateSize(Playlist playlist){
+		int size = 200;
+		size += (playlist.getName() == null) ? 0 : 2 * playlist.getName().length();
+		size += (playlist.getShortDescription() == null) ? 0 : 2 * playlist.getShortDescription().length();
+		size += (playlist.getThumbnailUrl() == null) ? 0 : 2 * playlist.getThumbnailUrl().length();
+		if(playlist.getVideoIds() != null){
+			size += 24 * playlist.getVideoIds().size();
+		}
+		if(playlist.getVideos() != null){
+			for(Video video : playlist.getVideos()){
+				size += VideoCache.EstimateSize(video);
+			}
+		}
+		return size;
+	}
+
+	@Override
+	public String toString(){
+		return cache.toString();
+	}
+}
@@ -0,0 +1,96 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Refreshes stale cache entries in the background, at most one refresh per key at a time.</p>
+ *
+ * <p>Keys already being refreshed are left out of later requests until their refresh has
+ *    finished, so a popular stale entry costs one Media API call however often it's read
+ *    meanwhile.  A failed refresh leaves the stale entry in place; it's retried the next
+ *    time the entry is read, until the entry is past its grace period.</p>
+ *
+ * @param <K> Cache key type
+ */
+class Revalidator<K> {
+	/**
+	 * <p>Reads fresh values for a set of keys and stores them.</p>
+	 */
+	interface Task<K> {
+		public void refresh(Set<K> keys) throws BrightcoveException;
+	}
+
+	private final Executor  executor;
+	private final Set<K>    running  = Collections.newSetFromMap(new ConcurrentHashMap<K, Boolean>());
+	private final AtomicLong started  = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	Revalidator(Executor executor){
+		this.executor = executor;
+	}
+
+	/**
+	 * <p>Starts a refresh of the keys that aren't already being refreshed.</p>
+	 *
+	 * @return Whether a refresh was started
+	 */
+	Boolean submit(Collection<K> keys, final Task<K> task){
+		final Set<K> claimed = new LinkedHashSet<K>();
+		for(K key : keys){
+			if(running.add(key)){
+				claimed.add(key);
+			}
+		}
+		if(claimed.isEmpty()){
+			return false;
+		}
+		try{
+			executor.execute(new Runnable() {
+				public void run() {
+					try{
+						task.refresh(claimed);
+					}
+					catch(BrightcoveException be){
+						failures.incrementAndGet();
+					}
+					catch(RuntimeException re){
+						failures.incrementAndGet();
+					}
+					finally{
+						running.removeAll(claimed);
+					}
+				}
+			});
+		}
+		catch(RejectedExecutionException ree){
+			// Served stale again next time, and retried then
+			running.removeAll(claimed);
+			return false;
+		}
+		started.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * @return Number of background refreshes started
+	 */
+	Long getRefreshCount(){
+		return started.get();
+	}
+
+	/**
+	 * @return Number of background refreshes that failed
+	 */
+	Long getFailureCount(){
+		return failures.get();
+	}
+}
@@ -0,0 +1,352 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Cache of paged search results, keyed by read token, the fixed part of the query
+ *    (command, sort, page size, fields) and the normalized search terms.</p>
+ *
+ * <p>All pages of one query are held in a single entry and expire together, so that
+ *    paging through a result set sees one consistent snapshot.  Once a page has been
+ *    read, the pages after it are read in the background (see {@link #configure(Integer, Long, Long, Integer)}),
+ *    so moving to the next page is usually served from memory.</p>
+ *
+ * <p>Search terms are normalized before they're used as a key: surrounding and repeated
+ *    white space is dropped, they're lower-cased (Media API searches aren't case-sensitive)
+ *    and the terms within each list are sorted.</p>
+ *
+ * <p>Callers get their own copy of each page and may change it freely.</p>
+ */
+public class SearchResultCache {
+	public static final Integer DEFAULT_MAX_QUERIES    = 1000;
+	public static final Long    DEFAULT_MAX_WEIGHT     = 16l * 1024 * 1024;
+	public static final Long    DEFAULT_TTL            = 60l * 1000;
+	public static final Integer DEFAULT_PREFETCH_PAGES = 1;
+
+	private static final SearchResultCache shared = new SearchResultCache("searches", DEFAULT_MAX_QUERIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL, DEFAULT_PREFETCH_PAGES, AsyncReadApi.getSharedExecutor());
+
+	private final TinyLfuCache<Key, ResultPages> cache;
+	private final Executor                       executor;
+	private volatile Integer                     prefetchPages;
+
+	private final AtomicLong pageHits   = new AtomicLong();
+	private final AtomicLong pageMisses = new AtomicLong();
+
+	/**
+	 * <p>Cache key: read token, fixed part of the query and normalized search terms.</p>
+	 */
+	public static final class Key {
+		private final String token;
+		private final String query;
+		private final String terms;
+		private final int    hash;
+
+		Key(String token, String query, String terms){
+			this.token = String.valueOf(token);
+			this.query = String.valueOf(query);
+			this.terms = terms;
+			this.hash  = (31 * (31 * this.token.hashCode() + this.query.hashCode())) + terms.hashCode();
+		}
+
+		public String getToken(){
+			return token;
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key)obj;
+			return (hash == other.hash) && terms.equals(other.terms) && query.equals(other.query) && token.equals(other.token);
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		@Override
+		public String toString(){
+			return query + " " + terms;
+		}
+	}
+
+	/**
+	 * <p>Reads one page of a query from the Media API.</p>
+	 */
+	public interface PageLoader {
+		/**
+		 * @param pageNumber Zero-based page to read
+		 * @return The page, with its total count
+		 */
+		public Videos load(Integer pageNumber) throws BrightcoveException;
+	}
+
+	/**
+	 * <p>Every page read so far for one query.</p>
+	 */
+	private static final class ResultPages {
+		private final ConcurrentMap<Integer, Videos> pages   = new ConcurrentHashMap<Integer, Videos>();
+		private final Set<Integer>                   loading = Collections.synchronizedSet(new HashSet<Integer>());
+		private final long                           expiresAt;
+		private volatile int                         weight;
+
+		ResultPages(long expiresAt){
+			this.expiresAt = expiresAt;
+		}
+
+		synchronized void add(Integer pageNumber, Videos videos){
+			if(pages.put(pageNumber, videos) == null){
+				int pageWeight = 64;
+				for(Video video : videos){
+					pageWeight += VideoCache.EstimateSize(video);
+				}
+				weight += pageWeight;
+			}
+		}
+	}
+
+	private static final TinyLfuCache.Weigher<Key, ResultPages> PAGES_WEIGHER = new TinyLfuCache.Weigher<Key, ResultPages>() {
+		public int weigh(Key key, ResultPages value) {
+			return value.weight + 2 * (key.query.length() + key.terms.length()) + 64;
+		}
+	};
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxQueries Most queries held, each with all of its pages read so far (0 turns the cache off)
+	 * @param maxWeight Most total size held, in approximate bytes
+	 * @param ttl How long the pages of a query stay cached after the first one was read, in milliseconds
+	 * @param prefetchPages Number of pages to read ahead of the one asked for
+	 * @param executor Executor the read-ahead runs on
+	 */
+	public SearchResultCache(String name, Integer maxQueries, Long maxWeight, Long ttl, Integer prefetchPages, Executor executor){
+		this.cache    = new TinyLfuCache<Key, ResultPages>(name, maxQueries, maxWeight, ttl, PAGES_WEIGHER);
+		this.executor = executor;
+		this.prefetchPages = ((prefetchPages == null) || (prefetchPages < 0)) ? DEFAULT_PREFETCH_PAGES : prefetchPages;
+	}
+
+	/**
+	 * @return Cache shared by every ReadApi in the JVM
+	 */
+	public static SearchResultCache getShared(){
+		return shared;
+	}
+
+	/**
+	 * @param prefetchPages Number of pages to read ahead of the one asked for (0 turns read-ahead off)
+	 * @see TinyLfuCache#configure(Integer, Long, Long)
+	 */
+	public void configure(Integer maxQueries, Long maxWeight, Long ttl, Integer prefetchPages){
+		cache.configure(maxQueries, maxWeight, ttl);
+		this.prefetchPages = ((prefetchPages == null) || (prefetchPages < 0)) ? DEFAULT_PREFETCH_PAGES : prefetchPages;
+	}
+
+	/**
+	 * <p>Builds the key for a query.</p>
+	 *
+	 * @param token Read token the query is run with
+	 * @param query Fixed part of the query - command, sort, page size, fields - in a stable form
+	 * @param terms Search terms or term lists; nulls and empty lists are kept so that
+	 *              the same term in different lists gives different keys
+	 * @return Key for the query
+	 */
+	public Key key(String token, String query, Object... terms){
+		StringBuilder sb = new StringBuilder();
+		for(Object term : terms){
+			if(term instanceof Collection<?>){
+				List<String> normalized = new ArrayList<String>();
+				for(Object item : (Collection<?>)term){
+					if(item != null){
+						normalized.add(Normalize(item.toString()));
+					}
+				}
+				Collections.sort(normalized);
+				sb.append(normalized);
+			}
+			else if(term != null){
+				sb.append(Normalize(term.toString()));
+			}
+			sb.append('|');
+		}
+		return new Key(token, query, sb.toString());
+	}
+
+	/**
+	 * <p>Reads a page through the cache, reading ahead the pages after it.</p>
+	 *
+	 * @param key Key for the query, from {@link #key(String, String, Object...)}
+	 * @param pageNumber Zero-based page to read
+	 * @param pageSize Videos per page, to tell whether there are pages after this one (null to assume there are while pages come back full)
+	 * @param loader Reads pages that aren't cached
+	 * @return Copy of the page
+	 * @throws BrightcoveException If the page wasn't cached and couldn't be read
+	 */
+	public Videos getPage(Key key, Integer pageNumber, Integer pageSize, PageLoader loader) throws BrightcoveException {
+		if(pageNumber == null){
+			pageNumber = 0;
+		}
+		if(cache.getMaxEntries() == 0){
+			return loader.load(pageNumber);
+		}
+
+		ResultPages entry = cache.get(key);
+		Videos      page  = (entry == null) ? null : entry.pages.get(pageNumber);
+		if(page != null){
+			pageHits.incrementAndGet();
+		}
+		else{
+			pageMisses.incrementAndGet();
+			page = loader.load(pageNumber);
+			if(page == null){
+				return null;
+			}
+			entry = store(key, pageNumber, page);
+		}
+
+		if(entry != null){
+			prefetch(key, entry, pageNumber, pageSize, page, loader);
+		}
+		return copyOf(page);
+	}
+
+	private ResultPages store(Key key, Integer pageNumber, Videos page){
+		long        now   = System.currentTimeMillis();
+		ResultPages entry = cache.peek(key);
+		if(entry == null){
+			Long ttl = cache.getTtl();
+			entry = new ResultPages(now + ttl);
+		}
+		entry.add(pageNumber, page);
+		long remaining = entry.expiresAt - now;
+		if(remaining <= 0){
+			return null;
+		}
+		// Re-put to re-weigh the entry, keeping the expiry of its first page
+		cache.put(key, entry, remaining);
+		return entry;
+	}
+
+	private void prefetch(final Key key, final ResultPages entry, Integer pageNumber, Integer pageSize, Videos page, final PageLoader loader){
+		Integer totalCount = page.getTotalCount();
+		for(int ahead=1;ahead<=prefetchPages;ahead++){
+			final Integer next = pageNumber + ahead;
+			Boolean more;
+			if((pageSize != null) && (totalCount != null) && (totalCount >= 0)){
+				more = (next * pageSize) < totalCount;
+			}
+			else{
+				more = (pageSize == null) ? !page.isEmpty() : (page.size() >= pageSize);
+			}
+			if(!more){
+				return;
+			}
+			if(entry.pages.containsKey(next) || !entry.loading.add(next)){
+				continue;
+			}
+			try{
+				executor.execute(new Runnable() {
+					public void run() {
+						try{
+							Videos videos = loader.load(next);
+							if((videos != null) && (cache.peek(key) == entry)){
+								store(key, next, videos);
+							}
+						}
+						catch(BrightcoveException be){
+							// Nothing to do - the page will be read when it's asked for
+						}
+						finally{
+							entry.loading.remove(next);
+						}
+					}
+				});
+			}
+			catch(RejectedExecutionException ree){
+				entry.loading.remove(next);
+				return;
+			}
+		}
+	}
+
+	private static Videos copyOf(Videos page){
+		Videos copy = new Videos();
+		copy.addAll(page);
+		copy.setTotalCount(page.getTotalCount());
+		return copy;
+	}
+
+	private static String Normalize(String term){
+		return term.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * <p>Drops every query cached for a read token.</p>
+	 *
+	 * @return Number of queries removed
+	 */
+	public Integer invalidateToken(final String token){
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return String.valueOf(token).equals(key.getToken());
+			}
+		});
+	}
+
+	/**
+	 * <p>Drops everything.</p>
+	 */
+	public void invalidateAll(){
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return Number of pages served from the cache
+	 */
+	public Long getPageHitCount(){
+		return pageHits.get();
+	}
+
+	/**
+	 * @return Number of pages read from the Media API by callers (read-ahead not included)
+	 */
+	public Long getPageMissCount(){
+		return pageMisses.get();
+	}
+
+	public Integer getPrefetchPages(){
+		return prefetchPages;
+	}
+
+	/**
+	 * @return Underlying cache, for sizes and hit/miss counts
+	 */
+	public TinyLfuCache<Key, ?> getCache(){
+		return cache;
+	}
+
+	@Override
+	public String toString(){
+		return cache.toString();
+	}
+}
@@ -0,0 +1,70 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.Collection;
+
+/**
+ * <p>Persistent tier under the in-memory caches, so that a restarted JVM doesn't start cold.</p>
+ *
+ * <p>Records are grouped by region (one per cache), then by the id of the video or playlist,
+ *    then by variant - an opaque name the cache derives from the token and fields a record was
+ *    read with.  Reads happen on in-memory misses and should be quick; writes and removals may
+ *    be queued and applied in batches, so a read straight after a write may not see it, but
+ *    they must be applied in the order they were made.</p>
+ *
+ * <p>Implementations must be thread-safe and shouldn't throw: a store that can't be reached
+ *    behaves as if it were empty.</p>
+ */
+public interface SecondLevelStore {
+
+	/**
+	 * <p>A stored record and when it expires.</p>
+	 */
+	public static final class Record {
+		private final String data;
+		private final Long   expiresAt;
+
+		public Record(String data, Long expiresAt){
+			this.data      = data;
+			this.expiresAt = expiresAt;
+		}
+
+		public String getData(){
+			return data;
+		}
+
+		/**
+		 * @return Expiry time, in milliseconds since January 1st, 1970 00:00:00 GMT
+		 */
+		public Long getExpiresAt(){
+			return expiresAt;
+		}
+	}
+
+	/**
+	 * @return The record, or null if there isn't one or it has expired
+	 */
+	public Record read(String region, Long id, String variant);
+
+	/**
+	 * <p>Stores a record, replacing any with the same region, id and variant.</p>
+	 *
+	 * @param expiresAt Expiry time, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 * @param references Ids of the other items the record depends on, for {@link #removeReferencing(String, Collection)} (may be empty)
+	 */
+	public void write(String region, Long id, String variant, String data, Long expiresAt, Collection<Long> references);
+
+	/**
+	 * <p>Removes every variant stored for the ids.</p>
+	 */
+	public void remove(String region, Collection<Long> ids);
+
+	/**
+	 * <p>Removes every record that was written with any of the ids as a reference.</p>
+	 */
+	public void removeReferencing(String region, Collection<Long> references);
+
+	/**
+	 * <p>Removes everything stored in a region.</p>
+	 */
+	public void removeAll(String region);
+}
@@ -0,0 +1,546 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Size- and weight-bounded cache with expiry and W-TinyLFU eviction.</p>
+ *
+ * <p>New entries go into a small LRU "window" (1% of the entries).  Entries pushed
+ *    out of the window only get into the main area if they have been asked for more
+ *    often than the entry they would push out, going by a {@link FrequencySketch}
+ *    of recent accesses.  The main area is a segmented LRU: entries read again
+ *    move from "probation" to "protected" (80% of the main area).  This keeps
+ *    popular entries cached through bursts of one-off lookups, which a plain LRU
+ *    would let wash the cache out.</p>
+ *
+ * <p>The cache holds at most <code>maxEntries</code> entries and at most
+ *    <code>maxWeight</code> in total weight, as measured by the {@link Weigher}.
+ *    Entries expire <code>ttl</code> milliseconds after they were written.
+ *    A <code>maxEntries</code> of zero turns the cache off.</p>
+ *
+ * <p>With a grace period, expired entries are kept that much longer as <i>stale</i>:
+ *    {@link #get(Object)} treats them as missing, but {@link #getEntry(Object)} still
+ *    returns them, marked stale, so that callers can serve them while a fresh value is
+ *    read.</p>
+ *
+ * <p>All operations are guarded by a single lock; they are all O(1) apart from
+ *    {@link #invalidateAll(KeyFilter)}.</p>
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class TinyLfuCache<K, V> {
+	/**
+	 * <p>Measures the weight of an entry, e.g. its approximate size in bytes.</p>
+	 */
+	public interface Weigher<K, V> {
+		public int weigh(K key, V value);
+	}
+
+	/**
+	 * <p>Told about every entry that leaves the cache - evicted, expired or invalidated,
+	 *    but not replaced by a new value for the same key.  Called while the cache's lock
+	 *    is held, so it must be quick and must not call back into the cache.</p>
+	 */
+	public interface RemovalListener<K, V> {
+		public void onRemoval(K key, V value);
+	}
+
+	/**
+	 * <p>Picks the keys to drop in {@link TinyLfuCache#invalidateAll(KeyFilter)}.</p>
+	 */
+	public interface KeyFilter<K> {
+		public boolean matches(K key);
+	}
+
+	/**
+	 * <p>A value found by {@link TinyLfuCache#getEntry(Object)}.</p>
+	 */
+	public static final class Entry<V> {
+		private final V       value;
+		private final boolean stale;
+
+		Entry(V value, boolean stale){
+			this.value = value;
+			this.stale = stale;
+		}
+
+		public V getValue(){
+			return value;
+		}
+
+		/**
+		 * @return Whether the value has expired and is only held for the grace period
+		 */
+		public boolean isStale(){
+			return stale;
+		}
+	}
+
+	private static final int WINDOW    = 0;
+	private static final int PROBATION = 1;
+	private static final int PROTECTED = 2;
+
+	private static final class Node<K, V> {
+		K       key;
+		V       value;
+		int     weight;
+		long    writtenAt;
+		long    expiresAt;
+		int     queue;
+		Node<K, V> prev;
+		Node<K, V> next;
+	}
+
+	private final String             name;
+	private final Weigher<K, V>      weigher;
+	private final Map<K, Node<K, V>> data = new HashMap<K, Node<K, V>>();
+	private final Node<K, V>[]       queues;
+	private final int[]              queueCounts = new int[3];
+	private final FrequencySketch    sketch;
+	private RemovalListener<K, V>    removalListener;
+
+	private int  maxEntries;
+	private long maxWeight;
+	private long ttl;
+	private long gracePeriod;
+	private int  maxWindow;
+	private int  maxProtected;
+	private long totalWeight;
+
+	private long hitCount;
+	private long missCount;
+	private long evictionCount;
+	private long expiredCount;
+	private long staleHitCount;
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxEntries Most entries held (0 turns the cache off)
+	 * @param maxWeight Most total weight held
+	 * @param ttl How long an entry stays fresh after it was written, in milliseconds
+	 * @param weigher Measures entries; null to weigh every entry as 1
+	 */
+	public TinyLfuCache(String name, Integer maxEntries, Long maxWeight, Long ttl, Weigher<K, V> weigher){
+		this.name    = name;
+		this.weigher = weigher;
+		this.queues  = NewQueues(3);
+		for(int idx=0;idx<queues.length;idx++){
+			Node<K, V> sentinel = new Node<K, V>();
+			sentinel.prev = sentinel;
+			sentinel.next = sentinel;
+			queues[idx] = sentinel;
+		}
+		this.sketch = new FrequencySketch(Math.max(maxEntries, 1));
+		configure(maxEntries, maxWeight, ttl);
+	}
+
+	// Generic arrays can't be created directly
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static <K, V> Node<K, V>[] NewQueues(int count){
+		return new Node[count];
+	}
+
+	/**
+	 * <p>Changes the bounds and expiry, keeping the grace period.  Entries over the new bounds
+	 *    are evicted straight away; the expiry applies to entries written from now on.</p>
+	 *
+	 * @see #TinyLfuCache(String, Integer, Long, Long, Weigher)
+	 */
+	public synchronized void configure(Integer maxEntries, Long maxWeight, Long ttl){
+		configure(maxEntries, maxWeight, ttl, gracePeriod);
+	}
+
+	/**
+	 * <p>Changes the bounds, expiry and grace period.</p>
+	 *
+	 * @param gracePeriod How long an expired entry is kept as stale, in milliseconds (0 drops entries when they expire)
+	 * @see #configure(Integer, Long, Long)
+	 */
+	public synchronized void configure(Integer maxEntries, Long maxWeight, Long ttl, Long gracePeriod){
+		int newMaxEntries = (maxEntries == null) ? 0 : Math.max(maxEntries, 0);
+		if(newMaxEntries != this.maxEntries){
+			sketch.resize(Math.max(newMaxEntries, 1));
+		}
+		this.maxEntries   = newMaxEntries;
+		this.maxWeight    = ((maxWeight == null) || (maxWeight <= 0)) ? Long.MAX_VALUE : maxWeight;
+		this.ttl          = ((ttl == null) || (ttl < 0)) ? 0 : ttl;
+		this.gracePeriod  = ((gracePeriod == null) || (gracePeriod < 0)) ? 0 : gracePeriod;
+		this.maxWindow    = Math.max(1, newMaxEntries / 100);
+		this.maxProtected = (newMaxEntries - maxWindow) * 80 / 100;
+		evict();
+	}
+
+	/**
+	 * @param removalListener Listener told about entries leaving the cache, or null
+	 */
+	public synchronized void setRemovalListener(RemovalListener<K, V> removalListener){
+		this.removalListener = removalListener;
+	}
+
+	/**
+	 * @return The value, or null if it isn't cached or has expired
+	 */
+	public synchronized V get(K key){
+		Node<K, V> node = find(key, false);
+		return (node == null) ? null : node.value;
+	}
+
+	/**
+	 * <p>Reads a value, including a stale one within the grace period.</p>
+	 *
+	 * @return The value and whether it's stale, or null if it isn't cached or is past its grace period
+	 */
+	public synchronized Entry<V> getEntry(K key){
+		Node<K, V> node = find(key, true);
+		if(node == null){
+			return null;
+		}
+		boolean stale = node.expiresAt <= System.currentTimeMillis();
+		if(stale){
+			staleHitCount++;
+		}
+		return new Entry<V>(node.value, stale);
+	}
+
+	private Node<K, V> find(K key, boolean allowStale){
+		if(maxEntries == 0){
+			return null;
+		}
+		sketch.increment(key);
+		Node<K, V> node = data.get(key);
+		if(node == null){
+			missCount++;
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		if(node.expiresAt + gracePeriod <= now){
+			expiredCount++;
+			missCount++;
+			remove(node);
+			return null;
+		}
+		if(!allowStale && (node.expiresAt <= now)){
+			// Kept for callers that can use it stale
+			missCount++;
+			return null;
+		}
+		hitCount++;
+		onAccess(node);
+		return node;
+	}
+
+	/**
+	 * <p>Reads a value without counting a hit or miss or affecting eviction.</p>
+	 *
+	 * @return The value, or null if it isn't cached or has expired
+	 */
+	public synchronized V peek(K key){
+		Node<K, V> node = data.get(key);
+		if((node == null) || (node.expiresAt <= System.currentTimeMillis())){
+			return null;
+		}
+		return node.value;
+	}
+
+	/**
+	 * <p>Caches a value with the cache's expiry.</p>
+	 */
+	public void put(K key, V value){
+		put(key, value, null);
+	}
+
+	/**
+	 * <p>Caches a value.</p>
+	 *
+	 * @param key Key
+	 * @param value Value (null removes the key)
+	 * @param ttl Expiry for this entry in milliseconds, or null to use the cache's
+	 */
+	public synchronized void put(K key, V value, Long ttl){
+		if(maxEntries == 0){
+			return;
+		}
+		if(value == null){
+			invalidate(key);
+			return;
+		}
+
+		long now    = System.currentTimeMillis();
+		int  weight = (weigher == null) ? 1 : Math.max(weigher.weigh(key, value), 0);
+		if(weight > maxWeight){
+			// Would push everything else out and still not fit
+			invalidate(key);
+			return;
+		}
+
+		Node<K, V> node = data.get(key);
+		if(node != null){
+			totalWeight += weight - node.weight;
+			node.value     = value;
+			node.weight    = weight;
+			node.writtenAt = now;
+			node.expiresAt = now + ((ttl == null) ? this.ttl : ttl);
+			onAccess(node);
+			evict();
+			return;
+		}
+
+		sketch.increment(key);
+		node = new Node<K, V>();
+		node.key       = key;
+		node.value     = value;
+		node.weight    = weight;
+		node.writtenAt = now;
+		node.expiresAt = now + ((ttl == null) ? this.ttl : ttl);
+		data.put(key, node);
+		totalWeight += weight;
+		append(WINDOW, node);
+
+		evict();
+	}
+
+	/**
+	 * <p>Removes a key.</p>
+	 */
+	public synchronized void invalidate(K key){
+		Node<K, V> node = data.get(key);
+		if(node != null){
+			remove(node);
+		}
+	}
+
+	/**
+	 * <p>Removes every key the filter matches.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public synchronized Integer invalidateAll(KeyFilter<K> filter){
+		List<Node<K, V>> matched = new ArrayList<Node<K, V>>();
+		for(Node<K, V> node : data.values()){
+			if(filter.matches(node.key)){
+				matched.add(node);
+			}
+		}
+		for(Node<K, V> node : matched){
+			remove(node);
+		}
+		return matched.size();
+	}
+
+	/**
+	 * @return Snapshot of the keys the filter matches, expired or not
+	 */
+	public synchronized List<K> keys(KeyFilter<K> filter){
+		List<K> ret = new ArrayList<K>();
+		for(K key : data.keySet()){
+			if(filter.matches(key)){
+				ret.add(key);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * <p>Removes everything.</p>
+	 */
+	public synchronized void invalidateAll(){
+		if(removalListener != null){
+			for(Node<K, V> node : data.values()){
+				removalListener.onRemoval(node.key, node.value);
+			}
+		}
+		data.clear();
+		for(int idx=0;idx<queues.length;idx++){
+			queues[idx].prev = queues[idx];
+			queues[idx].next = queues[idx];
+			queueCounts[idx] = 0;
+		}
+		totalWeight = 0;
+	}
+
+	/**
+	 * <p>Removes the entries that have expired and are past their grace period.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public synchronized Integer cleanUp(){
+		final long now = System.currentTimeMillis();
+		List<Node<K, V>> expired = new ArrayList<Node<K, V>>();
+		for(Node<K, V> node : data.values()){
+			if(node.expiresAt + gracePeriod <= now){
+				expired.add(node);
+			}
+		}
+		for(Node<K, V> node : expired){
+			expiredCount++;
+			remove(node);
+		}
+		return expired.size();
+	}
+
+	/**
+	 * @return When the cached value was written, in milliseconds since the epoch, or null if it isn't cached
+	 */
+	public synchronized Long getWriteTime(K key){
+		Node<K, V> node = data.get(key);
+		return (node == null) ? null : node.writtenAt;
+	}
+
+	private void onAccess(Node<K, V> node){
+		if(node.queue == PROBATION){
+			// Read again while on probation - promote, demoting the oldest protected entry if there's no room
+			unlink(node);
+			append(PROTECTED, node);
+			while(queueCounts[PROTECTED] > maxProtected){
+				Node<K, V> demoted = queues[PROTECTED].next;
+				unlink(demoted);
+				append(PROBATION, demoted);
+			}
+		}
+		else{
+			unlink(node);
+			append(node.queue, node);
+		}
+	}
+
+	/**
+	 * <p>Brings the cache back within its bounds.</p>
+	 *
+	 */
+	private void evict(){
+		// Entries pushed out of the window become candidates for the main area
+		List<Node<K, V>> candidates = new ArrayList<Node<K, V>>();
+		while(queueCounts[WINDOW] > maxWindow){
+			Node<K, V> oldest = queues[WINDOW].next;
+			unlink(oldest);
+			append(PROBATION, oldest);
+			candidates.add(oldest);
+		}
+
+		while((data.size() > maxEntries) || (totalWeight > maxWeight)){
+			Node<K, V> victim    = queues[PROBATION].next;
+			Node<K, V> candidate = candidates.isEmpty() ? null : candidates.get(candidates.size() - 1);
+
+			if(victim == queues[PROBATION]){
+				// Nothing on probation - fall back to the protected area, then the window
+				victim = (queueCounts[PROTECTED] > 0) ? queues[PROTECTED].next : queues[WINDOW].next;
+				if(victim == queues[WINDOW]){
+					return;
+				}
+				evictNode(victim);
+			}
+			else if((candidate == null) || (candidate == victim)){
+				candidates.remove(victim);
+				evictNode(victim);
+			}
+			else if(sketch.frequency(candidate.key) > sketch.frequency(victim.key)){
+				candidates.remove(victim);
+				evictNode(victim);
+			}
+			else{
+				candidates.remove(candidates.size() - 1);
+				evictNode(candidate);
+			}
+		}
+	}
+
+	private void evictNode(Node<K, V> node){
+		evictionCount++;
+		remove(node);
+	}
+
+	private void remove(Node<K, V> node){
+		unlink(node);
+		data.remove(node.key);
+		totalWeight -= node.weight;
+		if(removalListener != null){
+			removalListener.onRemoval(node.key, node.value);
+		}
+	}
+
+	private void append(int queue, Node<K, V> node){
+		Node<K, V> sentinel = queues[queue];
+		node.queue     = queue;
+		node.prev      = sentinel.prev;
+		node.next      = sentinel;
+		sentinel.prev.next = node;
+		sentinel.prev  = node;
+		queueCounts[queue]++;
+	}
+
+	private void unlink(Node<K, V> node){
+		node.prev.next = node.next;
+		node.next.prev = node.prev;
+		node.prev = null;
+		node.next = null;
+		queueCounts[node.queue]--;
+	}
+
+	public String getName(){
+		return name;
+	}
+
+	public synchronized Integer getSize(){
+		return data.size();
+	}
+
+	public synchronized Long getWeight(){
+		return totalWeight;
+	}
+
+	public synchronized Integer getMaxEntries(){
+		return maxEntries;
+	}
+
+	public synchronized Long getMaxWeight(){
+		return maxWeight;
+	}
+
+	public synchronized Long getTtl(){
+		return ttl;
+	}
+
+	public synchronized Long getGracePeriod(){
+		return gracePeriod;
+	}
+
+	/**
+	 * @return Number of hits that found a stale value (counted in {@link #getHitCount()} too)
+	 */
+	public synchronized Long getStaleHitCount(){
+		return staleHitCount;
+	}
+
+	public synchronized Long getHitCount(){
+		return hitCount;
+	}
+
+	public synchronized Long getMissCount(){
+		return missCount;
+	}
+
+	public synchronized Long getEvictionCount(){
+		return evictionCount;
+	}
+
+	public synchronized Long getExpiredCount(){
+		return expiredCount;
+	}
+
+	/**
+	 * @return Share of lookups that were hits, 0-1
+	 */
+	public synchronized Double getHitRate(){
+		long total = hitCount + missCount;
+		return (total == 0) ? 0.0 : ((double)hitCount / total);
+	}
+
+	@Override
+	public synchronized String toString(){
+		return name + " [size=" + data.size() + "/" + maxEntries + ", weight=" + totalWeight + ", hits=" + hitCount + ", stale=" + staleHitCount + ", misses=" + missCount + ", evictions=" + evictionCount + ", expired=" + expiredCount + "]";
+	}
+}
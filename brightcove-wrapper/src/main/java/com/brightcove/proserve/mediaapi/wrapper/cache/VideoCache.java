@@ -0,0 +1,693 @@
+package com.brightcove.proserve.mediaapi.wrapper.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CuePoint;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CustomField;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Rendition;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.utils.DigestUtils;
+
+/**
+ * <p>Cache of videos read by id, keyed by read token, video id, the fields asked for and
+ *    whether Universal Delivery Service (UDS) URLs were asked for.</p>
+ *
+ * <p>The same video read with different fields is cached separately, as each read only
+ *    populates the fields it asked for; so is a video read with UDS on, as its rendition
+ *    URLs differ.  Entries are weighed by the approximate size of
+ *    the video in memory.  Cached Video objects are shared between callers and should be
+ *    treated as read-only.</p>
+ *
+ * <p>Lookups that come with a loader ({@link #get(String, Long, Set, Set, Loader)},
+ *    {@link #getAll(String, Set, Set, Set, Loader)}) serve an expired video for a grace
+ *    period after it expires, and read a fresh copy in the background, so that a slow
+ *    Media API holds up the background refresh rather than the caller.  Only once the
+ *    grace period is over does a lookup wait for the Media API again.</p>
+ *
+ * <p>{@link com.brightcove.proserve.mediaapi.wrapper.ReadApi} uses the shared instance
+ *    unless told otherwise.</p>
+ */
+public class VideoCache {
+	public static final Integer DEFAULT_MAX_ENTRIES  = 10000;
+	public static final Long    DEFAULT_MAX_WEIGHT   = 32l * 1024 * 1024;
+	public static final Long    DEFAULT_TTL          = 5l * 60 * 1000;
+	public static final Long    DEFAULT_GRACE_PERIOD = 10l * 60 * 1000;
+
+	private static final VideoCache shared = new VideoCache("videos", DEFAULT_MAX_ENTRIES, DEFAULT_MAX_WEIGHT, DEFAULT_TTL);
+
+	/**
+	 * <p>Region the videos are kept under in the second level store.</p>
+	 */
+	public static final String REGION = "videos";
+
+	private final TinyLfuCache<Key, Video> cache;
+	private volatile SecondLevelStore      secondLevel;
+	private final AtomicLong               secondLevelHits = new AtomicLong();
+	private final Revalidator<Key>         revalidator;
+
+	/**
+	 * <p>Cache key: read token, video id, the video and custom fields asked for and the UDS flag.</p>
+	 */
+	public static final class Key {
+		private final String                  token;
+		private final boolean                 uds;
+		private final Long                    videoId;
+		private final EnumSet<VideoFieldEnum> videoFields;
+		private final Set<String>             customFields;
+		private final String                  fields;
+		private final int                     hash;
+
+		Key(String token, Boolean uds, Long videoId, Set<VideoFieldEnum> videoFields, Set<String> customFields){
+			this.token        = token;
+			this.uds          = Boolean.TRUE.equals(uds);
+			this.videoId      = videoId;
+			this.videoFields  = VideoFieldEnum.CreateEmptyEnumSet();
+			this.customFields = new TreeSet<String>();
+			if(videoFields != null){
+				this.videoFields.addAll(videoFields);
+			}
+			if(customFields != null){
+				this.customFields.addAll(customFields);
+			}
+
+			// EnumSets iterate in declaration order; custom fields are sorted so the order they were given in doesn't matter
+			StringBuilder sb = new StringBuilder();
+			for(VideoFieldEnum field : this.videoFields){
+				sb.append(field).append(',');
+			}
+			sb.append('|');
+			for(String field : this.customFields){
+				sb.append(field).append(',');
+			}
+			if(this.uds){
+				sb.append("|uds");
+			}
+			this.fields = sb.toString();
+			this.hash   = (31 * (31 * String.valueOf(token).hashCode() + String.valueOf(videoId).hashCode())) + fields.hashCode();
+		}
+
+		public String getToken(){
+			return token;
+		}
+
+		public Long getVideoId(){
+			return videoId;
+		}
+
+		/**
+		 * @return True if the video was read with UDS URLs
+		 */
+		public boolean isUds(){
+			return uds;
+		}
+
+		/**
+		 * @return Video fields the video was read with (don't change)
+		 */
+		public Set<VideoFieldEnum> getVideoFields(){
+			return videoFields;
+		}
+
+		/**
+		 * @return Custom fields the video was read with (don't change)
+		 */
+		public Set<String> getCustomFields(){
+			return customFields;
+		}
+
+		@Override
+		public boolean equals(Object obj){
+			if(this == obj){
+				return true;
+			}
+			if(!(obj instanceof Key)){
+				return false;
+			}
+			Key other = (Key)obj;
+			return (hash == other.hash) && fields.equals(other.fields) && String.valueOf(videoId).equals(String.valueOf(other.videoId)) && String.valueOf(token).equals(String.valueOf(other.token));
+		}
+
+		@Override
+		public int hashCode(){
+			return hash;
+		}
+
+		/**
+		 * @return Name of the token and field set, safe to persist
+		 */
+		String variant(){
+			return Variant(token, fields);
+		}
+
+		@Override
+		public String toString(){
+			return videoId + " [" + fields + "]";
+		}
+	}
+
+	/**
+	 * <p>Reads fresh copies of videos for {@link VideoCache#refresh(Collection, Refresher)}, bypassing the cache.</p>
+	 */
+	public interface Refresher {
+		/**
+		 * @return Videos found, in any order
+		 */
+		public Videos load(String token, Boolean uds, Set<Long> videoIds, Set<VideoFieldEnum> videoFields, Set<String> customFields) throws BrightcoveException;
+	}
+
+	/**
+	 * <p>Reads the videos that weren't cached.</p>
+	 */
+	public interface Loader {
+		/**
+		 * @param videoIds Ids of the videos to read
+		 * @return Videos found, in any order
+		 */
+		public Videos load(Set<Long> videoIds) throws BrightcoveException;
+	}
+
+	private static final TinyLfuCache.Weigher<Key, Video> VIDEO_WEIGHER = new TinyLfuCache.Weigher<Key, Video>() {
+		public int weigh(Key key, Video video) {
+			return EstimateSize(video) + 2 * key.fields.length() + 64;
+		}
+	};
+
+	/**
+	 * @param name Name of the cache, for logs and reports
+	 * @param maxEntries Most videos held (0 turns the cache off)
+	 * @param maxWeight Most total size held, in approximate bytes
+	 * @param ttl How long a video stays cached, in milliseconds
+	 */
+	public VideoCache(String name, Integer maxEntries, Long maxWeight, Long ttl){
+		this(name, maxEntries, maxWeight, ttl, DEFAULT_GRACE_PERIOD, AsyncReadApi.getSharedExecutor());
+	}
+
+	/**
+	 * @param gracePeriod How long an expired video is served while it's refreshed, in milliseconds (0 turns this off)
+	 * @param executor Executor the background refreshes run on
+	 * @see #VideoCache(String, Integer, Long, Long)
+	 */
+	public VideoCache(String name, Integer maxEntries, Long maxWeight, Long ttl, Long gracePeriod, Executor executor){
+		cache = new TinyLfuCache<Key, Video>(name, maxEntries, maxWeight, ttl, VIDEO_WEIGHER);
+		cache.configure(maxEntries, maxWeight, ttl, gracePeriod);
+		revalidator = new Revalidator<Key>(executor);
+	}
+
+	/**
+	 * <p>Sets the persistent tier read on misses and written through on puts.</p>
+	 *
+	 * @param secondLevel Store to use, or null for memory only
+	 */
+	public void setSecondLevelStore(SecondLevelStore secondLevel){
+		this.secondLevel = secondLevel;
+	}
+
+	public SecondLevelStore getSecondLevelStore(){
+		return secondLevel;
+	}
+
+	/**
+	 * @return Cache shared by every ReadApi in the JVM
+	 */
+	public static VideoCache getShared(){
+		return shared;
+	}
+
+	/**
+	 * @see TinyLfuCache#configure(Integer, Long, Long)
+	 */
+	public void configure(Integer maxEntries, Long maxWeight, Long ttl){
+		cache.configure(maxEntries, maxWeight, ttl);
+	}
+
+	/**
+	 * @see TinyLfuCache#configure(Integer, Long, Long, Long)
+	 */
+	public void configure(Integer maxEntries, Long maxWeight, Long ttl, Long gracePeriod){
+		cache.configure(maxEntries, maxWeight, ttl, gracePeriod);
+	}
+
+	/**
+	 * @return The cached video, or null if it isn't cached
+	 */
+	public Video get(String token, Boolean uds, Long videoId, Set<VideoFieldEnum> videoFields, Set<String> customFields){
+		Key   key   = new Key(token, uds, videoId, videoFields, customFields);
+		Video video = cache.get(key);
+		if((video == null) && (secondLevel != null)){
+			video = readSecondLevel(secondLevel, key);
+		}
+		return video;
+	}
+
+	/**
+	 * <p>Reads a video through the cache.  An expired video still within its grace period is
+	 *    returned straight away and refreshed in the background with the loader.</p>
+	 *
+	 * @param loader Reads the fresh copy of an expired video
+	 * @return The cached video, or null if it isn't cached (or is past its grace period)
+	 */
+	public Video get(String token, Boolean uds, Long videoId, Set<VideoFieldEnum> videoFields, Set<String> customFields, Loader loader){
+		List<Key> stale = new ArrayList<Key>(1);
+		Video     video = lookup(new Key(token, uds, videoId, videoFields, customFields), stale);
+		if(!stale.isEmpty()){
+			revalidate(stale, loader);
+		}
+		return video;
+	}
+
+	/**
+	 * @param stale Collects the key if the video found is stale
+	 */
+	private Video lookup(Key key, List<Key> stale){
+		TinyLfuCache.Entry<Video> entry = cache.getEntry(key);
+		if(entry == null){
+			return (secondLevel == null) ? null : readSecondLevel(secondLevel, key);
+		}
+		if(entry.isStale()){
+			stale.add(key);
+		}
+		return entry.getValue();
+	}
+
+	/**
+	 * <p>Reads fresh copies of stale videos in the background, replacing the stale ones.
+	 *    Videos that don't come back any more are dropped.</p>
+	 */
+	private void revalidate(List<Key> stale, final Loader loader){
+		Revalidator.Task<Key> task = new Revalidator.Task<Key>() {
+			public void refresh(Set<Key> keys) throws BrightcoveException {
+				Key       first = keys.iterator().next();
+				Set<Long> ids   = new LinkedHashSet<Long>();
+				for(Key key : keys){
+					ids.add(key.getVideoId());
+				}
+
+				Videos           loaded = loader.load(ids);
+				Map<Long, Video> fresh  = new HashMap<Long, Video>();
+				if(first.videoFields.isEmpty() || first.videoFields.contains(VideoFieldEnum.ID)){
+					for(Video video : loaded){
+						if(video.getId() != null){
+							fresh.put(video.getId(), video);
+						}
+					}
+				}
+				else if(loaded.size() == 1){
+					// Only ever one id without the ID field - see below
+					fresh.put(first.getVideoId(), loaded.get(0));
+				}
+
+				for(Key key : keys){
+					Video video = fresh.get(key.getVideoId());
+					if(video != null){
+						store(key, video);
+					}
+					else{
+						cache.invalidate(key);
+					}
+				}
+			}
+		};
+
+		Key first = stale.get(0);
+		if(first.videoFields.isEmpty() || first.videoFields.contains(VideoFieldEnum.ID)){
+			revalidator.submit(stale, task);
+			return;
+		}
+		// Videos read without the ID field can only be matched up when they're read one at a time
+		for(Key key : stale){
+			revalidator.submit(Collections.singleton(key), task);
+		}
+	}
+
+	private Video readSecondLevel(SecondLevelStore store, Key key){
+		if(cache.getMaxEntries() == 0){
+			return null;
+		}
+		SecondLevelStore.Record record = store.read(REGION, key.getVideoId(), key.variant());
+		if(record == null){
+			return null;
+		}
+		long remaining = record.getExpiresAt() - System.currentTimeMillis();
+		if(remaining <= 0){
+			return null;
+		}
+		try{
+			Video video = new Video(record.getData());
+			cache.put(key, video, remaining);
+			secondLevelHits.incrementAndGet();
+			return video;
+		}
+		catch(JSONException jsone){
+			// Written by an older version, or damaged - read it again from the Media API
+			return null;
+		}
+		catch(RuntimeException re){
+			// The parsing constructors cast and dereference freely - same as above
+			return null;
+		}
+	}
+
+	private void store(Key key, Video video){
+		cache.put(key, video);
+		SecondLevelStore store = secondLevel;
+		if((store == null) || (cache.getMaxEntries() == 0)){
+			return;
+		}
+		try{
+			store.write(REGION, key.getVideoId(), key.variant(), video.toJson().toString(), System.currentTimeMillis() + cache.getTtl(), Collections.<Long>emptySet());
+		}
+		catch(JSONException jsone){
+			// Still cached in memory
+		}
+	}
+
+	/**
+	 * <p>Caches a video read by id.</p>
+	 *
+	 * @param videoId Id the video was read with (the video itself only has it if the ID field was asked for)
+	 */
+	public void put(String token, Boolean uds, Long videoId, Video video, Set<VideoFieldEnum> videoFields, Set<String> customFields){
+		if((videoId == null) || (video == null)){
+			return;
+		}
+		store(new Key(token, uds, videoId, videoFields, customFields), video);
+	}
+
+	/**
+	 * <p>Reads a set of videos, taking what it can from the cache and loading the rest in one go.
+	 *    Expired videos still within their grace period are returned, and refreshed in the
+	 *    background with the loader.</p>
+	 *
+	 * <p>Loaded videos can only be matched back to their ids, and cached, if the ID field is
+	 *    populated; when it isn't they're passed through uncached.</p>
+	 *
+	 * @param videoIds Ids of the videos to read
+	 * @param loader Reads the videos that weren't cached
+	 * @return Videos found, in the order of the ids given
+	 * @throws BrightcoveException If the loader fails
+	 */
+	public Videos getAll(String token, Boolean uds, Set<Long> videoIds, Set<VideoFieldEnum> videoFields, Set<String> customFields, Loader loader) throws BrightcoveException {
+		Map<Long, Video> found   = new LinkedHashMap<Long, Video>();
+		Set<Long>        missing = new LinkedHashSet<Long>();
+		List<Key>        stale   = new ArrayList<Key>();
+		for(Long videoId : videoIds){
+			Video video = lookup(new Key(token, uds, videoId, videoFields, customFields), stale);
+			if(video != null){
+				found.put(videoId, video);
+			}
+			else{
+				missing.add(videoId);
+			}
+		}
+		if(!stale.isEmpty()){
+			revalidate(stale, loader);
+		}
+
+		Videos  ret        = new Videos();
+		Videos  loaded     = missing.isEmpty() ? null : loader.load(missing);
+		Boolean idReturned = (videoFields == null) || videoFields.isEmpty() || videoFields.contains(VideoFieldEnum.ID);
+		if(loaded != null){
+			if(!idReturned){
+				// Can't tell which video is which - pass them all through
+				for(Video video : found.values()){
+					ret.add(video);
+				}
+				ret.addAll(loaded);
+				ret.setTotalCount(loaded.getTotalCount());
+				return ret;
+			}
+			for(Video video : loaded){
+				if(video.getId() != null){
+					found.put(video.getId(), video);
+					put(token, uds, video.getId(), video, videoFields, customFields);
+				}
+			}
+			ret.setTotalCount(loaded.getTotalCount());
+		}
+
+		for(Long videoId : videoIds){
+			Video video = found.get(videoId);
+			if(video != null){
+				ret.add(video);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * <p>Replaces the cached copies of the videos with fresh ones, each read with the same
+	 *    token, fields and UDS flag as the copy it replaces.  Videos that aren't cached aren't read.</p>
+	 *
+	 * <p>Copies that can't be refreshed - the video wasn't returned, the ID field wasn't
+	 *    asked for so it can't be matched, or the read failed - are dropped.</p>
+	 *
+	 * @param videoIds Ids of the videos that changed
+	 * @param refresher Reads the fresh copies
+	 * @return Number of cached copies refreshed
+	 */
+	public Integer refresh(Collection<Long> videoIds, Refresher refresher){
+		if(videoIds.isEmpty()){
+			return 0;
+		}
+		final Set<Long> idSet = new HashSet<Long>(videoIds);
+
+		// Persisted copies of variants no longer in memory can't be refreshed; the ones that are get written back below
+		if(secondLevel != null){
+			secondLevel.remove(REGION, idSet);
+		}
+
+		List<Key> keys = cache.keys(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return idSet.contains(key.getVideoId());
+			}
+		});
+
+		// One read per token and field set (UDS flag included)
+		Map<String, List<Key>> groups = new LinkedHashMap<String, List<Key>>();
+		for(Key key : keys){
+			String group = key.token + " " + key.fields;
+			if(!groups.containsKey(group)){
+				groups.put(group, new ArrayList<Key>());
+			}
+			groups.get(group).add(key);
+		}
+
+		int refreshed = 0;
+		for(List<Key> group : groups.values()){
+			Key       first = group.get(0);
+			Set<Long> ids   = new LinkedHashSet<Long>();
+			for(Key key : group){
+				ids.add(key.getVideoId());
+			}
+
+			Map<Long, Video> fresh = new HashMap<Long, Video>();
+			Boolean idReturned = first.videoFields.isEmpty() || first.videoFields.contains(VideoFieldEnum.ID);
+			if(idReturned){
+				try{
+					for(Video video : refresher.load(first.token, first.uds, ids, first.videoFields, first.customFields)){
+						if(video.getId() != null){
+							fresh.put(video.getId(), video);
+						}
+					}
+				}
+				catch(BrightcoveException be){
+					// Dropped below - the next read goes to the Media API
+				}
+			}
+
+			for(Key key : group){
+				Video video = fresh.get(key.getVideoId());
+				if(video != null){
+					store(key, video);
+					refreshed++;
+				}
+				else{
+					cache.invalidate(key);
+				}
+			}
+		}
+		return refreshed;
+	}
+
+	/**
+	 * <p>Drops every cached copy of a video, whatever the token or fields it was read with.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer invalidate(final Long videoId){
+		if(secondLevel != null){
+			secondLevel.remove(REGION, Collections.singleton(videoId));
+		}
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return videoId.equals(key.getVideoId());
+			}
+		});
+	}
+
+	/**
+	 * <p>Drops every cached copy of the videos, whatever the token or fields they were read with.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer invalidate(Collection<Long> videoIds){
+		if(videoIds.isEmpty()){
+			return 0;
+		}
+		final Set<Long> idSet = new HashSet<Long>(videoIds);
+		if(secondLevel != null){
+			secondLevel.remove(REGION, idSet);
+		}
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return idSet.contains(key.getVideoId());
+			}
+		});
+	}
+
+	/**
+	 * <p>Drops every video cached for a read token.</p>
+	 *
+	 * @return Number of entries removed
+	 */
+	public Integer invalidateToken(final String token){
+		// Persisted variants only carry a digest of the token, so everything persisted goes
+		if(secondLevel != null){
+			secondLevel.removeAll(REGION);
+		}
+		return cache.invalidateAll(new TinyLfuCache.KeyFilter<Key>() {
+			public boolean matches(Key key) {
+				return String.valueOf(token).equals(key.getToken());
+			}
+		});
+	}
+
+	/**
+	 * <p>Drops everything.</p>
+	 */
+	public void invalidateAll(){
+		if(secondLevel != null){
+			secondLevel.removeAll(REGION);
+		}
+		cache.invalidateAll();
+	}
+
+	/**
+	 * @return Underlying cache, for sizes and hit/miss counts
+	 */
+	public TinyLfuCache<Key, Video> getCache(){
+		return cache;
+	}
+
+	public Long getHitCount(){
+		return cache.getHitCount();
+	}
+
+	public Long getMissCount(){
+		return cache.getMissCount();
+	}
+
+	/**
+	 * @return Number of background refreshes of stale videos started
+	 */
+	public Long getRevalidationCount(){
+		return revalidator.getRefreshCount();
+	}
+
+	/**
+	 * @return Number of background refreshes of stale videos that failed
+	 */
+	public Long getRevalidationFailureCount(){
+		return revalidator.getFailureCount();
+	}
+
+	/**
+	 * @return Number of in-memory misses served from the second level store
+	 */
+	public Long getSecondLevelHitCount(){
+		return secondLevelHits.get();
+	}
+
+	/**
+	 * <p>Name for a token and field set that can be persisted without giving away the token.</p>
+	 */
+	static String Variant(String token, String fields){
+		return DigestUtils.Sha1Hex(token + " " + fields);
+	}
+
+	/**
+	 * <p>Rough size of a video in memory, in bytes.  Strings count two bytes a character plus their overhead.</p>
+	 */
+	static int EstimateSize(Video video){
+		int size = 200;
+		size += EstimateSize(video.getName());
+		size += EstimateSize(video.getReferenceId());
+		size += EstimateSize(video.getShortDescription());
+		size += EstimateSize(video.getLongDescription());
+		size += EstimateSize(video.getFlvUrl());
+		size += EstimateSize(video.getLinkUrl());
+		size += EstimateSize(video.getLinkText());
+		size += EstimateSize(video.getVideoStillUrl());
+		size += EstimateSize(video.getThumbnailUrl());
+
+		List<String> tags = video.getTags();
+		if(tags != null){
+			for(String tag : tags){
+				size += EstimateSize(tag) + 8;
+			}
+		}
+		List<Rendition> renditions = video.getRenditions();
+		if(renditions != null){
+			for(Rendition rendition : renditions){
+				size += 120 + EstimateSize(rendition.getUrl()) + EstimateSize(rendition.getDisplayName());
+			}
+		}
+		if(video.getVideoFullLength() != null){
+			size += 120 + EstimateSize(video.getVideoFullLength().getUrl());
+		}
+		List<CuePoint> cuePoints = video.getCuePoints();
+		if(cuePoints != null){
+			for(CuePoint cuePoint : cuePoints){
+				size += 80 + EstimateSize(cuePoint.getName()) + EstimateSize(cuePoint.getMetadata());
+			}
+		}
+		List<CustomField> customFields = video.getCustomFields();
+		if(customFields != null){
+			for(CustomField customField : customFields){
+				size += 40 + EstimateSize(customField.getName()) + EstimateSize(customField.getValue());
+			}
+		}
+		if(video.getGeoFilteredCountries() != null){
+			size += 8 * video.getGeoFilteredCountries().size();
+		}
+		return size;
+	}
+
+	private static int EstimateSize(String value){
+		return (value == null) ? 0 : (40 + 2 * value.length());
+	}
+
+	@Override
+	public String toString(){
+		return cache.toString();
+	}
+}
@@ -0,0 +1,606 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CustomField;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+
+/**
+ * <p>Read-only copy of a catalog in a memory-mapped file, so that a catalog of hundreds of
+ *    thousands of videos costs the heap nothing until a video is looked at.</p>
+ *
+ * <p>The file holds, in order: a header, the video ids in ascending order (the index), one
+ *    fixed-size record per video in the same order, and the UTF-8 bytes of every string.
+ *    A video is found by a binary search of the index, and its record is at the same
+ *    position in the records as its id is in the index.  Records hold numbers and dates in
+ *    place and strings as (offset, length) pairs into the strings; fields that are rarely
+ *    listed (renditions, cue points, geo-filtering, economics) share one JSON string.</p>
+ *
+ * <p>Snapshots never change once written; a newer catalog is a new snapshot
+ *    (see {@link CatalogStore#swap(String, Collection)}).  A snapshot that differs from the
+ *    current one in a few videos is written by {@link #merge(File, CatalogSnapshot, Collection, Set, long)},
+ *    which copies the unchanged records across without reading them into Video objects.</p>
+ */
+public final class CatalogSnapshot implements Iterable<CatalogVideo> {
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final int MAGIC       = 0x42524343;
+	private static final int VERSION     = 1;
+	private static final int HEADER_SIZE = 32;
+
+	// Record layout - longs and ints hold NULL_LONG / NULL_INT when the field is null
+	static final int ID                  = 0;
+	static final int ACCOUNT_ID          = 8;
+	static final int CREATION_DATE       = 16;
+	static final int PUBLISHED_DATE      = 24;
+	static final int LAST_MODIFIED_DATE  = 32;
+	static final int RELEASE_DATE        = 40;
+	static final int START_DATE          = 48;
+	static final int END_DATE            = 56;
+	static final int LENGTH              = 64;
+	static final int PLAYS_TOTAL         = 72;
+	static final int PLAYS_TRAILING_WEEK = 76;
+	static final int ITEM_STATE          = 80;
+
+	// String slots - int offset into the strings, int length in bytes (-1 for null)
+	static final int NAME                = 84;
+	static final int REFERENCE_ID        = 92;
+	static final int SHORT_DESCRIPTION   = 100;
+	static final int LONG_DESCRIPTION    = 108;
+	static final int THUMBNAIL_URL       = 116;
+	static final int VIDEO_STILL_URL     = 124;
+	static final int LINK_URL            = 132;
+	static final int LINK_TEXT           = 140;
+	static final int FLV_URL             = 148;
+	static final int TAGS                = 156;
+	static final int CUSTOM_FIELDS       = 164;
+	static final int EXTRA               = 172;
+
+	static final int[] STRING_SLOTS = { NAME, REFERENCE_ID, SHORT_DESCRIPTION, LONG_DESCRIPTION, THUMBNAIL_URL, VIDEO_STILL_URL, LINK_URL, LINK_TEXT, FLV_URL, TAGS, CUSTOM_FIELDS, EXTRA };
+
+	static final int  RECORD_SIZE = 184;
+	static final long NULL_LONG   = Long.MIN_VALUE;
+	static final int  NULL_INT    = Integer.MIN_VALUE;
+
+	/**
+	 * <p>Separates tags, and custom field names and values, within their string.</p>
+	 */
+	static final char SEPARATOR = '\u0000';
+
+	private static final String[] EXTRA_KEYS = { "renditions", "videoFullLength", "cuePoints", "geoRestricted", "geoFilterExclude", "geoFilteredCountries", "economics" };
+
+	private final File       file;
+	private final ByteBuffer buffer;
+	private final int        count;
+	private final long       createdAt;
+	private final int        recordsStart;
+	private final int        stringsStart;
+
+	private volatile CatalogViews views;
+
+	private CatalogSnapshot(File file, ByteBuffer buffer){
+		this.file         = file;
+		this.buffer       = buffer;
+		this.count        = buffer.getInt(8);
+		this.createdAt    = buffer.getLong(16);
+		this.recordsStart = HEADER_SIZE + 8 * count;
+		this.stringsStart = recordsStart + RECORD_SIZE * count;
+	}
+
+	/**
+	 * <p>Maps a snapshot file written by {@link #write(File, Collection, long)}.</p>
+	 *
+	 * @throws IOException If the file can't be read, or isn't a snapshot
+	 */
+	public static CatalogSnapshot open(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try{
+			FileChannel channel = raf.getChannel();
+			long        size    = channel.size();
+			if((size < HEADER_SIZE) || (size > Integer.MAX_VALUE)){
+				throw new IOException("Not a catalog snapshot: " + file);
+			}
+			// The mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			int count = buffer.getInt(8);
+			if((buffer.getInt(0) != MAGIC) || (buffer.getInt(4) != VERSION) || (buffer.getInt(12) != RECORD_SIZE)
+					|| (count < 0) || ((HEADER_SIZE + (long)(8 + RECORD_SIZE) * count + buffer.getInt(24)) != size)){
+				throw new IOException("Not a catalog snapshot, or written by another version: " + file);
+			}
+			return new CatalogSnapshot(file, buffer);
+		}
+		finally{
+			raf.close();
+		}
+	}
+
+	/**
+	 * <p>Writes a snapshot file.  Videos without an id are skipped; of videos with the same id, the last is kept.</p>
+	 *
+	 * @param file File to write, replaced if it exists
+	 * @param videos Videos in the catalog
+	 * @param createdAt Time the catalog was read, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 * @throws IOException If the file can't be written, or the catalog doesn't fit in one snapshot
+	 */
+	public static void write(File file, Collection<Video> videos, long createdAt) throws IOException {
+		TreeMap<Long, Video> byId = new TreeMap<Long, Video>();
+		for(Video video : videos){
+			if(video.getId() != null){
+				byId.put(video.getId(), video);
+			}
+		}
+		SnapshotWriter writer = new SnapshotWriter(file, byId.size());
+		try{
+			for(Video video : byId.values()){
+				writer.add(video);
+			}
+			writer.finish(createdAt);
+		}
+		finally{
+			writer.close();
+		}
+	}
+
+	/**
+	 * <p>Writes a snapshot file holding a base snapshot with some videos changed.  Unchanged
+	 *    videos are copied record by record, so only the changed videos are ever on the heap.</p>
+	 *
+	 * @param file File to write, replaced if it exists
+	 * @param base Snapshot the new one is made from
+	 * @param updated Videos to add, or to put in place of the base's copy; ones without an id are skipped
+	 * @param removed Ids of videos to leave out - an id that's also updated is kept
+	 * @param createdAt Time the catalog was read, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 * @throws IOException If the file can't be written, or the catalog doesn't fit in one snapshot
+	 */
+	public static void merge(File file, CatalogSnapshot base, Collection<Video> updated, Set<Long> removed, long createdAt) throws IOException {
+		TreeMap<Long, Video> byId = new TreeMap<Long, Video>();
+		for(Video video : updated){
+			if(video.getId() != null){
+				byId.put(video.getId(), video);
+			}
+		}
+
+		// Work out the size first - the layout depends on it
+		int count = base.size() + byId.size();
+		for(Long id : byId.keySet()){
+			if(base.indexOf(id) >= 0){
+				count--;
+			}
+		}
+		for(Long id : removed){
+			if(!byId.containsKey(id) && (base.indexOf(id) >= 0)){
+				count--;
+			}
+		}
+
+		SnapshotWriter writer = new SnapshotWriter(file, count);
+		try{
+			Iterator<Map.Entry<Long, Video>> changes = byId.entrySet().iterator();
+			Map.Entry<Long, Video>           change  = changes.hasNext() ? changes.next() : null;
+			for(int index=0;index<base.count;index++){
+				long id = base.buffer.getLong(HEADER_SIZE + 8 * index);
+				while((change != null) && (change.getKey() < id)){
+					writer.add(change.getValue());
+					change = changes.hasNext() ? changes.next() : null;
+				}
+				if((change != null) && (change.getKey() == id)){
+					writer.add(change.getValue());
+					change = changes.hasNext() ? changes.next() : null;
+				}
+				else if(!removed.contains(id)){
+					writer.copy(base, index);
+				}
+			}
+			while(change != null){
+				writer.add(change.getValue());
+				change = changes.hasNext() ? changes.next() : null;
+			}
+			writer.finish(createdAt);
+		}
+		finally{
+			writer.close();
+		}
+	}
+
+	/**
+	 * <p>Writes the videos of a snapshot file in ascending id order, in one pass.  The
+	 *    number of videos has to be known up front, as it decides where each section starts.</p>
+	 */
+	private static final class SnapshotWriter {
+		private final RandomAccessFile raf;
+		private final FileChannel      channel;
+		private final int              count;
+		private final long             stringsStart;
+		private final PositionalWriter ids;
+		private final PositionalWriter records;
+		private final PositionalWriter strings;
+		private final ByteBuffer       record = ByteBuffer.allocate(RECORD_SIZE);
+		private int                    written;
+		private long                   lastId = Long.MIN_VALUE;
+
+		SnapshotWriter(File file, int count) throws IOException {
+			if(count > (Integer.MAX_VALUE - HEADER_SIZE) / (8 + RECORD_SIZE)){
+				throw new IOException("Catalog of " + count + " videos is too big for one snapshot");
+			}
+			long recordsStart = HEADER_SIZE + 8l * count;
+			this.count        = count;
+			this.stringsStart = recordsStart + (long)RECORD_SIZE * count;
+			this.raf          = new RandomAccessFile(file, "rw");
+			raf.setLength(0);
+			this.channel = raf.getChannel();
+			this.ids     = new PositionalWriter(channel, HEADER_SIZE);
+			this.records = new PositionalWriter(channel, recordsStart);
+			this.strings = new PositionalWriter(channel, stringsStart);
+		}
+
+		void add(Video video) throws IOException {
+			next(video.getId());
+			// Fields are put at fixed offsets, so the whole record is always written
+			record.clear();
+			encode(video, record, strings, stringsStart);
+			records.put(record);
+		}
+
+		/**
+		 * <p>Copies the record of a video from another snapshot, with its strings.</p>
+		 */
+		void copy(CatalogSnapshot from, int index) throws IOException {
+			next(from.buffer.getLong(HEADER_SIZE + 8 * index));
+			int        offset = from.getRecordOffset(index);
+			ByteBuffer source = from.buffer.duplicate();
+			source.limit(offset + RECORD_SIZE).position(offset);
+			record.clear();
+			record.put(source);
+			for(int slot : STRING_SLOTS){
+				int length = record.getInt(slot + 4);
+				if(length >= 0){
+					ByteBuffer bytes = from.buffer.duplicate();
+					int        start = from.stringsStart + record.getInt(slot);
+					bytes.limit(start + length).position(start);
+					record.putInt(slot, (int)(strings.position - stringsStart));
+					strings.put(bytes);
+				}
+			}
+			record.clear();
+			records.put(record);
+		}
+
+		private void next(long id) throws IOException {
+			if((written == count) || ((written > 0) && (id <= lastId))){
+				throw new IOException("Videos must be written once each, in ascending id order, " + count + " in all");
+			}
+			ids.putLong(id);
+			lastId = id;
+			written++;
+		}
+
+		void finish(long createdAt) throws IOException {
+			if(written != count){
+				throw new IOException("Snapshot of " + count + " videos was given " + written);
+			}
+			ids.flush();
+			records.flush();
+			strings.flush();
+
+			long stringsLength = strings.position - stringsStart;
+			if(strings.position > Integer.MAX_VALUE){
+				throw new IOException("Catalog of " + count + " videos is too big for one snapshot");
+			}
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(RECORD_SIZE).putLong(createdAt).putInt((int)stringsLength).putInt(0);
+			header.flip();
+			channel.write(header, 0);
+			channel.force(true);
+		}
+
+		void close() throws IOException {
+			raf.close();
+		}
+	}
+
+	private static void encode(Video video, ByteBuffer record, PositionalWriter strings, long stringsStart) throws IOException {
+		record.putLong(ID, video.getId());
+		record.putLong(ACCOUNT_ID, (video.getAccountId() == null) ? NULL_LONG : video.getAccountId());
+		record.putLong(CREATION_DATE, (video.getCreationDate() == null) ? NULL_LONG : video.getCreationDate().getTime());
+		record.putLong(PUBLISHED_DATE, (video.getPublishedDate() == null) ? NULL_LONG : video.getPublishedDate().getTime());
+		record.putLong(LAST_MODIFIED_DATE, (video.getLastModifiedDate() == null) ? NULL_LONG : video.getLastModifiedDate().getTime());
+		record.putLong(RELEASE_DATE, (video.getReleaseDate() == null) ? NULL_LONG : video.getReleaseDate().getTime());
+		record.putLong(START_DATE, (video.getStartDate() == null) ? NULL_LONG : video.getStartDate().getTime());
+		record.putLong(END_DATE, (video.getEndDate() == null) ? NULL_LONG : video.getEndDate().getTime());
+		record.putLong(LENGTH, (video.getLength() == null) ? NULL_LONG : video.getLength());
+		record.putInt(PLAYS_TOTAL, (video.getPlaysTotal() == null) ? NULL_INT : video.getPlaysTotal());
+		record.putInt(PLAYS_TRAILING_WEEK, (video.getPlaysTrailingWeek() == null) ? NULL_INT : video.getPlaysTrailingWeek());
+		record.put(ITEM_STATE, (video.getItemState() == null) ? (byte)-1 : (byte)video.getItemState().ordinal());
+
+		putString(record, NAME, video.getName(), strings, stringsStart);
+		putString(record, REFERENCE_ID, video.getReferenceId(), strings, stringsStart);
+		putString(record, SHORT_DESCRIPTION, video.getShortDescription(), strings, stringsStart);
+		putString(record, LONG_DESCRIPTION, video.getLongDescription(), strings, stringsStart);
+		putString(record, THUMBNAIL_URL, video.getThumbnailUrl(), strings, stringsStart);
+		putString(record, VIDEO_STILL_URL, video.getVideoStillUrl(), strings, stringsStart);
+		putString(record, LINK_URL, video.getLinkUrl(), strings, stringsStart);
+		putString(record, LINK_TEXT, video.getLinkText(), strings, stringsStart);
+		putString(record, FLV_URL, video.getFlvUrl(), strings, stringsStart);
+		putString(record, TAGS, Join(video.getTags()), strings, stringsStart);
+
+		String customFields = null;
+		List<CustomField> fields = video.getCustomFields();
+		if(fields != null){
+			StringBuilder sb = new StringBuilder();
+			for(CustomField field : fields){
+				if(field.getName() != null){
+					if(sb.length() > 0){
+						sb.append(SEPARATOR);
+					}
+					sb.append(field.getName()).append(SEPARATOR).append((field.getValue() == null) ? "" : field.getValue());
+				}
+			}
+			customFields = sb.toString();
+		}
+		putString(record, CUSTOM_FIELDS, customFields, strings, stringsStart);
+
+		String extra = null;
+		try{
+			JSONObject json = video.toJson();
+			JSONObject rest = new JSONObject();
+			Boolean    any  = false;
+			for(String key : EXTRA_KEYS){
+				if(json.has(key)){
+					rest.put(key, json.get(key));
+					any = true;
+				}
+			}
+			extra = any ? rest.toString() : null;
+		}
+		catch(JSONException jsone){
+			throw new IOException("Couldn't convert video " + video.getId() + ": " + jsone.getMessage());
+		}
+		putString(record, EXTRA, extra, strings, stringsStart);
+	}
+
+	private static String Join(List<String> values){
+		if(values == null){
+			return null;
+		}
+		StringBuilder sb = new StringBuilder();
+		for(String value : values){
+			if(sb.length() > 0){
+				sb.append(SEPARATOR);
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	private static void putString(ByteBuffer record, int slot, String value, PositionalWriter strings, long stringsStart) throws IOException {
+		if(value == null){
+			record.putInt(slot, 0);
+			record.putInt(slot + 4, -1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF8);
+		record.putInt(slot, (int)(strings.position - stringsStart));
+		record.putInt(slot + 4, bytes.length);
+		strings.put(bytes);
+	}
+
+	/**
+	 * <p>Writes a section of the file through a small buffer, so that the index, records
+	 *    and strings can all be written in one pass.</p>
+	 */
+	private static final class PositionalWriter {
+		private final FileChannel channel;
+		private final ByteBuffer  buffer = ByteBuffer.allocate(64 * 1024);
+		private long              flushed;
+		long                      position;
+
+		PositionalWriter(FileChannel channel, long start){
+			this.channel  = channel;
+			this.flushed  = start;
+			this.position = start;
+		}
+
+		void putLong(long value) throws IOException {
+			if(buffer.remaining() < 8){
+				flush();
+			}
+			buffer.putLong(value);
+			position += 8;
+		}
+
+		void put(ByteBuffer bytes) throws IOException {
+			if(bytes.remaining() > buffer.capacity()){
+				flush();
+				int length = bytes.remaining();
+				while(bytes.hasRemaining()){
+					flushed += channel.write(bytes, flushed);
+				}
+				position += length;
+				return;
+			}
+			if(buffer.remaining() < bytes.remaining()){
+				flush();
+			}
+			position += bytes.remaining();
+			buffer.put(bytes);
+		}
+
+		void put(byte[] bytes) throws IOException {
+			if(bytes.length > buffer.capacity()){
+				flush();
+				channel.write(ByteBuffer.wrap(bytes), flushed);
+				flushed  += bytes.length;
+				position += bytes.length;
+				return;
+			}
+			if(buffer.remaining() < bytes.length){
+				flush();
+			}
+			buffer.put(bytes);
+			position += bytes.length;
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while(buffer.hasRemaining()){
+				flushed += channel.write(buffer, flushed);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+	 * @return The video, or null if it isn't in the catalog
+	 */
+	public CatalogVideo get(Long videoId){
+		int index = indexOf(videoId);
+		return (index < 0) ? null : getAt(index);
+	}
+
+	/**
+	 * @return Position of the video in id order, or -1 if it isn't in the catalog
+	 */
+	int indexOf(long videoId){
+		int low  = 0;
+		int high = count - 1;
+		while(low <= high){
+			int  mid = (low + high) >>> 1;
+			long id  = buffer.getLong(HEADER_SIZE + 8 * mid);
+			if(id < videoId){
+				low = mid + 1;
+			}
+			else if(id > videoId){
+				high = mid - 1;
+			}
+			else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param index Position of the video in id order, from 0 to {@link #size()} - 1
+	 */
+	public CatalogVideo getAt(int index){
+		if((index < 0) || (index >= count)){
+			throw new IndexOutOfBoundsException("Video " + index + " of " + count);
+		}
+		return new CatalogVideo(this, getRecordOffset(index));
+	}
+
+	/**
+	 * @return Offset of the record of the video at a position in id order
+	 */
+	int getRecordOffset(int index){
+		return recordsStart + RECORD_SIZE * index;
+	}
+
+	/**
+	 * <p>The catalog in every sort order, worked out the first time they're asked for and
+	 *    kept for as long as the snapshot.</p>
+	 */
+	public CatalogViews getViews(){
+		CatalogViews ret = views;
+		if(ret == null){
+			synchronized(this){
+				if(views == null){
+					views = new CatalogViews(this, CatalogViews.DEFAULT_LOCALE);
+				}
+				ret = views;
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * <p>Iterates the videos in id order.</p>
+	 */
+	public Iterator<CatalogVideo> iterator(){
+		return new Iterator<CatalogVideo>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			public CatalogVideo next() {
+				if(next >= count){
+					throw new NoSuchElementException();
+				}
+				return getAt(next++);
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * @return Number of videos in the catalog
+	 */
+	public int size(){
+		return count;
+	}
+
+	/**
+	 * @return Time the catalog was read, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 */
+	public long getCreatedAt(){
+		return createdAt;
+	}
+
+	public File getFile(){
+		return file;
+	}
+
+	long getLong(int offset){
+		return buffer.getLong(offset);
+	}
+
+	int getInt(int offset){
+		return buffer.getInt(offset);
+	}
+
+	byte getByte(int offset){
+		return buffer.get(offset);
+	}
+
+	/**
+	 * @return The string in a slot of a record, or null
+	 */
+	String getString(int slotOffset){
+		int length = buffer.getInt(slotOffset + 4);
+		if(length < 0){
+			return null;
+		}
+		byte[]     bytes = new byte[length];
+		ByteBuffer view  = buffer.duplicate();
+		view.position(stringsStart + buffer.getInt(slotOffset));
+		view.get(bytes);
+		return new String(bytes, UTF8);
+	}
+
+	@Override
+	public String toString(){
+		return file.getName() + " (" + count + " videos)";
+	}
+}
@@ -0,0 +1,217 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.utils.DigestUtils;
+
+/**
+ * <p>Keeps the current {@link CatalogSnapshot} of each account, in files under one directory.</p>
+ *
+ * <p>A finished sync replaces the snapshot with {@link #swap(String, Collection)}: the new
+ *    file is written and mapped alongside the old one, then becomes current in one step, so
+ *    readers see either the old catalog or the new one and never a mix.  Readers still
+ *    holding the old snapshot keep a valid view of it.  Snapshots are found again after a
+ *    restart.  A delta sync replaces it with {@link #merge(String, CatalogSnapshot, Collection, Set)}
+ *    instead, which streams the unchanged videos across from the current snapshot.</p>
+ *
+ * <p>Files are named after a digest of the read token, never the token itself.</p>
+ */
+public class CatalogStore {
+	public static final File DEFAULT_DIRECTORY = new File(System.getProperty("java.io.tmpdir"), "brightcove-catalog");
+
+	private static final String SUFFIX = ".catalog";
+	private static final String TEMP   = ".tmp";
+
+	private static final CatalogStore shared = new CatalogStore(DEFAULT_DIRECTORY);
+
+	private volatile File                                directory;
+	private final ConcurrentMap<String, CatalogSnapshot> snapshots = new ConcurrentHashMap<String, CatalogSnapshot>();
+	private final AtomicLong                             sequence  = new AtomicLong();
+
+	/**
+	 * @param directory Directory the snapshot files are kept in; created when first needed
+	 */
+	public CatalogStore(File directory){
+		this.directory = directory;
+	}
+
+	/**
+	 * @return Store shared by everything in the JVM
+	 */
+	public static CatalogStore getShared(){
+		return shared;
+	}
+
+	/**
+	 * <p>Moves the store to another directory.  Snapshots in the old directory are no
+	 *    longer used, but are left where they are.</p>
+	 */
+	public synchronized void configure(File directory){
+		if((directory != null) && !directory.equals(this.directory)){
+			this.directory = directory;
+			snapshots.clear();
+		}
+	}
+
+	public File getDirectory(){
+		return directory;
+	}
+
+	/**
+	 * @param token Read token of the account
+	 * @return Current snapshot of the account's catalog, or null if there isn't one
+	 */
+	public CatalogSnapshot getSnapshot(String token){
+		String          name     = Name(token);
+		CatalogSnapshot snapshot = snapshots.get(name);
+		if(snapshot != null){
+			return snapshot;
+		}
+		synchronized(this){
+			snapshot = snapshots.get(name);
+			if(snapshot == null){
+				snapshot = openLatest(name);
+				if(snapshot != null){
+					snapshots.put(name, snapshot);
+				}
+			}
+			return snapshot;
+		}
+	}
+
+	/**
+	 * <p>Replaces an account's catalog.</p>
+	 *
+	 * @param token Read token of the account
+	 * @param videos Every video in the catalog
+	 * @return The new current snapshot
+	 * @throws IOException If the snapshot couldn't be written; the current one stays in place
+	 */
+	public CatalogSnapshot swap(String token, final Collection<Video> videos) throws IOException {
+		return replace(token, new SnapshotSource() {
+			public void write(File file, long createdAt) throws IOException {
+				CatalogSnapshot.write(file, videos, createdAt);
+			}
+		});
+	}
+
+	/**
+	 * <p>Replaces an account's catalog with a copy of a snapshot that has some videos changed.</p>
+	 *
+	 * @param token Read token of the account
+	 * @param base Snapshot the new one is made from, usually the current one
+	 * @param updated Videos added or changed since the base
+	 * @param removed Ids of videos no longer in the catalog
+	 * @return The new current snapshot
+	 * @throws IOException If the snapshot couldn't be written; the current one stays in place
+	 */
+	public CatalogSnapshot merge(String token, final CatalogSnapshot base, final Collection<Video> updated, final Set<Long> removed) throws IOException {
+		return replace(token, new SnapshotSource() {
+			public void write(File file, long createdAt) throws IOException {
+				CatalogSnapshot.merge(file, base, updated, removed, createdAt);
+			}
+		});
+	}
+
+	/**
+	 * <p>Writes a snapshot file.</p>
+	 */
+	private interface SnapshotSource {
+		void write(File file, long createdAt) throws IOException;
+	}
+
+	private CatalogSnapshot replace(String token, SnapshotSource source) throws IOException {
+		String name      = Name(token);
+		File   dir       = directory;
+		long   createdAt = System.currentTimeMillis();
+		if(!dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Couldn't create catalog directory " + dir);
+		}
+
+		// Zero-padded so that names sort in the order the snapshots were made
+		String base = name + "-" + String.format("%016d-%06d", createdAt, sequence.incrementAndGet() % 1000000);
+		File   temp = new File(dir, base + TEMP);
+		File   file = new File(dir, base + SUFFIX);
+		try{
+			source.write(temp, createdAt);
+			if(!temp.renameTo(file)){
+				throw new IOException("Couldn't rename " + temp + " to " + file);
+			}
+		}
+		catch(IOException ioe){
+			temp.delete();
+			throw ioe;
+		}
+
+		CatalogSnapshot snapshot = CatalogSnapshot.open(file);
+		synchronized(this){
+			if(dir.equals(directory)){
+				snapshots.put(name, snapshot);
+			}
+			deleteOlder(dir, name, SUFFIX, file);
+		}
+		return snapshot;
+	}
+
+	/**
+	 * <p>Forgets an account's catalog and deletes its files.</p>
+	 */
+	public synchronized void remove(String token){
+		String name = Name(token);
+		snapshots.remove(name);
+		deleteOlder(directory, name, SUFFIX, null);
+		deleteOlder(directory, name, TEMP, null);
+	}
+
+	private CatalogSnapshot openLatest(String name){
+		File[] files = list(directory, name, SUFFIX);
+		if(files.length == 0){
+			return null;
+		}
+		Arrays.sort(files);
+		for(int i=files.length-1;i>=0;i--){
+			try{
+				return CatalogSnapshot.open(files[i]);
+			}
+			catch(IOException ioe){
+				// Damaged or from another version - try the one before
+				files[i].delete();
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Deletes the account's files other than the one to keep.  A file still mapped elsewhere
+	 *    may not be deletable on some platforms; it's deleted on exit instead.</p>
+	 */
+	private static void deleteOlder(File dir, String name, String suffix, File keep){
+		for(File file : list(dir, name, suffix)){
+			if(!file.equals(keep) && !file.delete()){
+				file.deleteOnExit();
+			}
+		}
+	}
+
+	private static File[] list(File dir, final String name, final String suffix){
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File parent, String fileName) {
+				return fileName.startsWith(name + "-") && fileName.endsWith(suffix);
+			}
+		});
+		return (files == null) ? new File[0] : files;
+	}
+
+	private static String Name(String token){
+		return DigestUtils.Sha1Hex(String.valueOf(token));
+	}
+}
@@ -0,0 +1,393 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.json.JSONException;
+
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.ItemStateEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoStateFilterEnum;
+import com.brightcove.proserve.mediaapi.wrapper.cache.ModifiedVideoPoller;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.utils.DigestUtils;
+
+/**
+ * <p>Keeps a local copy of one account's catalog: a full crawl the first time, and from then
+ *    on only what <code>find_modified_videos</code> reports as changed.</p>
+ *
+ * <p>The full crawl reads every video with <code>find_all_videos</code>, oldest first so that
+ *    videos added meanwhile land on the last pages, and stages each page in a file next to the
+ *    catalog snapshots.  After every page the page number and the length of the staged file
+ *    are checkpointed in the {@link SyncCheckpointStore}; a crawl that's interrupted - by an
+ *    error, a restart or {@link #cancel()} - carries on from there, reading the last staged
+ *    page again.  Only the last copy of a video staged twice is kept.</p>
+ *
+ * <p>Pages are offsets, so every video deleted while the crawl runs moves the ones after it
+ *    back, and one that moves onto a page already read is never staged.  Once the last page
+ *    is read, the videos deleted since the crawl started are read back and dropped, and what
+ *    is left is counted against the total the last page reported.  If videos are missing,
+ *    every page is read again, up to {@link #MAX_CRAWL_PASSES} times; whatever is still
+ *    missing after that is reported by {@link #getLastMissingCount()} and only comes back
+ *    when the video is next modified.  Anything else changed while the crawl ran is picked
+ *    up by the first delta, which starts from when the crawl did.</p>
+ *
+ * <p>A delta reads the videos modified since the last sync (less {@link #DEFAULT_OVERLAP},
+ *    as <code>from_date</code> is in whole minutes), replaces them in the catalog and drops
+ *    the ones no longer active.  The rest of the catalog is streamed across from the current
+ *    snapshot, never read onto the heap.  When more have changed than {@link #MAX_DELTA_PAGES} pages
+ *    hold, a full crawl is quicker and is done instead.  Playlists are few, have no modified
+ *    date to ask by, and are read in full on every sync.</p>
+ *
+ * <p>Every finished sync swaps in a new {@link CatalogSnapshot} (if any video changed) and
+ *    publishes a new {@link SyncedCatalog}, which readers get with
+ *    {@link #getCurrent(String)} without locking.</p>
+ */
+public class CatalogSync {
+	public static final Integer PAGE_SIZE       = 100;
+	public static final Integer MAX_DELTA_PAGES = 50;
+	public static final Integer MAX_CRAWL_PASSES = 3;
+	public static final Long    DEFAULT_OVERLAP = ModifiedVideoPoller.DEFAULT_OVERLAP;
+
+	private static final String STAGING = ".staging";
+
+	private static final ConcurrentMap<String, SyncedCatalog> published = new ConcurrentHashMap<String, SyncedCatalog>();
+
+	private final ReadApi                    readApi;
+	private final String                     readToken;
+	private final String                     name;
+	private final CatalogStore               store;
+	private final SyncCheckpointStore        checkpoints;
+	private final EnumSet<VideoFieldEnum>    videoFields;
+	private final Set<String>                customFields;
+	private final EnumSet<PlaylistFieldEnum> playlistFields;
+
+	private volatile boolean cancelled;
+	private volatile Integer lastChangeCount  = 0;
+	private volatile Integer lastMissingCount = 0;
+
+	/**
+	 * <p>Creates a sync into the shared catalog store, reading every video field.</p>
+	 *
+	 * @param readToken Read Media API token for the account
+	 * @param checkpoints Where to keep the sync's progress
+	 * @param customFields Custom fields to read with the videos
+	 */
+	public CatalogSync(String readToken, SyncCheckpointStore checkpoints, Set<String> customFields){
+		this(UncachedReadApi(), readToken, CatalogStore.getShared(), checkpoints, VideoFieldEnum.CreateFullEnumSet(), customFields);
+	}
+
+	/**
+	 * @param readApi ReadApi to read with; it shouldn't have caches of its own
+	 * @param readToken Read Media API token for the account
+	 * @param store Where to keep the catalog snapshots (and the staged pages of a full crawl)
+	 * @param checkpoints Where to keep the sync's progress
+	 * @param videoFields Video fields to read - should include ID and ITEMSTATE
+	 * @param customFields Custom fields to read with the videos
+	 */
+	public CatalogSync(ReadApi readApi, String readToken, CatalogStore store, SyncCheckpointStore checkpoints, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields){
+		this.readApi      = readApi;
+		this.readToken    = readToken;
+		this.name         = DigestUtils.Sha1Hex(String.valueOf(readToken));
+		this.store        = store;
+		this.checkpoints  = checkpoints;
+		this.videoFields  = videoFields;
+		this.customFields = (customFields == null) ? new HashSet<String>() : customFields;
+
+		playlistFields = PlaylistFieldEnum.CreateFullEnumSet();
+		playlistFields.remove(PlaylistFieldEnum.VIDEOS);
+	}
+
+	private static ReadApi UncachedReadApi(){
+		ReadApi ret = new ReadApi();
+		ret.setVideoCache(null);
+		ret.setSearchCache(null);
+		ret.setNegativeCache(null);
+		ret.setPlaylistCache(null);
+		return ret;
+	}
+
+	/**
+	 * @return The latest catalog published for the account, or null if none has been synced since the JVM started
+	 */
+	public static SyncedCatalog getCurrent(String readToken){
+		return published.get(String.valueOf(readToken));
+	}
+
+	/**
+	 * <p>Runs a full crawl or a delta, whichever is due, and publishes the result.</p>
+	 *
+	 * @return The catalog published, or null if the sync was cancelled (it carries on from there next time)
+	 * @throws BrightcoveException If the Media API couldn't be read; progress up to there is kept
+	 * @throws IOException If the catalog or the checkpoint couldn't be stored
+	 */
+	public synchronized SyncedCatalog sync() throws BrightcoveException, IOException {
+		cancelled = false;
+		SyncCheckpointStore.Checkpoint checkpoint = checkpoints.read(name);
+		if(checkpoint == null){
+			checkpoint = new SyncCheckpointStore.Checkpoint(null, null, null, null);
+		}
+		CatalogSnapshot snapshot = store.getSnapshot(readToken);
+		if((checkpoint.getCrawlStarted() != null) || (checkpoint.getLastSync() == null) || (snapshot == null)){
+			return crawl(checkpoint);
+		}
+		return delta(checkpoint, snapshot);
+	}
+
+	/**
+	 * <p>Stops a running sync after the page it's on.</p>
+	 */
+	public void cancel(){
+		cancelled = true;
+	}
+
+	private SyncedCatalog crawl(SyncCheckpointStore.Checkpoint checkpoint) throws BrightcoveException, IOException {
+		File    staging = new File(store.getDirectory(), name + STAGING);
+		Long    started = checkpoint.getCrawlStarted();
+		Integer page    = checkpoint.getCrawlPage();
+		Long    length  = checkpoint.getStagedLength();
+		if((started == null) || (page == null) || (length == null) || (staging.length() < length)){
+			// Nothing to resume, or the staged pages are gone
+			started = System.currentTimeMillis();
+			page    = 0;
+			length  = 0l;
+		}
+		else if(page > 0){
+			// Page numbers are offsets, so deletions since the checkpoint shift videos back a page
+			page--;
+		}
+		if(!store.getDirectory().isDirectory() && !store.getDirectory().mkdirs()){
+			throw new IOException("Couldn't create catalog directory " + store.getDirectory());
+		}
+
+		Map<Long, Video> videos;
+		Integer          missing;
+		for(int pass=1;;pass++){
+			Integer totalCount = stage(staging, checkpoint.getLastSync(), started, page, length);
+			if(totalCount == null){
+				return null;
+			}
+			videos = ReadStaged(staging);
+			Set<Long> gone = readGone(started);
+			if(gone != null){
+				videos.keySet().removeAll(gone);
+			}
+			missing = (totalCount < 0) ? 0 : Math.max(0, totalCount - videos.size());
+			if(((gone != null) && (missing == 0)) || (pass == MAX_CRAWL_PASSES)){
+				break;
+			}
+			// Deletions moved videos onto pages already read - read them all again
+			page   = 0;
+			length = staging.length();
+		}
+
+		List<Playlist>   playlists = readPlaylists();
+		CatalogSnapshot  snapshot  = store.swap(readToken, videos.values());
+		checkpoints.write(name, new SyncCheckpointStore.Checkpoint(started, null, null, null));
+		staging.delete();
+		lastChangeCount  = videos.size();
+		lastMissingCount = missing;
+		return publish(started, snapshot, playlists);
+	}
+
+	/**
+	 * <p>Stages every page from <code>page</code> on after the first <code>length</code> bytes
+	 *    of the staging file, checkpointing after each.</p>
+	 *
+	 * @return Total count of videos the last page reported (-1 if it didn't), or null if cancelled
+	 */
+	private Integer stage(File staging, Long lastSync, Long started, Integer page, Long length) throws BrightcoveException, IOException {
+		RandomAccessFile out = new RandomAccessFile(staging, "rw");
+		try{
+			// Drop whatever was written after the last checkpoint
+			out.setLength(length);
+			out.seek(length);
+			while(true){
+				if(cancelled){
+					return null;
+				}
+				Videos videos = readApi.FindAllVideos(readToken, PAGE_SIZE, page, SortByTypeEnum.CREATION_DATE, SortOrderTypeEnum.ASC, videoFields, customFields);
+				StringBuilder lines = new StringBuilder();
+				for(Video video : videos){
+					try{
+						lines.append(video.toJson().toString()).append('\n');
+					}
+					catch(JSONException je){
+						// Skipped - picked up again when it's next modified
+					}
+				}
+				out.write(lines.toString().getBytes(CatalogSnapshot.UTF8));
+				out.getFD().sync();
+				page++;
+				checkpoints.write(name, new SyncCheckpointStore.Checkpoint(lastSync, started, page, out.length()));
+
+				Integer totalCount = videos.getTotalCount();
+				if((videos.size() < PAGE_SIZE) || ((totalCount != null) && (totalCount >= 0) && (page * PAGE_SIZE >= totalCount))){
+					return (totalCount == null) ? -1 : totalCount;
+				}
+			}
+		}
+		finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * @return Ids of the videos deleted or deactivated since <code>since</code>, or null if more changed than {@link #MAX_DELTA_PAGES} pages hold
+	 */
+	private Set<Long> readGone(Long since) throws BrightcoveException {
+		EnumSet<VideoFieldEnum> goneFields = VideoFieldEnum.CreateEmptyEnumSet();
+		goneFields.add(VideoFieldEnum.ID);
+		goneFields.add(VideoFieldEnum.ITEMSTATE);
+
+		Long      fromDate = Math.max(0l, since - DEFAULT_OVERLAP) / (60 * 1000);
+		Set<Long> ret      = new HashSet<Long>();
+		for(int page=0;page<MAX_DELTA_PAGES;page++){
+			Videos videos = readApi.FindModifiedVideos(readToken, fromDate, VideoStateFilterEnum.CreateFullSet(), PAGE_SIZE, page, SortByTypeEnum.MODIFIED_DATE, SortOrderTypeEnum.ASC, goneFields, new HashSet<String>());
+			for(Video video : videos){
+				if((video.getId() != null) && (video.getItemState() != ItemStateEnum.ACTIVE)){
+					ret.add(video.getId());
+				}
+			}
+			Integer totalCount = videos.getTotalCount();
+			if((videos.size() < PAGE_SIZE) || ((totalCount != null) && (totalCount >= 0) && ((page + 1) * PAGE_SIZE >= totalCount))){
+				return ret;
+			}
+		}
+		return null;
+	}
+
+	private SyncedCatalog delta(SyncCheckpointStore.Checkpoint checkpoint, CatalogSnapshot snapshot) throws BrightcoveException, IOException {
+		long             started  = System.currentTimeMillis();
+		Long             fromDate = Math.max(0l, checkpoint.getLastSync() - DEFAULT_OVERLAP) / (60 * 1000);
+		Map<Long, Video> changed  = new LinkedHashMap<Long, Video>();
+
+		for(int page=0;;page++){
+			if(cancelled){
+				return null;
+			}
+			if(page == MAX_DELTA_PAGES){
+				return crawl(new SyncCheckpointStore.Checkpoint(checkpoint.getLastSync(), null, null, null));
+			}
+			Videos videos = readApi.FindModifiedVideos(readToken, fromDate, VideoStateFilterEnum.CreateFullSet(), PAGE_SIZE, page, SortByTypeEnum.MODIFIED_DATE, SortOrderTypeEnum.ASC, videoFields, customFields);
+			for(Video video : videos){
+				if(video.getId() != null){
+					changed.put(video.getId(), video);
+				}
+			}
+			Integer totalCount = videos.getTotalCount();
+			if((videos.size() < PAGE_SIZE) || ((totalCount != null) && (totalCount >= 0) && ((page + 1) * PAGE_SIZE >= totalCount))){
+				break;
+			}
+		}
+
+		if(!changed.isEmpty()){
+			List<Video> updated = new ArrayList<Video>();
+			Set<Long>   removed = new HashSet<Long>();
+			for(Video video : changed.values()){
+				if(video.getItemState() == ItemStateEnum.ACTIVE){
+					updated.add(video);
+				}
+				else{
+					removed.add(video.getId());
+				}
+			}
+			snapshot = store.merge(readToken, snapshot, updated, removed);
+		}
+		List<Playlist> playlists = readPlaylists();
+		checkpoints.write(name, new SyncCheckpointStore.Checkpoint(started, null, null, null));
+		lastChangeCount  = changed.size();
+		lastMissingCount = 0;
+		return publish(started, snapshot, playlists);
+	}
+
+	private List<Playlist> readPlaylists() throws BrightcoveException {
+		EnumSet<VideoFieldEnum> playlistVideoFields = VideoFieldEnum.CreateEmptyEnumSet();
+		playlistVideoFields.add(VideoFieldEnum.ID);
+
+		List<Playlist> ret = new ArrayList<Playlist>();
+		for(int page=0;;page++){
+			Playlists playlists = readApi.FindAllPlaylists(readToken, PAGE_SIZE, page, SortByTypeEnum.CREATION_DATE, SortOrderTypeEnum.ASC, playlistVideoFields, new HashSet<String>(), playlistFields);
+			ret.addAll(playlists);
+			Integer totalCount = playlists.getTotalCount();
+			if((playlists.size() < PAGE_SIZE) || ((totalCount != null) && (totalCount >= 0) && ((page + 1) * PAGE_SIZE >= totalCount))){
+				return ret;
+			}
+		}
+	}
+
+	/**
+	 * @return The staged videos, the last copy of each
+	 */
+	private static Map<Long, Video> ReadStaged(File staging) throws IOException {
+		Map<Long, Video> ret = new LinkedHashMap<Long, Video>();
+		BufferedReader   in  = new BufferedReader(new InputStreamReader(new FileInputStream(staging), CatalogSnapshot.UTF8));
+		try{
+			String line;
+			while((line = in.readLine()) != null){
+				if(line.length() == 0){
+					continue;
+				}
+				try{
+					Video video = new Video(line);
+					if(video.getId() != null){
+						ret.put(video.getId(), video);
+					}
+				}
+				catch(JSONException je){
+					throw new IOException("Damaged staging file " + staging + ": " + je.getMessage());
+				}
+			}
+		}
+		finally{
+			in.close();
+		}
+		return ret;
+	}
+
+	private SyncedCatalog publish(long syncedAt, CatalogSnapshot snapshot, List<Playlist> playlists){
+		SyncedCatalog previous = published.get(readToken);
+		SyncedCatalog current  = new SyncedCatalog((previous == null) ? 1 : previous.getVersion() + 1, syncedAt, snapshot, playlists);
+		published.put(readToken, current);
+		return current;
+	}
+
+	public String getReadToken(){
+		return readToken;
+	}
+
+	/**
+	 * @return Number of videos the last finished sync read (a full crawl) or found changed (a delta)
+	 */
+	public Integer getLastChangeCount(){
+		return lastChangeCount;
+	}
+
+	/**
+	 * @return Number of videos the last full crawl couldn't find, after {@link #MAX_CRAWL_PASSES} passes (0 after a delta)
+	 */
+	public Integer getLastMissingCount(){
+		return lastMissingCount;
+	}
+}
@@ -0,0 +1,226 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.json.JSONException;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CustomField;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.ItemStateEnum;
+
+/**
+ * <p>Read-only view of one video in a {@link CatalogSnapshot}.</p>
+ *
+ * <p>A view is just a position in the snapshot - each field is decoded from the mapped file
+ *    when it's asked for, and nothing is kept.  Call {@link #toVideo()} for a full Video to
+ *    hand to code that needs one.</p>
+ */
+public final class CatalogVideo {
+	private static final ItemStateEnum[] ITEM_STATES = ItemStateEnum.values();
+
+	private final CatalogSnapshot snapshot;
+	private final int             offset;
+
+	CatalogVideo(CatalogSnapshot snapshot, int offset){
+		this.snapshot = snapshot;
+		this.offset   = offset;
+	}
+
+	public Long getId(){
+		return snapshot.getLong(offset + CatalogSnapshot.ID);
+	}
+
+	public Long getAccountId(){
+		return getLong(CatalogSnapshot.ACCOUNT_ID);
+	}
+
+	public String getName(){
+		return snapshot.getString(offset + CatalogSnapshot.NAME);
+	}
+
+	public String getReferenceId(){
+		return snapshot.getString(offset + CatalogSnapshot.REFERENCE_ID);
+	}
+
+	public String getShortDescription(){
+		return snapshot.getString(offset + CatalogSnapshot.SHORT_DESCRIPTION);
+	}
+
+	public String getLongDescription(){
+		return snapshot.getString(offset + CatalogSnapshot.LONG_DESCRIPTION);
+	}
+
+	public String getThumbnailUrl(){
+		return snapshot.getString(offset + CatalogSnapshot.THUMBNAIL_URL);
+	}
+
+	public String getVideoStillUrl(){
+		return snapshot.getString(offset + CatalogSnapshot.VIDEO_STILL_URL);
+	}
+
+	public String getLinkUrl(){
+		return snapshot.getString(offset + CatalogSnapshot.LINK_URL);
+	}
+
+	public String getLinkText(){
+		return snapshot.getString(offset + CatalogSnapshot.LINK_TEXT);
+	}
+
+	public String getFlvUrl(){
+		return snapshot.getString(offset + CatalogSnapshot.FLV_URL);
+	}
+
+	public Date getCreationDate(){
+		return getDate(CatalogSnapshot.CREATION_DATE);
+	}
+
+	public Date getPublishedDate(){
+		return getDate(CatalogSnapshot.PUBLISHED_DATE);
+	}
+
+	public Date getLastModifiedDate(){
+		return getDate(CatalogSnapshot.LAST_MODIFIED_DATE);
+	}
+
+	public Date getReleaseDate(){
+		return getDate(CatalogSnapshot.RELEASE_DATE);
+	}
+
+	public Date getStartDate(){
+		return getDate(CatalogSnapshot.START_DATE);
+	}
+
+	public Date getEndDate(){
+		return getDate(CatalogSnapshot.END_DATE);
+	}
+
+	public Long getLength(){
+		return getLong(CatalogSnapshot.LENGTH);
+	}
+
+	public Integer getPlaysTotal(){
+		return getInt(CatalogSnapshot.PLAYS_TOTAL);
+	}
+
+	public Integer getPlaysTrailingWeek(){
+		return getInt(CatalogSnapshot.PLAYS_TRAILING_WEEK);
+	}
+
+	public ItemStateEnum getItemState(){
+		byte ordinal = snapshot.getByte(offset + CatalogSnapshot.ITEM_STATE);
+		return ((ordinal < 0) || (ordinal >= ITEM_STATES.length)) ? null : ITEM_STATES[ordinal];
+	}
+
+	/**
+	 * @return The tags, or null if the video was read without them
+	 */
+	public List<String> getTags(){
+		String tags = snapshot.getString(offset + CatalogSnapshot.TAGS);
+		if(tags == null){
+			return null;
+		}
+		if(tags.length() == 0){
+			return new ArrayList<String>();
+		}
+		return new ArrayList<String>(Arrays.asList(tags.split(String.valueOf(CatalogSnapshot.SEPARATOR), -1)));
+	}
+
+	/**
+	 * @return The custom fields, or null if the video was read without them
+	 */
+	public List<CustomField> getCustomFields(){
+		String fields = snapshot.getString(offset + CatalogSnapshot.CUSTOM_FIELDS);
+		if(fields == null){
+			return null;
+		}
+		List<CustomField> ret = new ArrayList<CustomField>();
+		if(fields.length() == 0){
+			return ret;
+		}
+		String[] parts = fields.split(String.valueOf(CatalogSnapshot.SEPARATOR), -1);
+		for(int i=0;i+1<parts.length;i+=2){
+			ret.add(new CustomField(parts[i], parts[i + 1]));
+		}
+		return ret;
+	}
+
+	/**
+	 * @return Value of one custom field, or null if the video doesn't have it
+	 */
+	public String getCustomField(String name){
+		List<CustomField> fields = getCustomFields();
+		if(fields != null){
+			for(CustomField field : fields){
+				if(field.getName().equals(name)){
+					return field.getValue();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * <p>Copies the video onto the heap, with every field the catalog holds.</p>
+	 *
+	 * @return A new Video
+	 */
+	public Video toVideo(){
+		Video  video;
+		String extra = snapshot.getString(offset + CatalogSnapshot.EXTRA);
+		try{
+			video = (extra == null) ? new Video() : new Video(extra);
+		}
+		catch(JSONException jsone){
+			// Written by this class, so only a damaged file gets here
+			throw new IllegalStateException("Couldn't read video " + getId() + " from " + snapshot, jsone);
+		}
+
+		video.setId(getId());
+		video.setAccountId(getAccountId());
+		video.setName(getName());
+		video.setReferenceId(getReferenceId());
+		video.setShortDescription(getShortDescription());
+		video.setLongDescription(getLongDescription());
+		video.setThumbnailUrl(getThumbnailUrl());
+		video.setVideoStillUrl(getVideoStillUrl());
+		video.setLinkUrl(getLinkUrl());
+		video.setLinkText(getLinkText());
+		video.setFlvUrl(getFlvUrl());
+		video.setCreationDate(getCreationDate());
+		video.setPublishedDate(getPublishedDate());
+		video.setLastModifiedDate(getLastModifiedDate());
+		video.setReleaseDate(getReleaseDate());
+		video.setStartDate(getStartDate());
+		video.setEndDate(getEndDate());
+		video.setLength(getLength());
+		video.setPlaysTotal(getPlaysTotal());
+		video.setPlaysTrailingWeek(getPlaysTrailingWeek());
+		video.setItemState(getItemState());
+		video.setTags(getTags());
+		video.setCustomFields(getCustomFields());
+		return video;
+	}
+
+	private Long getLong(int field){
+		long value = snapshot.getLong(offset + field);
+		return (value == CatalogSnapshot.NULL_LONG) ? null : value;
+	}
+
+	private Integer getInt(int field){
+		int value = snapshot.getInt(offset + field);
+		return (value == CatalogSnapshot.NULL_INT) ? null : value;
+	}
+
+	private Date getDate(int field){
+		Long value = getLong(field);
+		return (value == null) ? null : new Date(value);
+	}
+
+	@Override
+	public String toString(){
+		return "[CatalogVideo " + getId() + " " + getName() + "]";
+	}
+}
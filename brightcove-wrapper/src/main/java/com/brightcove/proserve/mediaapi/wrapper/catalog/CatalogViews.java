@@ -0,0 +1,173 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+
+/**
+ * <p>The videos of a {@link CatalogSnapshot} in every order the Media API can sort them in,
+ *    worked out once per snapshot, so that any window of the catalog in any order is a read
+ *    of part of an array rather than a sort.</p>
+ *
+ * <p>Each order is an array of the videos' positions in the snapshot.  Names are ordered by
+ *    collation keys, computed once per name, so "apple", "Apple" and "Äpple" sort together
+ *    the way people expect; dates and play counts are read from the snapshot's records
+ *    without decoding any video.  Videos without the field come last in either direction,
+ *    and ties are broken by id.</p>
+ *
+ * <p>Get the views of a snapshot with {@link CatalogSnapshot#getViews()}.</p>
+ */
+public final class CatalogViews {
+	public static final Locale DEFAULT_LOCALE = Locale.ENGLISH;
+
+	private final CatalogSnapshot              snapshot;
+	private final Map<SortByTypeEnum, int[]>   orders = new EnumMap<SortByTypeEnum, int[]>(SortByTypeEnum.class);
+	// Number of videos at the start of each order that have the field
+	private final Map<SortByTypeEnum, Integer> valued = new EnumMap<SortByTypeEnum, Integer>(SortByTypeEnum.class);
+
+	CatalogViews(CatalogSnapshot snapshot, Locale locale){
+		this.snapshot = snapshot;
+		int count = snapshot.size();
+
+		Collator collator = Collator.getInstance(locale);
+		final CollationKey[] names = new CollationKey[count];
+		for(int index=0;index<count;index++){
+			String name = snapshot.getString(snapshot.getRecordOffset(index) + CatalogSnapshot.NAME);
+			names[index] = (name == null) ? null : collator.getCollationKey(name);
+		}
+		put(SortByTypeEnum.DISPLAY_NAME, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return names[a].compareTo(names[b]);
+			}
+		}, Valued(names));
+
+		putLong(SortByTypeEnum.CREATION_DATE, CatalogSnapshot.CREATION_DATE);
+		putLong(SortByTypeEnum.PUBLISH_DATE, CatalogSnapshot.PUBLISHED_DATE);
+		putLong(SortByTypeEnum.MODIFIED_DATE, CatalogSnapshot.LAST_MODIFIED_DATE);
+		putInt(SortByTypeEnum.PLAYS_TOTAL, CatalogSnapshot.PLAYS_TOTAL);
+		putInt(SortByTypeEnum.PLAYS_TRAILING_WEEK, CatalogSnapshot.PLAYS_TRAILING_WEEK);
+	}
+
+	private void putLong(SortByTypeEnum sortBy, int field){
+		int             count  = snapshot.size();
+		final long[]    values = new long[count];
+		final boolean[] has    = new boolean[count];
+		for(int index=0;index<count;index++){
+			values[index] = snapshot.getLong(snapshot.getRecordOffset(index) + field);
+			has[index]    = values[index] != CatalogSnapshot.NULL_LONG;
+		}
+		put(sortBy, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (values[a] < values[b]) ? -1 : ((values[a] > values[b]) ? 1 : 0);
+			}
+		}, has);
+	}
+
+	private void putInt(SortByTypeEnum sortBy, int field){
+		int             count  = snapshot.size();
+		final int[]     values = new int[count];
+		final boolean[] has    = new boolean[count];
+		for(int index=0;index<count;index++){
+			values[index] = snapshot.getInt(snapshot.getRecordOffset(index) + field);
+			has[index]    = values[index] != CatalogSnapshot.NULL_INT;
+		}
+		put(sortBy, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (values[a] < values[b]) ? -1 : ((values[a] > values[b]) ? 1 : 0);
+			}
+		}, has);
+	}
+
+	/**
+	 * <p>Sorts the positions of the videos that have the field by it, and puts the rest after them.</p>
+	 */
+	private void put(SortByTypeEnum sortBy, final Comparator<Integer> byValue, boolean[] has){
+		List<Integer> present = new ArrayList<Integer>();
+		List<Integer> missing = new ArrayList<Integer>();
+		for(int index=0;index<has.length;index++){
+			(has[index] ? present : missing).add(index);
+		}
+		Integer[] sorted = present.toArray(new Integer[present.size()]);
+		// Positions are in id order, so the tie-break by position is by id
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				int byField = byValue.compare(a, b);
+				return (byField != 0) ? byField : a.compareTo(b);
+			}
+		});
+		int[] order = new int[has.length];
+		for(int at=0;at<sorted.length;at++){
+			order[at] = sorted[at];
+		}
+		for(int at=0;at<missing.size();at++){
+			order[sorted.length + at] = missing.get(at);
+		}
+		orders.put(sortBy, order);
+		valued.put(sortBy, sorted.length);
+	}
+
+	private static boolean[] Valued(Object[] values){
+		boolean[] ret = new boolean[values.length];
+		for(int index=0;index<values.length;index++){
+			ret[index] = values[index] != null;
+		}
+		return ret;
+	}
+
+	/**
+	 * @return Number of videos in the catalog
+	 */
+	public int size(){
+		return snapshot.size();
+	}
+
+	/**
+	 * @param sortBy Order
+	 * @param sortOrderType ASC or DESC; null for ASC
+	 * @param position Position in that order, from 0 to {@link #size()} - 1
+	 * @return The video at the position
+	 */
+	public CatalogVideo get(SortByTypeEnum sortBy, SortOrderTypeEnum sortOrderType, int position){
+		if((position < 0) || (position >= size())){
+			throw new IndexOutOfBoundsException("Video " + position + " of " + size());
+		}
+		int[] order = orders.get(sortBy);
+		int   count = valued.get(sortBy);
+		if((sortOrderType == SortOrderTypeEnum.DESC) && (position < count)){
+			position = count - 1 - position;
+		}
+		return snapshot.getAt(order[position]);
+	}
+
+	/**
+	 * <p>One window of the catalog - a page, say.</p>
+	 *
+	 * @param sortBy Order
+	 * @param sortOrderType ASC or DESC; null for ASC
+	 * @param offset Position of the first video
+	 * @param limit Most videos to return
+	 * @return The videos from the offset on, fewer than the limit at the end of the catalog
+	 */
+	public List<CatalogVideo> window(SortByTypeEnum sortBy, SortOrderTypeEnum sortOrderType, int offset, int limit){
+		int                from = Math.max(offset, 0);
+		int                to   = (int)Math.min((long)from + Math.max(limit, 0), size());
+		List<CatalogVideo> ret  = new ArrayList<CatalogVideo>(Math.max(to - from, 0));
+		for(int position=from;position<to;position++){
+			ret.add(get(sortBy, sortOrderType, position));
+		}
+		return ret;
+	}
+
+	public CatalogSnapshot getSnapshot(){
+		return snapshot;
+	}
+}
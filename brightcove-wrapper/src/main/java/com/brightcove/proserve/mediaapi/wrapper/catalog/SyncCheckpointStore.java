@@ -0,0 +1,75 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.io.IOException;
+
+/**
+ * <p>Keeps the progress of {@link CatalogSync} somewhere that outlives the JVM, so that a
+ *    restart continues a sync instead of starting it over.</p>
+ *
+ * <p>Checkpoints are kept by name - a digest of the read token, never the token itself.
+ *    Implementations must be thread-safe.</p>
+ */
+public interface SyncCheckpointStore {
+
+	/**
+	 * <p>Where the sync of one account has got to.</p>
+	 */
+	public static final class Checkpoint {
+		private final Long    lastSync;
+		private final Long    crawlStarted;
+		private final Integer crawlPage;
+		private final Long    stagedLength;
+
+		/**
+		 * @param lastSync Start time of the last finished sync, or null if there hasn't been one
+		 * @param crawlStarted Start time of the full crawl in progress, or null if there isn't one
+		 * @param crawlPage Next page of the full crawl in progress
+		 * @param stagedLength Bytes of videos the full crawl in progress has staged so far
+		 */
+		public Checkpoint(Long lastSync, Long crawlStarted, Integer crawlPage, Long stagedLength){
+			this.lastSync     = lastSync;
+			this.crawlStarted = crawlStarted;
+			this.crawlPage    = crawlPage;
+			this.stagedLength = stagedLength;
+		}
+
+		/**
+		 * @return Start time of the last finished sync, in milliseconds since January 1st, 1970 00:00:00 GMT, or null
+		 */
+		public Long getLastSync(){
+			return lastSync;
+		}
+
+		/**
+		 * @return Start time of the full crawl in progress, in milliseconds, or null if there isn't one
+		 */
+		public Long getCrawlStarted(){
+			return crawlStarted;
+		}
+
+		public Integer getCrawlPage(){
+			return crawlPage;
+		}
+
+		public Long getStagedLength(){
+			return stagedLength;
+		}
+
+		@Override
+		public String toString(){
+			return "lastSync=" + lastSync + ", crawlStarted=" + crawlStarted + ", crawlPage=" + crawlPage + ", stagedLength=" + stagedLength;
+		}
+	}
+
+	/**
+	 * @return The checkpoint, or null if there isn't one or it can't be read
+	 */
+	public Checkpoint read(String name);
+
+	/**
+	 * <p>Stores a checkpoint, replacing the one before.</p>
+	 *
+	 * @throws IOException If it couldn't be stored; the sync stops there and is retried
+	 */
+	public void write(String name, Checkpoint checkpoint) throws IOException;
+}
@@ -0,0 +1,74 @@
+package com.brightcove.proserve.mediaapi.wrapper.catalog;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+
+/**
+ * <p>One version of an account's catalog, as published by {@link CatalogSync} - the videos
+ *    and playlists as of one sync.</p>
+ *
+ * <p>A published catalog never changes: the next sync publishes a new one with a higher
+ *    version, so a reader that holds on to one sees a consistent catalog for as long as it
+ *    likes, without locks.  The playlists are shared between readers and must not be
+ *    modified.</p>
+ */
+public final class SyncedCatalog {
+	private final long                version;
+	private final long                syncedAt;
+	private final CatalogSnapshot     videos;
+	private final List<Playlist>      playlists;
+	private final Map<Long, Playlist> playlistsById;
+
+	SyncedCatalog(long version, long syncedAt, CatalogSnapshot videos, List<Playlist> playlists){
+		this.version   = version;
+		this.syncedAt  = syncedAt;
+		this.videos    = videos;
+		this.playlists = Collections.unmodifiableList(playlists);
+
+		Map<Long, Playlist> byId = new LinkedHashMap<Long, Playlist>();
+		for(Playlist playlist : playlists){
+			if(playlist.getId() != null){
+				byId.put(playlist.getId(), playlist);
+			}
+		}
+		this.playlistsById = Collections.unmodifiableMap(byId);
+	}
+
+	/**
+	 * @return Version of the catalog - higher is newer
+	 */
+	public long getVersion(){
+		return version;
+	}
+
+	/**
+	 * @return Start time of the sync this version is from, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 */
+	public long getSyncedAt(){
+		return syncedAt;
+	}
+
+	public CatalogSnapshot getVideos(){
+		return videos;
+	}
+
+	public List<Playlist> getPlaylists(){
+		return playlists;
+	}
+
+	/**
+	 * @return The playlist, or null if it isn't in the catalog
+	 */
+	public Playlist getPlaylist(Long playlistId){
+		return playlistsById.get(playlistId);
+	}
+
+	@Override
+	public String toString(){
+		return "version " + version + ": " + videos.size() + " videos, " + playlists.size() + " playlists";
+	}
+}
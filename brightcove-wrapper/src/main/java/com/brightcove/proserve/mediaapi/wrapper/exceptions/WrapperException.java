@@ -1,10 +1,14 @@
 package com.brightcove.proserve.mediaapi.wrapper.exceptions;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+
 public class WrapperException extends BrightcoveException {
 	private static final long serialVersionUID = -4695861147571405702L;
 	
 	private WrapperExceptionCode code;
 	private String               message;
+	private Integer              httpStatusCode;
 	
 	public WrapperException(WrapperExceptionCode code, String message) {
 		super();
@@ -13,6 +17,25 @@ public class WrapperException extends BrightcoveException {
 		this.type    = ExceptionType.WRAPPER_EXCEPTION;
 	}
 	
+	public WrapperException(WrapperExceptionCode code, String message, Integer httpStatusCode) {
+		this(code, message);
+		this.httpStatusCode = httpStatusCode;
+	}
+	
+	/**
+	 * <p>Wraps an I/O exception from talking to the Media API.  Socket read timeouts
+	 *    get their own code, MAPI_READ_TIMEOUT, as they aren't worth retrying.</p>
+	 *
+	 * @param ioe Exception thrown while sending the request or reading the response
+	 * @return MAPI_READ_TIMEOUT or MAPI_IO_EXCEPTION wrapper exception
+	 */
+	public static WrapperException fromIOException(IOException ioe){
+		if(ioe instanceof SocketTimeoutException){
+			return new WrapperException(WrapperExceptionCode.MAPI_READ_TIMEOUT, "Exception: '" + ioe + "'");
+		}
+		return new WrapperException(WrapperExceptionCode.MAPI_IO_EXCEPTION, "Exception: '" + ioe + "'");
+	}
+	
 	public WrapperExceptionCode getCode(){
 		return code;
 	}
@@ -21,6 +44,13 @@ public class WrapperException extends BrightcoveException {
 		return message;
 	}
 	
+	/**
+	 * @return HTTP status code returned by the server, or null if the exception isn't about an HTTP response
+	 */
+	public Integer getHttpStatusCode(){
+		return httpStatusCode;
+	}
+	
 	public String toString(){
 		return "[" + this.getClass().getCanonicalName() + "] (" + code.getCode() + ": " + code.getDescription() + ") Message: '" + message + "'";
 	}
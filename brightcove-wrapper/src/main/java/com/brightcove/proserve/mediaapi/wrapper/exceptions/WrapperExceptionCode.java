@@ -11,6 +11,9 @@ public enum WrapperExceptionCode {
 	CLIENT_PROTOCOL_EXCEPTION(201,   "Couldn't communicate with Media API - Client used invalid protocol"),
 	MAPI_IO_EXCEPTION(202,           "Couldn't communicate with Media API - I/O exception thrown"),
 	MAPI_ILLEGAL_STATE_RESPONSE(203, "Couldn't communicate with Media API - Illegal state exception caught trying to parse response"),
+	CIRCUIT_OPEN(204,                "Couldn't communicate with Media API - Circuit breaker is open after repeated failures"),
+	RATE_LIMITED(205,                "Couldn't communicate with Media API - Request budget for the token is used up"),
+	MAPI_READ_TIMEOUT(206,           "Couldn't communicate with Media API - Timed out waiting for the response"),
 	
 	// 300 Series: Error tyring to parse the response from the Media API
 	MAPI_UNPARSABLE_RESPONSE(300,    "Couldn't parse response from Media API"),
@@ -0,0 +1,338 @@
+package com.brightcove.proserve.mediaapi.wrapper.http;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.AttributeChangeNotification;
+import javax.management.MBeanNotificationInfo;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotificationBroadcasterSupport;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+
+/**
+ * <p>Circuit breaker for calls to a single Media API host.</p>
+ *
+ * <p>After <code>failureThreshold</code> consecutive transient failures (see
+ *    {@link RetryPolicy#isTransientFailure(BrightcoveException)}) the breaker opens
+ *    and calls fail straight away with CIRCUIT_OPEN instead of waiting on an
+ *    unhealthy API.  Once <code>openDuration</code> has passed a single trial call
+ *    is let through (half open); if it succeeds the breaker closes again, if not it
+ *    stays open for another period.</p>
+ *
+ * <p>One breaker is kept per host and registered with the platform MBean server
+ *    until {@link #unregisterAll()} is called.</p>
+ */
+public class CircuitBreaker extends NotificationBroadcasterSupport implements CircuitBreakerMBean {
+	private static final Logger log = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public static final Integer DEFAULT_FAILURE_THRESHOLD = 5;
+	public static final Long    DEFAULT_OPEN_DURATION     = 30000l;
+
+	public static final String JMX_DOMAIN = "com.brightcove.proserve.mediaapi";
+
+	/**
+	 * <p>States of the breaker.</p>
+	 */
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private static final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+	private static volatile Integer defaultFailureThreshold = DEFAULT_FAILURE_THRESHOLD;
+	private static volatile Long    defaultOpenDuration     = DEFAULT_OPEN_DURATION;
+
+	private final String host;
+
+	private volatile Integer failureThreshold;
+	private volatile Long    openDuration;
+
+	private State   state               = State.CLOSED;
+	private Integer consecutiveFailures = 0;
+	private Long    openedAt            = 0l;
+	private Long    lastStateChange     = System.currentTimeMillis();
+	private Boolean trialInFlight       = false;
+
+	private final AtomicLong totalCalls     = new AtomicLong();
+	private final AtomicLong totalFailures  = new AtomicLong();
+	private final AtomicLong rejectedCalls  = new AtomicLong();
+	private final AtomicLong timesOpened    = new AtomicLong();
+	private final AtomicLong sequenceNumber = new AtomicLong();
+
+	/**
+	 * <p>Creates a stand-alone breaker.  Most callers should use {@link #forHost(String)}.</p>
+	 *
+	 * @param host Host the breaker guards
+	 * @param failureThreshold Consecutive failures before the breaker opens
+	 * @param openDuration How long the breaker stays open before a trial call, in milliseconds
+	 */
+	public CircuitBreaker(String host, Integer failureThreshold, Long openDuration){
+		this.host             = host;
+		this.failureThreshold = failureThreshold;
+		this.openDuration     = openDuration;
+	}
+
+	/**
+	 * <p>Gets the shared breaker for a host, creating and registering it with JMX on first use.</p>
+	 *
+	 * @param host Media API host
+	 * @return Breaker for the host
+	 */
+	public static CircuitBreaker forHost(String host){
+		CircuitBreaker breaker = breakers.get(host);
+		if(breaker == null){
+			CircuitBreaker newBreaker = new CircuitBreaker(host, defaultFailureThreshold, defaultOpenDuration);
+			breaker = breakers.putIfAbsent(host, newBreaker);
+			if(breaker == null){
+				breaker = newBreaker;
+				breaker.registerMBean();
+			}
+		}
+		return breaker;
+	}
+
+	/**
+	 * <p>Unregisters all shared breakers from JMX and forgets them.  Breakers are
+	 *    created again on next use.  Call this when the bundle is stopped, so that
+	 *    MBeans from an old class loader don't stay registered.</p>
+	 */
+	public static void unregisterAll(){
+		for(CircuitBreaker breaker : breakers.values()){
+			breakers.remove(breaker.getHost(), breaker);
+			breaker.unregisterMBean();
+		}
+	}
+
+	/**
+	 * <p>Sets the thresholds on all shared breakers, including ones created later.</p>
+	 *
+	 * @param failureThreshold Consecutive failures before a breaker opens
+	 * @param openDuration How long a breaker stays open before a trial call, in milliseconds
+	 */
+	public static void configureAll(Integer failureThreshold, Long openDuration){
+		defaultFailureThreshold = failureThreshold;
+		defaultOpenDuration     = openDuration;
+		for(CircuitBreaker breaker : breakers.values()){
+			breaker.setFailureThreshold(failureThreshold);
+			breaker.setOpenDuration(openDuration);
+		}
+	}
+
+	/**
+	 * <p>Runs the call if the breaker allows it and records the outcome.</p>
+	 *
+	 * @param call Call to run
+	 * @return Result of the call
+	 * @throws BrightcoveException Exception thrown by the call, or CIRCUIT_OPEN if the breaker refused it
+	 */
+	public <T> T execute(Callable<T> call) throws BrightcoveException {
+		Boolean trial = acquire();
+		totalCalls.incrementAndGet();
+		try{
+			T result = call.call();
+			onSuccess(trial);
+			return result;
+		}
+		catch(BrightcoveException be){
+			if((be instanceof WrapperException) && (((WrapperException)be).getCode() == WrapperExceptionCode.RATE_LIMITED)){
+				// Never reached the API - says nothing about its health
+				onNoResult(trial);
+			}
+			else if(RetryPolicy.isTransientFailure(be)){
+				onFailure(trial);
+			}
+			else{
+				// The API answered - it's healthy even if the request was bad
+				onSuccess(trial);
+			}
+			throw be;
+		}
+		catch(RuntimeException re){
+			onFailure(trial);
+			throw re;
+		}
+		catch(Exception e){
+			onFailure(trial);
+			throw new BrightcoveException(e);
+		}
+		catch(Error err){
+			onFailure(trial);
+			throw err;
+		}
+	}
+
+	private synchronized Boolean acquire() throws WrapperException {
+		if(state == State.OPEN){
+			if(System.currentTimeMillis() - openedAt < openDuration){
+				rejectedCalls.incrementAndGet();
+				throw new WrapperException(WrapperExceptionCode.CIRCUIT_OPEN, "Circuit breaker for '" + host + "' is open after " + consecutiveFailures + " consecutive failures.");
+			}
+			changeState(State.HALF_OPEN);
+		}
+		if(state == State.HALF_OPEN){
+			if(trialInFlight){
+				rejectedCalls.incrementAndGet();
+				throw new WrapperException(WrapperExceptionCode.CIRCUIT_OPEN, "Circuit breaker for '" + host + "' is waiting on a trial call.");
+			}
+			trialInFlight = true;
+			return true;
+		}
+		return false;
+	}
+
+	private synchronized void onSuccess(Boolean trial){
+		if(trial){
+			trialInFlight = false;
+		}
+		consecutiveFailures = 0;
+		if(state != State.CLOSED){
+			changeState(State.CLOSED);
+		}
+	}
+
+	private synchronized void onNoResult(Boolean trial){
+		if(trial){
+			trialInFlight = false;
+		}
+	}
+
+	private synchronized void onFailure(Boolean trial){
+		totalFailures.incrementAndGet();
+		consecutiveFailures++;
+		if(trial){
+			trialInFlight = false;
+		}
+		if((state == State.HALF_OPEN) || ((state == State.CLOSED) && (consecutiveFailures >= failureThreshold))){
+			openedAt = System.currentTimeMillis();
+			timesOpened.incrementAndGet();
+			changeState(State.OPEN);
+		}
+	}
+
+	private void changeState(State newState){
+		State oldState = state;
+		state           = newState;
+		lastStateChange = System.currentTimeMillis();
+
+		if(newState == State.OPEN){
+			log.warn("Media API circuit breaker for '" + host + "' opened after " + consecutiveFailures + " consecutive failures.");
+		}
+		else{
+			log.info("Media API circuit breaker for '" + host + "' changed from " + oldState + " to " + newState + ".");
+		}
+
+		sendNotification(new AttributeChangeNotification(this, sequenceNumber.incrementAndGet(), lastStateChange,
+				"Circuit breaker for '" + host + "' changed from " + oldState + " to " + newState,
+				"State", String.class.getName(), oldState.toString(), newState.toString()));
+	}
+
+	private void registerMBean(){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName  name   = getObjectName();
+			if(server.isRegistered(name)){
+				// Left behind by an earlier instance of the bundle
+				server.unregisterMBean(name);
+			}
+			server.registerMBean(this, name);
+		}
+		catch(Exception e){
+			log.warn("Couldn't register circuit breaker for '" + host + "' with JMX: '" + e + "'.");
+		}
+	}
+
+	private void unregisterMBean(){
+		try{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName  name   = getObjectName();
+			if(server.isRegistered(name)){
+				server.unregisterMBean(name);
+			}
+		}
+		catch(Exception e){
+			log.warn("Couldn't unregister circuit breaker for '" + host + "' from JMX: '" + e + "'.");
+		}
+	}
+
+	private ObjectName getObjectName() throws MalformedObjectNameException {
+		return new ObjectName(JMX_DOMAIN + ":type=CircuitBreaker,host=" + ObjectName.quote(host));
+	}
+
+	@Override
+	public MBeanNotificationInfo[] getNotificationInfo(){
+		return new MBeanNotificationInfo[]{
+			new MBeanNotificationInfo(new String[]{ AttributeChangeNotification.ATTRIBUTE_CHANGE }, AttributeChangeNotification.class.getName(), "Circuit breaker state change")
+		};
+	}
+
+	public String getHost(){
+		return host;
+	}
+
+	public synchronized String getState(){
+		// Report an expired open period as half open, which is what the next call will see
+		if((state == State.OPEN) && (System.currentTimeMillis() - openedAt >= openDuration)){
+			return State.HALF_OPEN.toString();
+		}
+		return state.toString();
+	}
+
+	public synchronized Integer getConsecutiveFailures(){
+		return consecutiveFailures;
+	}
+
+	public Long getTotalCalls(){
+		return totalCalls.get();
+	}
+
+	public Long getTotalFailures(){
+		return totalFailures.get();
+	}
+
+	public Long getRejectedCalls(){
+		return rejectedCalls.get();
+	}
+
+	public Long getTimesOpened(){
+		return timesOpened.get();
+	}
+
+	public synchronized Long getLastStateChange(){
+		return lastStateChange;
+	}
+
+	public Integer getFailureThreshold(){
+		return failureThreshold;
+	}
+
+	public void setFailureThreshold(Integer failureThreshold){
+		this.failureThreshold = failureThreshold;
+	}
+
+	public Long getOpenDuration(){
+		return openDuration;
+	}
+
+	public void setOpenDuration(Long openDuration){
+		this.openDuration = openDuration;
+	}
+
+	public synchronized void reset(){
+		consecutiveFailures = 0;
+		trialInFlight       = false;
+		if(state != State.CLOSED){
+			changeState(State.CLOSED);
+		}
+	}
+}
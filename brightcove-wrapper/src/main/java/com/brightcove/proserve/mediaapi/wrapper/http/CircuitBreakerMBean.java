@@ -0,0 +1,44 @@
+package com.brightcove.proserve.mediaapi.wrapper.http;
+
+/**
+ * <p>JMX view of a {@link CircuitBreaker}.</p>
+ *
+ * <p>Registered as <code>com.brightcove.proserve.mediaapi:type=CircuitBreaker,host=&lt;host&gt;</code>.
+ *    State changes are also sent as attribute change notifications on the <code>State</code> attribute.</p>
+ */
+public interface CircuitBreakerMBean {
+	public String getHost();
+
+	/**
+	 * @return CLOSED, OPEN or HALF_OPEN
+	 */
+	public String getState();
+
+	public Integer getConsecutiveFailures();
+
+	public Long getTotalCalls();
+
+	public Long getTotalFailures();
+
+	public Long getRejectedCalls();
+
+	public Long getTimesOpened();
+
+	/**
+	 * @return Time of the last state change, in milliseconds since the epoch
+	 */
+	public Long getLastStateChange();
+
+	public Integer getFailureThreshold();
+
+	public void setFailureThreshold(Integer failureThreshold);
+
+	public Long getOpenDuration();
+
+	public void setOpenDuration(Long openDuration);
+
+	/**
+	 * <p>Closes the breaker and clears the failure count.</p>
+	 */
+	public void reset();
+}
@@ -0,0 +1,263 @@
+package com.brightcove.proserve.mediaapi.wrapper.http;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.protocol.RequestAcceptEncoding;
+import org.apache.http.client.protocol.ResponseContentEncoding;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.SchemeRegistryFactory;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * <p>Shared, thread-safe HTTP transport for the Read and Write Media API wrappers.</p>
+ *
+ * <p>Holds a single pooled HttpClient so that connections to the Media API are
+ *    kept alive and reused between calls instead of being opened (and TLS
+ *    negotiated) for every request.  Idle and expired connections are evicted
+ *    by a background thread, which also closes the pools of earlier configurations
+ *    once their last connection has been released.  Responses are requested gzip or deflate compressed
+ *    and decoded transparently, so callers always see the plain entity.</p>
+ *
+ * <p>ReadApi and WriteApi use the shared instance returned by {@link #getInstance()}
+ *    unless another transport is set on them explicitly.  The shared instance lives as
+ *    long as the wrapper bundle: it's shut down when the bundle stops and started again
+ *    with its last settings when the bundle starts.</p>
+ */
+public class MediaApiTransport {
+	private static final Logger log = LoggerFactory.getLogger(MediaApiTransport.class);
+
+	public static final Integer DEFAULT_MAX_CONNECTIONS           = 50;
+	public static final Integer DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+	public static final Integer DEFAULT_CONNECT_TIMEOUT           = 5000;
+	public static final Integer DEFAULT_READ_TIMEOUT              = 10000;
+	public static final Long    DEFAULT_KEEP_ALIVE                = 30000l;
+	public static final Long    DEFAULT_IDLE_TIMEOUT              = 60000l;
+
+	private static final Long EVICTION_INTERVAL = 5000l;
+
+	private static final MediaApiTransport instance = new MediaApiTransport();
+
+	private volatile DefaultHttpClient           httpClient;
+	private volatile ThreadSafeClientConnManager connectionManager;
+	private volatile Long                        keepAlive;
+	private volatile Long                        idleTimeout;
+	private volatile Integer                     readTimeout;
+
+	// Settings of the last configure(), used by start()
+	private Integer maxConnections;
+	private Integer maxConnectionsPerRoute;
+	private Integer connectTimeout;
+
+	// Managers replaced by configure() that still had connections leased out
+	private final List<ThreadSafeClientConnManager> retiredManagers = new CopyOnWriteArrayList<ThreadSafeClientConnManager>();
+
+	private ScheduledExecutorService evictor;
+
+	/**
+	 * <p>Creates a new transport with the default pool settings.</p>
+	 *
+	 * <p>Most callers should use the shared instance from {@link #getInstance()}.</p>
+	 */
+	public MediaApiTransport(){
+		configure(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_KEEP_ALIVE, DEFAULT_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * <p>Returns the transport shared by all ReadApi and WriteApi instances in this JVM.</p>
+	 *
+	 * @return Shared transport
+	 */
+	public static MediaApiTransport getInstance(){
+		return instance;
+	}
+
+	/**
+	 * <p>Replaces the pooled client with one built from the settings given.</p>
+	 *
+	 * <p>Requests already running on the previous client are allowed to finish -
+	 *    uploads included, which have no read timeout.  The previous pool is closed
+	 *    once its last connection has been released.  Configuring a transport that
+	 *    was shut down starts it again.</p>
+	 *
+	 * @param maxConnections Maximum number of pooled connections in total
+	 * @param maxConnectionsPerRoute Maximum number of pooled connections to a single host
+	 * @param connectTimeout Connect timeout in milliseconds
+	 * @param readTimeout Socket read timeout in milliseconds
+	 * @param keepAlive How long to keep a connection alive in milliseconds if the server doesn't say
+	 * @param idleTimeout How long a connection may sit idle in the pool before it is closed, in milliseconds
+	 */
+	public synchronized void configure(Integer maxConnections, Integer maxConnectionsPerRoute, Integer connectTimeout, Integer readTimeout, Long keepAlive, Long idleTimeout){
+		ThreadSafeClientConnManager newManager = new ThreadSafeClientConnManager(SchemeRegistryFactory.createDefault());
+		newManager.setMaxTotal(maxConnections);
+		newManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		HttpParams params = new BasicHttpParams();
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeout);
+		HttpConnectionParams.setSoTimeout(params, readTimeout);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		// ConnManagerPNames.TIMEOUT - how long to wait for a pooled connection
+		params.setLongParameter("http.conn-manager.timeout", connectTimeout);
+
+		DefaultHttpClient newClient = new DefaultHttpClient(newManager, params);
+		newClient.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+				while(it.hasNext()){
+					HeaderElement element = it.nextElement();
+					if("timeout".equalsIgnoreCase(element.getName()) && (element.getValue() != null)){
+						try{
+							return Long.parseLong(element.getValue()) * 1000;
+						}
+						catch(NumberFormatException nfe){
+							// Fall through to the configured default
+						}
+					}
+				}
+				return MediaApiTransport.this.keepAlive;
+			}
+		});
+		newClient.addRequestInterceptor(new RequestAcceptEncoding());
+		newClient.addResponseInterceptor(new ResponseContentEncoding());
+
+		final ThreadSafeClientConnManager oldManager = connectionManager;
+
+		this.maxConnections         = maxConnections;
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+		this.connectTimeout         = connectTimeout;
+		this.keepAlive              = keepAlive;
+		this.idleTimeout            = idleTimeout;
+		this.readTimeout            = readTimeout;
+		this.connectionManager      = newManager;
+		this.httpClient             = newClient;
+
+		if(oldManager != null){
+			retire(oldManager);
+		}
+		if(evictor == null){
+			startEvictor();
+		}
+
+		log.info("Media API transport configured: maxConnections=" + maxConnections + ", maxConnectionsPerRoute=" + maxConnectionsPerRoute + ", connectTimeout=" + connectTimeout + ", readTimeout=" + readTimeout + ", keepAlive=" + keepAlive + ", idleTimeout=" + idleTimeout);
+	}
+
+	private void startEvictor(){
+		evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "brightcove-http-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictConnections();
+			}
+		}, EVICTION_INTERVAL, EVICTION_INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * <p>Closes the idle connections of a replaced pool, and the pool itself once none are leased out.</p>
+	 */
+	private void retire(ThreadSafeClientConnManager manager){
+		try{
+			manager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+			if(manager.getConnectionsInPool() > 0){
+				if(!retiredManagers.contains(manager)){
+					retiredManagers.add(manager);
+				}
+				return;
+			}
+			manager.shutdown();
+		}
+		catch(RuntimeException re){
+			log.warn("Couldn't close replaced Media API connection pool: '" + re + "'.");
+		}
+		retiredManagers.remove(manager);
+	}
+
+	/**
+	 * <p>Gets the pooled client.  The client is thread-safe and must not be shut down by callers.</p>
+	 *
+	 * @return Pooled HttpClient
+	 */
+	public HttpClient getHttpClient(){
+		return httpClient;
+	}
+
+	/**
+	 * @return Socket read timeout in milliseconds currently in use
+	 */
+	public Integer getReadTimeout(){
+		return readTimeout;
+	}
+
+	/**
+	 * @return Number of connections currently held by the pool
+	 */
+	public Integer getConnectionsInPool(){
+		return connectionManager.getConnectionsInPool();
+	}
+
+	/**
+	 * <p>Closes expired connections and connections that have been idle for longer than the idle timeout,
+	 *    and closes replaced pools whose connections have all been released.</p>
+	 */
+	public void evictConnections(){
+		for(ThreadSafeClientConnManager retired : retiredManagers){
+			retire(retired);
+		}
+
+		ThreadSafeClientConnManager manager = connectionManager;
+		try{
+			manager.closeExpiredConnections();
+			manager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch(RuntimeException re){
+			log.warn("Couldn't evict idle Media API connections: '" + re + "'.");
+		}
+	}
+
+	/**
+	 * <p>Starts a transport that was shut down again, with the settings it last had.  Does nothing if it's running.</p>
+	 */
+	public synchronized void start(){
+		if(evictor == null){
+			configure(maxConnections, maxConnectionsPerRoute, connectTimeout, readTimeout, keepAlive, idleTimeout);
+		}
+	}
+
+	/**
+	 * <p>Closes all pooled connections and stops the eviction thread.  Requests still
+	 *    running are aborted.  The transport can't be used again until it is started or configured.</p>
+	 */
+	public synchronized void shutdown(){
+		if(evictor != null){
+			evictor.shutdownNow();
+			evictor = null;
+		}
+		for(ThreadSafeClientConnManager retired : retiredManagers){
+			retired.shutdown();
+		}
+		retiredManagers.clear();
+		connectionManager.shutdown();
+		log.info("Media API transport shut down.");
+	}
+}
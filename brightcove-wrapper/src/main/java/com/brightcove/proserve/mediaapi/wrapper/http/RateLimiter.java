@@ -0,0 +1,245 @@
+package com.brightcove.proserve.mediaapi.wrapper.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+
+/**
+ * <p>Token-bucket limiter for the requests sent with a single Media API token.</p>
+ *
+ * <p>The bucket refills at the configured rate and holds at most <code>burst</code>
+ *    permits, so short bursts go straight through while the long-run rate stays under
+ *    the account quota.  Once the bucket is empty each caller reserves the next free
+ *    slot in arrival order (through a fair lock) and then waits for it outside the
+ *    lock, so callers are served first come, first served.</p>
+ *
+ * <p>What happens when no permit is free depends on the mode:<ul>
+ *  <li>BLOCK - wait as long as it takes</li>
+ *  <li>TIMEOUT - wait up to the timeout, otherwise fail with RATE_LIMITED</li>
+ *  <li>REJECT - fail with RATE_LIMITED straight away</li>
+ * </ul></p>
+ *
+ * <p>A rate of zero turns limiting off.</p>
+ */
+public class RateLimiter {
+	/**
+	 * <p>Behaviour when the budget is used up.</p>
+	 */
+	public enum Mode {
+		BLOCK, TIMEOUT, REJECT
+	}
+
+	public static final Integer DEFAULT_REQUESTS_PER_HOUR = 0;
+	public static final Integer DEFAULT_BURST             = 100;
+	public static final Mode    DEFAULT_MODE              = Mode.BLOCK;
+	public static final Long    DEFAULT_TIMEOUT           = 10000l;
+
+	private static final Long NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+
+	private static final ConcurrentMap<String, RateLimiter> limiters = new ConcurrentHashMap<String, RateLimiter>();
+
+	private static volatile Integer defaultRequestsPerHour = DEFAULT_REQUESTS_PER_HOUR;
+	private static volatile Integer defaultBurst           = DEFAULT_BURST;
+	private static volatile Mode    defaultMode            = DEFAULT_MODE;
+	private static volatile Long    defaultTimeout         = DEFAULT_TIMEOUT;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+
+	private volatile Integer requestsPerHour;
+	private volatile Mode    mode;
+	private volatile Long    timeout;
+
+	private double maxPermits;
+	private double storedPermits;
+	private double intervalNanos;
+	private long   nextFreeNanos;
+
+	private final AtomicInteger waitingCalls  = new AtomicInteger();
+	private final AtomicLong    grantedCalls  = new AtomicLong();
+	private final AtomicLong    rejectedCalls = new AtomicLong();
+
+	/**
+	 * <p>Creates a stand-alone limiter.  Most callers should use {@link #forToken(String)}.</p>
+	 *
+	 * @param requestsPerHour Sustained request rate allowed (0 disables limiting)
+	 * @param burst Number of requests that may be sent at once after a quiet period
+	 * @param mode What to do once the budget is used up
+	 * @param timeout Longest wait in TIMEOUT mode, in milliseconds
+	 */
+	public RateLimiter(Integer requestsPerHour, Integer burst, Mode mode, Long timeout){
+		this.nextFreeNanos = System.nanoTime();
+		configure(requestsPerHour, burst, mode, timeout);
+		this.storedPermits = maxPermits;
+	}
+
+	/**
+	 * <p>Gets the shared limiter for a Media API token, creating it on first use.</p>
+	 *
+	 * @param token Read or write token
+	 * @return Limiter for the token
+	 */
+	public static RateLimiter forToken(String token){
+		RateLimiter limiter = limiters.get(token);
+		if(limiter == null){
+			RateLimiter newLimiter = new RateLimiter(defaultRequestsPerHour, defaultBurst, defaultMode, defaultTimeout);
+			limiter = limiters.putIfAbsent(token, newLimiter);
+			if(limiter == null){
+				limiter = newLimiter;
+			}
+		}
+		return limiter;
+	}
+
+	/**
+	 * <p>Applies the settings to all shared limiters, including ones created later.</p>
+	 *
+	 * @see #RateLimiter(Integer, Integer, Mode, Long)
+	 */
+	public static void configureAll(Integer requestsPerHour, Integer burst, Mode mode, Long timeout){
+		defaultRequestsPerHour = requestsPerHour;
+		defaultBurst           = burst;
+		defaultMode            = mode;
+		defaultTimeout         = timeout;
+		for(RateLimiter limiter : limiters.values()){
+			limiter.configure(requestsPerHour, burst, mode, timeout);
+		}
+	}
+
+	/**
+	 * <p>Changes the settings of this limiter.  Permits already stored are kept, up to the new burst size.</p>
+	 *
+	 * @see #RateLimiter(Integer, Integer, Mode, Long)
+	 */
+	public void configure(Integer requestsPerHour, Integer burst, Mode mode, Long timeout){
+		lock.lock();
+		try{
+			resync(System.nanoTime());
+			this.requestsPerHour = (requestsPerHour == null) ? 0 : requestsPerHour;
+			this.mode            = (mode == null) ? DEFAULT_MODE : mode;
+			this.timeout         = (timeout == null) ? DEFAULT_TIMEOUT : timeout;
+			this.maxPermits      = ((burst == null) || (burst < 1)) ? 1 : burst;
+			this.storedPermits   = Math.min(storedPermits, maxPermits);
+			this.intervalNanos   = (this.requestsPerHour > 0) ? ((double)NANOS_PER_HOUR / this.requestsPerHour) : 0;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * <p>Takes a permit to send one request, waiting for it if the mode allows.</p>
+	 *
+	 * @throws WrapperException RATE_LIMITED if no permit could be had within the mode's limits, or the wait was interrupted
+	 */
+	public void acquire() throws WrapperException {
+		if(requestsPerHour <= 0){
+			return;
+		}
+
+		long waitNanos = reserve();
+		if(waitNanos < 0){
+			rejectedCalls.incrementAndGet();
+			throw new WrapperException(WrapperExceptionCode.RATE_LIMITED, "Request budget of " + requestsPerHour + " requests per hour used up (" + mode + ").");
+		}
+
+		grantedCalls.incrementAndGet();
+		if(waitNanos > 0){
+			waitingCalls.incrementAndGet();
+			try{
+				TimeUnit.NANOSECONDS.sleep(waitNanos);
+			}
+			catch(InterruptedException ie){
+				Thread.currentThread().interrupt();
+				throw new WrapperException(WrapperExceptionCode.RATE_LIMITED, "Interrupted while waiting for the request budget.");
+			}
+			finally{
+				waitingCalls.decrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * <p>Reserves the next free permit.</p>
+	 *
+	 * @return How long to wait for the permit in nanoseconds, or -1 if none may be reserved
+	 */
+	private long reserve() throws WrapperException {
+		Mode currentMode = mode;
+		try{
+			if(currentMode == Mode.REJECT){
+				if(!lock.tryLock()){
+					return -1;
+				}
+			}
+			else if(currentMode == Mode.TIMEOUT){
+				if(!lock.tryLock(timeout, TimeUnit.MILLISECONDS)){
+					return -1;
+				}
+			}
+			else{
+				lock.lockInterruptibly();
+			}
+		}
+		catch(InterruptedException ie){
+			Thread.currentThread().interrupt();
+			throw new WrapperException(WrapperExceptionCode.RATE_LIMITED, "Interrupted while waiting for the request budget.");
+		}
+
+		try{
+			long now = System.nanoTime();
+			resync(now);
+
+			long waitNanos = Math.max(0, nextFreeNanos - now);
+			if((currentMode == Mode.REJECT) && (waitNanos > 0)){
+				return -1;
+			}
+			if((currentMode == Mode.TIMEOUT) && (waitNanos > TimeUnit.MILLISECONDS.toNanos(timeout))){
+				return -1;
+			}
+
+			double fromStore = Math.min(1, storedPermits);
+			storedPermits -= fromStore;
+			nextFreeNanos += (long)((1 - fromStore) * intervalNanos);
+			return waitNanos;
+		}
+		finally{
+			lock.unlock();
+		}
+	}
+
+	private void resync(long now){
+		if((now > nextFreeNanos) && (intervalNanos > 0)){
+			storedPermits = Math.min(maxPermits, storedPermits + ((now - nextFreeNanos) / intervalNanos));
+			nextFreeNanos = now;
+		}
+	}
+
+	public Integer getRequestsPerHour(){
+		return requestsPerHour;
+	}
+
+	public Mode getMode(){
+		return mode;
+	}
+
+	/**
+	 * @return Number of callers currently waiting for a permit
+	 */
+	public Integer getWaitingCalls(){
+		return waitingCalls.get();
+	}
+
+	public Long getGrantedCalls(){
+		return grantedCalls.get();
+	}
+
+	public Long getRejectedCalls(){
+		return rejectedCalls.get();
+	}
+}
@@ -0,0 +1,158 @@
+package com.brightcove.proserve.mediaapi.wrapper.http;
+
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.MediaApiException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+
+/**
+ * <p>Retries idempotent Media API calls that failed for a transient reason.</p>
+ *
+ * <p>Delays grow exponentially from the base delay up to the maximum delay, with
+ *    "full jitter" - each delay is picked at random between zero and the current
+ *    cap - so that many callers failing together don't retry in lock step.</p>
+ *
+ * <p>Socket read timeouts are not retried: the call already held the thread for
+ *    the whole read timeout, and repeating it would hold it that long again.</p>
+ *
+ * <p>Only use this for reads; write commands are not safe to repeat.</p>
+ */
+public class RetryPolicy {
+	public static final Integer DEFAULT_MAX_ATTEMPTS = 3;
+	public static final Long    DEFAULT_BASE_DELAY   = 200l;
+	public static final Long    DEFAULT_MAX_DELAY    = 2000l;
+
+	// Media API error returned when a call takes too long on the Brightcove side
+	public static final Integer MEDIA_API_CALL_TIMEOUT = 103;
+
+	private static volatile RetryPolicy defaultPolicy = new RetryPolicy(DEFAULT_MAX_ATTEMPTS, DEFAULT_BASE_DELAY, DEFAULT_MAX_DELAY);
+
+	private final Integer maxAttempts;
+	private final Long    baseDelay;
+	private final Long    maxDelay;
+	private final Random  random = new Random();
+
+	/**
+	 * @param maxAttempts Total number of attempts, including the first one (1 disables retries)
+	 * @param baseDelay Cap on the delay before the first retry, in milliseconds
+	 * @param maxDelay Cap on the delay before any retry, in milliseconds
+	 */
+	public RetryPolicy(Integer maxAttempts, Long baseDelay, Long maxDelay){
+		this.maxAttempts = (maxAttempts == null || maxAttempts < 1) ? 1 : maxAttempts;
+		this.baseDelay   = baseDelay;
+		this.maxDelay    = maxDelay;
+	}
+
+	/**
+	 * @return Policy used by ReadApi instances that haven't been given one
+	 */
+	public static RetryPolicy getDefault(){
+		return defaultPolicy;
+	}
+
+	/**
+	 * @param policy Policy to use for ReadApi instances that haven't been given one
+	 */
+	public static void setDefault(RetryPolicy policy){
+		defaultPolicy = policy;
+	}
+
+	/**
+	 * <p>Tells whether a failure is likely to be temporary - I/O errors, read timeouts,
+	 *    5xx or 429 responses, and the Media API's own call timeout error.  Bad requests,
+	 *    bad tokens and parse errors are not.  Circuit breakers count these failures.</p>
+	 *
+	 * @param be Exception thrown by a Media API call
+	 * @return True if the call may succeed when repeated
+	 */
+	public static boolean isTransientFailure(BrightcoveException be){
+		if(be instanceof WrapperException){
+			WrapperException we = (WrapperException)be;
+			if((we.getCode() == WrapperExceptionCode.MAPI_IO_EXCEPTION) || (we.getCode() == WrapperExceptionCode.MAPI_READ_TIMEOUT)){
+				return true;
+			}
+			if(we.getCode() == WrapperExceptionCode.HTTP_ERROR_RESPONSE_CODE){
+				Integer status = we.getHttpStatusCode();
+				return (status == null) || (status >= 500) || (status == 429);
+			}
+			return false;
+		}
+		if(be instanceof MediaApiException){
+			return MEDIA_API_CALL_TIMEOUT.equals(((MediaApiException)be).getResponseCode());
+		}
+		return false;
+	}
+
+	/**
+	 * <p>Tells whether a failed call should be repeated - any transient failure except a read timeout.</p>
+	 *
+	 * @param be Exception thrown by a Media API call
+	 * @return True if the call should be retried
+	 */
+	public static boolean isRetryable(BrightcoveException be){
+		if((be instanceof WrapperException) && (((WrapperException)be).getCode() == WrapperExceptionCode.MAPI_READ_TIMEOUT)){
+			return false;
+		}
+		return isTransientFailure(be);
+	}
+
+	/**
+	 * <p>Runs the call through the circuit breaker, retrying transient failures other than read timeouts.</p>
+	 *
+	 * @param breaker Circuit breaker for the host being called
+	 * @param call Call to run
+	 * @return Result of the first successful attempt
+	 * @throws BrightcoveException Exception from the last attempt, or CIRCUIT_OPEN if the breaker refused the call
+	 */
+	public <T> T execute(CircuitBreaker breaker, Callable<T> call) throws BrightcoveException {
+		Integer attempt = 1;
+		while(true){
+			try{
+				return breaker.execute(call);
+			}
+			catch(BrightcoveException be){
+				if((attempt >= maxAttempts) || !isRetryable(be)){
+					throw be;
+				}
+				try{
+					Thread.sleep(getDelay(attempt));
+				}
+				catch(InterruptedException ie){
+					Thread.currentThread().interrupt();
+					throw be;
+				}
+				attempt++;
+			}
+		}
+	}
+
+	/**
+	 * @param attempt Number of attempts made so far
+	 * @return Delay before the next attempt, in milliseconds
+	 */
+	public Long getDelay(Integer attempt){
+		long cap = baseDelay;
+		for(int idx=1;(idx<attempt) && (cap < maxDelay);idx++){
+			cap *= 2;
+		}
+		cap = Math.min(cap, maxDelay);
+		synchronized(random){
+			return (long)(random.nextDouble() * cap);
+		}
+	}
+
+	public Integer getMaxAttempts(){
+		return maxAttempts;
+	}
+
+	public Long getBaseDelay(){
+		return baseDelay;
+	}
+
+	public Long getMaxDelay(){
+		return maxDelay;
+	}
+}
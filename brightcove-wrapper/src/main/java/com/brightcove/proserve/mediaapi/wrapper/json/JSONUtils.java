@@ -2,51 +2,153 @@ package com.brightcove.proserve.mediaapi.wrapper.json;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
 
 import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
 
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.MediaApiException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperException;
 import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
 
 public class JSONUtils {
+	public static final String DEFAULT_CHARSET = "UTF-8";
+
+	private static final int BUFFER_SIZE = 8192;
+
 	public static String parseHttpEntity(HttpEntity entity) throws BrightcoveException {
 		if(entity == null){
 			return null;
 		}
-		
-		String      output   = "";
-	    InputStream instream = null;
-	    try{
-	    	instream = entity.getContent();
-	    }
-	    catch(IOException ioe){
-			throw new WrapperException(WrapperExceptionCode.MAPI_IO_EXCEPTION, "Exception: '" + ioe + "'");
-	    }
-	    catch(IllegalStateException ise){
+
+		Reader reader = openReader(entity, DEFAULT_CHARSET);
+		try{
+			StringBuilder output = new StringBuilder();
+			char[]        tmp    = new char[BUFFER_SIZE];
+			int           length;
+			while((length = reader.read(tmp)) != -1){
+				output.append(tmp, 0, length);
+			}
+			return output.toString();
+		}
+		catch(IOException ioe){
+			throw WrapperException.fromIOException(ioe);
+		}
+		finally{
+			close(reader);
+		}
+	}
+
+	/**
+	 * <p>Streams a Media API response straight into a result object, without
+	 *    reading the body into a String or an org.json tree first.</p>
+	 *
+	 * <p>The body is decoded using the charset declared by the server, or the default charset given if none.
+	 *    Error responses are turned into a MediaApiException.  The entity is always
+	 *    fully released, so the connection can go back to the pool.</p>
+	 *
+	 * @param entity Response entity
+	 * @param defaultCharset Charset to decode with if the server doesn't declare one
+	 * @param handler Builds the result from the top-level fields of the response
+	 * @return Result from the handler, or null if the Media API returned "null"
+	 * @throws BrightcoveException If the response couldn't be read or parsed, or reports an error
+	 */
+	public static <T> T parseHttpEntity(HttpEntity entity, String defaultCharset, MediaApiResponseHandler<T> handler) throws BrightcoveException {
+		if(entity == null){
+			return null;
+		}
+
+		Reader reader = openReader(entity, defaultCharset);
+		try{
+			JsonStreamReader json = new JsonStreamReader(reader);
+
+			// Certain responses from the cache don't really return useful
+			// JSON - e.g. an invalid reference id in a find_video_by_reference_id
+			// will simply return the string "null"
+			if((json.peek() == JsonStreamReader.Token.NULL) || (json.peek() == JsonStreamReader.Token.END_DOCUMENT)){
+				return null;
+			}
+
+			JSONObject errorObj = null;
+			json.beginObject();
+			while(json.hasNext()){
+				String name = json.nextName();
+				if("error".equals(name) || "code".equals(name) || "result".equals(name)){
+					if(errorObj == null){
+						errorObj = new JSONObject();
+					}
+					errorObj.put(name, json.readValue());
+				}
+				else{
+					handler.readField(name, json);
+				}
+			}
+			json.endObject();
+
+			// Try to see if there was an error
+			if(errorObj != null){
+				MediaApiException mapie = new MediaApiException(errorObj);
+				if((mapie.getResponseCode() == null) && (errorObj.opt("error") instanceof String)){
+					// Plain {"error": "invalid token", "code": 210} form - the
+					// response has no items to fall back on, so report it here
+					mapie.setResponseCode(errorObj.optInt("code", MediaApiException.MEDIA_API_ERROR_UNPARSABLE));
+					mapie.setResponseMessage((String)errorObj.opt("error"));
+				}
+				if(mapie.getResponseCode() != null){
+					throw mapie;
+				}
+			}
+
+			return handler.getResult();
+		}
+		catch(JSONException jsone){
+			throw new WrapperException(handler.getUnparsableCode(), "Couldn't parse " + handler.getDescription() + " from JSON.  Exception caught: '" + jsone + "'.");
+		}
+		catch(IOException ioe){
+			throw WrapperException.fromIOException(ioe);
+		}
+		finally{
+			close(reader);
+		}
+	}
+
+	private static Reader openReader(HttpEntity entity, String defaultCharset) throws BrightcoveException {
+		InputStream instream = null;
+		try{
+			instream = entity.getContent();
+		}
+		catch(IOException ioe){
+			throw WrapperException.fromIOException(ioe);
+		}
+		catch(IllegalStateException ise){
 			throw new WrapperException(WrapperExceptionCode.MAPI_ILLEGAL_STATE_RESPONSE, "Exception: '" + ise + "'");
-	    }
-	    
-	    int length;
-	    byte[] tmp = new byte[2048];
-	    try{
-	    	while ((length = instream.read(tmp)) != -1) {
-	    		if(length < 2048){
-	    			byte[] tmp2 = new byte[length];
-	    			for(int tmpIdx=0;tmpIdx<length;tmpIdx++){
-	    				tmp2[tmpIdx] = tmp[tmpIdx];
-	    			}
-	    			output += (new String(tmp2));
-	    		}
-	    		else{
-	    			output += (new String(tmp));
-	    		}
-	    	}
-		}
-	    catch(IOException ioe){
-			throw new WrapperException(WrapperExceptionCode.MAPI_IO_EXCEPTION, "Exception: '" + ioe + "'");
-	    }
-	    
-	    return output;
+		}
+
+		String charset = EntityUtils.getContentCharSet(entity);
+		if(charset == null){
+			charset = (defaultCharset == null) ? DEFAULT_CHARSET : defaultCharset;
+		}
+
+		try{
+			return new InputStreamReader(instream, charset);
+		}
+		catch(UnsupportedEncodingException uee){
+			close(instream);
+			throw new WrapperException(WrapperExceptionCode.MAPI_UNPARSABLE_RESPONSE, "Unsupported response charset '" + charset + "'");
+		}
+	}
+
+	private static void close(java.io.Closeable closeable){
+		try{
+			closeable.close();
+		}
+		catch(IOException ioe){
+			// Nothing more to do - the pool discards the connection
+		}
 	}
 }
@@ -0,0 +1,487 @@
+package com.brightcove.proserve.mediaapi.wrapper.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * <p>Pull tokenizer for JSON text.</p>
+ *
+ * <p>Reads the document a token at a time from a Reader, so that Media API
+ *    responses can be turned into API objects as they arrive instead of being
+ *    read into a String and an org.json tree first.  Only the current token is
+ *    held in memory; {@link #readValue()} can still be used to build an org.json
+ *    value for small parts of a document (e.g. an error object).</p>
+ *
+ * <p>Not thread-safe - a reader belongs to the one response it reads.</p>
+ */
+public class JsonStreamReader {
+	/**
+	 * <p>Kinds of token the reader can be positioned on.</p>
+	 */
+	public enum Token {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		NAME,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END_DOCUMENT
+	}
+
+	private static final int BUFFER_SIZE = 8192;
+
+	// Scope markers for the container stack
+	private static final int EMPTY_OBJECT    = 1;
+	private static final int NONEMPTY_OBJECT = 2;
+	private static final int DANGLING_NAME   = 3;
+	private static final int EMPTY_ARRAY     = 4;
+	private static final int NONEMPTY_ARRAY  = 5;
+	private static final int EMPTY_DOCUMENT  = 6;
+	private static final int FULL_DOCUMENT   = 7;
+
+	private final Reader        in;
+	private final char[]        buffer = new char[BUFFER_SIZE];
+	private final StringBuilder text   = new StringBuilder();
+
+	private int pos   = 0;
+	private int limit = 0;
+
+	private int[] stack     = new int[32];
+	private int   stackSize = 0;
+
+	private Token  peeked = null;
+	private String value  = null;
+
+	/**
+	 * <p>Creates a reader over the character stream given.  The caller remains responsible for closing it.</p>
+	 *
+	 * @param in JSON text
+	 */
+	public JsonStreamReader(Reader in){
+		this.in = in;
+		push(EMPTY_DOCUMENT);
+	}
+
+	/**
+	 * <p>Gets the type of the next token without consuming it.</p>
+	 *
+	 * @return Type of the next token
+	 */
+	public Token peek() throws JSONException, IOException {
+		if(peeked == null){
+			peeked = advance();
+		}
+		return peeked;
+	}
+
+	/**
+	 * @return True if the current object or array has another element
+	 */
+	public boolean hasNext() throws JSONException, IOException {
+		Token token = peek();
+		return (token != Token.END_OBJECT) && (token != Token.END_ARRAY) && (token != Token.END_DOCUMENT);
+	}
+
+	public void beginObject() throws JSONException, IOException {
+		expect(Token.BEGIN_OBJECT);
+	}
+
+	public void endObject() throws JSONException, IOException {
+		expect(Token.END_OBJECT);
+	}
+
+	public void beginArray() throws JSONException, IOException {
+		expect(Token.BEGIN_ARRAY);
+	}
+
+	public void endArray() throws JSONException, IOException {
+		expect(Token.END_ARRAY);
+	}
+
+	/**
+	 * @return Name of the next object member
+	 */
+	public String nextName() throws JSONException, IOException {
+		expect(Token.NAME);
+		return value;
+	}
+
+	/**
+	 * <p>Reads the next value as a String.  Numbers and booleans are returned as their JSON text.</p>
+	 *
+	 * @return The value, or null for a JSON null
+	 */
+	public String nextString() throws JSONException, IOException {
+		Token token = peek();
+		if(token == Token.NULL){
+			peeked = null;
+			return null;
+		}
+		if((token != Token.STRING) && (token != Token.NUMBER) && (token != Token.BOOLEAN)){
+			throw syntaxError("Expected a string but was " + token);
+		}
+		peeked = null;
+		return value;
+	}
+
+	/**
+	 * @return The next value as a Long (quoted numbers are accepted), or null for a JSON null
+	 */
+	public Long nextLong() throws JSONException, IOException {
+		String number = nextNumberText();
+		if(number == null){
+			return null;
+		}
+		try{
+			return Long.valueOf(number);
+		}
+		catch(NumberFormatException nfe){
+			try{
+				return (long)Double.parseDouble(number);
+			}
+			catch(NumberFormatException nfe2){
+				throw syntaxError("Expected a number but was '" + number + "'");
+			}
+		}
+	}
+
+	/**
+	 * @return The next value as an Integer (quoted numbers are accepted), or null for a JSON null
+	 */
+	public Integer nextInt() throws JSONException, IOException {
+		Long number = nextLong();
+		return (number == null) ? null : number.intValue();
+	}
+
+	/**
+	 * @return The next value as a Boolean (quoted booleans are accepted), or null for a JSON null
+	 */
+	public Boolean nextBoolean() throws JSONException, IOException {
+		String bool = nextString();
+		if(bool == null){
+			return null;
+		}
+		if("true".equalsIgnoreCase(bool)){
+			return true;
+		}
+		if("false".equalsIgnoreCase(bool)){
+			return false;
+		}
+		throw syntaxError("Expected a boolean but was '" + bool + "'");
+	}
+
+	/**
+	 * <p>Consumes a JSON null.</p>
+	 */
+	public void nextNull() throws JSONException, IOException {
+		expect(Token.NULL);
+	}
+
+	/**
+	 * <p>Skips the next value, including everything nested inside it.</p>
+	 */
+	public void skipValue() throws JSONException, IOException {
+		int depth = 0;
+		do{
+			Token token = peek();
+			peeked = null;
+			if((token == Token.BEGIN_OBJECT) || (token == Token.BEGIN_ARRAY)){
+				depth++;
+			}
+			else if((token == Token.END_OBJECT) || (token == Token.END_ARRAY)){
+				depth--;
+			}
+			else if(token == Token.END_DOCUMENT){
+				throw syntaxError("Unexpected end of document");
+			}
+		} while(depth > 0);
+	}
+
+	/**
+	 * <p>Reads the next value into an org.json value - a JSONObject, JSONArray,
+	 *    String, Long, Double, Boolean or JSONObject.NULL.</p>
+	 *
+	 * <p>Meant for small fragments only; the point of this reader is to avoid building trees for whole responses.</p>
+	 *
+	 * @return The value
+	 */
+	public Object readValue() throws JSONException, IOException {
+		Token token = peek();
+		switch(token){
+			case BEGIN_OBJECT:
+				JSONObject obj = new JSONObject();
+				beginObject();
+				while(hasNext()){
+					String name = nextName();
+					obj.put(name, readValue());
+				}
+				endObject();
+				return obj;
+			case BEGIN_ARRAY:
+				List<Object> items = new ArrayList<Object>();
+				beginArray();
+				while(hasNext()){
+					items.add(readValue());
+				}
+				endArray();
+				return new JSONArray(items);
+			case STRING:
+				return nextString();
+			case NUMBER:
+				String number = nextString();
+				try{
+					return Long.valueOf(number);
+				}
+				catch(NumberFormatException nfe){
+					return Double.valueOf(number);
+				}
+			case BOOLEAN:
+				return nextBoolean();
+			case NULL:
+				nextNull();
+				return JSONObject.NULL;
+			default:
+				throw syntaxError("Expected a value but was " + token);
+		}
+	}
+
+	private String nextNumberText() throws JSONException, IOException {
+		Token token = peek();
+		if(token == Token.NULL){
+			peeked = null;
+			return null;
+		}
+		if((token != Token.NUMBER) && (token != Token.STRING)){
+			throw syntaxError("Expected a number but was " + token);
+		}
+		peeked = null;
+		return value.trim();
+	}
+
+	private void expect(Token expected) throws JSONException, IOException {
+		Token token = peek();
+		if(token != expected){
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		peeked = null;
+	}
+
+	// ------------------------------ Tokenizer ------------------------------
+
+	private Token advance() throws JSONException, IOException {
+		int scope = stack[stackSize - 1];
+
+		if(scope == EMPTY_ARRAY){
+			stack[stackSize - 1] = NONEMPTY_ARRAY;
+			int c = nextNonWhitespace();
+			if(c == ']'){
+				stackSize--;
+				return Token.END_ARRAY;
+			}
+			if(c == -1){
+				// Nothing to step back over - fill() may have reset pos to 0
+				throw syntaxError("Unexpected end of document");
+			}
+			pos--;
+		}
+		else if(scope == NONEMPTY_ARRAY){
+			int c = nextNonWhitespace();
+			if(c == ']'){
+				stackSize--;
+				return Token.END_ARRAY;
+			}
+			if(c != ','){
+				throw syntaxError("Unterminated array");
+			}
+		}
+		else if((scope == EMPTY_OBJECT) || (scope == NONEMPTY_OBJECT)){
+			stack[stackSize - 1] = DANGLING_NAME;
+			int c = nextNonWhitespace();
+			if(c == '}'){
+				stackSize--;
+				return Token.END_OBJECT;
+			}
+			if(scope == NONEMPTY_OBJECT){
+				if(c != ','){
+					throw syntaxError("Unterminated object");
+				}
+				c = nextNonWhitespace();
+			}
+			if(c != '"'){
+				throw syntaxError("Expected a quoted name");
+			}
+			value = readString();
+			return Token.NAME;
+		}
+		else if(scope == DANGLING_NAME){
+			stack[stackSize - 1] = NONEMPTY_OBJECT;
+			if(nextNonWhitespace() != ':'){
+				throw syntaxError("Expected ':'");
+			}
+		}
+		else if(scope == EMPTY_DOCUMENT){
+			stack[stackSize - 1] = FULL_DOCUMENT;
+		}
+		else if(scope == FULL_DOCUMENT){
+			if(nextNonWhitespace() != -1){
+				throw syntaxError("Unexpected text after the end of the document");
+			}
+			return Token.END_DOCUMENT;
+		}
+
+		int c = nextNonWhitespace();
+		switch(c){
+			case -1:
+				if(scope == EMPTY_DOCUMENT){
+					return Token.END_DOCUMENT;
+				}
+				throw syntaxError("Unexpected end of document");
+			case '{':
+				push(EMPTY_OBJECT);
+				return Token.BEGIN_OBJECT;
+			case '[':
+				push(EMPTY_ARRAY);
+				return Token.BEGIN_ARRAY;
+			case '"':
+				value = readString();
+				return Token.STRING;
+			default:
+				pos--;
+				return readLiteral();
+		}
+	}
+
+	private Token readLiteral() throws JSONException, IOException {
+		text.setLength(0);
+		while(true){
+			if((pos == limit) && !fill()){
+				break;
+			}
+			char c = buffer[pos];
+			if((c == ',') || (c == '}') || (c == ']') || (c == ':') || (c == ' ') || (c == '\t') || (c == '\r') || (c == '\n')){
+				break;
+			}
+			text.append(c);
+			pos++;
+		}
+		value = text.toString();
+
+		if(value.length() == 0){
+			throw syntaxError("Expected a value");
+		}
+		if("null".equals(value)){
+			return Token.NULL;
+		}
+		if("true".equals(value) || "false".equals(value)){
+			return Token.BOOLEAN;
+		}
+		char first = value.charAt(0);
+		if((first == '-') || ((first >= '0') && (first <= '9'))){
+			return Token.NUMBER;
+		}
+		throw syntaxError("Unexpected value '" + value + "'");
+	}
+
+	private String readString() throws JSONException, IOException {
+		text.setLength(0);
+		while(true){
+			int start = pos;
+			while(pos < limit){
+				char c = buffer[pos++];
+				if(c == '"'){
+					text.append(buffer, start, pos - start - 1);
+					return text.toString();
+				}
+				if(c == '\\'){
+					text.append(buffer, start, pos - start - 1);
+					text.append(readEscape());
+					start = pos;
+				}
+			}
+			text.append(buffer, start, pos - start);
+			if(!fill()){
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private char readEscape() throws JSONException, IOException {
+		if((pos == limit) && !fill()){
+			throw syntaxError("Unterminated escape sequence");
+		}
+		char c = buffer[pos++];
+		switch(c){
+			case 'u':
+				int unicode = 0;
+				for(int hexIdx=0;hexIdx<4;hexIdx++){
+					if((pos == limit) && !fill()){
+						throw syntaxError("Unterminated escape sequence");
+					}
+					int digit = Character.digit(buffer[pos++], 16);
+					if(digit < 0){
+						throw syntaxError("Invalid unicode escape");
+					}
+					unicode = (unicode << 4) + digit;
+				}
+				return (char)unicode;
+			case 'b':
+				return '\b';
+			case 't':
+				return '\t';
+			case 'n':
+				return '\n';
+			case 'f':
+				return '\f';
+			case 'r':
+				return '\r';
+			default:
+				// \" \\ \/ and anything else escaped stand for themselves
+				return c;
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		while(true){
+			if((pos == limit) && !fill()){
+				return -1;
+			}
+			char c = buffer[pos++];
+			if((c != ' ') && (c != '\t') && (c != '\r') && (c != '\n')){
+				return c;
+			}
+		}
+	}
+
+	private boolean fill() throws IOException {
+		pos   = 0;
+		limit = 0;
+		int count = in.read(buffer, 0, buffer.length);
+		if(count <= 0){
+			return false;
+		}
+		limit = count;
+		return true;
+	}
+
+	private void push(int scope){
+		if(stackSize == stack.length){
+			int[] newStack = new int[stackSize * 2];
+			System.arraycopy(stack, 0, newStack, 0, stackSize);
+			stack = newStack;
+		}
+		stack[stackSize++] = scope;
+	}
+
+	private JSONException syntaxError(String message){
+		return new JSONException("[ERR] " + message + " in JSON stream.");
+	}
+}
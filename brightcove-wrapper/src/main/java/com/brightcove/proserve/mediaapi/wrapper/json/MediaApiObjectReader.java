@@ -0,0 +1,451 @@
+package com.brightcove.proserve.mediaapi.wrapper.json;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.json.JSONException;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CuePoint;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CustomField;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Rendition;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.ControllerTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.CuePointTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.EconomicsEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.GeoFilterCodeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.ItemStateEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoCodecEnum;
+
+/**
+ * <p>Fills Video, Playlist, Rendition and CuePoint objects straight from a {@link JsonStreamReader}.</p>
+ *
+ * <p>Field handling follows the JSON constructors on the API objects, so an
+ *    object read here is the same as one built from an org.json tree.</p>
+ */
+public class MediaApiObjectReader {
+	private static final java.util.logging.Logger log = java.util.logging.Logger.getLogger(MediaApiObjectReader.class.getCanonicalName());
+
+	/**
+	 * <p>Reads a video object.</p>
+	 *
+	 * @param reader Reader positioned on the start of the object
+	 * @return The video, or null if the value was a JSON null
+	 */
+	public static Video readVideo(JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			reader.nextNull();
+			return null;
+		}
+
+		Video video = new Video();
+		reader.beginObject();
+		while(reader.hasNext()){
+			readVideoField(video, reader.nextName(), reader);
+		}
+		reader.endObject();
+		return video;
+	}
+
+	/**
+	 * <p>Reads the value of a single video field into the video given.</p>
+	 *
+	 * @param video Video to fill
+	 * @param key Name of the field
+	 * @param reader Reader positioned on the field value
+	 */
+	public static void readVideoField(Video video, String key, JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			// Don't bother setting the attribute, it should already be null
+			reader.nextNull();
+		}
+		else if("name".equals(key)){
+			video.setName(reader.nextString());
+		}
+		else if("id".equals(key)){
+			video.setId(reader.nextLong());
+		}
+		else if("creationDate".equals(key)){
+			video.setCreationDate(new Date(reader.nextLong()));
+		}
+		else if("accountId".equals(key)){
+			video.setAccountId(reader.nextLong());
+		}
+		else if("startDate".equals(key)){
+			video.setStartDate(new Date(reader.nextLong()));
+		}
+		else if("endDate".equals(key)){
+			video.setEndDate(new Date(reader.nextLong()));
+		}
+		else if("FLVFullLength".equals(key) || "videoFullLength".equals(key)){
+			video.setVideoFullLength(readRendition(reader));
+		}
+		else if("itemState".equals(key)){
+			String itemState = reader.nextString();
+			try{
+				video.setItemState(ItemStateEnum.valueOf(itemState));
+			}
+			catch(IllegalArgumentException iae){
+				throw new JSONException("[ERR] Media API specified invalid value for item state '" + itemState + "'.  Acceptable values are 'ACTIVE', 'DELETED' and 'INACTIVE'.");
+			}
+		}
+		else if("geoFilterExclude".equals(key) || "excludeListedCountries".equals(key)){
+			video.setGeoFilteredExclude(reader.nextBoolean());
+		}
+		else if("playsTotal".equals(key)){
+			video.setPlaysTotal(reader.nextInt());
+		}
+		else if("geoFiltered".equals(key) || "geoRestricted".equals(key)){
+			video.setGeoFiltered(reader.nextBoolean());
+		}
+		else if("version".equals(key)){
+			// Not currently handled...
+			reader.skipValue();
+		}
+		else if("playsTrailingWeek".equals(key)){
+			video.setPlaysTrailingWeek(reader.nextInt());
+		}
+		else if("length".equals(key)){
+			video.setLength(reader.nextLong());
+		}
+		else if("thumbnailURL".equals(key)){
+			video.setThumbnailUrl(reader.nextString());
+		}
+		else if("tags".equals(key)){
+			video.setTags(readStrings(reader));
+		}
+		else if("videoStillURL".equals(key)){
+			video.setVideoStillUrl(reader.nextString());
+		}
+		else if("referenceId".equals(key)){
+			video.setReferenceId(reader.nextString());
+		}
+		else if("FLVURL".equals(key)){
+			video.setFlvUrl(reader.nextString());
+		}
+		else if("shortDescription".equals(key)){
+			video.setShortDescription(reader.nextString());
+		}
+		else if("lastModifiedDate".equals(key) || "releaseDate".equals(key)){
+			// releaseDate lands in lastModifiedDate, as it does in Video(JSONObject)
+			video.setLastModifiedDate(new Date(reader.nextLong()));
+		}
+		else if("geoFilteredCountries".equals(key) || "allowedCountries".equals(key)){
+			List<GeoFilterCodeEnum> countries = new ArrayList<GeoFilterCodeEnum>();
+			for(String country : readStrings(reader)){
+				for(GeoFilterCodeEnum gfce : GeoFilterCodeEnum.values()){
+					if(gfce.getCode().equals(country)){
+						countries.add(gfce);
+					}
+				}
+			}
+			video.setGeoFilteredCountries(countries);
+		}
+		else if("economics".equals(key)){
+			String economics = reader.nextString();
+			for(EconomicsEnum ee : EconomicsEnum.values()){
+				if(ee.toString().equals(economics)){
+					video.setEconomics(ee);
+				}
+			}
+		}
+		else if("publishedDate".equals(key)){
+			video.setPublishedDate(new Date(reader.nextLong()));
+		}
+		else if("longDescription".equals(key)){
+			video.setLongDescription(reader.nextString());
+		}
+		else if("linkText".equals(key)){
+			video.setLinkText(reader.nextString());
+		}
+		else if("linkURL".equals(key)){
+			video.setLinkUrl(reader.nextString());
+		}
+		else if("renditions".equals(key)){
+			List<Rendition> renditions = new ArrayList<Rendition>();
+			reader.beginArray();
+			while(reader.hasNext()){
+				Rendition rendition = readRendition(reader);
+				if(rendition != null){
+					renditions.add(rendition);
+				}
+			}
+			reader.endArray();
+			video.setRenditions(renditions);
+		}
+		else if("cuePoints".equals(key)){
+			List<CuePoint> cuePoints = new ArrayList<CuePoint>();
+			reader.beginArray();
+			while(reader.hasNext()){
+				CuePoint cuePoint = readCuePoint(reader);
+				if(cuePoint != null){
+					cuePoints.add(cuePoint);
+				}
+			}
+			reader.endArray();
+			video.setCuePoints(cuePoints);
+		}
+		else if("customFields".equals(key)){
+			List<CustomField> customFields = new ArrayList<CustomField>();
+			reader.beginObject();
+			while(reader.hasNext()){
+				String customKey = reader.nextName();
+				customFields.add(new CustomField(customKey, reader.nextString()));
+			}
+			reader.endObject();
+			video.setCustomFields(customFields);
+		}
+		else{
+			throw new JSONException("[ERR] Unknown root key '" + key + "'='" + reader.readValue() + "'.");
+		}
+	}
+
+	/**
+	 * <p>Reads a playlist object.</p>
+	 *
+	 * @param reader Reader positioned on the start of the object
+	 * @return The playlist, or null if the value was a JSON null
+	 */
+	public static Playlist readPlaylist(JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			reader.nextNull();
+			return null;
+		}
+
+		Playlist playlist = new Playlist();
+		reader.beginObject();
+		while(reader.hasNext()){
+			readPlaylistField(playlist, reader.nextName(), reader);
+		}
+		reader.endObject();
+		return playlist;
+	}
+
+	/**
+	 * <p>Reads the value of a single playlist field into the playlist given.</p>
+	 *
+	 * @param playlist Playlist to fill
+	 * @param key Name of the field
+	 * @param reader Reader positioned on the field value
+	 */
+	public static void readPlaylistField(Playlist playlist, String key, JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			// Don't bother setting the attribute, it should already be null
+			reader.nextNull();
+		}
+		else if("name".equals(key)){
+			playlist.setName(reader.nextString());
+		}
+		else if("id".equals(key)){
+			playlist.setId(reader.nextLong());
+		}
+		else if("accountId".equals(key)){
+			playlist.setAccountId(reader.nextLong());
+		}
+		else if("referenceId".equals(key)){
+			playlist.setReferenceId(reader.nextString());
+		}
+		else if("shortDescription".equals(key)){
+			playlist.setShortDescription(reader.nextString());
+		}
+		else if("thumbnailURL".equals(key)){
+			playlist.setThumbnailUrl(reader.nextString());
+		}
+		else if("videoIds".equals(key)){
+			List<Long> videoIds = new ArrayList<Long>();
+			reader.beginArray();
+			while(reader.hasNext()){
+				videoIds.add(reader.nextLong());
+			}
+			reader.endArray();
+			playlist.setVideoIds(videoIds);
+		}
+		else if("videos".equals(key)){
+			List<Video> videos = new ArrayList<Video>();
+			reader.beginArray();
+			while(reader.hasNext()){
+				Video video = readVideo(reader);
+				if(video != null){
+					videos.add(video);
+				}
+			}
+			reader.endArray();
+			playlist.setVideos(videos);
+		}
+		else if("playlistType".equals(key)){
+			String playlistType = reader.nextString();
+			try{
+				playlist.setPlaylistType(PlaylistTypeEnum.valueOf(playlistType));
+			}
+			catch(IllegalArgumentException iae){
+				throw new JSONException("[ERR] Media API specified invalid value for playlist type '" + playlistType + "'.  Acceptable values are 'OLDEST_TO_NEWEST', 'NEWEST_TO_OLDEST', 'ALPHABETICAL', 'PLAYSTOTAL', 'PLAYS_TRAILING_WEEK', 'EXPLICIT'.");
+			}
+		}
+		else if("filterTags".equals(key)){
+			playlist.setFilterTags(readStrings(reader));
+		}
+		else{
+			throw new JSONException("[ERR] Unknown root key '" + key + "'='" + reader.readValue() + "'.");
+		}
+	}
+
+	/**
+	 * <p>Reads a rendition object.</p>
+	 *
+	 * @param reader Reader positioned on the start of the object
+	 * @return The rendition, or null if the value was a JSON null
+	 */
+	public static Rendition readRendition(JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			reader.nextNull();
+			return null;
+		}
+
+		Rendition rendition = new Rendition();
+		reader.beginObject();
+		while(reader.hasNext()){
+			String key = reader.nextName();
+
+			if(reader.peek() == JsonStreamReader.Token.NULL){
+				reader.nextNull();
+			}
+			else if("encodingRate".equals(key)){
+				rendition.setEncodingRate(reader.nextInt());
+			}
+			else if("referenceId".equals(key)){
+				rendition.setReferenceId(reader.nextString());
+			}
+			else if("url".equals(key)){
+				rendition.setUrl(reader.nextString());
+			}
+			else if("controllerType".equals(key)){
+				String controllerType = reader.nextString();
+				try{
+					rendition.setControllerType(ControllerTypeEnum.valueOf(controllerType));
+				}
+				catch(IllegalArgumentException iae){
+					throw new JSONException("[ERR] Media API specified invalid value for controller type '" + controllerType + "'.  Acceptable values are 'AKAMAI_LIVE' and 'LIMELIGHT_LIVE'.");
+				}
+			}
+			else if("size".equals(key)){
+				rendition.setSize(reader.nextLong());
+			}
+			else if("id".equals(key)){
+				rendition.setId(reader.nextLong());
+			}
+			else if("uploadTimestampMillis".equals(key)){
+				rendition.setUploadTimestampMillis(reader.nextLong());
+			}
+			else if("frameWidth".equals(key)){
+				rendition.setFrameWidth(reader.nextInt());
+			}
+			else if("remoteUrl".equals(key)){
+				rendition.setRemoteUrl(reader.nextString());
+			}
+			else if("remoteStreamName".equals(key)){
+				rendition.setRemoteStreamName(reader.nextString());
+			}
+			else if("displayName".equals(key)){
+				rendition.setDisplayName(reader.nextString());
+			}
+			else if("videoCodec".equals(key)){
+				String videoCodec = reader.nextString();
+				try{
+					rendition.setVideoCodec(VideoCodecEnum.valueOf(videoCodec));
+				}
+				catch(IllegalArgumentException iae){
+					throw new JSONException("[ERR] Media API specified invalid value for video codec '" + videoCodec + "'.  Acceptable values are 'NONE', 'ON2', 'H264' and 'SORENSON'.");
+				}
+			}
+			else if("videoDuration".equals(key)){
+				rendition.setVideoDuration(reader.nextLong());
+			}
+			else if("frameHeight".equals(key)){
+				rendition.setFrameHeight(reader.nextInt());
+			}
+			else if("audioOnly".equals(key)){
+				rendition.setAudioOnly(reader.nextBoolean());
+			}
+			else if("videoContainer".equals(key)){
+				rendition.setVideoContainer(reader.nextString());
+			}
+			else{
+				// Unknown keys are logged rather than failing the whole response, as in Rendition(String)
+				log.warning("[ERR] Unknown root key '" + key + "'='" + reader.readValue() + "'.");
+			}
+		}
+		reader.endObject();
+		return rendition;
+	}
+
+	/**
+	 * <p>Reads a cue point object.</p>
+	 *
+	 * @param reader Reader positioned on the start of the object
+	 * @return The cue point, or null if the value was a JSON null
+	 */
+	public static CuePoint readCuePoint(JsonStreamReader reader) throws JSONException, IOException {
+		if(reader.peek() == JsonStreamReader.Token.NULL){
+			reader.nextNull();
+			return null;
+		}
+
+		CuePoint cuePoint = new CuePoint();
+		reader.beginObject();
+		while(reader.hasNext()){
+			String key = reader.nextName();
+
+			if(reader.peek() == JsonStreamReader.Token.NULL){
+				reader.nextNull();
+			}
+			else if("forceStop".equals(key)){
+				cuePoint.setForceStop(reader.nextBoolean());
+			}
+			else if("id".equals(key)){
+				cuePoint.setId(reader.nextLong());
+			}
+			else if("metadata".equals(key)){
+				cuePoint.setMetadata(reader.nextString());
+			}
+			else if("name".equals(key)){
+				cuePoint.setName(reader.nextString());
+			}
+			else if("time".equals(key)){
+				cuePoint.setTime(reader.nextLong());
+			}
+			else if("type".equals(key)){
+				// Not currently handled - see typeEnum
+				reader.skipValue();
+			}
+			else if("typeEnum".equals(key)){
+				String typeName = reader.nextString();
+				for(CuePointTypeEnum typeEnum : CuePointTypeEnum.values()){
+					if(typeEnum.getName().equals(typeName)){
+						cuePoint.setType(typeEnum);
+					}
+				}
+			}
+			else if("videoId".equals(key)){
+				cuePoint.setVideoId(reader.nextString());
+			}
+			else{
+				throw new JSONException("[ERR] Unknown root key '" + key + "'='" + reader.readValue() + "'.");
+			}
+		}
+		reader.endObject();
+		return cuePoint;
+	}
+
+	private static List<String> readStrings(JsonStreamReader reader) throws JSONException, IOException {
+		List<String> strings = new ArrayList<String>();
+		reader.beginArray();
+		while(reader.hasNext()){
+			strings.add(reader.nextString());
+		}
+		reader.endArray();
+		return strings;
+	}
+}
@@ -0,0 +1,184 @@
+package com.brightcove.proserve.mediaapi.wrapper.json;
+
+import java.io.IOException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.WrapperExceptionCode;
+
+/**
+ * <p>Turns the top-level fields of a streamed Media API response into a result object.</p>
+ *
+ * <p>The caller reads the top-level object and hands every field to
+ *    {@link #readField(String, JsonStreamReader)}, apart from the error fields
+ *    (<code>error</code>, <code>code</code> and <code>result</code>), which it
+ *    collects itself.  A handler is used for a single response only.</p>
+ *
+ * @param <T> Type of result built from the response
+ */
+public abstract class MediaApiResponseHandler<T> {
+	private final WrapperExceptionCode unparsableCode;
+	private final String               description;
+
+	/**
+	 * @param unparsableCode Error code to report if the response can't be parsed
+	 * @param description What the response holds, for error messages (e.g. "video list")
+	 */
+	protected MediaApiResponseHandler(WrapperExceptionCode unparsableCode, String description){
+		this.unparsableCode = unparsableCode;
+		this.description    = description;
+	}
+
+	/**
+	 * <p>Reads the value of one top-level field.</p>
+	 *
+	 * @param name Name of the field
+	 * @param reader Reader positioned on the field value
+	 */
+	public abstract void readField(String name, JsonStreamReader reader) throws JSONException, IOException;
+
+	/**
+	 * @return Result built from the fields read
+	 */
+	public abstract T getResult();
+
+	public WrapperExceptionCode getUnparsableCode(){
+		return unparsableCode;
+	}
+
+	public String getDescription(){
+		return description;
+	}
+
+	/**
+	 * @return Handler for a response that is a single video object
+	 */
+	public static MediaApiResponseHandler<Video> forVideo(){
+		return new MediaApiResponseHandler<Video>(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEO, "video") {
+			private final Video video = new Video();
+
+			public void readField(String name, JsonStreamReader reader) throws JSONException, IOException {
+				MediaApiObjectReader.readVideoField(video, name, reader);
+			}
+
+			public Video getResult() {
+				return video;
+			}
+		};
+	}
+
+	/**
+	 * @return Handler for a response holding a page of videos
+	 */
+	public static MediaApiResponseHandler<Videos> forVideos(){
+		return new MediaApiResponseHandler<Videos>(WrapperExceptionCode.MAPI_UNPARSABLE_VIDEOS, "video list") {
+			private final Videos videos = new Videos();
+
+			{
+				// Matches Videos(JSONObject) when the count isn't reported
+				videos.setTotalCount(-1);
+			}
+
+			public void readField(String name, JsonStreamReader reader) throws JSONException, IOException {
+				if("items".equals(name)){
+					reader.beginArray();
+					while(reader.hasNext()){
+						// Ids that don't match a video come back as null items
+						Video video = MediaApiObjectReader.readVideo(reader);
+						if(video != null){
+							videos.add(video);
+						}
+					}
+					reader.endArray();
+				}
+				else if("total_count".equals(name)){
+					Integer totalCount = reader.nextInt();
+					videos.setTotalCount((totalCount == null) ? -1 : totalCount);
+				}
+				else{
+					reader.skipValue();
+				}
+			}
+
+			public Videos getResult() {
+				return videos;
+			}
+		};
+	}
+
+	/**
+	 * @return Handler for a response that is a single playlist object
+	 */
+	public static MediaApiResponseHandler<Playlist> forPlaylist(){
+		return new MediaApiResponseHandler<Playlist>(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLIST, "playlist") {
+			private final Playlist playlist = new Playlist();
+
+			public void readField(String name, JsonStreamReader reader) throws JSONException, IOException {
+				MediaApiObjectReader.readPlaylistField(playlist, name, reader);
+			}
+
+			public Playlist getResult() {
+				return playlist;
+			}
+		};
+	}
+
+	/**
+	 * @return Handler for a response holding a page of playlists
+	 */
+	public static MediaApiResponseHandler<Playlists> forPlaylists(){
+		return new MediaApiResponseHandler<Playlists>(WrapperExceptionCode.MAPI_UNPARSABLE_PLAYLISTS, "playlist list") {
+			private final Playlists playlists = new Playlists();
+
+			{
+				playlists.setTotalCount(-1);
+			}
+
+			public void readField(String name, JsonStreamReader reader) throws JSONException, IOException {
+				if("items".equals(name)){
+					reader.beginArray();
+					while(reader.hasNext()){
+						Playlist playlist = MediaApiObjectReader.readPlaylist(reader);
+						if(playlist != null){
+							playlists.add(playlist);
+						}
+					}
+					reader.endArray();
+				}
+				else if("total_count".equals(name)){
+					Integer totalCount = reader.nextInt();
+					playlists.setTotalCount((totalCount == null) ? -1 : totalCount);
+				}
+				else{
+					reader.skipValue();
+				}
+			}
+
+			public Playlists getResult() {
+				return playlists;
+			}
+		};
+	}
+
+	/**
+	 * @return Handler that reads the response into an org.json tree, for callers that need the raw object
+	 */
+	public static MediaApiResponseHandler<JSONObject> forJSONObject(){
+		return new MediaApiResponseHandler<JSONObject>(WrapperExceptionCode.MAPI_UNPARSABLE_RESPONSE, "response") {
+			private final JSONObject json = new JSONObject();
+
+			public void readField(String name, JsonStreamReader reader) throws JSONException, IOException {
+				json.put(name, reader.readValue());
+			}
+
+			public JSONObject getResult() {
+				return json;
+			}
+		};
+	}
+}
@@ -0,0 +1,196 @@
+package com.brightcove.proserve.mediaapi.wrapper.paging;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.ReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlist;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Playlists;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.PlaylistFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Reads every page of a paged Media API call.</p>
+ *
+ * <p>The first page is read on the calling thread to learn the total item count;
+ *    the remaining pages are then read concurrently, with at most
+ *    <code>parallelism</code> requests in flight at once.  Pages are always
+ *    returned in page order.</p>
+ *
+ * <p>Items can shift between pages if the catalog changes during a crawl, so the
+ *    video and playlist helpers drop duplicate ids.</p>
+ */
+public class PageCrawler {
+    public static final Integer DEFAULT_PARALLELISM = 4;
+    public static final Integer PAGE_SIZE           = 100;
+
+    private final ExecutorService executor;
+    private final Integer         parallelism;
+
+    /**
+     * <p>Creates a crawler with the default parallelism, running on the shared AsyncReadApi worker pool.</p>
+     */
+    public PageCrawler(){
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * <p>Creates a crawler running on the shared AsyncReadApi worker pool.</p>
+     *
+     * @param parallelism Maximum number of pages to request at once
+     */
+    public PageCrawler(Integer parallelism){
+        this(AsyncReadApi.getSharedExecutor(), parallelism);
+    }
+
+    /**
+     * <p>Creates a crawler running on the executor given.</p>
+     *
+     * @param executor Executor to read pages on
+     * @param parallelism Maximum number of pages to request at once
+     */
+    public PageCrawler(ExecutorService executor, Integer parallelism){
+        this.executor    = executor;
+        this.parallelism = (parallelism == null || parallelism < 1) ? 1 : parallelism;
+    }
+
+    /**
+     * <p>Reads every page from the fetcher.</p>
+     *
+     * @param fetcher Reads a single page
+     * @param pageSize Number of items per page
+     * @return All pages, in page order
+     * @throws BrightcoveException If any page fails to load
+     */
+    public <P extends List<?>> List<P> crawl(final PageFetcher<P> fetcher, final Integer pageSize) throws BrightcoveException {
+        List<P> pages = new ArrayList<P>();
+
+        P first = fetcher.fetchPage(pageSize, 0);
+        pages.add(first);
+
+        Integer totalCount = fetcher.getTotalCount(first);
+        if(totalCount == null || totalCount < 0){
+            // No item count to plan with - read on until a short page comes back
+            P page = first;
+            Integer pageNumber = 1;
+            while(page.size() >= pageSize){
+                page = fetcher.fetchPage(pageSize, pageNumber++);
+                pages.add(page);
+            }
+            return pages;
+        }
+
+        Integer totalPages = (totalCount + pageSize - 1) / pageSize;
+
+        LinkedList<Future<P>> inFlight = new LinkedList<Future<P>>();
+        Integer nextPage = 1;
+        try{
+            while(nextPage < totalPages || !inFlight.isEmpty()){
+                while(nextPage < totalPages && inFlight.size() < parallelism){
+                    final Integer pageNumber = nextPage++;
+                    inFlight.add(executor.submit(new Callable<P>() {
+                        public P call() throws BrightcoveException {
+                            return fetcher.fetchPage(pageSize, pageNumber);
+                        }
+                    }));
+                }
+                pages.add(AsyncReadApi.await(inFlight.removeFirst()));
+            }
+        }
+        finally{
+            for(Future<P> future : inFlight){
+                future.cancel(true);
+            }
+        }
+
+        return pages;
+    }
+
+    /**
+     * <p>Reads the whole video library using FindAllVideos.</p>
+     *
+     * @see ReadApi#FindAllVideos(String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set)
+     */
+    public Videos crawlAllVideos(final ReadApi readApi, final String readToken, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields) throws BrightcoveException {
+        return mergeVideos(crawl(new VideoPageFetcher() {
+            public Videos fetchPage(Integer pageSize, Integer pageNumber) throws BrightcoveException {
+                return readApi.FindAllVideos(readToken, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields);
+            }
+        }, PAGE_SIZE));
+    }
+
+    /**
+     * <p>Reads every video matching a search using SearchVideos.</p>
+     *
+     * @see ReadApi#SearchVideos(String, List, List, List, Boolean, SortByTypeEnum, SortOrderTypeEnum, Integer, Integer, EnumSet, Set)
+     */
+    public Videos crawlSearchVideos(final ReadApi readApi, final String readToken, final List<String> all, final List<String> any, final List<String> none, final Boolean exact, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields) throws BrightcoveException {
+        return mergeVideos(crawl(new VideoPageFetcher() {
+            public Videos fetchPage(Integer pageSize, Integer pageNumber) throws BrightcoveException {
+                return readApi.SearchVideos(readToken, all, any, none, exact, sortBy, sortOrderType, pageSize, pageNumber, videoFields, customFields);
+            }
+        }, PAGE_SIZE));
+    }
+
+    /**
+     * <p>Reads every playlist using FindAllPlaylists.</p>
+     *
+     * @see ReadApi#FindAllPlaylists(String, Integer, Integer, SortByTypeEnum, SortOrderTypeEnum, EnumSet, Set, EnumSet)
+     */
+    public Playlists crawlAllPlaylists(final ReadApi readApi, final String readToken, final SortByTypeEnum sortBy, final SortOrderTypeEnum sortOrderType, final EnumSet<VideoFieldEnum> videoFields, final Set<String> customFields, final EnumSet<PlaylistFieldEnum> playlistFields) throws BrightcoveException {
+        List<Playlists> pages = crawl(new PageFetcher<Playlists>() {
+            public Playlists fetchPage(Integer pageSize, Integer pageNumber) throws BrightcoveException {
+                return readApi.FindAllPlaylists(readToken, pageSize, pageNumber, sortBy, sortOrderType, videoFields, customFields, playlistFields);
+            }
+
+            public Integer getTotalCount(Playlists page) {
+                return page.getTotalCount();
+            }
+        }, PAGE_SIZE);
+
+        Playlists ret = new Playlists();
+        Set<Long> seen = new HashSet<Long>();
+        for(Playlists page : pages){
+            for(Playlist playlist : page){
+                if(playlist.getId() == null || seen.add(playlist.getId())){
+                    ret.add(playlist);
+                }
+            }
+        }
+        ret.setTotalCount(pages.get(0).getTotalCount());
+        return ret;
+    }
+
+    private Videos mergeVideos(List<Videos> pages){
+        Videos ret = new Videos();
+        Set<Long> seen = new HashSet<Long>();
+        for(Videos page : pages){
+            for(Video video : page){
+                if(video.getId() == null || seen.add(video.getId())){
+                    ret.add(video);
+                }
+            }
+        }
+        ret.setTotalCount(pages.get(0).getTotalCount());
+        return ret;
+    }
+
+    private abstract static class VideoPageFetcher implements PageFetcher<Videos> {
+        public Integer getTotalCount(Videos page) {
+            return page.getTotalCount();
+        }
+    }
+}
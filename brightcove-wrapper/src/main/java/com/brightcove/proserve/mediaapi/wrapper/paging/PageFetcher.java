@@ -0,0 +1,31 @@
+package com.brightcove.proserve.mediaapi.wrapper.paging;
+
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Fetches a single page of a paged Media API read for the {@link PageCrawler}.</p>
+ *
+ * <p>Implementations must be safe to call from several threads at once - the
+ *    crawler requests different pages concurrently.</p>
+ *
+ * @param <P> Type of a single page (e.g. Videos or Playlists)
+ */
+public interface PageFetcher<P> {
+    /**
+     * <p>Fetches one page.</p>
+     *
+     * @param pageSize Number of items per page
+     * @param pageNumber Zero-based page number
+     * @return The page
+     * @throws BrightcoveException If the read fails
+     */
+    public P fetchPage(Integer pageSize, Integer pageNumber) throws BrightcoveException;
+
+    /**
+     * <p>Gets the total number of items reported with a page.</p>
+     *
+     * @param page A page returned by {@link #fetchPage(Integer, Integer)}
+     * @return Total number of items, or a negative number if the Media API didn't report it
+     */
+    public Integer getTotalCount(P page);
+}
@@ -0,0 +1,220 @@
+package com.brightcove.proserve.mediaapi.wrapper.query;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+import org.apache.http.message.BasicNameValuePair;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.json.MediaApiResponseHandler;
+
+/**
+ * <p>A {@link VideoQuery} with its fixed parameters already URL encoded.</p>
+ *
+ * <p>Running the query only has to append the token and the run-time values to the
+ *    pre-encoded string, instead of building, joining and encoding every parameter
+ *    again.  Instances are immutable and thread-safe.</p>
+ *
+ * @param <T> Type of result the command returns
+ */
+public final class CompiledQuery<T> {
+	/**
+	 * <p>Character set the query is encoded with.</p>
+	 */
+	public static final String ENCODING = "UTF-8";
+
+	private final String              command;
+	private final Boolean             list;
+	private final List<NameValuePair> fixedParameters;
+	private final String              encodedFixedParameters;
+	private final List<String>        parameterNames;
+	private final Set<String>         repeatedParameters;
+	private final Set<VideoFieldEnum> videoFields;
+	private final Set<String>         customFields;
+	private final Integer             pageSize;
+
+	CompiledQuery(String command, Boolean list, List<NameValuePair> fixedParameters, List<String> parameterNames, Set<String> repeatedParameters, Set<VideoFieldEnum> videoFields, Set<String> customFields, Integer pageSize){
+		this.command                = command;
+		this.list                   = list;
+		this.fixedParameters        = Collections.unmodifiableList(new ArrayList<NameValuePair>(fixedParameters));
+		this.encodedFixedParameters = URLEncodedUtils.format(fixedParameters, ENCODING);
+		this.parameterNames         = parameterNames;
+		this.repeatedParameters     = repeatedParameters;
+		this.videoFields            = Collections.unmodifiableSet(videoFields);
+		this.customFields           = customFields;
+		this.pageSize               = pageSize;
+	}
+
+	/**
+	 * <p>Appends the query string for one request.</p>
+	 *
+	 * @param sb Builder to append to
+	 * @param token Read token for the request
+	 * @param values Run-time values, in the order given by {@link #getParameterNames()}.  Null values
+	 *               and empty collections are left out; other collections are joined with commas
+	 *               (or sent as repeated parameters where the command expects that).
+	 * @throws IllegalArgumentException If the number of values doesn't match the query
+	 */
+	public void appendQueryString(StringBuilder sb, String token, Object... values){
+		checkValues(values);
+
+		sb.append(encodedFixedParameters);
+		appendParameter(sb, "token", token);
+		for(int idx=0;idx<values.length;idx++){
+			String name  = parameterNames.get(idx);
+			Object value = values[idx];
+			if(value instanceof Collection<?>){
+				Collection<?> collection = (Collection<?>)value;
+				if(collection.isEmpty()){
+					continue;
+				}
+				if(repeatedParameters.contains(name)){
+					for(Object item : collection){
+						appendParameter(sb, name, String.valueOf(item));
+					}
+				}
+				else{
+					appendParameter(sb, name, join(collection));
+				}
+			}
+			else if(value != null){
+				appendParameter(sb, name, String.valueOf(value));
+			}
+		}
+	}
+
+	/**
+	 * <p>Builds the full parameter list for one request, for callers that can't use the pre-encoded string.</p>
+	 *
+	 * @see #appendQueryString(StringBuilder, String, Object...)
+	 */
+	public List<NameValuePair> toParameters(String token, Object... values){
+		checkValues(values);
+
+		List<NameValuePair> parameters = new ArrayList<NameValuePair>(fixedParameters);
+		parameters.add(new BasicNameValuePair("token", token));
+		for(int idx=0;idx<values.length;idx++){
+			String name  = parameterNames.get(idx);
+			Object value = values[idx];
+			if(value instanceof Collection<?>){
+				Collection<?> collection = (Collection<?>)value;
+				if(collection.isEmpty()){
+					continue;
+				}
+				if(repeatedParameters.contains(name)){
+					for(Object item : collection){
+						parameters.add(new BasicNameValuePair(name, String.valueOf(item)));
+					}
+				}
+				else{
+					parameters.add(new BasicNameValuePair(name, join(collection)));
+				}
+			}
+			else if(value != null){
+				parameters.add(new BasicNameValuePair(name, String.valueOf(value)));
+			}
+		}
+		return parameters;
+	}
+
+	private void checkValues(Object[] values){
+		if(values.length != parameterNames.size()){
+			throw new IllegalArgumentException("Query '" + command + "' takes " + parameterNames + ", got " + values.length + " value(s).");
+		}
+	}
+
+	private static void appendParameter(StringBuilder sb, String name, String value){
+		try{
+			sb.append('&').append(name).append('=').append(URLEncoder.encode(value, ENCODING));
+		}
+		catch(UnsupportedEncodingException uee){
+			// UTF-8 is always supported
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	private static String join(Collection<?> collection){
+		StringBuilder sb = new StringBuilder();
+		for(Object item : collection){
+			if(sb.length() > 0){
+				sb.append(',');
+			}
+			sb.append(item);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @return New handler to parse a response to this query with
+	 */
+	@SuppressWarnings("unchecked")
+	public MediaApiResponseHandler<T> newHandler(){
+		MediaApiResponseHandler<?> handler = list ? MediaApiResponseHandler.forVideos() : MediaApiResponseHandler.forVideo();
+		return (MediaApiResponseHandler<T>)handler;
+	}
+
+	public String getCommand(){
+		return command;
+	}
+
+	/**
+	 * @return True if the command returns a list of videos rather than a single one
+	 */
+	public Boolean isList(){
+		return list;
+	}
+
+	/**
+	 * @return Names of the values to give when running the query, in order
+	 */
+	public List<String> getParameterNames(){
+		return parameterNames;
+	}
+
+	/**
+	 * @return Video fields the query asks for (empty for the Media API default)
+	 */
+	public Set<VideoFieldEnum> getVideoFields(){
+		return videoFields;
+	}
+
+	/**
+	 * @return Custom fields the query asks for
+	 */
+	public Set<String> getCustomFields(){
+		return customFields;
+	}
+
+	/**
+	 * @return Videos per page for paged commands, otherwise null
+	 */
+	public Integer getPageSize(){
+		return pageSize;
+	}
+
+	/**
+	 * @return Position of the page number among the run-time values, or -1 if the command isn't paged
+	 */
+	public Integer getPageNumberIndex(){
+		return parameterNames.indexOf("page_number");
+	}
+
+	/**
+	 * @return The fixed part of the query string, URL encoded
+	 */
+	public String getEncodedFixedParameters(){
+		return encodedFixedParameters;
+	}
+
+	@Override
+	public String toString(){
+		return encodedFixedParameters + " " + parameterNames;
+	}
+}
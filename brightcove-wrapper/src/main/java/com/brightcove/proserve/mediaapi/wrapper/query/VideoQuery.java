@@ -0,0 +1,222 @@
+package com.brightcove.proserve.mediaapi.wrapper.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.message.BasicNameValuePair;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Videos;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortByTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.SortOrderTypeEnum;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.enums.VideoFieldEnum;
+import com.brightcove.proserve.mediaapi.wrapper.utils.CollectionUtils;
+
+/**
+ * <p>Immutable description of a video read command, compiled once and reused for every request.</p>
+ *
+ * <p>The parts of a request that don't change between calls (command, video fields,
+ *    custom fields, sort order, page size) are fixed on the query; only the values
+ *    that do (ids, text, page number) are given when it is run:</p>
+ *
+ * <pre>
+ * private static final CompiledQuery&lt;Video&gt; VIDEO_NAME =
+ *     VideoQuery.byId().fields(VideoFieldEnum.ID, VideoFieldEnum.NAME).compile();
+ * ...
+ * Video video = readApi.RunQuery(readToken, VIDEO_NAME, videoId);
+ * </pre>
+ *
+ * <p>Every setter returns a new query, so partly built queries can be shared and extended safely.</p>
+ *
+ * @param <T> Type of result the command returns (Video or Videos)
+ */
+public final class VideoQuery<T> {
+	private static final Integer MAX_VIDEOS_PER_PAGE = 100;
+
+	private final String                  command;
+	private final Boolean                 list;
+	private final Boolean                 paged;
+	private final List<String>            parameterNames;
+	private final Set<String>             repeatedParameters;
+	private final EnumSet<VideoFieldEnum> videoFields;
+	private final Set<String>             customFields;
+	private final SortByTypeEnum          sortBy;
+	private final SortOrderTypeEnum       sortOrder;
+	private final Integer                 pageSize;
+	private final Boolean                 exact;
+
+	private VideoQuery(String command, Boolean list, Boolean paged, List<String> parameterNames, Set<String> repeatedParameters, EnumSet<VideoFieldEnum> videoFields, Set<String> customFields, SortByTypeEnum sortBy, SortOrderTypeEnum sortOrder, Integer pageSize, Boolean exact){
+		this.command            = command;
+		this.list               = list;
+		this.paged              = paged;
+		this.parameterNames     = parameterNames;
+		this.repeatedParameters = repeatedParameters;
+		this.videoFields        = videoFields;
+		this.customFields       = customFields;
+		this.sortBy             = sortBy;
+		this.sortOrder          = sortOrder;
+		this.pageSize           = pageSize;
+		this.exact              = exact;
+	}
+
+	private static <T> VideoQuery<T> create(String command, Boolean list, Boolean paged, String[] parameterNames, String[] repeatedParameters){
+		return new VideoQuery<T>(command, list, paged,
+				Collections.unmodifiableList(Arrays.asList(parameterNames)),
+				Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(repeatedParameters))),
+				VideoFieldEnum.CreateEmptyEnumSet(), Collections.<String>emptySet(), null, null, paged ? MAX_VIDEOS_PER_PAGE : null, null);
+	}
+
+	/**
+	 * <p>find_video_by_id - run with the video id.</p>
+	 */
+	public static VideoQuery<Video> byId(){
+		return create("find_video_by_id", false, false, new String[]{ "video_id" }, new String[0]);
+	}
+
+	/**
+	 * <p>find_videos_by_ids - run with a Set of video ids.</p>
+	 */
+	public static VideoQuery<Videos> byIds(){
+		return create("find_videos_by_ids", true, false, new String[]{ "video_ids" }, new String[0]);
+	}
+
+	/**
+	 * <p>find_video_by_reference_id - run with the reference id.</p>
+	 */
+	public static VideoQuery<Video> byReferenceId(){
+		return create("find_video_by_reference_id", false, false, new String[]{ "reference_id" }, new String[0]);
+	}
+
+	/**
+	 * <p>find_all_videos - run with the page number.</p>
+	 */
+	public static VideoQuery<Videos> all(){
+		return create("find_all_videos", true, true, new String[]{ "page_number" }, new String[0]);
+	}
+
+	/**
+	 * <p>find_videos_by_text - run with the text and the page number.</p>
+	 */
+	public static VideoQuery<Videos> byText(){
+		return create("find_videos_by_text", true, true, new String[]{ "text", "page_number" }, new String[0]);
+	}
+
+	/**
+	 * <p>search_videos - run with the <code>all</code>, <code>any</code> and <code>none</code>
+	 *    term lists (each may be null or empty) and the page number.</p>
+	 */
+	public static VideoQuery<Videos> search(){
+		return create("search_videos", true, true, new String[]{ "all", "any", "none", "page_number" }, new String[]{ "all", "any" });
+	}
+
+	/**
+	 * @param fields Video fields to populate on the returned videos
+	 * @return Copy of this query with the fields given
+	 */
+	public VideoQuery<T> fields(VideoFieldEnum... fields){
+		EnumSet<VideoFieldEnum> newFields = VideoFieldEnum.CreateEmptyEnumSet();
+		newFields.addAll(Arrays.asList(fields));
+		return fields(newFields);
+	}
+
+	/**
+	 * @param fields Video fields to populate on the returned videos
+	 * @return Copy of this query with the fields given
+	 */
+	public VideoQuery<T> fields(Set<VideoFieldEnum> fields){
+		EnumSet<VideoFieldEnum> newFields = VideoFieldEnum.CreateEmptyEnumSet();
+		if(fields != null){
+			newFields.addAll(fields);
+		}
+		return new VideoQuery<T>(command, list, paged, parameterNames, repeatedParameters, newFields, customFields, sortBy, sortOrder, pageSize, exact);
+	}
+
+	/**
+	 * @param fields Custom fields to populate on the returned videos
+	 * @return Copy of this query with the custom fields given
+	 */
+	public VideoQuery<T> customFields(String... fields){
+		Set<String> newFields = new LinkedHashSet<String>(Arrays.asList(fields));
+		return new VideoQuery<T>(command, list, paged, parameterNames, repeatedParameters, videoFields, Collections.unmodifiableSet(newFields), sortBy, sortOrder, pageSize, exact);
+	}
+
+	/**
+	 * <p>Only used by paged commands.</p>
+	 *
+	 * @param sortBy Field to sort the videos on before cutting up the pages
+	 * @param sortOrder Order to sort the videos in
+	 * @return Copy of this query with the sort order given
+	 */
+	public VideoQuery<T> sortBy(SortByTypeEnum sortBy, SortOrderTypeEnum sortOrder){
+		return new VideoQuery<T>(command, list, paged, parameterNames, repeatedParameters, videoFields, customFields, sortBy, sortOrder, pageSize, exact);
+	}
+
+	/**
+	 * <p>Only used by paged commands.</p>
+	 *
+	 * @param pageSize Number of videos per page (1-100)
+	 * @return Copy of this query with the page size given
+	 * @throws IllegalArgumentException If the page size is over the Media API maximum
+	 */
+	public VideoQuery<T> pageSize(Integer pageSize){
+		if((pageSize == null) || (pageSize < 1) || (pageSize > MAX_VIDEOS_PER_PAGE)){
+			throw new IllegalArgumentException("Page size must be between 1 and " + MAX_VIDEOS_PER_PAGE + ", got " + pageSize + ".");
+		}
+		return new VideoQuery<T>(command, list, paged, parameterNames, repeatedParameters, videoFields, customFields, sortBy, sortOrder, pageSize, exact);
+	}
+
+	/**
+	 * <p>Only used by search_videos.</p>
+	 *
+	 * @param exact True to match search terms exactly
+	 * @return Copy of this query with the flag given
+	 */
+	public VideoQuery<T> exact(Boolean exact){
+		return new VideoQuery<T>(command, list, paged, parameterNames, repeatedParameters, videoFields, customFields, sortBy, sortOrder, pageSize, exact);
+	}
+
+	/**
+	 * <p>Fixes the query and pre-encodes everything but the token and the run-time values.</p>
+	 *
+	 * @return Compiled query, safe to keep in a static field and share between threads
+	 */
+	public CompiledQuery<T> compile(){
+		List<NameValuePair> parameters = new ArrayList<NameValuePair>();
+		parameters.add(new BasicNameValuePair("command", command));
+
+		if(paged){
+			if("search_videos".equals(command)){
+				if(sortBy != null){
+					parameters.add(new BasicNameValuePair("sort_by", sortBy + ":" + ((sortOrder == null) ? SortOrderTypeEnum.ASC : sortOrder)));
+				}
+				if(exact != null){
+					parameters.add(new BasicNameValuePair("exact", String.valueOf(exact)));
+				}
+			}
+			else if(sortBy != null){
+				parameters.add(new BasicNameValuePair("sort_by",    "" + sortBy));
+				parameters.add(new BasicNameValuePair("sort_order", "" + ((sortOrder == null) ? SortOrderTypeEnum.ASC : sortOrder)));
+			}
+			parameters.add(new BasicNameValuePair("page_size",      "" + pageSize));
+			parameters.add(new BasicNameValuePair("get_item_count", "true"));
+		}
+
+		String videoFieldsString = CollectionUtils.JoinToString((Set<?>)videoFields, ",");
+		if(!("".equals(videoFieldsString))){
+			parameters.add(new BasicNameValuePair("video_fields", videoFieldsString));
+		}
+
+		String customFieldsString = CollectionUtils.JoinToString((Set<?>)customFields, ",");
+		if(!("".equals(customFieldsString))){
+			parameters.add(new BasicNameValuePair("custom_fields", customFieldsString));
+		}
+
+		return new CompiledQuery<T>(command, list, parameters, parameterNames, repeatedParameters, videoFields, customFields, paged ? pageSize : null);
+	}
+}
@@ -0,0 +1,560 @@
+package com.brightcove.proserve.mediaapi.wrapper.search;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogVideo;
+
+/**
+ * <p>In-memory autocomplete over video names, tags and reference ids, answering without a
+ *    Media API call.</p>
+ *
+ * <p>The index is a radix trie (a prefix trie with single-child chains merged into one edge)
+ *    over normalized keys: the name from each of its first words on, so that "cat" finds
+ *    "Funny cat videos", each tag and the reference id.  Every node holds the best
+ *    {@link Builder#Builder(Integer) top-k} videos under it, so a lookup is a walk down the
+ *    trie by the characters of the query followed by a copy of one list.  Videos are ranked
+ *    by total plays, then by name.</p>
+ *
+ * <p>Keys and queries are normalized the same way: accents dropped, lower-cased, and runs of
+ *    anything but letters and digits turned into a single space.  Keys are cut at
+ *    {@link #MAX_KEY_LENGTH} characters; longer queries are matched on that much of
+ *    themselves.</p>
+ *
+ * <p>An index never changes once built - a newer catalog means a new index, swapped in
+ *    with {@link #setShared(String, AutocompleteIndex)}.  Nodes are kept in flat arrays
+ *    rather than objects, so an index over a few hundred thousand videos stays compact.</p>
+ */
+public final class AutocompleteIndex {
+	public static final Integer DEFAULT_TOP_K  = 20;
+	public static final Integer MAX_KEY_LENGTH = 32;
+
+	private static final Integer MAX_NAME_WORDS = 8;
+
+	private static final ConcurrentMap<String, AutocompleteIndex> shared = new ConcurrentHashMap<String, AutocompleteIndex>();
+
+	// Videos, best ranked first
+	private final long[]   ids;
+	private final String[] names;
+	private final String[] thumbnailUrls;
+
+	// Video ids in ascending order with their ranks, for lookups by id
+	private final long[] sortedIds;
+	private final int[]  sortedRanks;
+
+	// Trie - node 0 is the root, the children of a node are next to each other in order of their first character
+	private final char[] labels;
+	private final int[]  labelStart;
+	private final int[]  labelLength;
+	private final int[]  firstChild;
+	private final int[]  childCount;
+	private final int[]  topStart;
+	private final int[]  topLength;
+	private final int[]  tops;
+	private final int    nodeCount;
+	private final int    topK;
+	private final long   createdAt;
+
+	/**
+	 * <p>One suggested video.</p>
+	 */
+	public static final class Suggestion {
+		private final Long   id;
+		private final String name;
+		private final String thumbnailUrl;
+
+		Suggestion(Long id, String name, String thumbnailUrl){
+			this.id           = id;
+			this.name         = name;
+			this.thumbnailUrl = thumbnailUrl;
+		}
+
+		public Long getId(){
+			return id;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public String getThumbnailUrl(){
+			return thumbnailUrl;
+		}
+
+		@Override
+		public String toString(){
+			return id + " " + name;
+		}
+	}
+
+	/**
+	 * <p>Collects videos and builds an index of them.  Not thread-safe.</p>
+	 */
+	public static final class Builder {
+		private final int                    topK;
+		private final Map<Long, VideoEntry>  videos = new LinkedHashMap<Long, VideoEntry>();
+
+		/**
+		 * @param topK Most suggestions kept for each prefix, and so the most a lookup returns
+		 */
+		public Builder(Integer topK){
+			this.topK = ((topK == null) || (topK < 1)) ? DEFAULT_TOP_K : topK;
+		}
+
+		/**
+		 * <p>Adds a video, replacing any added before with the same id.  Videos without an id are skipped.</p>
+		 */
+		public Builder add(Video video){
+			return add(video.getId(), video.getName(), video.getThumbnailUrl(), video.getReferenceId(), video.getTags(), video.getPlaysTotal());
+		}
+
+		/**
+		 * @see #add(Video)
+		 */
+		public Builder add(CatalogVideo video){
+			return add(video.getId(), video.getName(), video.getThumbnailUrl(), video.getReferenceId(), video.getTags(), video.getPlaysTotal());
+		}
+
+		/**
+		 * @see #add(Video)
+		 */
+		public Builder add(Long id, String name, String thumbnailUrl, String referenceId, List<String> tags, Integer playsTotal){
+			if(id == null){
+				return this;
+			}
+			Set<String> keys = new LinkedHashSet<String>();
+			String normalized = Normalize(name);
+			if(normalized.length() > 0){
+				String[] words = normalized.split(" ");
+				int      at    = 0;
+				for(int word=0;(word<words.length)&&(word<MAX_NAME_WORDS);word++){
+					keys.add(Truncate(normalized.substring(at)));
+					at += words[word].length() + 1;
+				}
+			}
+			if(tags != null){
+				for(String tag : tags){
+					AddKey(keys, tag);
+				}
+			}
+			AddKey(keys, referenceId);
+			videos.put(id, new VideoEntry(id, name, thumbnailUrl, keys.toArray(new String[keys.size()]), (playsTotal == null) ? -1 : playsTotal));
+			return this;
+		}
+
+		private static void AddKey(Set<String> keys, String value){
+			String normalized = Normalize(value);
+			if(normalized.length() > 0){
+				keys.add(Truncate(normalized));
+			}
+		}
+
+		/**
+		 * @return Number of videos added so far
+		 */
+		public Integer size(){
+			return videos.size();
+		}
+
+		public AutocompleteIndex build(){
+			return new AutocompleteIndex(this);
+		}
+	}
+
+	private static final class VideoEntry {
+		final long     id;
+		final String   name;
+		final String   sortName;
+		final String   thumbnailUrl;
+		final String[] keys;
+		final int      plays;
+
+		VideoEntry(long id, String name, String thumbnailUrl, String[] keys, int plays){
+			this.id           = id;
+			this.name         = name;
+			this.sortName     = Normalize(name);
+			this.thumbnailUrl = thumbnailUrl;
+			this.keys         = keys;
+			this.plays        = plays;
+		}
+	}
+
+	private static final Comparator<VideoEntry> BY_RANK = new Comparator<VideoEntry>() {
+		public int compare(VideoEntry a, VideoEntry b) {
+			if(a.plays != b.plays){
+				return (a.plays > b.plays) ? -1 : 1;
+			}
+			int byName = a.sortName.compareTo(b.sortName);
+			if(byName != 0){
+				return byName;
+			}
+			return (a.id < b.id) ? -1 : ((a.id > b.id) ? 1 : 0);
+		}
+	};
+
+	/**
+	 * <p>A key and the rank of the video it leads to.</p>
+	 */
+	private static final class Posting implements Comparable<Posting> {
+		final String key;
+		final int    rank;
+
+		Posting(String key, int rank){
+			this.key  = key;
+			this.rank = rank;
+		}
+
+		public int compareTo(Posting other){
+			int byKey = key.compareTo(other.key);
+			return (byKey != 0) ? byKey : ((rank < other.rank) ? -1 : ((rank > other.rank) ? 1 : 0));
+		}
+	}
+
+	private AutocompleteIndex(Builder builder){
+		this.topK      = builder.topK;
+		this.createdAt = System.currentTimeMillis();
+
+		List<VideoEntry> ranked = new ArrayList<VideoEntry>(builder.videos.values());
+		Collections.sort(ranked, BY_RANK);
+		int count = ranked.size();
+		ids           = new long[count];
+		names         = new String[count];
+		thumbnailUrls = new String[count];
+		List<Posting> postings = new ArrayList<Posting>();
+		for(int rank=0;rank<count;rank++){
+			VideoEntry video = ranked.get(rank);
+			ids[rank]           = video.id;
+			names[rank]         = video.name;
+			thumbnailUrls[rank] = video.thumbnailUrl;
+			for(String key : video.keys){
+				postings.add(new Posting(key, rank));
+			}
+		}
+
+		Integer[] order = new Integer[count];
+		for(int rank=0;rank<count;rank++){
+			order[rank] = rank;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return (ids[a] < ids[b]) ? -1 : ((ids[a] > ids[b]) ? 1 : 0);
+			}
+		});
+		sortedIds   = new long[count];
+		sortedRanks = new int[count];
+		for(int idx=0;idx<count;idx++){
+			sortedIds[idx]   = ids[order[idx]];
+			sortedRanks[idx] = order[idx];
+		}
+
+		Collections.sort(postings);
+		TrieBuilder trie = new TrieBuilder(postings, topK);
+		if(!postings.isEmpty()){
+			trie.nodes = 1;
+			trie.build(0, 0, postings.size(), 0);
+		}
+		labels      = trie.labels.toString().toCharArray();
+		labelStart  = trie.labelStart.toArray();
+		labelLength = trie.labelLength.toArray();
+		firstChild  = trie.firstChild.toArray();
+		childCount  = trie.childCount.toArray();
+		topStart    = trie.topStart.toArray();
+		topLength   = trie.topLength.toArray();
+		tops        = trie.tops.toArray();
+		nodeCount   = trie.nodes;
+	}
+
+	/**
+	 * <p>Builds the trie over sorted postings, one node for each run of postings that share a
+	 *    prefix, so no node has a single child unless it also ends a key.</p>
+	 */
+	private static final class TrieBuilder {
+		final List<Posting> postings;
+		final int           topK;
+		final StringBuilder labels      = new StringBuilder();
+		final IntArray      labelStart  = new IntArray(1024);
+		final IntArray      labelLength = new IntArray(1024);
+		final IntArray      firstChild  = new IntArray(1024);
+		final IntArray      childCount  = new IntArray(1024);
+		final IntArray      topStart    = new IntArray(1024);
+		final IntArray      topLength   = new IntArray(1024);
+		final IntArray      tops        = new IntArray(1024);
+		int                 nodes;
+
+		TrieBuilder(List<Posting> postings, int topK){
+			this.postings = postings;
+			this.topK     = topK;
+		}
+
+		/**
+		 * @param node Node to fill in, already allocated
+		 * @param lo First posting under the node
+		 * @param hi One past the last posting under the node
+		 * @param depth Length of the prefix the node's label starts after
+		 */
+		void build(int node, int lo, int hi, int depth){
+			String first = postings.get(lo).key;
+			String last  = postings.get(hi - 1).key;
+			int    end   = depth;
+			int    max   = Math.min(first.length(), last.length());
+			// Sorted, so what the first and last keys share, they all share
+			while((end < max) && (first.charAt(end) == last.charAt(end))){
+				end++;
+			}
+			labelStart.set(node, labels.length());
+			labelLength.set(node, end - depth);
+			labels.append(first, depth, end);
+
+			// Keys that end here sort before the ones that go on
+			int mid = lo;
+			while((mid < hi) && (postings.get(mid).key.length() == end)){
+				mid++;
+			}
+
+			List<int[]> groups = new ArrayList<int[]>();
+			for(int at=mid;at<hi;){
+				char next  = postings.get(at).key.charAt(end);
+				int  start = at;
+				while((at < hi) && (postings.get(at).key.charAt(end) == next)){
+					at++;
+				}
+				groups.add(new int[] { start, at });
+			}
+			int children = nodes;
+			nodes += groups.size();
+			firstChild.set(node, children);
+			childCount.set(node, groups.size());
+			for(int idx=0;idx<groups.size();idx++){
+				build(children + idx, groups.get(idx)[0], groups.get(idx)[1], end);
+			}
+
+			// Best ranks under the node: its own keys' and its children's
+			IntArray candidates = new IntArray();
+			for(int at=lo;(at<mid)&&(candidates.size<topK);at++){
+				candidates.add(postings.get(at).rank);
+			}
+			for(int idx=0;idx<groups.size();idx++){
+				int child = children + idx;
+				for(int at=0;at<topLength.values[child];at++){
+					candidates.add(tops.values[topStart.values[child] + at]);
+				}
+			}
+			int[] merged = candidates.toArray();
+			Arrays.sort(merged);
+			topStart.set(node, tops.size);
+			int kept = 0;
+			for(int at=0;(at<merged.length)&&(kept<topK);at++){
+				if((at == 0) || (merged[at] != merged[at - 1])){
+					tops.add(merged[at]);
+					kept++;
+				}
+			}
+			topLength.set(node, kept);
+		}
+	}
+
+	/**
+	 * <p>Suggests videos for what's been typed so far.</p>
+	 *
+	 * @param query Start of a video name (or of any word in it), tag or reference id, or a video id
+	 * @param limit Most suggestions to return (at most the index's top-k)
+	 * @return Suggestions, best first - a video whose id is the query comes before the rest
+	 */
+	public List<Suggestion> suggest(String query, Integer limit){
+		int              max = Math.min(((limit == null) || (limit < 1)) ? topK : limit, topK);
+		List<Suggestion> ret = new ArrayList<Suggestion>(max);
+		String           key = Truncate(Normalize(query));
+
+		int  byId = -1;
+		Long id   = ParseId(key);
+		if(id != null){
+			int at = Arrays.binarySearch(sortedIds, id);
+			if(at >= 0){
+				byId = sortedRanks[at];
+				ret.add(suggestion(byId));
+			}
+		}
+
+		int node = find(key);
+		if(node < 0){
+			return ret;
+		}
+		for(int at=0;(at<topLength[node])&&(ret.size()<max);at++){
+			int rank = tops[topStart[node] + at];
+			if(rank != byId){
+				ret.add(suggestion(rank));
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * @return The node where the key ends (on its label), or -1 if no key starts with it
+	 */
+	private int find(String key){
+		if(nodeCount == 0){
+			return -1;
+		}
+		int node = 0;
+		int pos  = 0;
+		while(true){
+			int length = Math.min(labelLength[node], key.length() - pos);
+			for(int at=0;at<length;at++){
+				if(labels[labelStart[node] + at] != key.charAt(pos + at)){
+					return -1;
+				}
+			}
+			pos += length;
+			if(pos == key.length()){
+				return node;
+			}
+			node = findChild(node, key.charAt(pos));
+			if(node < 0){
+				return -1;
+			}
+		}
+	}
+
+	private int findChild(int node, char next){
+		int low  = firstChild[node];
+		int high = low + childCount[node] - 1;
+		while(low <= high){
+			int  mid   = (low + high) >>> 1;
+			char first = labels[labelStart[mid]];
+			if(first < next){
+				low = mid + 1;
+			}
+			else if(first > next){
+				high = mid - 1;
+			}
+			else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private Suggestion suggestion(int rank){
+		return new Suggestion(ids[rank], names[rank], thumbnailUrls[rank]);
+	}
+
+	/**
+	 * @return Number of videos in the index
+	 */
+	public Integer size(){
+		return ids.length;
+	}
+
+	/**
+	 * @return Number of nodes in the trie
+	 */
+	public Integer getNodeCount(){
+		return nodeCount;
+	}
+
+	public Integer getTopK(){
+		return topK;
+	}
+
+	/**
+	 * @return Time the index was built, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 */
+	public Long getCreatedAt(){
+		return createdAt;
+	}
+
+	/**
+	 * @return Index in use for a read token, or null if none has been built
+	 */
+	public static AutocompleteIndex getShared(String readToken){
+		return shared.get(String.valueOf(readToken));
+	}
+
+	/**
+	 * <p>Puts an index in use for a read token, replacing the one before.</p>
+	 *
+	 * @param index New index, or null to stop using one
+	 */
+	public static void setShared(String readToken, AutocompleteIndex index){
+		if(index == null){
+			shared.remove(String.valueOf(readToken));
+		}
+		else{
+			shared.put(String.valueOf(readToken), index);
+		}
+	}
+
+	/**
+	 * <p>Normalizes a key or query - see the class comment.</p>
+	 */
+	public static String Normalize(String value){
+		if(value == null){
+			return "";
+		}
+		String        decomposed = Normalizer.normalize(value, Normalizer.Form.NFD);
+		StringBuilder sb         = new StringBuilder(decomposed.length());
+		boolean       space      = false;
+		for(int idx=0;idx<decomposed.length();idx++){
+			char ch = decomposed.charAt(idx);
+			if(Character.getType(ch) == Character.NON_SPACING_MARK){
+				continue;
+			}
+			if(Character.isLetterOrDigit(ch)){
+				if(space && (sb.length() > 0)){
+					sb.append(' ');
+				}
+				sb.append(ch);
+				space = false;
+			}
+			else{
+				space = true;
+			}
+		}
+		return sb.toString().toLowerCase(Locale.ENGLISH);
+	}
+
+	private static String Truncate(String key){
+		return (key.length() > MAX_KEY_LENGTH) ? key.substring(0, MAX_KEY_LENGTH) : key;
+	}
+
+	/**
+	 * @return The key as a video id, or null if it's not one - not all digits, or too big for a long
+	 */
+	private static Long ParseId(String key){
+		if((key.length() == 0) || (key.length() > 19) || !IsDigits(key)){
+			return null;
+		}
+		try{
+			return Long.parseLong(key);
+		}
+		catch(NumberFormatException nfe){
+			return null;
+		}
+	}
+
+	private static boolean IsDigits(String value){
+		for(int idx=0;idx<value.length();idx++){
+			if(!Character.isDigit(value.charAt(idx))){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString(){
+		return "[AutocompleteIndex " + ids.length + " videos, " + nodeCount + " nodes]";
+	}
+}
@@ -0,0 +1,43 @@
+package com.brightcove.proserve.mediaapi.wrapper.search;
+
+import java.util.Arrays;
+
+/**
+ * <p>Growable int array, for building the flat arrays the indexes keep.  Not thread-safe.</p>
+ */
+final class IntArray {
+	int[] values;
+	int   size;
+
+	IntArray(){
+		this(16);
+	}
+
+	IntArray(int capacity){
+		values = new int[Math.max(capacity, 1)];
+	}
+
+	void set(int index, int value){
+		ensure(index + 1);
+		values[index] = value;
+	}
+
+	void add(int value){
+		set(size, value);
+	}
+
+	int get(int index){
+		return values[index];
+	}
+
+	void ensure(int length){
+		if(length > values.length){
+			values = Arrays.copyOf(values, Math.max(length, values.length * 2));
+		}
+		size = Math.max(size, length);
+	}
+
+	int[] toArray(){
+		return Arrays.copyOf(values, size);
+	}
+}
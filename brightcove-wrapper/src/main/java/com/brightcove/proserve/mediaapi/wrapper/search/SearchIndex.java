@@ -0,0 +1,778 @@
+package com.brightcove.proserve.mediaapi.wrapper.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.CustomField;
+import com.brightcove.proserve.mediaapi.wrapper.apiobjects.Video;
+import com.brightcove.proserve.mediaapi.wrapper.catalog.CatalogVideo;
+
+/**
+ * <p>In-memory full-text search over video names, descriptions, tags and custom fields,
+ *    ranked with BM25, so searching and paging through the results need no Media API call.</p>
+ *
+ * <p>A video has to match every part of the query: <code>word</code> matches the word in any
+ *    field, <code>wor*</code> any word starting with "wor" (the {@link #MAX_PREFIX_TERMS}
+ *    most common of them), and <code>"two words"</code> the words next to each other within
+ *    one field or tag.  Words are normalized as for {@link AutocompleteIndex#Normalize(String)}.
+ *    An empty query matches every video.</p>
+ *
+ * <p>Term frequencies are weighted by field - a word in the name counts {@link #NAME_BOOST}
+ *    times, in a tag {@link #TAGS_BOOST} times - and scored with BM25 against the weighted
+ *    length of the whole video, so a short name that matches ranks above a long description
+ *    that happens to mention the word.  A prefix scores as the sum of the words it matched.</p>
+ *
+ * <p>Videos are numbered in name order, so matching in document order is matching in name
+ *    order.  Each term's postings hold the document numbers, weighted frequencies and word
+ *    positions, with a skip entry every {@link #SKIP_INTERVAL} documents.  Several terms are
+ *    matched by leapfrogging from the rarest: the others jump to its next document over
+ *    whole blocks at a time, so a rare word next to a common one costs about as much as the
+ *    rare word alone.</p>
+ *
+ * <p>An index never changes once built - a newer catalog means a new index, swapped in
+ *    with {@link #setShared(String, SearchIndex)}.</p>
+ */
+public final class SearchIndex {
+	public static final Float   NAME_BOOST          = 3.0f;
+	public static final Float   TAGS_BOOST          = 2.0f;
+	public static final Float   DESCRIPTION_BOOST   = 1.0f;
+	public static final Float   CUSTOM_FIELDS_BOOST = 1.0f;
+	public static final Integer MAX_PREFIX_TERMS    = 256;
+	public static final Integer SKIP_INTERVAL       = 32;
+
+	private static final float K1 = 1.2f;
+	private static final float B  = 0.75f;
+
+	// Positions left between fields and tags, so that phrases don't run from one into the next
+	private static final int FIELD_GAP = 16;
+
+	// A quoted phrase (the closing quote may be missing) or a run of anything but spaces
+	private static final Pattern QUERY_PARTS = Pattern.compile("\"([^\"]*)\"?|(\\S+)");
+
+	private static final ConcurrentMap<String, SearchIndex> shared = new ConcurrentHashMap<String, SearchIndex>();
+
+	/**
+	 * <p>Order of search results.</p>
+	 */
+	public enum Sort {
+		/** Best match first, then by name */
+		RELEVANCE,
+		/** By name, as the Media API sorts by DISPLAY_NAME */
+		NAME
+	}
+
+	// Videos, in name order
+	private final long[]   ids;
+	private final String[] names;
+	private final String[] thumbnailUrls;
+	private final float[]  lengths;
+	private final float    averageLength;
+
+	// Terms in order, and their postings
+	private final String[]      terms;
+	private final PostingList[] postings;
+	private final long          createdAt;
+
+	/**
+	 * <p>One matching video.</p>
+	 */
+	public static final class Hit {
+		private final Long   id;
+		private final String name;
+		private final String thumbnailUrl;
+		private final Float  score;
+
+		Hit(Long id, String name, String thumbnailUrl, Float score){
+			this.id           = id;
+			this.name         = name;
+			this.thumbnailUrl = thumbnailUrl;
+			this.score        = score;
+		}
+
+		public Long getId(){
+			return id;
+		}
+
+		public String getName(){
+			return name;
+		}
+
+		public String getThumbnailUrl(){
+			return thumbnailUrl;
+		}
+
+		/**
+		 * @return BM25 score, 0 for an empty query
+		 */
+		public Float getScore(){
+			return score;
+		}
+
+		@Override
+		public String toString(){
+			return id + " " + name + " (" + score + ")";
+		}
+	}
+
+	/**
+	 * <p>One page of matching videos, and how many matched in all.</p>
+	 */
+	public static final class Hits implements Iterable<Hit> {
+		private final int       total;
+		private final List<Hit> hits;
+
+		Hits(int total, List<Hit> hits){
+			this.total = total;
+			this.hits  = hits;
+		}
+
+		/**
+		 * @return Number of videos that matched, on all pages
+		 */
+		public Integer getTotal(){
+			return total;
+		}
+
+		public List<Hit> getHits(){
+			return hits;
+		}
+
+		public Iterator<Hit> iterator(){
+			return hits.iterator();
+		}
+
+		@Override
+		public String toString(){
+			return total + " " + hits;
+		}
+	}
+
+	/**
+	 * <p>Collects videos and builds an index of them.  Not thread-safe.</p>
+	 */
+	public static final class Builder {
+		private final Map<Long, Document> documents = new LinkedHashMap<Long, Document>();
+
+		/**
+		 * <p>Adds a video, replacing any added before with the same id.  Videos without an id are skipped.</p>
+		 */
+		public Builder add(Video video){
+			return add(video.getId(), video.getName(), video.getThumbnailUrl(), video.getShortDescription(), video.getLongDescription(), video.getTags(), video.getCustomFields());
+		}
+
+		/**
+		 * @see #add(Video)
+		 */
+		public Builder add(CatalogVideo video){
+			return add(video.getId(), video.getName(), video.getThumbnailUrl(), video.getShortDescription(), video.getLongDescription(), video.getTags(), video.getCustomFields());
+		}
+
+		/**
+		 * @see #add(Video)
+		 */
+		public Builder add(Long id, String name, String thumbnailUrl, String shortDescription, String longDescription, List<String> tags, List<CustomField> customFields){
+			if(id != null){
+				documents.put(id, new Document(id, name, thumbnailUrl, shortDescription, longDescription, tags, customFields));
+			}
+			return this;
+		}
+
+		/**
+		 * @return Number of videos added so far
+		 */
+		public Integer size(){
+			return documents.size();
+		}
+
+		public SearchIndex build(){
+			return new SearchIndex(this);
+		}
+	}
+
+	private static final class Document {
+		final long              id;
+		final String            name;
+		final String            sortName;
+		final String            thumbnailUrl;
+		final String            shortDescription;
+		final String            longDescription;
+		final List<String>      tags;
+		final List<CustomField> customFields;
+
+		Document(long id, String name, String thumbnailUrl, String shortDescription, String longDescription, List<String> tags, List<CustomField> customFields){
+			this.id               = id;
+			this.name             = name;
+			this.sortName         = AutocompleteIndex.Normalize(name);
+			this.thumbnailUrl     = thumbnailUrl;
+			this.shortDescription = shortDescription;
+			this.longDescription  = longDescription;
+			this.tags             = tags;
+			this.customFields     = customFields;
+		}
+	}
+
+	private static final Comparator<Document> BY_NAME = new Comparator<Document>() {
+		public int compare(Document a, Document b) {
+			int byName = a.sortName.compareTo(b.sortName);
+			if(byName != 0){
+				return byName;
+			}
+			return (a.id < b.id) ? -1 : ((a.id > b.id) ? 1 : 0);
+		}
+	};
+
+	/**
+	 * <p>The terms of one video while it's indexed, with their weighted frequencies and positions.</p>
+	 */
+	private static final class DocumentTerms {
+		final Map<String, DocumentTerm> terms = new LinkedHashMap<String, DocumentTerm>();
+		int                             position;
+		float                           length;
+
+		void add(String text, float boost){
+			String[] words = Words(text);
+			for(String word : words){
+				DocumentTerm term = terms.get(word);
+				if(term == null){
+					term = new DocumentTerm();
+					terms.put(word, term);
+				}
+				term.frequency += boost;
+				term.positions.add(position++);
+			}
+			if(words.length > 0){
+				length   += boost * words.length;
+				position += FIELD_GAP;
+			}
+		}
+	}
+
+	private static final class DocumentTerm {
+		float          frequency;
+		final IntArray positions = new IntArray(4);
+	}
+
+	/**
+	 * <p>Postings of one term while the index is built.</p>
+	 */
+	private static final class TermBuilder {
+		final IntArray docs          = new IntArray(4);
+		final IntArray positionStart = new IntArray(4);
+		final IntArray positions     = new IntArray(4);
+		float[]        frequencies   = new float[4];
+
+		void add(int doc, DocumentTerm term){
+			if(docs.size == frequencies.length){
+				frequencies = Arrays.copyOf(frequencies, frequencies.length * 2);
+			}
+			frequencies[docs.size] = term.frequency;
+			docs.add(doc);
+			positionStart.add(positions.size);
+			for(int at=0;at<term.positions.size;at++){
+				positions.add(term.positions.get(at));
+			}
+		}
+
+		PostingList build(int documentCount){
+			positionStart.add(positions.size);
+			int   df  = docs.size;
+			float idf = (float)Math.log(1.0 + (documentCount - df + 0.5) / (df + 0.5));
+			return new PostingList(docs.toArray(), Arrays.copyOf(frequencies, df), null, positionStart.toArray(), positions.toArray(), idf);
+		}
+	}
+
+	/**
+	 * <p>Documents in order with either weighted term frequencies (a term's postings) or scores
+	 *    (the matches of a prefix or phrase), and a skip entry - the last document - for every
+	 *    block of {@link #SKIP_INTERVAL}.</p>
+	 */
+	static final class PostingList {
+		final int[]   docs;
+		final float[] frequencies;
+		final float[] scores;
+		final int[]   positionStart;
+		final int[]   positions;
+		final int[]   skips;
+		final float   idf;
+
+		PostingList(int[] docs, float[] frequencies, float[] scores, int[] positionStart, int[] positions, float idf){
+			this.docs          = docs;
+			this.frequencies   = frequencies;
+			this.scores        = scores;
+			this.positionStart = positionStart;
+			this.positions     = positions;
+			this.idf           = idf;
+			this.skips         = new int[docs.length / SKIP_INTERVAL];
+			for(int block=0;block<skips.length;block++){
+				skips[block] = docs[(block + 1) * SKIP_INTERVAL - 1];
+			}
+		}
+
+		int size(){
+			return docs.length;
+		}
+	}
+
+	/**
+	 * <p>Position in a posting list.</p>
+	 */
+	private final class Cursor {
+		final PostingList list;
+		int               index = -1;
+
+		Cursor(PostingList list){
+			this.list = list;
+		}
+
+		int doc(){
+			return list.docs[index];
+		}
+
+		boolean next(){
+			return ++index < list.docs.length;
+		}
+
+		/**
+		 * <p>Moves to the first document at or after the target, skipping whole blocks that end before it.</p>
+		 *
+		 * @return Whether there is one
+		 */
+		boolean advance(int target){
+			int block = Math.max(index, 0) / SKIP_INTERVAL;
+			while((block < list.skips.length) && (list.skips[block] < target)){
+				block++;
+			}
+			index = Math.max(index, block * SKIP_INTERVAL);
+			while((index < list.docs.length) && (list.docs[index] < target)){
+				index++;
+			}
+			return index < list.docs.length;
+		}
+
+		float score(){
+			if(list.scores != null){
+				return list.scores[index];
+			}
+			float frequency = list.frequencies[index];
+			float norm      = K1 * (1 - B + B * lengths[doc()] / averageLength);
+			return list.idf * frequency * (K1 + 1) / (frequency + norm);
+		}
+
+		/**
+		 * @return Whether the current document has the term at the position
+		 */
+		boolean hasPosition(int position){
+			return Arrays.binarySearch(list.positions, list.positionStart[index], list.positionStart[index + 1], position) >= 0;
+		}
+	}
+
+	private static final Comparator<Cursor> BY_SIZE = new Comparator<Cursor>() {
+		public int compare(Cursor a, Cursor b) {
+			return (a.list.size() < b.list.size()) ? -1 : ((a.list.size() > b.list.size()) ? 1 : 0);
+		}
+	};
+
+	/**
+	 * <p>Receives the documents all cursors of an intersection are on.</p>
+	 */
+	private interface Match {
+		public void collect(int doc, Cursor[] cursors);
+	}
+
+	/**
+	 * <p>Growable lists of documents and their scores.</p>
+	 */
+	private static final class Matches {
+		final IntArray docs   = new IntArray();
+		float[]        scores = new float[16];
+
+		void add(int doc, float score){
+			if(docs.size == scores.length){
+				scores = Arrays.copyOf(scores, scores.length * 2);
+			}
+			scores[docs.size] = score;
+			docs.add(doc);
+		}
+
+		PostingList toPostingList(){
+			return new PostingList(docs.toArray(), null, Arrays.copyOf(scores, docs.size), null, null, 0);
+		}
+	}
+
+	private SearchIndex(Builder builder){
+		this.createdAt = System.currentTimeMillis();
+
+		List<Document> documents = new ArrayList<Document>(builder.documents.values());
+		Collections.sort(documents, BY_NAME);
+		int count = documents.size();
+		ids           = new long[count];
+		names         = new String[count];
+		thumbnailUrls = new String[count];
+		lengths       = new float[count];
+
+		Map<String, TermBuilder> dictionary  = new HashMap<String, TermBuilder>();
+		double                   totalLength = 0;
+		for(int doc=0;doc<count;doc++){
+			Document document = documents.get(doc);
+			ids[doc]           = document.id;
+			names[doc]         = document.name;
+			thumbnailUrls[doc] = document.thumbnailUrl;
+
+			DocumentTerms terms = new DocumentTerms();
+			terms.add(document.name, NAME_BOOST);
+			terms.add(document.shortDescription, DESCRIPTION_BOOST);
+			terms.add(document.longDescription, DESCRIPTION_BOOST);
+			if(document.tags != null){
+				for(String tag : document.tags){
+					terms.add(tag, TAGS_BOOST);
+				}
+			}
+			if(document.customFields != null){
+				for(CustomField field : document.customFields){
+					terms.add(field.getValue(), CUSTOM_FIELDS_BOOST);
+				}
+			}
+			lengths[doc] = terms.length;
+			totalLength += terms.length;
+
+			for(Map.Entry<String, DocumentTerm> term : terms.terms.entrySet()){
+				TermBuilder postingsBuilder = dictionary.get(term.getKey());
+				if(postingsBuilder == null){
+					postingsBuilder = new TermBuilder();
+					dictionary.put(term.getKey(), postingsBuilder);
+				}
+				postingsBuilder.add(doc, term.getValue());
+			}
+		}
+		averageLength = (count == 0 || totalLength == 0) ? 1 : (float)(totalLength / count);
+
+		terms    = dictionary.keySet().toArray(new String[dictionary.size()]);
+		Arrays.sort(terms);
+		postings = new PostingList[terms.length];
+		for(int term=0;term<terms.length;term++){
+			postings[term] = dictionary.remove(terms[term]).build(count);
+		}
+	}
+
+	/**
+	 * <p>Searches the index - see the class comment for the query syntax.</p>
+	 *
+	 * @param query Words to look for; null or empty for all videos
+	 * @param offset Number of matches to skip
+	 * @param limit Most matches to return
+	 * @param sort Order of the matches; null for {@link Sort#RELEVANCE}
+	 * @return One page of matches, and the number of matches in all
+	 */
+	public Hits search(String query, Integer offset, Integer limit, Sort sort){
+		int from  = ((offset == null) || (offset < 0)) ? 0 : offset;
+		int count = ((limit == null) || (limit < 0)) ? 0 : limit;
+
+		List<PostingList> clauses = parse(query);
+		if(clauses == null){
+			return new Hits(0, new ArrayList<Hit>());
+		}
+		if(clauses.isEmpty()){
+			List<Hit> page = new ArrayList<Hit>();
+			for(int doc=from;(doc<ids.length)&&(doc<(long)from+count);doc++){
+				page.add(hit(doc, 0));
+			}
+			return new Hits(ids.length, page);
+		}
+
+		final Matches matches = new Matches();
+		Cursor[]      cursors = new Cursor[clauses.size()];
+		for(int idx=0;idx<cursors.length;idx++){
+			cursors[idx] = new Cursor(clauses.get(idx));
+		}
+		Intersect(cursors, new Match() {
+			public void collect(int doc, Cursor[] cursors) {
+				float score = 0;
+				for(Cursor cursor : cursors){
+					score += cursor.score();
+				}
+				matches.add(doc, score);
+			}
+		});
+
+		int       total = matches.docs.size;
+		List<Hit> page  = new ArrayList<Hit>();
+		if(sort == Sort.NAME){
+			for(int at=from;(at<total)&&(at<(long)from+count);at++){
+				page.add(hit(matches.docs.get(at), matches.scores[at]));
+			}
+		}
+		else{
+			int[] top = Top(matches, (int)Math.min((long)from + count, total));
+			for(int at=from;at<top.length;at++){
+				page.add(hit(matches.docs.get(top[at]), matches.scores[top[at]]));
+			}
+		}
+		return new Hits(total, page);
+	}
+
+	/**
+	 * @return Indexes of the best n matches, best first - by score, then document (name) order
+	 */
+	private static int[] Top(final Matches matches, int n){
+		if(n <= 0){
+			return new int[0];
+		}
+		// Worst of the best so far on top, to be pushed out by anything better
+		PriorityQueue<Integer> best = new PriorityQueue<Integer>(n, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return -Compare(matches, a, b);
+			}
+		});
+		for(int at=0;at<matches.docs.size;at++){
+			if(best.size() < n){
+				best.add(at);
+			}
+			else if(Compare(matches, at, best.peek()) < 0){
+				best.poll();
+				best.add(at);
+			}
+		}
+		int[] ret = new int[best.size()];
+		for(int at=ret.length-1;at>=0;at--){
+			ret[at] = best.poll();
+		}
+		return ret;
+	}
+
+	private static int Compare(Matches matches, int a, int b){
+		float scoreA = matches.scores[a];
+		float scoreB = matches.scores[b];
+		if(scoreA != scoreB){
+			return (scoreA > scoreB) ? -1 : 1;
+		}
+		return (a < b) ? -1 : ((a > b) ? 1 : 0);
+	}
+
+	/**
+	 * @return Posting list of each part of the query, or null if a part matches nothing
+	 */
+	private List<PostingList> parse(String query){
+		List<PostingList> ret = new ArrayList<PostingList>();
+		if(query == null){
+			return ret;
+		}
+		Matcher parts = QUERY_PARTS.matcher(query);
+		while(parts.find()){
+			if(parts.group(1) != null){
+				String[] words = Words(parts.group(1));
+				if(words.length == 0){
+					continue;
+				}
+				PostingList list = (words.length == 1) ? term(words[0]) : phrase(words);
+				if(list == null){
+					return null;
+				}
+				ret.add(list);
+			}
+			else{
+				String   part   = parts.group(2);
+				boolean  prefix = part.endsWith("*");
+				String[] words  = Words(prefix ? part.substring(0, part.length() - 1) : part);
+				for(int idx=0;idx<words.length;idx++){
+					PostingList list = (prefix && (idx == words.length - 1)) ? prefix(words[idx]) : term(words[idx]);
+					if(list == null){
+						return null;
+					}
+					ret.add(list);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private PostingList term(String word){
+		int at = Arrays.binarySearch(terms, word);
+		return (at >= 0) ? postings[at] : null;
+	}
+
+	/**
+	 * @return Matches of any of the most common terms starting with the prefix, scored as the sum of the terms matched
+	 */
+	private PostingList prefix(String prefix){
+		int at = Arrays.binarySearch(terms, prefix);
+		if(at < 0){
+			at = -at - 1;
+		}
+		List<PostingList> lists = new ArrayList<PostingList>();
+		while((at < terms.length) && terms[at].startsWith(prefix)){
+			lists.add(postings[at++]);
+		}
+		if(lists.isEmpty()){
+			return null;
+		}
+		if(lists.size() == 1){
+			return lists.get(0);
+		}
+		if(lists.size() > MAX_PREFIX_TERMS){
+			Collections.sort(lists, new Comparator<PostingList>() {
+				public int compare(PostingList a, PostingList b) {
+					return (a.size() > b.size()) ? -1 : ((a.size() < b.size()) ? 1 : 0);
+				}
+			});
+			lists = lists.subList(0, MAX_PREFIX_TERMS);
+		}
+
+		// Scores are never 0, so a score marks a match
+		float[] scores = new float[ids.length];
+		for(PostingList list : lists){
+			Cursor cursor = new Cursor(list);
+			while(cursor.next()){
+				scores[cursor.doc()] += cursor.score();
+			}
+		}
+		Matches matches = new Matches();
+		for(int doc=0;doc<scores.length;doc++){
+			if(scores[doc] > 0){
+				matches.add(doc, scores[doc]);
+			}
+		}
+		return matches.toPostingList();
+	}
+
+	/**
+	 * @return Documents with the words next to each other, in order, scored as the sum of the words
+	 */
+	private PostingList phrase(String[] words){
+		Cursor[] cursors = new Cursor[words.length];
+		for(int idx=0;idx<words.length;idx++){
+			PostingList list = term(words[idx]);
+			if(list == null){
+				return null;
+			}
+			cursors[idx] = new Cursor(list);
+		}
+		final Matches matches = new Matches();
+		Intersect(cursors, new Match() {
+			public void collect(int doc, Cursor[] cursors) {
+				PostingList first = cursors[0].list;
+				int         index = cursors[0].index;
+				for(int at=first.positionStart[index];at<first.positionStart[index + 1];at++){
+					int     position = first.positions[at];
+					boolean found    = true;
+					for(int word=1;found&&(word<cursors.length);word++){
+						found = cursors[word].hasPosition(position + word);
+					}
+					if(found){
+						float score = 0;
+						for(Cursor cursor : cursors){
+							score += cursor.score();
+						}
+						matches.add(doc, score);
+						return;
+					}
+				}
+			}
+		});
+		return (matches.docs.size == 0) ? null : matches.toPostingList();
+	}
+
+	/**
+	 * <p>Calls the match for every document all cursors have, in order.  The rarest list leads;
+	 *    the others advance to its documents, and it to theirs when they jump past it.</p>
+	 */
+	private static void Intersect(Cursor[] cursors, Match match){
+		Cursor[] bySize = cursors.clone();
+		Arrays.sort(bySize, BY_SIZE);
+		Cursor lead = bySize[0];
+		if(!lead.next()){
+			return;
+		}
+		int doc = lead.doc();
+		while(true){
+			boolean all = true;
+			for(int idx=1;idx<bySize.length;idx++){
+				if(!bySize[idx].advance(doc)){
+					return;
+				}
+				if(bySize[idx].doc() > doc){
+					doc = bySize[idx].doc();
+					all = false;
+					break;
+				}
+			}
+			if(all){
+				match.collect(doc, cursors);
+				if(!lead.next()){
+					return;
+				}
+			}
+			else if(!lead.advance(doc)){
+				return;
+			}
+			doc = lead.doc();
+		}
+	}
+
+	private Hit hit(int doc, float score){
+		return new Hit(ids[doc], names[doc], thumbnailUrls[doc], score);
+	}
+
+	private static String[] Words(String text){
+		String normalized = AutocompleteIndex.Normalize(text);
+		return (normalized.length() == 0) ? new String[0] : normalized.split(" ");
+	}
+
+	/**
+	 * @return Number of videos in the index
+	 */
+	public Integer size(){
+		return ids.length;
+	}
+
+	/**
+	 * @return Number of distinct terms in the index
+	 */
+	public Integer getTermCount(){
+		return terms.length;
+	}
+
+	/**
+	 * @return Time the index was built, in milliseconds since January 1st, 1970 00:00:00 GMT
+	 */
+	public Long getCreatedAt(){
+		return createdAt;
+	}
+
+	/**
+	 * @return Index in use for a read token, or null if none has been built
+	 */
+	public static SearchIndex getShared(String readToken){
+		return shared.get(String.valueOf(readToken));
+	}
+
+	/**
+	 * <p>Puts an index in use for a read token, replacing the one before.</p>
+	 *
+	 * @param index New index, or null to stop using one
+	 */
+	public static void setShared(String readToken, SearchIndex index){
+		if(index == null){
+			shared.remove(String.valueOf(readToken));
+		}
+		else{
+			shared.put(String.valueOf(readToken), index);
+		}
+	}
+
+	@Override
+	public String toString(){
+		return "[SearchIndex " + ids.length + " videos, " + terms.length + " terms]";
+	}
+}
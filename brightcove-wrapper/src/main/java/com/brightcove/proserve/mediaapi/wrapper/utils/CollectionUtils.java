@@ -34,59 +34,7 @@ public class CollectionUtils {
 	 * @return Delimited String of the objects in the List
 	 */
 	public static String JoinToString(List<?> list, String delimiter, Boolean escapeDelimiter, String escapeSequence){
-		String ret = "";
-		
-		if(list == null){
-			return ret;
-		}
-		if(delimiter == null){
-			delimiter = "";
-		}
-		
-		for(int listIdx=0;listIdx<list.size();listIdx++){
-			Object o = list.get(listIdx);
-			
-			if(listIdx != 0){
-				ret += delimiter;
-			}
-			
-			String orig = o.toString();
-			if(escapeDelimiter){
-				StringBuffer sb = new StringBuffer();
-				
-				int windowStart  = 0;
-				int windowLength = delimiter.length();
-				int windowEnd    = windowStart + windowLength;
-				
-				while(windowEnd <= orig.length()){
-					String window = orig.substring(windowStart, windowEnd);
-					if(delimiter.equals(window)){
-						sb.append(escapeSequence);
-						sb.append(window);
-						
-						windowStart = windowEnd;
-						windowEnd   = windowStart + windowLength;
-					}
-					else{
-						String charAt = orig.substring(windowStart, windowStart+1);
-						sb.append(charAt);
-						
-						windowStart = windowStart + 1;
-						windowEnd   = windowStart + windowLength;
-					}
-				}
-				if(windowStart < orig.length()){
-					sb.append(orig.substring(windowStart, orig.length()));
-				}
-				
-				ret += sb.toString();
-			}
-			else{
-				ret += o.toString();
-			}
-		}
-		
-		return ret;
+		return Join(list, delimiter, escapeDelimiter, escapeSequence);
 	}
 	
 	/**
@@ -112,61 +60,47 @@ public class CollectionUtils {
 	 * @return Delimited String of the objects in the Set
 	 */
 	public static String JoinToString(Set<?> set, String delimiter, Boolean escapeDelimiter, String escapeSequence){
-		String ret = "";
-		
-		if(set == null){
-			return ret;
+		return Join(set, delimiter, escapeDelimiter, escapeSequence);
+	}
+	
+	private static String Join(Iterable<?> items, String delimiter, Boolean escapeDelimiter, String escapeSequence){
+		if(items == null){
+			return "";
 		}
 		if(delimiter == null){
 			delimiter = "";
 		}
 		
-		Boolean start = true;
-		for(Object o : set){
+		StringBuilder sb    = new StringBuilder();
+		Boolean       start = true;
+		for(Object o : items){
 			if(start){
 				start = false;
 			}
 			else{
-				ret += delimiter;
+				sb.append(delimiter);
 			}
 			
 			String orig = o.toString();
-			if(escapeDelimiter){
-				StringBuffer sb = new StringBuffer();
-				
-				int windowStart  = 0;
-				int windowLength = delimiter.length();
-				int windowEnd    = windowStart + windowLength;
-				
-				while(windowEnd <= orig.length()){
-					String window = orig.substring(windowStart, windowEnd);
-					if(delimiter.equals(window)){
-						sb.append(escapeSequence);
-						sb.append(window);
-						
-						windowStart = windowEnd;
-						windowEnd   = windowStart + windowLength;
-					}
-					else{
-						String charAt = orig.substring(windowStart, windowStart+1);
-						sb.append(charAt);
-						
-						windowStart = windowStart + 1;
-						windowEnd   = windowStart + windowLength;
-					}
-				}
-				if(windowStart < orig.length()){
-					sb.append(orig.substring(windowStart, orig.length()));
+			if(escapeDelimiter && (delimiter.length() > 0)){
+				// Prefix every (non-overlapping) occurrence of the delimiter with the escape sequence
+				int windowStart = 0;
+				int found       = orig.indexOf(delimiter);
+				while(found >= 0){
+					sb.append(orig, windowStart, found);
+					sb.append(escapeSequence);
+					sb.append(delimiter);
+					windowStart = found + delimiter.length();
+					found       = orig.indexOf(delimiter, windowStart);
 				}
-				
-				ret += sb.toString();
+				sb.append(orig, windowStart, orig.length());
 			}
 			else{
-				ret += o.toString();
+				sb.append(orig);
 			}
 		}
 		
-		return ret;
+		return sb.toString();
 	}
 	
 	public static Set<Long> CreateEmptyLongSet(){
@@ -0,0 +1,44 @@
+package com.brightcove.proserve.mediaapi.wrapper.utils;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Static methods to turn strings that shouldn't be stored as they are (tokens, mostly)
+ *    into names that can be.</p>
+ */
+public class DigestUtils {
+	/**
+	 * @param value String to digest, as UTF-8
+	 * @return SHA-1 digest of the string, as 40 lower-case hex digits
+	 */
+	public static String Sha1Hex(String value){
+		try{
+			return Sha1Hex(value.getBytes("UTF-8"));
+		}
+		catch(UnsupportedEncodingException uee){
+			// Every JVM has UTF-8
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	/**
+	 * @param value Bytes to digest
+	 * @return SHA-1 digest of the bytes, as 40 lower-case hex digits
+	 */
+	public static String Sha1Hex(byte[] value){
+		try{
+			byte[]        hash = MessageDigest.getInstance("SHA-1").digest(value);
+			StringBuilder sb   = new StringBuilder();
+			for(byte b : hash){
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.toString();
+		}
+		catch(NoSuchAlgorithmException nsae){
+			// ... and SHA-1
+			throw new IllegalStateException(nsae);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.brightcove.proserve.mediaapi.wrapper.utils;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.brightcove.proserve.mediaapi.wrapper.AsyncReadApi;
+import com.brightcove.proserve.mediaapi.wrapper.exceptions.BrightcoveException;
+
+/**
+ * <p>Coalesces concurrent identical calls.</p>
+ *
+ * <p>The first caller for a key runs the call; callers arriving with the same key
+ *    while it is still running wait for it and receive the same result (or the same
+ *    exception) instead of running it again.  Nothing is kept once the call has
+ *    finished - this is not a cache.</p>
+ *
+ * <p>Results are shared between callers, so they should be treated as read-only.</p>
+ *
+ * @param <K> Key type
+ * @param <V> Result type
+ */
+public class SingleFlight<K, V> {
+	private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+	private final AtomicLong executedCalls = new AtomicLong();
+	private final AtomicLong savedCalls    = new AtomicLong();
+
+	/**
+	 * <p>Runs the call, or joins an identical call already in flight.</p>
+	 *
+	 * @param key Identifies identical calls
+	 * @param call Call to run if none is in flight for the key
+	 * @return Result of the call
+	 * @throws BrightcoveException Exception thrown by the call
+	 */
+	public V execute(K key, Callable<V> call) throws BrightcoveException {
+		FutureTask<V> task     = new FutureTask<V>(call);
+		FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+		if(existing != null){
+			savedCalls.incrementAndGet();
+			return AsyncReadApi.await(existing);
+		}
+
+		try{
+			executedCalls.incrementAndGet();
+			task.run();
+		}
+		finally{
+			inFlight.remove(key, task);
+		}
+		return AsyncReadApi.await(task);
+	}
+
+	/**
+	 * @return Number of calls actually run
+	 */
+	public Long getExecutedCalls(){
+		return executedCalls.get();
+	}
+
+	/**
+	 * @return Number of calls that joined one already in flight instead of running
+	 */
+	public Long getSavedCalls(){
+		return savedCalls.get();
+	}
+
+	/**
+	 * @return Number of calls in flight right now
+	 */
+	public Integer getInFlightCalls(){
+		return inFlight.size();
+	}
+}